@@ -0,0 +1,176 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardLayoutResolver;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyAdaptive;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layout resolver backed by the shard layout table. The first writer of a window counts the rows the
+ * index values wrote in the previous window and records its choice with a lightweight transaction, so
+ * concurrent writers on other nodes all end up with the same layout. Recorded layouts never change and
+ * are cached in process.
+ *
+ * Layouts are looked up in the background so that writes never wait on the count or the transaction.
+ * Until the layout of a window is cached its rows are written to the coarse shard.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class AdaptiveShardLayoutResolver implements ShardLayoutResolver {
+
+	private static Logger logger = LoggerFactory.getLogger(AdaptiveShardLayoutResolver.class);
+	private static final int maxCachedLayouts = 100000;
+	private static ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+	private final ObjectMapper objectMapper;
+	private final Cache<List<Object>, Boolean> layouts = CacheBuilder.newBuilder()
+			.maximumSize(maxCachedLayouts)
+			.expireAfterAccess(1, TimeUnit.DAYS)
+			.build();
+	private final Set<List<Object>> resolving = Sets.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+
+	public AdaptiveShardLayoutResolver(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Point every adaptive sharding strategy of the keyspace at this resolver
+	 * @param keyspaceDefinition Keyspace definition about to be used by the object mapper
+	 */
+	public void attach(CKeyspaceDefinition keyspaceDefinition) {
+		if(keyspaceDefinition.getDefinitions() == null) {
+			return;
+		}
+		for(CDefinition def : keyspaceDefinition.getDefinitions().values()) {
+			for(CIndex index : def.getIndexesAsList()) {
+				if(index.getShardingStrategy() instanceof ShardingStrategyAdaptive) {
+					((ShardingStrategyAdaptive)index.getShardingStrategy()).setLayoutResolver(this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget every cached layout, used when the shard layout table is truncated
+	 */
+	public void clear() {
+		layouts.invalidateAll();
+	}
+
+	@Override
+	public boolean useFineShards(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, ShardingStrategyAdaptive strategy, long coarseKey) {
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		ShardIndexKey key;
+		try {
+			key = ShardIndexKey.fromValues(indexValues.values());
+		} catch(CQLGenerationException e) {
+			throw new IllegalArgumentException("Unable to key shard layout for index " + tableName, e);
+		}
+		List<Object> cacheKey = Arrays.<Object>asList(tableName, coarseKey, key);
+		Boolean fine = layouts.getIfPresent(cacheKey);
+		if(fine == null) {
+			resolveInBackground(def, index, indexValues, strategy, tableName, key, coarseKey, cacheKey);
+			return false;
+		}
+		return fine;
+	}
+
+	private void resolveInBackground(final CDefinition def, final CIndex index, final SortedMap<String, Object> indexValues, final ShardingStrategyAdaptive strategy,
+									 final String tableName, final ShardIndexKey key, final long coarseKey, final List<Object> cacheKey) {
+		if(!resolving.add(cacheKey)) {
+			return;
+		}
+		try {
+			executorService.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						layouts.put(cacheKey, resolveLayout(def, index, indexValues, strategy, tableName, key, coarseKey));
+					} catch(Exception e) {
+						logger.warn("Unable to resolve the shard layout of window " + coarseKey + " of " + tableName, e);
+					} finally {
+						resolving.remove(cacheKey);
+					}
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			resolving.remove(cacheKey);
+		}
+	}
+
+	private boolean resolveLayout(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, ShardingStrategyAdaptive strategy,
+								  String tableName, ShardIndexKey key, long coarseKey) {
+		String keyspace = objectMapper.getKeyspaceDefinition().getName();
+		CQLExecutor cqlExecutor = objectMapper.getCqlExecutor();
+		Boolean recorded = readLayout(cqlExecutor.executeSync(CObjectCQLGenerator.makeCQLforGetShardLayout(keyspace, tableName, key, coarseKey)), key);
+		if(recorded != null) {
+			return recorded;
+		}
+
+		boolean fine = countPreviousWindow(def, index, indexValues, strategy, coarseKey - 1) >= strategy.getTargetShardSize();
+		ResultSet resultSet = cqlExecutor.executeSync(CObjectCQLGenerator.makeCQLforInsertShardLayout(keyspace, tableName, key, coarseKey, fine));
+		Row row = resultSet.one();
+		if(row != null && !row.getBool("[applied]")) {
+			// Another writer recorded the layout first, the failed insert returns its row
+			fine = row.getBool("fine");
+		}
+		logger.debug("Using {} shards for window {} of {}", fine ? "fine" : "coarse", coarseKey, tableName);
+		return fine;
+	}
+
+	private Boolean readLayout(ResultSet resultSet, ShardIndexKey key) {
+		for(Row row : resultSet) {
+			// Rows with a different key only share the partition because of a hash collision
+			if(key.matches(row.getBytes("indexkey"))) {
+				return row.getBool("fine");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Count the rows written in a window, stopping once the target shard size is reached
+	 */
+	private long countPreviousWindow(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, ShardingStrategyAdaptive strategy, long coarseKey) {
+		String keyspace = objectMapper.getKeyspaceDefinition().getName();
+		List<Long> shardIds;
+		try {
+			shardIds = objectMapper.getShardIdListInShardRange(def, index, indexValues, CObjectOrdering.ASCENDING,
+					strategy.getCoarseShardKey(coarseKey), strategy.getCoarseShardKeyUpperBound(coarseKey));
+		} catch(CQLGenerationException e) {
+			throw new IllegalArgumentException("Unable to list shards of window " + coarseKey, e);
+		}
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		for(Long shardId : shardIds) {
+			for(long subShardKey : strategy.getSubShardKeys(shardId)) {
+				CQLStatement countStatement = CObjectCQLGenerator.makeCQLforShardRowCount(keyspace, def, index, indexValues, subShardKey, strategy.getTargetShardSize());
+				futures.add(objectMapper.getCqlExecutor().executeAsync(countStatement));
+			}
+		}
+		long count = 0;
+		for(ResultSetFuture future : futures) {
+			count += future.getUninterruptibly().one().getLong(0);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,158 @@
+package com.pardot.rhombus;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds a CQLSSTableWriter from its own thread through a bounded queue, so the writers of every table of a keyspace
+ * serialize and sort rows in parallel. Any number of threads can add rows. Producers block while the queue is full.
+ *
+ * Rows reach the writer in the order they were added, but rows added concurrently by several producers are
+ * interleaved, so sorted writers must only be fed by one producer. A writer given an ExternalRowSorter instead
+ * collects every row and writes them in partitioner order once it is finished, so it can be a sorted writer
+ * whatever order the rows arrive in.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class AsyncSSTableWriter {
+
+	private static Logger logger = LoggerFactory.getLogger(AsyncSSTableWriter.class);
+
+	public static final int DEFAULT_BUFFER_SIZE = 10000;
+
+	// Marks the end of the rows, compared by identity
+	private static final Map<String, Object> END = Collections.emptyMap();
+
+	private final String tableName;
+	private final CQLSSTableWriter writer;
+	private final ExternalRowSorter sorter;
+	private final BlockingQueue<Map<String, Object>> queue;
+	private final Thread thread;
+	private final AtomicLong rowsWritten = new AtomicLong();
+	private volatile Throwable failure;
+	private volatile boolean finished = false;
+
+	/**
+	 * @param tableName Name of the table written, used to name the writer thread
+	 * @param writer Writer to feed, closed by this writer
+	 * @param bufferSize Maximum number of rows waiting to be written
+	 */
+	public AsyncSSTableWriter(String tableName, CQLSSTableWriter writer, int bufferSize) {
+		this(tableName, writer, null, bufferSize);
+	}
+
+	/**
+	 * @param tableName Name of the table written, used to name the writer thread
+	 * @param writer Writer to feed, closed by this writer
+	 * @param sorter Sorter the rows go through before reaching the writer, or null to write them as they come
+	 * @param bufferSize Maximum number of rows waiting to be written
+	 */
+	public AsyncSSTableWriter(String tableName, CQLSSTableWriter writer, @Nullable ExternalRowSorter sorter, int bufferSize) {
+		this.tableName = tableName;
+		this.writer = writer;
+		this.sorter = sorter;
+		this.queue = new ArrayBlockingQueue<Map<String, Object>>(bufferSize);
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "sstable-writer-" + tableName);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * @param row Values of the row. The map is owned by the writer once added and must not be changed.
+	 * @throws IOException if the writer thread failed to write an earlier row
+	 */
+	public void addRow(Map<String, Object> row) throws IOException {
+		if(finished) {
+			throw new IllegalStateException("Rows added to the SSTable writer of " + tableName + " after it was closed");
+		}
+		checkFailure();
+		Uninterruptibles.putUninterruptibly(queue, row);
+	}
+
+	/**
+	 * Stop accepting rows, letting the writer thread drain the queue and close the writer. Finishing every writer
+	 * before closing any of them lets them flush in parallel.
+	 */
+	public synchronized void finish() {
+		if(!finished) {
+			finished = true;
+			Uninterruptibles.putUninterruptibly(queue, END);
+		}
+	}
+
+	/**
+	 * Write every queued row and close the writer
+	 * @throws IOException if a row could not be written
+	 */
+	public void close() throws IOException {
+		finish();
+		Uninterruptibles.joinUninterruptibly(thread);
+		checkFailure();
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten.get();
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	private void write() {
+		try {
+			Map<String, Object> row;
+			while((row = Uninterruptibles.takeUninterruptibly(queue)) != END) {
+				if(sorter == null) {
+					writer.addRow(row);
+				} else {
+					sorter.add(row);
+				}
+				rowsWritten.incrementAndGet();
+			}
+			if(sorter != null) {
+				sorter.writeSorted(writer);
+			}
+		} catch(Throwable t) {
+			logger.error("Failed writing SSTable rows for " + tableName, t);
+			failure = t;
+			// Keep draining so producers blocked on a full queue see the failure
+			Map<String, Object> discarded;
+			do {
+				discarded = Uninterruptibles.takeUninterruptibly(queue);
+			} while(discarded != END);
+		} finally {
+			if(sorter != null) {
+				sorter.close();
+			}
+			try {
+				writer.close();
+			} catch(Throwable t) {
+				if(failure == null) {
+					failure = t;
+				}
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure;
+		if(t != null) {
+			throw (t instanceof IOException) ? (IOException)t : new IOException("Failed writing SSTable rows for " + tableName, t);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.pardot.rhombus;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.util.JsonUtil;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports objects from files holding one JSON object per line. Lines are read from the file through a large NIO
+ * buffer and parsed with the Jackson streaming parser, coercing the value of each field of the definition as it is
+ * read, so a file never has to fit in memory.
+ *
+ * Objects are written in batches, either through insertBatchMixed with a bounded number of batches in flight, or to
+ * the SSTable writers of the object mapper, which must have been initialized by the caller. Progress is logged with
+ * the rows imported per second and the byte offset the import can be resumed from: every line before that offset
+ * has been written.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class BulkImporter {
+
+	private static Logger logger = LoggerFactory.getLogger(BulkImporter.class);
+
+	public enum Output {
+		INSERT,
+		SSTABLE
+	}
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private final ObjectMapper objectMapper;
+	private Output output = Output.INSERT;
+	private int batchSize = 200;
+	private int concurrency = 8;
+	private int readBufferSize = 4 * 1024 * 1024;
+	private long reportIntervalMillis = 10000;
+	private final AtomicLong rowsImported = new AtomicLong();
+	private final Counter rowsImportedCounter = Metrics.defaultRegistry().newCounter(BulkImporter.class, "rowsImported");
+
+	// Batches being inserted, start offset to end offset
+	private final ConcurrentSkipListMap<Long, Long> inFlight = new ConcurrentSkipListMap<Long, Long>();
+	private volatile Throwable failure;
+	private long dispatchedOffset;
+
+	public BulkImporter(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Import every line of a file from the start
+	 * @param objectType Type of the objects in the file
+	 * @param file File to import
+	 * @return Offset the file was read up to
+	 */
+	public long importFile(String objectType, File file) throws Exception {
+		return importFile(objectType, file, 0L);
+	}
+
+	/**
+	 * @param objectType Type of the objects in the file
+	 * @param file File to import
+	 * @param offset Byte offset to resume from, as reported by an earlier import. An offset in the middle of a line
+	 *               resumes from the next line.
+	 * @return Offset the file was read up to
+	 */
+	public long importFile(String objectType, File file, long offset) throws Exception {
+		CDefinition def = objectMapper.getDefinition(objectType);
+		if(def == null) {
+			throw new IllegalArgumentException("No definition for object type " + objectType);
+		}
+		return importFile(def, file, offset);
+	}
+
+	protected long importFile(CDefinition def, File file, long offset) throws Exception {
+		ExecutorService executor = (output == Output.INSERT) ? Executors.newFixedThreadPool(concurrency) : null;
+		Semaphore permits = new Semaphore(concurrency);
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		long start = System.currentTimeMillis();
+		long lastReport = start;
+		long rowsAtStart = rowsImported.get();
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+			// Offset in the file of the first byte of the buffer
+			long bufferOffset = offset;
+			boolean skipLine = false;
+			if(offset > 0) {
+				ByteBuffer previous = ByteBuffer.allocate(1);
+				channel.read(previous, offset - 1);
+				skipLine = previous.get(0) != '\n';
+			}
+			channel.position(offset);
+			dispatchedOffset = offset;
+			List<Map<String, Object>> batch = Lists.newArrayList();
+			long batchStart = offset;
+			boolean eof = false;
+			while(!eof) {
+				eof = channel.read(buffer) < 0;
+				byte[] data = buffer.array();
+				int lineStart = 0;
+				for(int i = 0; i < buffer.position(); i++) {
+					if(data[i] != '\n') {
+						continue;
+					}
+					if(skipLine) {
+						skipLine = false;
+					} else {
+						addLine(def, data, lineStart, i - lineStart, bufferOffset + lineStart, batch);
+					}
+					lineStart = i + 1;
+					if(batch.size() >= batchSize) {
+						dispatch(def, batch, batchStart, bufferOffset + lineStart, executor, permits);
+						batch = Lists.newArrayList();
+						batchStart = bufferOffset + lineStart;
+					}
+				}
+				if(eof && lineStart < buffer.position() && !skipLine) {
+					// Last line without a line break
+					addLine(def, data, lineStart, buffer.position() - lineStart, bufferOffset + lineStart, batch);
+					lineStart = buffer.position();
+				}
+				if(lineStart == 0 && !buffer.hasRemaining()) {
+					// The line is longer than the buffer
+					ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					buffer.flip();
+					larger.put(buffer);
+					buffer = larger;
+				} else {
+					buffer.limit(buffer.position());
+					buffer.position(lineStart);
+					buffer.compact();
+					bufferOffset += lineStart;
+				}
+				if(System.currentTimeMillis() - lastReport >= reportIntervalMillis) {
+					lastReport = System.currentTimeMillis();
+					logger.info("Imported {} rows of {} at {} rows/sec, resume from offset {}", rowsImported.get(), def.getName(),
+							getRowsPerSecond(rowsImported.get() - rowsAtStart, lastReport - start), getResumeOffset());
+				}
+			}
+			if(!batch.isEmpty()) {
+				dispatch(def, batch, batchStart, bufferOffset, executor, permits);
+			}
+			if(executor != null) {
+				// Wait for every batch in flight
+				permits.acquireUninterruptibly(concurrency);
+				permits.release(concurrency);
+			}
+			checkFailure();
+			long elapsed = System.currentTimeMillis() - start;
+			logger.info("Imported {} rows of {} from {} at {} rows/sec, read up to offset {}", rowsImported.get() - rowsAtStart, def.getName(),
+					file, getRowsPerSecond(rowsImported.get() - rowsAtStart, elapsed), bufferOffset);
+			return bufferOffset;
+		} finally {
+			in.close();
+			if(executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return Byte offset of the first line that may not have been written yet
+	 */
+	public long getResumeOffset() {
+		Map.Entry<Long, Long> first = inFlight.firstEntry();
+		return (first == null) ? dispatchedOffset : first.getKey();
+	}
+
+	public long getRowsImported() {
+		return rowsImported.get();
+	}
+
+	public Output getOutput() {
+		return output;
+	}
+
+	public void setOutput(Output output) {
+		this.output = output;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @param concurrency Number of batches inserted at the same time
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public void setReadBufferSize(int readBufferSize) {
+		this.readBufferSize = readBufferSize;
+	}
+
+	public void setReportIntervalMillis(long reportIntervalMillis) {
+		this.reportIntervalMillis = reportIntervalMillis;
+	}
+
+	/**
+	 * Write a batch of objects to the output
+	 * @param def Definition of the objects
+	 * @param batch Objects to write
+	 */
+	protected void writeBatch(CDefinition def, List<Map<String, Object>> batch) throws Exception {
+		Map<String, List<Map<String, Object>>> objects = Maps.newHashMap();
+		objects.put(def.getName(), batch);
+		if(output == Output.SSTABLE) {
+			objectMapper.insertIntoSSTable(objects);
+		} else {
+			objectMapper.insertBatchMixed(objects);
+		}
+	}
+
+	private void addLine(CDefinition def, byte[] data, int start, int length, long offset, List<Map<String, Object>> batch) throws IOException {
+		JsonParser parser = jsonFactory.createParser(data, start, length);
+		try {
+			Map<String, Object> object = JsonUtil.rhombusMapFromJsonParser(parser, def);
+			if(object != null) {
+				if(parser.nextToken() != null) {
+					throw new IllegalArgumentException("Unexpected content after the JSON object");
+				}
+				batch.add(object);
+			}
+		} catch(RuntimeException e) {
+			throw new IllegalArgumentException("Unable to import the line at offset " + offset + ": " + e.getMessage(), e);
+		} catch(IOException e) {
+			throw new IOException("Unable to import the line at offset " + offset + ": " + e.getMessage(), e);
+		} finally {
+			parser.close();
+		}
+	}
+
+	private void dispatch(final CDefinition def, final List<Map<String, Object>> batch, final long start, long end,
+						  ExecutorService executor, final Semaphore permits) throws Exception {
+		checkFailure();
+		if(executor == null) {
+			writeBatch(def, batch);
+			imported(batch.size());
+			dispatchedOffset = end;
+			return;
+		}
+		permits.acquireUninterruptibly();
+		inFlight.put(start, end);
+		dispatchedOffset = end;
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					writeBatch(def, batch);
+					imported(batch.size());
+					inFlight.remove(start);
+				} catch(Throwable t) {
+					logger.error("Failed importing the batch of " + def.getName() + " at offset " + start, t);
+					failure = t;
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	private void imported(int rows) {
+		rowsImported.addAndGet(rows);
+		rowsImportedCounter.inc(rows);
+	}
+
+	private void checkFailure() throws Exception {
+		Throwable t = failure;
+		if(t != null) {
+			throw (t instanceof Exception) ? (Exception)t : new RuntimeException(t);
+		}
+	}
+
+	private static long getRowsPerSecond(long rows, long elapsedMillis) {
+		return (elapsedMillis <= 0) ? rows : rows * 1000L / elapsedMillis;
+	}
+}
@@ -1,6 +1,7 @@
 package com.pardot.rhombus;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.pardot.rhombus.cobject.ShardIndexKeyMode;
 
 import javax.validation.constraints.NotNull;
 import java.util.List;
@@ -35,6 +36,21 @@ public class CassandraConfiguration {
 	@JsonProperty
 	private Integer maxSimultaneousRequestsPerConnectionTreshold;
 
+	@JsonProperty
+	private Integer maxInFlightStatements;
+
+	@JsonProperty
+	private Integer maxInFlightStatementsPerHost;
+
+	@JsonProperty
+	private Integer maxQueuedStatements;
+
+	@JsonProperty
+	private Double maxHedgedReadPercent;
+
+	@JsonProperty
+	private Long minHedgedReadDelayMillis;
+
 	@JsonProperty
 	private Integer individualNodeConnectionTimeout;
 
@@ -44,6 +60,12 @@ public class CassandraConfiguration {
 	@JsonProperty
 	private String rhombusKeyspaceName;
 
+	@JsonProperty
+	private ShardIndexKeyMode shardIndexKeyMode;
+
+	@JsonProperty
+	private Boolean writeIndexValuesJson;
+
 	public List<String> getContactPoints() {
 		return contactPoints;
 	}
@@ -100,6 +122,46 @@ public class CassandraConfiguration {
 		this.maxSimultaneousRequestsPerConnectionTreshold = maxSimultaneousRequestsPerConnectionTreshold;
 	}
 
+	public Integer getMaxInFlightStatements() {
+		return maxInFlightStatements;
+	}
+
+	public void setMaxInFlightStatements(Integer maxInFlightStatements) {
+		this.maxInFlightStatements = maxInFlightStatements;
+	}
+
+	public Integer getMaxInFlightStatementsPerHost() {
+		return maxInFlightStatementsPerHost;
+	}
+
+	public void setMaxInFlightStatementsPerHost(Integer maxInFlightStatementsPerHost) {
+		this.maxInFlightStatementsPerHost = maxInFlightStatementsPerHost;
+	}
+
+	public Integer getMaxQueuedStatements() {
+		return maxQueuedStatements;
+	}
+
+	public void setMaxQueuedStatements(Integer maxQueuedStatements) {
+		this.maxQueuedStatements = maxQueuedStatements;
+	}
+
+	public Double getMaxHedgedReadPercent() {
+		return maxHedgedReadPercent;
+	}
+
+	public void setMaxHedgedReadPercent(Double maxHedgedReadPercent) {
+		this.maxHedgedReadPercent = maxHedgedReadPercent;
+	}
+
+	public Long getMinHedgedReadDelayMillis() {
+		return minHedgedReadDelayMillis;
+	}
+
+	public void setMinHedgedReadDelayMillis(Long minHedgedReadDelayMillis) {
+		this.minHedgedReadDelayMillis = minHedgedReadDelayMillis;
+	}
+
 	public Integer getIndividualNodeConnectionTimeout() {
 		return individualNodeConnectionTimeout;
 	}
@@ -123,4 +185,20 @@ public class CassandraConfiguration {
 	public void setRhombusKeyspaceName(String rhombusKeyspaceName) {
 		this.rhombusKeyspaceName = rhombusKeyspaceName;
 	}
+
+	public ShardIndexKeyMode getShardIndexKeyMode() {
+		return shardIndexKeyMode;
+	}
+
+	public void setShardIndexKeyMode(ShardIndexKeyMode shardIndexKeyMode) {
+		this.shardIndexKeyMode = shardIndexKeyMode;
+	}
+
+	public Boolean getWriteIndexValuesJson() {
+		return writeIndexValuesJson;
+	}
+
+	public void setWriteIndexValuesJson(Boolean writeIndexValuesJson) {
+		this.writeIndexValuesJson = writeIndexValuesJson;
+	}
 }
@@ -0,0 +1,214 @@
+package com.pardot.rhombus;
+
+import com.google.common.cache.*;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the results of list and count statements against closed shards, shards whose time window ended
+ * before the consistency horizon. Closed shards only change through updates, deletes and writes with old ids,
+ * so the ObjectMapper invalidates every cached result of a shard it routes one of those writes to. Writes made
+ * by other processes are only seen once the entry expires.
+ *
+ * The cache is bounded by the estimated size of the cached results and evicts the least recently used first.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ClosedShardResultCache {
+
+	public static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024L * 1024L;
+	public static final long DEFAULT_EXPIRE_AFTER_WRITE_SECONDS = 3600L;
+
+	private final Cache<List<Object>, CachedResult> results;
+	private final ConcurrentMap<List<Object>, Set<List<Object>>> keysByShard = Maps.newConcurrentMap();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public ClosedShardResultCache() {
+		this(DEFAULT_MAXIMUM_BYTES, DEFAULT_EXPIRE_AFTER_WRITE_SECONDS);
+	}
+
+	/**
+	 * @param maximumBytes Maximum estimated size of the cached results
+	 * @param expireAfterWriteSeconds Seconds after which a result is read from Cassandra again
+	 */
+	public ClosedShardResultCache(long maximumBytes, long expireAfterWriteSeconds) {
+		this.results = CacheBuilder.newBuilder()
+				.maximumWeight(maximumBytes)
+				.weigher(new Weigher<List<Object>, CachedResult>() {
+					@Override
+					public int weigh(List<Object> key, CachedResult value) {
+						return value.bytes;
+					}
+				})
+				.removalListener(new RemovalListener<List<Object>, CachedResult>() {
+					@Override
+					public void onRemoval(RemovalNotification<List<Object>, CachedResult> notification) {
+						if(notification.getValue() == null || notification.getCause() == RemovalCause.REPLACED) {
+							return;
+						}
+						Set<List<Object>> keys = keysByShard.get(notification.getValue().shard);
+						if(keys != null) {
+							keys.remove(notification.getKey());
+						}
+					}
+				})
+				.expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @return Number of invalidations so far. Pass it to a put so results read while a shard was invalidated are not cached.
+	 */
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+
+	/**
+	 * @param key Key of the statement, see makeKey
+	 * @return Copy of the cached rows, or null
+	 */
+	@Nullable
+	public List<Map<String, Object>> getRows(List<Object> key) {
+		CachedResult cached = results.getIfPresent(key);
+		if(cached == null) {
+			return null;
+		}
+		return copyRows((List<Map<String, Object>>)cached.value);
+	}
+
+	/**
+	 * @param tableName Name of the index table the statement selected from
+	 * @param shardId Time shard id the statement selected
+	 * @param key Key of the statement, see makeKey
+	 * @param rows Rows returned by the statement
+	 * @param invalidationCount Invalidation count taken before the statement was executed
+	 */
+	public void putRows(String tableName, long shardId, List<Object> key, List<Map<String, Object>> rows, long invalidationCount) {
+		put(tableName, shardId, key, copyRows(rows), estimateBytes(rows), invalidationCount);
+	}
+
+	/**
+	 * @param key Key of the statement, see makeKey
+	 * @return Cached count and whether the statement returned any rows, or null
+	 */
+	@Nullable
+	public long[] getCount(List<Object> key) {
+		CachedResult cached = results.getIfPresent(key);
+		return (cached == null) ? null : ((long[])cached.value).clone();
+	}
+
+	public void putCount(String tableName, long shardId, List<Object> key, long count, boolean hasResults, long invalidationCount) {
+		put(tableName, shardId, key, new long[]{count, hasResults ? 1L : 0L}, 64, invalidationCount);
+	}
+
+	private void put(String tableName, long shardId, List<Object> key, Object value, int bytes, long invalidationCount) {
+		List<Object> shard = makeShardKey(tableName, shardId);
+		Set<List<Object>> keys = keysByShard.get(shard);
+		if(keys == null) {
+			Set<List<Object>> newKeys = Sets.newSetFromMap(Maps.<List<Object>, Boolean>newConcurrentMap());
+			keys = keysByShard.putIfAbsent(shard, newKeys);
+			if(keys == null) {
+				keys = newKeys;
+			}
+		}
+		keys.add(key);
+		results.put(key, new CachedResult(shard, value, bytes));
+		if(invalidations.get() != invalidationCount) {
+			// A shard was invalidated since the statement ran, the result may already be stale
+			results.invalidate(key);
+		}
+	}
+
+	/**
+	 * Drop every cached result of a shard
+	 * @param tableName Name of the index table written to
+	 * @param shardId Time shard id written to
+	 */
+	public void invalidateShard(String tableName, long shardId) {
+		invalidations.incrementAndGet();
+		Set<List<Object>> keys = keysByShard.remove(makeShardKey(tableName, shardId));
+		if(keys != null) {
+			results.invalidateAll(keys);
+		}
+	}
+
+	public void clear() {
+		invalidations.incrementAndGet();
+		results.invalidateAll();
+		keysByShard.clear();
+	}
+
+	public CacheStats getStats() {
+		return results.stats();
+	}
+
+	/**
+	 * @param kind Kind of result cached for the statement
+	 * @param query Query of the statement, including the predicate and the limit
+	 * @param values Values bound to the statement
+	 * @param clientFilters Filters applied to the rows of the statement, or null
+	 * @return Key of the statement
+	 */
+	public static List<Object> makeKey(String kind, String query, Object[] values, @Nullable Map<String, Object> clientFilters) {
+		return Arrays.<Object>asList(kind, query, Arrays.asList(values), clientFilters);
+	}
+
+	private static List<Object> makeShardKey(String tableName, long shardId) {
+		return Arrays.<Object>asList(tableName, shardId);
+	}
+
+	private static List<Map<String, Object>> copyRows(List<Map<String, Object>> rows) {
+		List<Map<String, Object>> ret = Lists.newArrayListWithCapacity(rows.size());
+		for(Map<String, Object> row : rows) {
+			ret.add(Maps.newHashMap(row));
+		}
+		return ret;
+	}
+
+	/**
+	 * Rough estimate of the heap used by mapped rows
+	 */
+	protected static int estimateBytes(List<Map<String, Object>> rows) {
+		long bytes = 64;
+		for(Map<String, Object> row : rows) {
+			bytes += 64;
+			for(Map.Entry<String, Object> entry : row.entrySet()) {
+				bytes += 48 + 2 * entry.getKey().length();
+				Object value = entry.getValue();
+				if(value instanceof String) {
+					bytes += 40 + 2 * ((String)value).length();
+				} else if(value instanceof ByteBuffer) {
+					bytes += 48 + ((ByteBuffer)value).remaining();
+				} else if(value != null) {
+					bytes += 24;
+				}
+			}
+		}
+		return (int)Math.min(bytes, Integer.MAX_VALUE);
+	}
+
+	private static class CachedResult {
+		private final List<Object> shard;
+		private final Object value;
+		private final int bytes;
+
+		private CachedResult(List<Object> shard, Object value, int bytes) {
+			this.shard = shard;
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -44,8 +44,15 @@ public class ConnectionManager {
 	private Integer maxConnectionPerHostLocal = null;
 	private Integer maxConnectionPerHostRemote = null;
 	private Integer maxSimultaneousRequestsPerConnectionTreshold = null;
+	private Integer maxInFlightStatements = null;
+	private Integer maxInFlightStatementsPerHost = null;
+	private Integer maxQueuedStatements = 1000;
+	private Double maxHedgedReadPercent = null;
+	private Long minHedgedReadDelayMillis = 10L;
 
 	private String rhombusKeyspaceName = "rhombus_data";
+	private ShardIndexKeyMode shardIndexKeyMode = ShardIndexKeyMode.DEFAULT;
+	private boolean writeIndexValuesJson = false;
 	private Session rhombusSession = null;
 	private ObjectMapper rhombusObjectMapper = null;
 
@@ -57,6 +64,18 @@ public class ConnectionManager {
 		this.maxConnectionPerHostRemote = configuration.getMaxConnectionPerHostRemote() == null ? 4 : configuration.getMaxConnectionPerHostRemote();
 		this.maxSimultaneousRequestsPerConnectionTreshold = configuration.getMaxSimultaneousRequestsPerConnectionTreshold() == null ? 128 : configuration.getMaxSimultaneousRequestsPerConnectionTreshold();
 
+		this.maxInFlightStatements = configuration.getMaxInFlightStatements();
+		// Without a limit per host, cap each host at what its connections accept
+		this.maxInFlightStatementsPerHost = configuration.getMaxInFlightStatementsPerHost() == null ? maxConnectionPerHostLocal * maxSimultaneousRequestsPerConnectionTreshold : configuration.getMaxInFlightStatementsPerHost();
+		if(configuration.getMaxQueuedStatements() != null) {
+			this.maxQueuedStatements = configuration.getMaxQueuedStatements();
+		}
+
+		this.maxHedgedReadPercent = configuration.getMaxHedgedReadPercent();
+		if(configuration.getMinHedgedReadDelayMillis() != null) {
+			this.minHedgedReadDelayMillis = configuration.getMinHedgedReadDelayMillis();
+		}
+
 		if(configuration.getIndividualNodeConnectionTimeout() != null) {
 			this.individualNodeConnectionTimeout = configuration.getIndividualNodeConnectionTimeout();
 		}
@@ -69,6 +88,12 @@ public class ConnectionManager {
 		if(configuration.getRhombusKeyspaceName() != null) {
 			this.rhombusKeyspaceName = configuration.getRhombusKeyspaceName();
 		}
+		if(configuration.getShardIndexKeyMode() != null) {
+			this.shardIndexKeyMode = configuration.getShardIndexKeyMode();
+		}
+		if(configuration.getWriteIndexValuesJson() != null) {
+			this.writeIndexValuesJson = configuration.getWriteIndexValuesJson();
+		}
 	}
 
 	/**
@@ -241,6 +266,14 @@ public class ConnectionManager {
 			}
 			objectMapper = new ObjectMapper(getSessionForKeyspace(keyspaceDefinition), keyspaceDefinition, consistencyHorizon, batchTimeout);
 			objectMapper.setLogCql(logCql);
+			objectMapper.setShardIndexKeyMode(shardIndexKeyMode);
+			objectMapper.setWriteIndexValuesJson(writeIndexValuesJson);
+			if(maxInFlightStatements != null) {
+				objectMapper.getCqlExecutor().setConcurrencyLimits(maxInFlightStatements, maxInFlightStatementsPerHost, maxQueuedStatements);
+			}
+			if(maxHedgedReadPercent != null) {
+				objectMapper.getCqlExecutor().setHedgedReads(minHedgedReadDelayMillis, maxHedgedReadPercent);
+			}
 			objectMappers.put(keyspaceName, objectMapper);
 		}
 		return objectMapper;
@@ -287,6 +320,25 @@ public class ConnectionManager {
 		return ret;
 	}
 
+	/**
+	 * Reload the definition of a keyspace from the Rhombus data store into its cached object mapper. Applications
+	 * should call this periodically so that they pick up the steps of an online reshard.
+	 * @param keyspaceName Name of the keyspace
+	 * @return true if the object mapper now uses a different definition
+	 */
+	public boolean refreshKeyspaceDefinition(String keyspaceName) {
+		ObjectMapper objectMapper = objectMappers.get(keyspaceName);
+		if(objectMapper == null) {
+			return false;
+		}
+		CKeyspaceDefinition latest = hydrateLatestKeyspaceDefinitionFromCassandra(keyspaceName);
+		if(latest == null || Objects.equal(latest, objectMapper.getKeyspaceDefinition())) {
+			return false;
+		}
+		objectMapper.setKeyspaceDefinition(latest);
+		return true;
+	}
+
 	/**
 	 * Inserts the json definition of a keyspace into the Rhombus data store
 	 * @param keyspaceDefinition Definition to add
@@ -339,6 +391,14 @@ public class ConnectionManager {
 		// Use this session to create an object mapper and build the keyspace
 		ObjectMapper mapper = new ObjectMapper(session, keyspaceDefinition, consistencyHorizon, batchTimeout);
 		mapper.setLogCql(logCql);
+		mapper.setShardIndexKeyMode(shardIndexKeyMode);
+		mapper.setWriteIndexValuesJson(writeIndexValuesJson);
+		if(maxInFlightStatements != null) {
+			mapper.getCqlExecutor().setConcurrencyLimits(maxInFlightStatements, maxInFlightStatementsPerHost, maxQueuedStatements);
+		}
+		if(maxHedgedReadPercent != null) {
+			mapper.getCqlExecutor().setHedgedReads(minHedgedReadDelayMillis, maxHedgedReadPercent);
+		}
 		mapper.buildKeyspace(forceRebuild);
 		mapper.prePrepareInsertStatements();
 
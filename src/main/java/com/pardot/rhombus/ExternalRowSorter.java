@@ -0,0 +1,323 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.DataType;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.primitives.UnsignedBytes;
+import com.pardot.rhombus.cobject.CField;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Sorts the rows of one table into partitioner order so they can be written by a sorted CQLSSTableWriter, which
+ * writes partitions straight to disk instead of buffering them. Rows are held in memory up to a byte budget,
+ * sorted and spilled to a temporary run file whenever the budget fills up. The runs are memory-mapped and merged
+ * when the rows are written out. Rows with the same partition key keep the order they were added in.
+ *
+ * Tokens are computed with the Murmur3Partitioner, the default partitioner of Cassandra.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ExternalRowSorter {
+
+	public static final long DEFAULT_BUFFER_BYTES = 32L * 1024L * 1024L;
+
+	private static final Murmur3Partitioner partitioner = new Murmur3Partitioner();
+	private static final Comparator<byte[]> unsignedBytes = UnsignedBytes.lexicographicalComparator();
+	private static final Map<String, DataType> primitiveTypes = Maps.newHashMap();
+	static {
+		for(DataType type : DataType.allPrimitiveTypes()) {
+			primitiveTypes.put(type.getName().name(), type);
+		}
+	}
+
+	private final String tableName;
+	private final List<String> columns;
+	private final List<DataType> types;
+	private final int[] partitionKeyColumns;
+	private final long bufferBytes;
+	private final File directory;
+	private final List<Entry> buffer = Lists.newArrayList();
+	private long bufferedBytes = 0;
+	private final List<File> runs = Lists.newArrayList();
+	private long rowsAdded = 0;
+
+	/**
+	 * @param tableName Name of the table sorted, used to name the run files
+	 * @param columns Columns of the table written to the SSTables and their types, in any order
+	 * @param partitionKey Columns of the partition key, in the order of the primary key
+	 * @param bufferBytes Approximate size of the rows held in memory before they are spilled to a run
+	 * @param directory Directory to write the run files to
+	 */
+	public ExternalRowSorter(String tableName, LinkedHashMap<String, DataType> columns, List<String> partitionKey, long bufferBytes, File directory) {
+		this.tableName = tableName;
+		this.columns = Lists.newArrayList(columns.keySet());
+		this.types = Lists.newArrayList(columns.values());
+		this.partitionKeyColumns = new int[partitionKey.size()];
+		for(int i = 0; i < partitionKey.size(); i++) {
+			int column = this.columns.indexOf(partitionKey.get(i));
+			if(column < 0) {
+				throw new IllegalArgumentException("Partition key column " + partitionKey.get(i) + " is not a column of " + tableName);
+			}
+			this.partitionKeyColumns[i] = column;
+		}
+		this.bufferBytes = bufferBytes;
+		this.directory = directory;
+	}
+
+	/**
+	 * @param type Type of a field
+	 * @return Driver type used to serialize values of the field
+	 */
+	public static DataType getDataType(CField.CDataType type) {
+		return primitiveTypes.get(type.name());
+	}
+
+	/**
+	 * @param row Values of the row, keyed by column. Values of other keys are not written.
+	 */
+	public void add(Map<String, Object> row) throws IOException {
+		ByteBuffer[] values = new ByteBuffer[columns.size()];
+		for(int i = 0; i < values.length; i++) {
+			Object value = row.get(columns.get(i));
+			values[i] = (value == null) ? null : types.get(i).serialize(value);
+		}
+		byte[] key = makePartitionKey(values);
+		Entry entry = new Entry(partitioner.getToken(ByteBuffer.wrap(key)).token, key, encodeRow(values));
+		buffer.add(entry);
+		bufferedBytes += 64 + entry.key.length + entry.row.length;
+		rowsAdded++;
+		if(bufferedBytes >= bufferBytes) {
+			spill();
+		}
+	}
+
+	/**
+	 * Write every row added so far to the writer in partitioner order
+	 * @param writer Sorted writer of the table
+	 */
+	public void writeSorted(CQLSSTableWriter writer) throws IOException, InvalidRequestException {
+		Iterator<Map<String, Object>> rows = sortedRows();
+		while(rows.hasNext()) {
+			writer.addRow(rows.next());
+		}
+	}
+
+	/**
+	 * @return Every row added so far in partitioner order. Rows can not be added once iteration has started.
+	 */
+	public Iterator<Map<String, Object>> sortedRows() throws IOException {
+		Collections.sort(buffer);
+		if(runs.isEmpty()) {
+			final Iterator<Entry> entries = buffer.iterator();
+			return new AbstractIterator<Map<String, Object>>() {
+				@Override
+				protected Map<String, Object> computeNext() {
+					return entries.hasNext() ? decodeRow(ByteBuffer.wrap(entries.next().row)) : endOfData();
+				}
+			};
+		}
+		if(!buffer.isEmpty()) {
+			spill();
+		}
+		final PriorityQueue<Run> merge = new PriorityQueue<Run>();
+		for(int i = 0; i < runs.size(); i++) {
+			Run run = new Run(runs.get(i), i);
+			if(run.next()) {
+				merge.add(run);
+			}
+		}
+		return new AbstractIterator<Map<String, Object>>() {
+			@Override
+			protected Map<String, Object> computeNext() {
+				Run run = merge.poll();
+				if(run == null) {
+					return endOfData();
+				}
+				Map<String, Object> ret = decodeRow(run.row);
+				if(run.next()) {
+					merge.add(run);
+				}
+				return ret;
+			}
+		};
+	}
+
+	/**
+	 * Delete the run files
+	 */
+	public void close() {
+		for(File run : runs) {
+			if(!run.delete()) {
+				run.deleteOnExit();
+			}
+		}
+		runs.clear();
+		buffer.clear();
+	}
+
+	public long getRowsAdded() {
+		return rowsAdded;
+	}
+
+	public int getRunCount() {
+		return runs.size();
+	}
+
+	private void spill() throws IOException {
+		Collections.sort(buffer);
+		File run = File.createTempFile(tableName + "-", ".run", directory);
+		runs.add(run);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+		try {
+			for(Entry entry : buffer) {
+				out.writeLong(entry.token);
+				out.writeInt(entry.key.length);
+				out.write(entry.key);
+				out.writeInt(entry.row.length);
+				out.write(entry.row);
+			}
+		} finally {
+			out.close();
+		}
+		buffer.clear();
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Serialize the partition key the way Cassandra does: the value itself for a single column, otherwise every
+	 * value prefixed by its length and followed by an end of component byte
+	 */
+	private byte[] makePartitionKey(ByteBuffer[] values) {
+		if(partitionKeyColumns.length == 1) {
+			return toBytes(requireKeyValue(values, partitionKeyColumns[0]));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(int column : partitionKeyColumns) {
+			byte[] value = toBytes(requireKeyValue(values, column));
+			out.write((value.length >> 8) & 0xFF);
+			out.write(value.length & 0xFF);
+			out.write(value, 0, value.length);
+			out.write(0);
+		}
+		return out.toByteArray();
+	}
+
+	private ByteBuffer requireKeyValue(ByteBuffer[] values, int column) {
+		if(values[column] == null) {
+			throw new IllegalArgumentException("Row of " + tableName + " has no value for partition key column " + columns.get(column));
+		}
+		return values[column];
+	}
+
+	private static byte[] toBytes(ByteBuffer value) {
+		byte[] ret = new byte[value.remaining()];
+		value.duplicate().get(ret);
+		return ret;
+	}
+
+	private static byte[] encodeRow(ByteBuffer[] values) {
+		int size = 0;
+		for(ByteBuffer value : values) {
+			size += 4 + ((value == null) ? 0 : value.remaining());
+		}
+		ByteBuffer ret = ByteBuffer.allocate(size);
+		for(ByteBuffer value : values) {
+			if(value == null) {
+				ret.putInt(-1);
+			} else {
+				ret.putInt(value.remaining());
+				ret.put(value.duplicate());
+			}
+		}
+		return ret.array();
+	}
+
+	private Map<String, Object> decodeRow(ByteBuffer row) {
+		Map<String, Object> ret = Maps.newHashMapWithExpectedSize(columns.size());
+		ByteBuffer in = row.duplicate();
+		for(int i = 0; i < columns.size(); i++) {
+			int length = in.getInt();
+			if(length >= 0) {
+				ByteBuffer value = in.slice();
+				value.limit(length);
+				in.position(in.position() + length);
+				ret.put(columns.get(i), types.get(i).deserialize(value));
+			}
+		}
+		return ret;
+	}
+
+	private static int compare(long token, byte[] key, long otherToken, byte[] otherKey) {
+		int ret = Longs.compare(token, otherToken);
+		return (ret != 0) ? ret : unsignedBytes.compare(key, otherKey);
+	}
+
+	private static class Entry implements Comparable<Entry> {
+		private final long token;
+		private final byte[] key;
+		private final byte[] row;
+
+		private Entry(long token, byte[] key, byte[] row) {
+			this.token = token;
+			this.key = key;
+			this.row = row;
+		}
+
+		public int compareTo(Entry other) {
+			return compare(token, key, other.token, other.key);
+		}
+	}
+
+	/**
+	 * Cursor over a memory-mapped run file
+	 */
+	private static class Run implements Comparable<Run> {
+		private final MappedByteBuffer data;
+		private final int order;
+		private long token;
+		private byte[] key;
+		private ByteBuffer row;
+
+		private Run(File file, int order) throws IOException {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				this.data = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			} finally {
+				in.close();
+			}
+			this.order = order;
+		}
+
+		private boolean next() {
+			if(!data.hasRemaining()) {
+				return false;
+			}
+			token = data.getLong();
+			key = new byte[data.getInt()];
+			data.get(key);
+			int length = data.getInt();
+			row = data.slice();
+			row.limit(length);
+			data.position(data.position() + length);
+			return true;
+		}
+
+		public int compareTo(Run other) {
+			int ret = compare(token, key, other.token, other.key);
+			// Rows of the same partition are written in the order they were added
+			return (ret != 0) ? ret : Ints.compare(order, other.order);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repairs the index counts table. Counters drift when an object is inserted twice with the same id, when a
+ * write fails after some of its statements were applied, or when counting is turned on for an index that
+ * already holds rows. The recomputer counts every object of the static table into each counted index and
+ * adds the difference to every counter that disagrees.
+ *
+ * Writes made while the recomputer runs can leave a small drift behind, so it is best run when the object
+ * types being repaired are quiet. The expected counts are held in memory, one entry per shard of each set of
+ * index values.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class IndexCountRecomputer {
+
+	private static Logger logger = LoggerFactory.getLogger(IndexCountRecomputer.class);
+
+	private final ObjectMapper objectMapper;
+
+	public IndexCountRecomputer(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Recompute the counters of every counted index of the keyspace
+	 * @return Number of counters that were changed
+	 */
+	public long recomputeAll() throws CQLGenerationException {
+		long repaired = 0;
+		for(CDefinition def : objectMapper.getKeyspaceDefinition().getDefinitions().values()) {
+			repaired += recompute(def.getName());
+		}
+		return repaired;
+	}
+
+	/**
+	 * Recompute the counters of every counted index of one object type
+	 * @param objectType Type of object to recompute counters for
+	 * @return Number of counters that were changed
+	 */
+	public long recompute(String objectType) throws CQLGenerationException {
+		final CDefinition def = objectMapper.getKeyspaceDefinition().getDefinitions().get(objectType);
+		if(def == null) {
+			throw new IllegalArgumentException("No definition for object type " + objectType);
+		}
+		final Map<String, CIndex> countedTables = Maps.newHashMap();
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			if(index.isCounted()) {
+				countedTables.put(CObjectCQLGenerator.makeTableName(def, index), index);
+			}
+		}
+		if(countedTables.isEmpty()) {
+			return 0;
+		}
+
+		logger.info("Counting objects of {} into {} counted index tables", objectType, countedTables.size());
+		final Map<List<Object>, Long> expected = Maps.newHashMap();
+		final CQLGenerationException[] failure = new CQLGenerationException[1];
+		objectMapper.visitObjects(objectType, new CObjectVisitor() {
+			@Override
+			public void visit(Map<String, Object> object) {
+				try {
+					for(Map.Entry<String, CIndex> entry : countedTables.entrySet()) {
+						CIndex index = entry.getValue();
+						if(!index.validateIndexKeys(index.getIndexKeyAndValues(object))) {
+							continue;
+						}
+						ShardIndexKey key = ShardIndexKey.fromValues(index.getIndexValues(object));
+						long shardId = index.getShardingStrategy().getShardKey(object.get("id"), def, index, object);
+						List<Object> counter = makeCounterKey(entry.getKey(), key.getEncoded(), shardId);
+						Long count = expected.get(counter);
+						expected.put(counter, (count == null) ? 1L : count + 1L);
+					}
+				} catch(CQLGenerationException e) {
+					failure[0] = e;
+				}
+			}
+
+			@Override
+			public boolean shouldInclude(Map<String, Object> object) {
+				return failure[0] == null;
+			}
+		});
+		if(failure[0] != null) {
+			throw failure[0];
+		}
+
+		long repaired = 0;
+		for(Row row : objectMapper.scanIndexCounts()) {
+			String tableName = row.getString("tablename");
+			if(!countedTables.containsKey(tableName)) {
+				continue;
+			}
+			List<Object> counter = makeCounterKey(tableName, row.getBytes("indexkey"), row.getLong("shardid"));
+			Long count = expected.remove(counter);
+			long delta = ((count == null) ? 0L : count) - row.getLong("rowcount");
+			if(delta != 0) {
+				objectMapper.incrementIndexCount(tableName, row.getBytes("indexkey"), row.getLong("shardid"), delta);
+				repaired++;
+			}
+		}
+		// Whatever is left has no counter yet
+		for(Map.Entry<List<Object>, Long> entry : expected.entrySet()) {
+			List<Object> counter = entry.getKey();
+			objectMapper.incrementIndexCount((String)counter.get(0), (ByteBuffer)counter.get(1), (Long)counter.get(2), entry.getValue());
+			repaired++;
+		}
+		logger.info("Repaired {} index counters of {}", repaired, objectType);
+		return repaired;
+	}
+
+	private static List<Object> makeCounterKey(String tableName, ByteBuffer indexKey, long shardId) {
+		return Arrays.<Object>asList(tableName, indexKey, shardId);
+	}
+}
@@ -0,0 +1,482 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves indexes to a different sharding strategy while the keyspace stays online. Each index goes through these steps,
+ * and every step is published as a new keyspace definition in the Rhombus data store before the next one starts:
+ *
+ * 1. A second layout with the new strategy gets its own table and every write goes to both layouts.
+ * 2. The new layout is backfilled from the static table one token range at a time. Index rows are written with the
+ *    write time of the object, so updates and deletes written to both layouts meanwhile win. Copied ranges are
+ *    recorded so an interrupted backfill resumes where it stopped.
+ * 3. The row count of every index value is compared between the two layouts. The ranges holding index values whose
+ *    counts differ are copied again once, and are left to the next run if the counts still differ.
+ * 4. Reads are flipped to the new layout. The old layout keeps receiving writes so object mappers still on the
+ *    previous definition read complete results.
+ * 5. Once asked to, the old layout stops receiving writes and its table is dropped.
+ *
+ * Running the resharder again after a failure picks up from the last published step.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class IndexResharder {
+
+	private static Logger logger = LoggerFactory.getLogger(IndexResharder.class);
+	private static final com.fasterxml.jackson.databind.ObjectMapper jsonMapper = new com.fasterxml.jackson.databind.ObjectMapper();
+	// Number of index writes kept in flight by each backfill thread
+	private static final int maxInFlightWrites = 100;
+
+	private final ConnectionManager connectionManager;
+	private final ObjectMapper objectMapper;
+	private int threads = 4;
+	private int tokenRanges = 256;
+	private double maxObjectsPerSecond = 0;
+	private long settleMillis = 60000L;
+	private int verifyAttempts = 3;
+
+	public IndexResharder(ConnectionManager connectionManager, ObjectMapper objectMapper) {
+		this.connectionManager = connectionManager;
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Migrate the keyspace to requested, resharding every index whose sharding strategy changed
+	 * @param requested Requested keyspace definition
+	 * @param retire Whether to retire old layouts once reads have been flipped
+	 * @return false if verification found differences between the layouts of an index
+	 */
+	public boolean run(CKeyspaceDefinition requested, boolean retire) throws CObjectMigrationException {
+		try {
+			CKeyspaceDefinition stored = connectionManager.hydrateLatestKeyspaceDefinitionFromCassandra(requested);
+			CKeyspaceDefinition working = copy(stored == null ? objectMapper.getKeyspaceDefinition() : stored);
+
+			// Apply everything other than the layout changes with a regular migration first
+			CKeyspaceDefinition target = makeMigrationTarget(working, requested);
+			if(!working.equals(target)) {
+				objectMapper.runMigration(working, target, true);
+				publish(target);
+				working = copy(target);
+			}
+			objectMapper.createReshardProgressTableIfNotExists();
+
+			for(CDefinition def : working.getDefinitions().values()) {
+				CDefinition requestedDef = requested.getDefinitions().get(def.getName());
+				for(String indexKey : Sets.newTreeSet(def.getIndexes().keySet())) {
+					CIndex index = def.getIndexes().get(indexKey);
+					CIndex requestedIndex = requestedDef == null ? null : requestedDef.getIndexes().get(indexKey);
+					if(index.getReshard() == null && requestedIndex != null && !Objects.equal(index.getShardingStrategy(), requestedIndex.getShardingStrategy())) {
+						startReshard(working, def, index, requestedIndex);
+					}
+					if(index.getReshard() != null && index.getReshard().getPhase() == CIndexReshardPhase.BACKFILL) {
+						if(!backfillAndVerify(def, index)) {
+							return false;
+						}
+						flipReads(working, def, index);
+					}
+					if(index.getReshard() != null && index.getReshard().getPhase() == CIndexReshardPhase.RETIRE) {
+						if(retire) {
+							retireOldLayout(working, def, index);
+						} else {
+							logger.info("Reads of {}:{} use the new layout. Run again with retire to drop the old layout.", def.getName(), indexKey);
+						}
+					}
+				}
+			}
+			return true;
+		} catch(CObjectMigrationException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new CObjectMigrationException(e);
+		}
+	}
+
+	/**
+	 * @param stored Keyspace definition in use
+	 * @param requested Requested keyspace definition
+	 * @return requested, with every index that exists in stored keeping the layouts stored has for it
+	 */
+	public static CKeyspaceDefinition makeMigrationTarget(CKeyspaceDefinition stored, CKeyspaceDefinition requested) throws IOException, CObjectMigrationException {
+		CKeyspaceDefinition ret = copy(requested);
+		for(CDefinition def : ret.getDefinitions().values()) {
+			CDefinition storedDef = stored.getDefinitions().get(def.getName());
+			if(storedDef == null) {
+				continue;
+			}
+			for(CIndex index : def.getIndexes().values()) {
+				CIndex storedIndex = storedDef.getIndexes().get(index.getKey());
+				if(storedIndex == null) {
+					continue;
+				}
+				CIndexReshard reshard = storedIndex.getReshard();
+				if(reshard != null && reshard.getPhase() == CIndexReshardPhase.BACKFILL
+						&& !Objects.equal(reshard.getShardingStrategy(), index.getShardingStrategy())) {
+					throw new CObjectMigrationException("Index " + def.getName() + ":" + index.getKey() + " is already being resharded to a different strategy");
+				}
+				index.setShardingStrategy(storedIndex.getShardingStrategy());
+				index.setLayoutVersion(storedIndex.getLayoutVersion());
+				index.setReshard(reshard);
+			}
+			def.compile();
+		}
+		return ret;
+	}
+
+	/**
+	 * Start writing a second layout with the requested strategy
+	 */
+	public static void addReshardLayout(CIndex index, CIndex requestedIndex) {
+		index.setReshard(new CIndexReshard(requestedIndex.getShardingStrategy(), index.getLayoutVersion() + 1, CIndexReshardPhase.BACKFILL));
+	}
+
+	/**
+	 * Make the resharded layout the one reads use, and keep writing the old one
+	 */
+	public static void swapLayouts(CIndex index) {
+		CIndexReshard reshard = index.getReshard();
+		index.setReshard(new CIndexReshard(index.getShardingStrategy(), index.getLayoutVersion(), CIndexReshardPhase.RETIRE));
+		index.setShardingStrategy(reshard.getShardingStrategy());
+		index.setLayoutVersion(reshard.getLayoutVersion());
+	}
+
+	/**
+	 * @param ranges Number of ranges to split the token ring into
+	 * @return ranges + 1 boundaries. Range n covers the tokens after boundary n up to and including boundary n + 1.
+	 */
+	public static long[] splitTokenRing(int ranges) {
+		long[] ret = new long[ranges + 1];
+		BigInteger span = BigInteger.ONE.shiftLeft(64);
+		BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+		for(int i = 0; i < ranges; i++) {
+			ret[i] = min.add(span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(ranges))).longValue();
+		}
+		ret[ranges] = Long.MAX_VALUE;
+		return ret;
+	}
+
+	private void startReshard(CKeyspaceDefinition working, CDefinition def, CIndex index, CIndex requestedIndex) throws IOException {
+		addReshardLayout(index, requestedIndex);
+		def.compile();
+		objectMapper.createIndexLayoutTable(def, index.getReshard().makeLayoutIndex(index));
+		publish(working);
+		logger.info("Writing {}:{} to both layouts", def.getName(), index.getKey());
+		settle();
+	}
+
+	private void flipReads(CKeyspaceDefinition working, CDefinition def, CIndex index) throws IOException {
+		swapLayouts(index);
+		def.compile();
+		publish(working);
+		logger.info("Reading {}:{} from the new layout", def.getName(), index.getKey());
+		settle();
+	}
+
+	private void retireOldLayout(CKeyspaceDefinition working, CDefinition def, CIndex index) throws IOException {
+		CIndex oldLayout = index.getReshard().makeLayoutIndex(index);
+		index.setReshard(null);
+		def.compile();
+		publish(working);
+		settle();
+		objectMapper.dropIndexLayoutTable(def, oldLayout);
+		objectMapper.clearReshardProgress(CObjectCQLGenerator.makeTableName(def, index));
+		logger.info("Retired the old layout of {}:{}", def.getName(), index.getKey());
+	}
+
+	private boolean backfillAndVerify(final CDefinition def, final CIndex index) throws Exception {
+		final CIndex oldLayout = index;
+		final CIndex newLayout = index.getReshard().makeLayoutIndex(index);
+		final String tableName = CObjectCQLGenerator.makeTableName(def, newLayout);
+		final RateLimiter rateLimiter = maxObjectsPerSecond > 0 ? RateLimiter.create(maxObjectsPerSecond) : null;
+		final long[] boundaries = splitTokenRing(tokenRanges);
+		final Set<Long> completed = objectMapper.getReshardProgress(tableName);
+
+		// Backfill every token range that has not been recorded as copied
+		List<Integer> ranges = Lists.newArrayList();
+		List<Integer> toCopy = Lists.newArrayList();
+		for(int i = 0; i < tokenRanges; i++) {
+			ranges.add(i);
+			if(!completed.contains(boundaries[i])) {
+				toCopy.add(i);
+			}
+		}
+		logger.info("Backfilling {} of {} token ranges into {}", toCopy.size(), tokenRanges, tableName);
+		backfillRanges(def, newLayout, tableName, boundaries, toCopy, rateLimiter);
+
+		// Compare the row counts of every index value present in the static table
+		final Set<List<Object>> verified = Sets.newSetFromMap(new ConcurrentHashMap<List<Object>, Boolean>());
+		final List<SortedMap<String, Object>> mismatches = Collections.synchronizedList(new ArrayList<SortedMap<String, Object>>());
+		List<Callable<Void>> verifies = Lists.newArrayList();
+		for(int i = 0; i < tokenRanges; i++) {
+			final long start = boundaries[i];
+			final long end = boundaries[i + 1];
+			verifies.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					verifyTokenRange(def, oldLayout, newLayout, start, end, verified, mismatches, rateLimiter);
+					return null;
+				}
+			});
+		}
+		runAll(verifies);
+		if(mismatches.isEmpty()) {
+			logger.info("Verified {} index values of {}:{}", verified.size(), def.getName(), index.getKey());
+			return true;
+		}
+
+		// Copy every range holding an object of a mismatched index value again, then check those values once more
+		List<Integer> affected = findRangesHolding(def, oldLayout, boundaries, ranges, mismatches);
+		logger.warn("{} index values of {}:{} have different row counts in the new layout, copying {} token ranges again",
+				mismatches.size(), def.getName(), index.getKey(), affected.size());
+		clearProgress(tableName, boundaries, affected);
+		backfillRanges(def, newLayout, tableName, boundaries, affected, rateLimiter);
+		List<SortedMap<String, Object>> remaining = Lists.newArrayList();
+		for(SortedMap<String, Object> indexValues : mismatches) {
+			if(!countsMatch(def, oldLayout, newLayout, indexValues)) {
+				remaining.add(indexValues);
+			}
+		}
+		if(!remaining.isEmpty()) {
+			// Leave the ranges to be copied again by the next run
+			clearProgress(tableName, boundaries, affected);
+			logger.error("{} index values of {}:{} have different row counts in the new layout, first is {}", remaining.size(), def.getName(), index.getKey(), remaining.get(0));
+			return false;
+		}
+		logger.info("Verified {} index values of {}:{} after copying {} token ranges again", verified.size(), def.getName(), index.getKey(), affected.size());
+		return true;
+	}
+
+	private void backfillRanges(final CDefinition def, final CIndex newLayout, final String tableName, final long[] boundaries, List<Integer> ranges,
+								final RateLimiter rateLimiter) throws Exception {
+		final String keyspace = objectMapper.getKeyspaceDefinition().getName();
+		final AtomicLong copied = new AtomicLong();
+		List<Callable<Void>> backfills = Lists.newArrayList();
+		for(int i : ranges) {
+			final long start = boundaries[i];
+			final long end = boundaries[i + 1];
+			backfills.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					long rangeCopied = backfillTokenRange(keyspace, def, newLayout, start, end, rateLimiter);
+					objectMapper.recordReshardProgress(tableName, start, end, rangeCopied);
+					logger.info("Copied {} objects into {} after {} total", rangeCopied, tableName, copied.addAndGet(rangeCopied));
+					return null;
+				}
+			});
+		}
+		runAll(backfills);
+	}
+
+	private long backfillTokenRange(final String keyspace, final CDefinition def, final CIndex layout, long start, long end, final RateLimiter rateLimiter) {
+		final List<ResultSetFuture> inFlight = Lists.newArrayList();
+		final long[] rangeCopied = {0};
+		objectMapper.visitObjectWriteTimesInTokenRange(def, start, end, new ObjectMapper.WriteTimeVisitor() {
+			public void visit(Map<String, Object> object, long writeTime) {
+				if(rateLimiter != null) {
+					rateLimiter.acquire();
+				}
+				try {
+					// Written no later than the object, so updates and deletes dual written since the scan are kept
+					for(CQLStatement statement : CObjectCQLGenerator.makeCQLforIndexBackfill(keyspace, def, layout, object, object.get("id"), writeTime, objectMapper.getShardIndexKeyMode())) {
+						inFlight.add(objectMapper.getCqlExecutor().executeAsync(statement));
+					}
+				} catch(CQLGenerationException e) {
+					throw new IllegalStateException("Unable to backfill object " + object.get("id"), e);
+				}
+				if(inFlight.size() >= maxInFlightWrites) {
+					waitFor(inFlight);
+				}
+				rangeCopied[0]++;
+			}
+		});
+		waitFor(inFlight);
+		return rangeCopied[0];
+	}
+
+	/**
+	 * @return The token ranges holding at least one object with one of the index values
+	 */
+	private List<Integer> findRangesHolding(final CDefinition def, final CIndex layout, final long[] boundaries, List<Integer> ranges,
+											List<SortedMap<String, Object>> indexValues) throws Exception {
+		final Set<List<Object>> wanted = Sets.newHashSet();
+		for(SortedMap<String, Object> values : indexValues) {
+			wanted.add(Lists.newArrayList(values.values()));
+		}
+		final Set<Integer> found = Sets.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		List<Callable<Void>> scans = Lists.newArrayList();
+		for(final int i : ranges) {
+			scans.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					objectMapper.visitObjectsInTokenRange(def, boundaries[i], boundaries[i + 1], new CObjectVisitor() {
+						public void visit(Map<String, Object> object) {
+							found.add(i);
+						}
+
+						public boolean shouldInclude(Map<String, Object> object) {
+							return !found.contains(i) && wanted.contains(Lists.newArrayList(layout.getIndexKeyAndValues(object).values()));
+						}
+					});
+					return null;
+				}
+			});
+		}
+		runAll(scans);
+		return Lists.newArrayList(Sets.newTreeSet(found));
+	}
+
+	private void clearProgress(String tableName, long[] boundaries, List<Integer> ranges) {
+		for(int i : ranges) {
+			objectMapper.clearReshardProgress(tableName, boundaries[i]);
+		}
+	}
+
+	private void verifyTokenRange(final CDefinition def, final CIndex oldLayout, final CIndex newLayout, long start, long end,
+								  final Set<List<Object>> verified, final List<SortedMap<String, Object>> mismatches, final RateLimiter rateLimiter) {
+		objectMapper.visitObjectsInTokenRange(def, start, end, new CObjectVisitor() {
+			public void visit(Map<String, Object> object) {
+				SortedMap<String, Object> indexValues = oldLayout.getIndexKeyAndValues(object);
+				if(!verified.add(Lists.newArrayList(indexValues.values()))) {
+					return;
+				}
+				if(rateLimiter != null) {
+					rateLimiter.acquire();
+				}
+				if(!countsMatch(def, oldLayout, newLayout, indexValues)) {
+					mismatches.add(indexValues);
+				}
+			}
+
+			public boolean shouldInclude(Map<String, Object> object) {
+				return !def.isAllowNullPrimaryKeyInserts() || oldLayout.validateIndexKeys(oldLayout.getIndexKeyAndValues(object));
+			}
+		});
+	}
+
+	private boolean countsMatch(CDefinition def, CIndex oldLayout, CIndex newLayout, SortedMap<String, Object> indexValues) {
+		try {
+			for(int attempt = 0; attempt < verifyAttempts; attempt++) {
+				if(attempt > 0) {
+					// Writes in flight while counting can make the layouts differ for a moment
+					Thread.sleep(1000L);
+				}
+				if(objectMapper.countIndexRows(def, oldLayout, indexValues) == objectMapper.countIndexRows(def, newLayout, indexValues)) {
+					return true;
+				}
+			}
+			return false;
+		} catch(CQLGenerationException e) {
+			throw new IllegalStateException("Unable to count index values " + indexValues, e);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while verifying index values " + indexValues, e);
+		}
+	}
+
+	private void runAll(List<Callable<Void>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for(Future<Void> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch(ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void waitFor(List<ResultSetFuture> futures) {
+		for(ResultSetFuture future : futures) {
+			future.getUninterruptibly();
+		}
+		futures.clear();
+	}
+
+	/**
+	 * Store a keyspace definition and use it in this process. Other processes pick it up when they refresh their definition.
+	 */
+	private void publish(CKeyspaceDefinition definition) throws IOException {
+		connectionManager.addKeyspaceDefinitionToCassandra(definition);
+		objectMapper.setKeyspaceDefinition(copy(definition));
+	}
+
+	private void settle() {
+		if(settleMillis <= 0) {
+			return;
+		}
+		logger.info("Waiting {} ms for other processes to load the new keyspace definition", settleMillis);
+		try {
+			Thread.sleep(settleMillis);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static CKeyspaceDefinition copy(CKeyspaceDefinition definition) throws IOException {
+		return CKeyspaceDefinition.fromJsonString(jsonMapper.writeValueAsString(definition));
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return Number of token ranges the static table is split into. Progress is recorded per range.
+	 */
+	public int getTokenRanges() {
+		return tokenRanges;
+	}
+
+	public void setTokenRanges(int tokenRanges) {
+		this.tokenRanges = tokenRanges;
+	}
+
+	/**
+	 * @return Maximum number of objects backfilled or verified per second, or 0 for no limit
+	 */
+	public double getMaxObjectsPerSecond() {
+		return maxObjectsPerSecond;
+	}
+
+	public void setMaxObjectsPerSecond(double maxObjectsPerSecond) {
+		this.maxObjectsPerSecond = maxObjectsPerSecond;
+	}
+
+	/**
+	 * @return Time to wait after publishing a definition, so that every process refreshing its definition loads it
+	 */
+	public long getSettleMillis() {
+		return settleMillis;
+	}
+
+	public void setSettleMillis(long settleMillis) {
+		this.settleMillis = settleMillis;
+	}
+
+	public int getVerifyAttempts() {
+		return verifyAttempts;
+	}
+
+	public void setVerifyAttempts(int verifyAttempts) {
+		this.verifyAttempts = verifyAttempts;
+	}
+}
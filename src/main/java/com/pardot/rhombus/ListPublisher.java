@@ -0,0 +1,305 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.CompiledDefinition;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the objects a list returns to Reactive Streams subscribers. Nothing is read before the subscriber
+ * requests objects: the statement of the next shard is only executed, and the next page of its rows only fetched
+ * from the driver, once every object read so far has been delivered and more are requested. At most one page of
+ * objects is held per subscription, and cancelling stops every further read.
+ *
+ * Each subscription runs the query again. Objects are delivered on the thread that requested them or on the
+ * mapping executor of the object mapper. Unlike list, results are never read from or added to the recent head
+ * and closed shard result caches, and the number of statements is not capped.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ListPublisher implements Publisher<Map<String, Object>> {
+
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	private final ObjectMapper objectMapper;
+	private final CDefinition definition;
+	private final Criteria criteria;
+	@Nullable
+	private final CompiledDefinition.CompiledIndex index;
+	private final int pageSize;
+
+	/**
+	 * @param objectMapper Object mapper to read with
+	 * @param definition Definition of the objects
+	 * @param criteria Criteria to list by
+	 * @param index Index the criteria select from
+	 * @param pageSize Number of rows fetched from the driver at a time
+	 */
+	public ListPublisher(ObjectMapper objectMapper, CDefinition definition, Criteria criteria, @Nullable CompiledDefinition.CompiledIndex index, int pageSize) {
+		this.objectMapper = objectMapper;
+		this.definition = definition;
+		this.criteria = criteria;
+		this.index = index;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super Map<String, Object>> subscriber) {
+		if(subscriber == null) {
+			throw new NullPointerException("Subscriber can not be null");
+		}
+		ListSubscription subscription = new ListSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	private class ListSubscription implements Subscription {
+
+		private final Subscriber<? super Map<String, Object>> subscriber;
+		private final AtomicLong requested = new AtomicLong();
+		// Number of drain calls made while a drain was running, only one drain delivers at a time
+		private final AtomicInteger drains = new AtomicInteger();
+		private final Queue<Map<String, Object>> buffer = new ConcurrentLinkedQueue<Map<String, Object>>();
+		private final CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering() : CObjectOrdering.DESCENDING);
+		private final long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		private volatile boolean cancelled = false;
+		private volatile boolean reading = false;
+		private volatile boolean exhausted = false;
+		private volatile Throwable error;
+		private boolean terminated = false;
+
+		// Only used by the read in progress
+		private CQLStatementIterator statementIterator;
+		private ResultSet resultSet;
+		private Iterator<Row> rows;
+		private long resultCount = 0;
+
+		private ListSubscription(Subscriber<? super Map<String, Object>> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				error = new IllegalArgumentException("Requested " + n + " objects, requests must be positive");
+				exhausted = true;
+				buffer.clear();
+			} else {
+				long current;
+				long next;
+				do {
+					current = requested.get();
+					next = (current + n < 0) ? Long.MAX_VALUE : current + n;
+				} while(!requested.compareAndSet(current, next));
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			buffer.clear();
+		}
+
+		/**
+		 * Deliver buffered objects while they are requested, then start the next read if more are requested
+		 */
+		private void drain() {
+			if(drains.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				if(cancelled || terminated) {
+					buffer.clear();
+					return;
+				}
+				long delivered = 0;
+				long demand = requested.get();
+				while(delivered < demand && !cancelled) {
+					Map<String, Object> object = buffer.poll();
+					if(object == null) {
+						break;
+					}
+					subscriber.onNext(object);
+					delivered++;
+				}
+				if(delivered > 0 && demand != Long.MAX_VALUE) {
+					requested.addAndGet(-delivered);
+				}
+				if(buffer.isEmpty() && !cancelled) {
+					if(error != null) {
+						terminated = true;
+						subscriber.onError(error);
+						return;
+					}
+					if(exhausted) {
+						terminated = true;
+						subscriber.onComplete();
+						return;
+					}
+					if(!reading && requested.get() > 0) {
+						reading = true;
+						readNext();
+					}
+				}
+				missed = drains.addAndGet(-missed);
+			} while(missed != 0);
+		}
+
+		/**
+		 * Read the next page of objects into the buffer, making the statements on the first read and moving on to
+		 * the next statement once the rows of the current one are read
+		 */
+		private void readNext() {
+			try {
+				if(cancelled) {
+					return;
+				}
+				if(statementIterator == null) {
+					listen(objectMapper.makeCQLforListAsync(definition, criteria, false), new FutureCallback<CQLStatementIterator>() {
+						@Override
+						public void onSuccess(CQLStatementIterator result) {
+							statementIterator = result;
+							readNext();
+						}
+
+						@Override
+						public void onFailure(Throwable t) {
+							fail(t);
+						}
+					});
+					return;
+				}
+				if(limit > 0 && resultCount >= limit) {
+					// Nothing more is delivered, so do not fetch or map any more rows
+					exhausted = true;
+					readDone();
+					return;
+				}
+				if(resultSet != null && resultSet.getAvailableWithoutFetching() == 0 && !resultSet.isFullyFetched()) {
+					listen(resultSet.fetchMoreResults(), new FutureCallback<Void>() {
+						@Override
+						public void onSuccess(Void result) {
+							readNext();
+						}
+
+						@Override
+						public void onFailure(Throwable t) {
+							fail(t);
+						}
+					});
+					return;
+				}
+				List<Row> page = takePage();
+				if(!page.isEmpty()) {
+					mapPage(page);
+					return;
+				}
+				// The rows of the current statement are all read
+				resultSet = null;
+				rows = null;
+				if(!statementIterator.hasNext(resultCount)) {
+					exhausted = true;
+					readDone();
+					return;
+				}
+				CQLStatement cql = statementIterator.next();
+				listen(objectMapper.executeListStatementAsync(cql, definition, index, ordering, pageSize), new FutureCallback<Iterable<Row>>() {
+					@Override
+					public void onSuccess(Iterable<Row> result) {
+						resultSet = (result instanceof ResultSet) ? (ResultSet)result : null;
+						rows = result.iterator();
+						readNext();
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						fail(t);
+					}
+				});
+			} catch(Throwable t) {
+				fail(t);
+			}
+		}
+
+		/**
+		 * @return Rows of the current statement that can be read without fetching, up to a page
+		 */
+		private List<Row> takePage() {
+			List<Row> page = Lists.newArrayList();
+			if(rows == null) {
+				return page;
+			}
+			int available = (resultSet == null) ? pageSize : Math.min(pageSize, resultSet.getAvailableWithoutFetching());
+			while(page.size() < available && rows.hasNext()) {
+				page.add(rows.next());
+			}
+			return page;
+		}
+
+		private void mapPage(List<Row> page) {
+			listen(objectMapper.mapRowsAsync(page, definition, index, statementIterator.getClientFilters()), new FutureCallback<List<Map<String, Object>>>() {
+				@Override
+				public void onSuccess(List<Map<String, Object>> objects) {
+					for(Map<String, Object> object : objects) {
+						if(limit > 0 && resultCount >= limit) {
+							break;
+						}
+						buffer.add(object);
+						resultCount++;
+					}
+					if(limit > 0 && resultCount >= limit) {
+						// Complete once the buffer is delivered, even if no more objects are requested
+						exhausted = true;
+					}
+					if(buffer.isEmpty()) {
+						// Every row of the page was filtered out, keep reading
+						readNext();
+					} else {
+						readDone();
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					fail(t);
+				}
+			});
+		}
+
+		private <T> void listen(ListenableFuture<? extends T> future, FutureCallback<T> callback) {
+			Futures.addCallback(future, callback, objectMapper.getMappingExecutor());
+		}
+
+		private void readDone() {
+			reading = false;
+			drain();
+		}
+
+		private void fail(Throwable t) {
+			error = t;
+			exhausted = true;
+			readDone();
+		}
+	}
+}
@@ -3,61 +3,115 @@ package com.pardot.rhombus;
 
 import com.datastax.driver.core.*;
 import com.datastax.driver.core.exceptions.AlreadyExistsException;
+import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
 import com.datastax.driver.core.utils.UUIDs;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.*;
 import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.async.RetryPolicy;
+import com.pardot.rhombus.cobject.async.StatementDeadLetterHandler;
+import com.pardot.rhombus.cobject.async.StatementFailure;
 import com.pardot.rhombus.cobject.async.StatementIteratorConsumer;
 import com.pardot.rhombus.cobject.migrations.CKeyspaceDefinitionMigrator;
 import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
-import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyNone;
+import com.pardot.rhombus.cobject.shardingstrategy.TimebasedShardingStrategy;
 import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
 import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import com.pardot.rhombus.entity.EntityCodec;
+import com.pardot.rhombus.entity.EntityCodecs;
 import com.pardot.rhombus.util.JsonUtil;
 import com.yammer.metrics.core.*;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.io.sstable.CQLSSTableWriter;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.Pair;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Pardot, an ExactTarget company
  * User: Michael Frank
  * Date: 4/17/13
  */
-public class ObjectMapper implements CObjectShardList {
+public class ObjectMapper implements CObjectShardList, CObjectShardPresence {
 
 	private static Logger logger = LoggerFactory.getLogger(ObjectMapper.class);
+	private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 	private static final int reasonableStatementLimit = 50;
+	// Number of static table reads kept in flight when fetching objects for a thin index
+	private static final int multiGetBatchSize = 100;
+	// Only used to read index update rows written before index values were stored in binary
+	private static final com.fasterxml.jackson.databind.ObjectMapper legacyIndexValuesMapper = new com.fasterxml.jackson.databind.ObjectMapper();
 	private boolean executeAsync = true;
 	private boolean useCqlBatching = false;
 	private boolean logCql = false;
 	private boolean cacheBoundedQueries = true;
 	private CQLExecutor cqlExecutor;
 	private Session session;
-	private CKeyspaceDefinition keyspaceDefinition;
+	private volatile CKeyspaceDefinition keyspaceDefinition;
 	private CObjectCQLGenerator cqlGenerator;
 	private Long batchTimeout;
+	private ShardIndexKeyMode shardIndexKeyMode = ShardIndexKeyMode.DEFAULT;
+	private boolean writeIndexValuesJson = false;
+	private AdaptiveShardLayoutResolver shardLayoutResolver;
+	private ShardPresenceCache shardPresenceCache;
+	private ClosedShardResultCache closedShardResultCache;
+	private RecentHeadCache recentHeadCache;
+	// Mapping may block on the driver fetching the next page of a result set, so it must not run on driver threads.
+	// The default pool is bounded, its threads are daemons that time out when idle and teardown shuts it down
+	private static final int MAPPING_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	private final ThreadPoolExecutor defaultMappingExecutorService = makeMappingExecutorService();
+	private Executor mappingExecutor = defaultMappingExecutorService;
+	private RetryPolicy retryPolicy = new RetryPolicy(3, 50L, 1000L);
+	private StatementDeadLetterHandler deadLetterHandler = null;
     private String defaultSSTableOutputPath = System.getProperty("user.dir");
-    private Map<String, Pair<CQLSSTableWriter, Map<CIndex, CQLSSTableWriter>>> SSTableWriters = Maps.newHashMap();
+    private volatile Map<String, Pair<AsyncSSTableWriter, Map<CIndex, AsyncSSTableWriter>>> SSTableWriters = Maps.newHashMap();
+    private int SSTableWriterBufferSize = AsyncSSTableWriter.DEFAULT_BUFFER_SIZE;
+    private long SSTableSortBufferBytes = ExternalRowSorter.DEFAULT_BUFFER_BYTES;
+    private File SSTableSortDirectory = new File(System.getProperty("java.io.tmpdir"));
+    // Shard index rows already written to the SSTables, as [table name, index values key, shard id]
+    private final Set<List<Object>> SSTableShardIndexRows = Sets.newSetFromMap(Maps.<List<Object>, Boolean>newConcurrentMap());
+	// Entity codecs and the definition they were last validated against
+	private final Map<EntityCodec<?>, CDefinition> validatedEntityCodecs = Maps.newConcurrentMap();
 
 	public ObjectMapper(Session session, CKeyspaceDefinition keyspaceDefinition, Integer consistencyHorizon, Long batchTimeout) {
 		this.cqlExecutor = new CQLExecutor(session, logCql, keyspaceDefinition.getConsistencyLevel());
 		this.session = session;
+		keyspaceDefinition.compileDefinitions();
 		this.keyspaceDefinition = keyspaceDefinition;
 		this.cqlGenerator = new CObjectCQLGenerator(keyspaceDefinition.getName(), keyspaceDefinition.getDefinitions(), this, consistencyHorizon);
 		this.batchTimeout = batchTimeout;
+		this.shardLayoutResolver = new AdaptiveShardLayoutResolver(this);
+		this.shardLayoutResolver.attach(keyspaceDefinition);
+		this.recentHeadCache = new RecentHeadCache(consistencyHorizon == null ? 0L : consistencyHorizon.longValue());
 	}
 
 	/**
@@ -65,6 +119,10 @@ public class ObjectMapper implements CObjectShardList {
 	 * @param keyspaceDefinition Updated keyspace definition
 	 */
 	public void setKeyspaceDefinition(CKeyspaceDefinition keyspaceDefinition) {
+		// Compile before publishing so readers only ever see a fully compiled definition
+		keyspaceDefinition.compileDefinitions();
+		this.shardLayoutResolver.attach(keyspaceDefinition);
+		this.cqlGenerator.setDefinitions(keyspaceDefinition.getDefinitions());
 		this.keyspaceDefinition = keyspaceDefinition;
 	}
 
@@ -78,6 +136,38 @@ public class ObjectMapper implements CObjectShardList {
 			logger.debug("Failed to truncate table with query ", truncateCql.getQuery());
 		}
 
+		truncateCql = cqlGenerator.makeCQLforHashedShardIndexTableTruncate();
+		logger.debug("Truncating hashed shard index table");
+		try {
+			cqlExecutor.executeSync(truncateCql);
+		} catch(Exception e) {
+			logger.debug("Failed to truncate table with query ", truncateCql.getQuery());
+		}
+
+		truncateCql = cqlGenerator.makeCQLforShardLayoutTableTruncate();
+		logger.debug("Truncating shard layout table");
+		try {
+			cqlExecutor.executeSync(truncateCql);
+		} catch(Exception e) {
+			logger.debug("Failed to truncate table with query ", truncateCql.getQuery());
+		}
+		shardLayoutResolver.clear();
+		clearShardPresenceCache();
+		if(closedShardResultCache != null) {
+			closedShardResultCache.clear();
+		}
+		if(recentHeadCache != null) {
+			recentHeadCache.clear();
+		}
+
+		truncateCql = cqlGenerator.makeCQLforIndexCountsTableTruncate();
+		logger.debug("Truncating index counts table");
+		try {
+			cqlExecutor.executeSync(truncateCql);
+		} catch(Exception e) {
+			logger.debug("Failed to truncate table with query ", truncateCql.getQuery());
+		}
+
 		// Index updates
 		truncateCql = cqlGenerator.makeCQLforIndexUpdateTableTruncate();
 		logger.debug("Truncating index update table");
@@ -115,6 +205,7 @@ public class ObjectMapper implements CObjectShardList {
 		}
 		//we are about to rework the the keyspaces, so lets clear the bounded query cache
 		cqlExecutor.clearStatementCache();
+		clearShardPresenceCache();
 		//First build the shard index
 		CQLStatement cql = cqlGenerator.makeCQLforShardIndexTableCreate();
 		try {
@@ -130,6 +221,48 @@ public class ObjectMapper implements CObjectShardList {
 				logger.debug("Not dropping shard index table");
 			}
 		}
+		cql = cqlGenerator.makeCQLforHashedShardIndexTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created hashed shard index table");
+		} catch(Exception e) {
+			if(forceRebuild) {
+				CQLStatement dropCql = cqlGenerator.makeCQLforHashedShardIndexTableDrop();
+				logger.debug("Attempting to drop table with cql {}", dropCql);
+				cqlExecutor.executeSync(dropCql);
+				cqlExecutor.executeSync(cql);
+			} else {
+				logger.debug("Not dropping hashed shard index table");
+			}
+		}
+		cql = cqlGenerator.makeCQLforShardLayoutTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created shard layout table");
+		} catch(Exception e) {
+			if(forceRebuild) {
+				CQLStatement dropCql = cqlGenerator.makeCQLforShardLayoutTableDrop();
+				logger.debug("Attempting to drop table with cql {}", dropCql);
+				cqlExecutor.executeSync(dropCql);
+				cqlExecutor.executeSync(cql);
+			} else {
+				logger.debug("Not dropping shard layout table");
+			}
+		}
+		cql = cqlGenerator.makeCQLforIndexCountsTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created index counts table");
+		} catch(Exception e) {
+			if(forceRebuild) {
+				CQLStatement dropCql = cqlGenerator.makeCQLforIndexCountsTableDrop();
+				logger.debug("Attempting to drop table with cql {}", dropCql);
+				cqlExecutor.executeSync(dropCql);
+				cqlExecutor.executeSync(cql);
+			} else {
+				logger.debug("Not dropping index counts table");
+			}
+		}
 		//Next build the update index
 		cql = cqlGenerator.makeCQLforIndexUpdateTableCreate();
 		try{
@@ -138,6 +271,7 @@ public class ObjectMapper implements CObjectShardList {
 		}
 		catch(Exception e) {
 			logger.debug("Unable to create update index table. It may already exist");
+			upgradeIndexUpdateTable();
 		}
 
 		//Now build the tables for each object if the definition contains tables
@@ -169,6 +303,58 @@ public class ObjectMapper implements CObjectShardList {
 		}
 	}
 
+	/**
+	 * Add the binary index values column to an index update table created by an earlier version
+	 */
+	protected void upgradeIndexUpdateTable() {
+		CQLStatement cql = cqlGenerator.makeCQLforIndexUpdateTableUpgrade();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Upgraded index update table");
+		} catch(Exception e) {
+			logger.debug("Not upgrading index update table. It may already be up to date");
+		}
+	}
+
+	/**
+	 * Create the hashed shard index table for a keyspace built by an earlier version
+	 */
+	protected void createHashedShardIndexTableIfNotExists() {
+		CQLStatement cql = cqlGenerator.makeCQLforHashedShardIndexTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created hashed shard index table");
+		} catch(AlreadyExistsException e) {
+			logger.debug("Hashed shard index table already exists");
+		}
+	}
+
+	/**
+	 * Create the shard layout table for a keyspace built by an earlier version
+	 */
+	protected void createShardLayoutTableIfNotExists() {
+		CQLStatement cql = cqlGenerator.makeCQLforShardLayoutTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created shard layout table");
+		} catch(AlreadyExistsException e) {
+			logger.debug("Shard layout table already exists");
+		}
+	}
+
+	/**
+	 * Create the index counts table for a keyspace built by an earlier version
+	 */
+	protected void createIndexCountsTableIfNotExists() {
+		CQLStatement cql = cqlGenerator.makeCQLforIndexCountsTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created index counts table");
+		} catch(AlreadyExistsException e) {
+			logger.debug("Index counts table already exists");
+		}
+	}
+
 	public void createKeyspaceDefinitionTableIfNotExists() {
 		CQLStatement cql = cqlGenerator.makeCQLforCreateKeyspaceDefinitionsTable();
 		try {
@@ -215,13 +401,15 @@ public class ObjectMapper implements CObjectShardList {
 			} else {
 				List<StatementIteratorConsumer> consumers = Lists.newArrayList();
 				for(CQLStatementIterator statementIterator : statementIterators) {
-					StatementIteratorConsumer consumer = new StatementIteratorConsumer((BoundedCQLStatementIterator) statementIterator, cqlExecutor, batchTimeout);
+					StatementIteratorConsumer consumer = new StatementIteratorConsumer((BoundedCQLStatementIterator) statementIterator, cqlExecutor, batchTimeout, retryPolicy);
 					consumer.start();
 					consumers.add(consumer);
 				}
+				List<StatementFailure> failures = Lists.newArrayList();
 				for(StatementIteratorConsumer consumer : consumers) {
-					consumer.join();
+					failures.addAll(consumer.join());
 				}
+				handleStatementFailures(failures);
 			}
 			logger.debug("Async execution took {}us", (System.nanoTime() - start) / 1000);
 		} else {
@@ -240,17 +428,243 @@ public class ObjectMapper implements CObjectShardList {
 		}
 	}
 
+	/**
+	 * Hand statements that still failed after being retried to the dead letter handler, or throw them if there is none
+	 */
+	private void handleStatementFailures(List<StatementFailure> failures) throws StatementFailureException {
+		if(failures.isEmpty()) {
+			return;
+		}
+		StatementDeadLetterHandler handler = this.deadLetterHandler;
+		if(handler == null) {
+			throw new StatementFailureException(failures);
+		}
+		for(StatementFailure failure : failures) {
+			logger.warn("Sending failed statement to the dead letter handler: {}", failure);
+			handler.onDeadLetter(failure);
+		}
+	}
+
 	@Override
 	public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) throws CQLGenerationException {
-		CQLStatement shardIdGet = CObjectCQLGenerator.makeCQLforGetShardIndexList(this.keyspaceDefinition.getName(), def, indexValues, ordering, start, end);
-		ResultSet resultSet = cqlExecutor.executeSync(shardIdGet);
+		CIndex index = def.getIndex(indexValues, false);
+		Long startShardId = (start == null) ? null : Long.valueOf(index.getShardingStrategy().getShardKeyLowerBound(UUIDs.unixTimestamp(start)));
+		Long endShardId = (end == null) ? null : Long.valueOf(index.getShardingStrategy().getShardKeyUpperBound(UUIDs.unixTimestamp(end)));
+		return getShardIdListInShardRange(def, index, indexValues, ordering, startShardId, endShardId);
+	}
+
+	@Override
+	@Nullable
+	public List<Long> getPresentShardIds(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, Range<Long> shardIdRange, CObjectOrdering ordering) throws CQLGenerationException {
+		ShardPresenceCache cache = this.shardPresenceCache;
+		if(cache == null) {
+			return null;
+		}
+		return cache.getPresentShardIds(def, index, indexValues, shardIdRange, ordering);
+	}
+
+	private void recordShardPresence(CDefinition def, Map<String, Object> values, Object key) throws CQLGenerationException {
+		ShardPresenceCache cache = this.shardPresenceCache;
+		if(cache != null) {
+			cache.recordWrite(def, values, key);
+		}
+	}
+
+	/**
+	 * Drop the cached results of every closed shard an object was written to or removed from
+	 * @param def Definition of the object
+	 * @param values Complete values of the object
+	 * @param key Id of the object
+	 */
+	private void invalidateClosedShards(CDefinition def, Map<String, Object> values, Object key) throws CQLGenerationException {
+		ClosedShardResultCache cache = this.closedShardResultCache;
+		if(cache == null) {
+			return;
+		}
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			if(!def.getCompiled().isSharded(index) || !index.validateIndexKeys(index.getIndexKeyAndValues(values))) {
+				continue;
+			}
+			long shardId = index.getShardingStrategy().getShardKey(key, def, index, values);
+			if(isClosedShard(index, shardId)) {
+				cache.invalidateShard(CObjectCQLGenerator.makeTableName(def, index), shardId);
+			}
+		}
+	}
+
+	/**
+	 * Apply a write to the recent heads of the definition
+	 * @param def Definition of the object
+	 * @param oldValues Complete values the object had, or null for an insert
+	 * @param newValues Complete values the object has now, or null for a delete
+	 * @param key Id of the object
+	 */
+	private void recordRecentHeadWrite(CDefinition def, @Nullable Map<String, Object> oldValues, @Nullable Map<String, Object> newValues, Object key) throws CQLGenerationException {
+		RecentHeadCache cache = this.recentHeadCache;
+		if(cache != null) {
+			cache.recordWrite(def, oldValues, newValues, key);
+		}
+	}
+
+	/**
+	 * @return true if the time window of the shard ended before the consistency horizon
+	 */
+	private boolean isClosedShard(CIndex index, long shardId) {
+		long horizon = UUIDs.unixTimestamp(getTimeUUIDAtEndOfConsistencyHorizion());
+		return shardId < index.getShardingStrategy().getShardKey(horizon);
+	}
+
+	/**
+	 * @return Time shard id selected by a list or count statement if it is a single closed shard that can be cached, otherwise null
+	 */
+	@Nullable
+	private Long getCacheableShardId(CQLStatement cql, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index) {
+		if(this.closedShardResultCache == null || index == null || !definition.getCompiled().isSharded(index.getIndex())) {
+			return null;
+		}
+		Object[] values = cql.getValues();
+		// Cached results are invalidated per shard, so statements reading several shards are not cached
+		if(values == null || values.length == 0 || !(values[0] instanceof Long) || cql.getMergedShardIds() != null) {
+			return null;
+		}
+		Long shardId = (Long)values[0];
+		return isClosedShard(index.getIndex(), shardId) ? shardId : null;
+	}
+
+	/**
+	 * Forget every cached shard presence bitmap so they are rebuilt from the shard index
+	 */
+	public void clearShardPresenceCache() {
+		ShardPresenceCache cache = this.shardPresenceCache;
+		if(cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Layout of the index to list shards of
+	 * @param indexValues Values of the index fields
+	 * @param ordering Order of the returned shard ids
+	 * @param startShardId Smallest shard id to return, or null for no lower bound
+	 * @param endShardId Largest shard id to return, or null for no upper bound
+	 * @return Shard ids recorded in the shard index for the index values
+	 */
+	protected List<Long> getShardIdListInShardRange(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable Long startShardId, @Nullable Long endShardId) throws CQLGenerationException {
+		String keyspace = this.keyspaceDefinition.getName();
+		ShardIndexKeyMode mode = this.shardIndexKeyMode;
+		ShardIndexKey key = null;
+		ResultSetFuture hashedFuture = null;
+		if(mode.usesHashed()) {
+			key = ShardIndexKey.fromValues(indexValues.values());
+			hashedFuture = cqlExecutor.executeHedgedAsync(CObjectCQLGenerator.makeCQLforGetHashedShardIndexListInShardRange(keyspace, def, index, indexValues, key, ordering, startShardId, endShardId));
+		}
+		List<Long> legacyShardIdList = null;
+		if(mode.usesLegacy()) {
+			CQLStatement shardIdGet = CObjectCQLGenerator.makeCQLforGetShardIndexListInShardRange(keyspace, def, index, indexValues, ordering, startShardId, endShardId);
+			legacyShardIdList = readLegacyShardIds(cqlExecutor.executeHedgedSync(shardIdGet));
+			if(hashedFuture == null) {
+				return legacyShardIdList;
+			}
+		}
+
+		return mergeShardIds(legacyShardIdList, hashedFuture.getUninterruptibly(), key, ordering);
+	}
+
+	/**
+	 * Asynchronous version of getShardIdListInShardRange
+	 * @return Future of the shard ids recorded in the shard index for the index values
+	 */
+	protected ListenableFuture<List<Long>> getShardIdListInShardRangeAsync(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, final CObjectOrdering ordering, @Nullable Long startShardId, @Nullable Long endShardId) throws CQLGenerationException {
+		String keyspace = this.keyspaceDefinition.getName();
+		ShardIndexKeyMode mode = this.shardIndexKeyMode;
+		final ShardIndexKey key = mode.usesHashed() ? ShardIndexKey.fromValues(indexValues.values()) : null;
+		final boolean legacy = mode.usesLegacy();
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		if(legacy) {
+			futures.add(cqlExecutor.executeHedgedAsync(CObjectCQLGenerator.makeCQLforGetShardIndexListInShardRange(keyspace, def, index, indexValues, ordering, startShardId, endShardId)));
+		}
+		if(key != null) {
+			futures.add(cqlExecutor.executeHedgedAsync(CObjectCQLGenerator.makeCQLforGetHashedShardIndexListInShardRange(keyspace, def, index, indexValues, key, ordering, startShardId, endShardId)));
+		}
+		return Futures.transform(Futures.allAsList(futures), new Function<List<ResultSet>, List<Long>>() {
+			@Override
+			public List<Long> apply(List<ResultSet> resultSets) {
+				List<Long> legacyShardIdList = null;
+				if(legacy) {
+					legacyShardIdList = readLegacyShardIds(resultSets.get(0));
+					if(key == null) {
+						return legacyShardIdList;
+					}
+				}
+				return mergeShardIds(legacyShardIdList, resultSets.get(resultSets.size() - 1), key, ordering);
+			}
+		});
+	}
+
+	private static List<Long> readLegacyShardIds(ResultSet rows) {
 		List<Long> shardIdList = Lists.newArrayList();
-		for(Row row : resultSet) {
+		for(Row row : rows) {
 			shardIdList.add(row.getLong("shardid"));
 		}
 		return shardIdList;
 	}
 
+	/**
+	 * @param legacyShardIdList Shard ids read from the legacy shard index, or null if it was not read
+	 * @param hashedRows Rows read from the hashed shard index
+	 * @param key Key of the index values in the hashed shard index
+	 * @return Shard ids of both layouts in order
+	 */
+	private static List<Long> mergeShardIds(@Nullable List<Long> legacyShardIdList, ResultSet hashedRows, ShardIndexKey key, CObjectOrdering ordering) {
+		List<Long> shardIdList = Lists.newArrayList();
+		for(Row row : hashedRows) {
+			// Rows with a different key only share the partition because of a hash collision
+			if(key.matches(row.getBytes("indexkey"))) {
+				shardIdList.add(row.getLong("shardid"));
+			}
+		}
+		if(legacyShardIdList == null) {
+			return shardIdList;
+		}
+		// Merge the two ordered lists, dropping shards recorded in both layouts
+		SortedSet<Long> merged = (ordering == CObjectOrdering.DESCENDING) ? new TreeSet<Long>(Collections.reverseOrder()) : new TreeSet<Long>();
+		merged.addAll(shardIdList);
+		merged.addAll(legacyShardIdList);
+		return Lists.newArrayList(merged);
+	}
+
+	/**
+	 * Copy every row of the legacy shard index into the hashed shard index so that the mapper can be switched
+	 * to ShardIndexKeyMode.HASHED without losing track of existing shards
+	 * @return Number of shard index rows copied
+	 */
+	public long backfillHashedShardIndex() throws CQLGenerationException {
+		Statement scan = new SimpleStatement(cqlGenerator.makeCQLforShardIndexTableScan().getQuery());
+		scan.setFetchSize(1000);
+		long copied = 0;
+		for(Row row : session.execute(scan)) {
+			cqlExecutor.executeSync(cqlGenerator.makeCQLforHashedShardIndexBackfill(row.getString("tablename"), row.getLong("shardid"), row.getString("indexvalues")));
+			copied++;
+		}
+		return copied;
+	}
+
+	/**
+	 * An object written by insertBatchMixed, kept until the batch has been executed
+	 */
+	private static class InsertedObject {
+		private final CDefinition definition;
+		private final Map<String, Object> values;
+		private final Object key;
+
+		private InsertedObject(CDefinition definition, Map<String, Object> values, Object key) {
+			this.definition = definition;
+			this.values = values;
+			this.key = key;
+		}
+	}
+
 	/**
 	 * Insert a batch of mixed new object with values
 	 * @param objects Objects to insert
@@ -261,6 +675,8 @@ public class ObjectMapper implements CObjectShardList {
 		logger.debug("Insert batch mixed");
 		List<CQLStatementIterator> statementIterators = Lists.newArrayList();
 		Object key = null;
+		List<InsertedObject> inserted = Lists.newArrayList();
+		List<CQLStatement> indexCountUpdates = Lists.newArrayList();
 		for(String objectType : objects.keySet()) {
 			for(Map<String, Object> values : objects.get(objectType)) {
 				//use the id that was passed in for the insert if it was provided. Otherwise assume the key is a timeuuid
@@ -274,9 +690,17 @@ public class ObjectMapper implements CObjectShardList {
 				long timestamp = System.currentTimeMillis();
 				CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, key, timestamp);
 				statementIterators.add(statementIterator);
+				recordShardPresence(keyspaceDefinition.getDefinitions().get(objectType), values, key);
+				inserted.add(new InsertedObject(keyspaceDefinition.getDefinitions().get(objectType), values, key));
+				addIndexCountUpdates(indexCountUpdates, keyspaceDefinition.getDefinitions().get(objectType), values, key, 1L);
 			}
 		}
+		addIndexCountIterator(statementIterators, indexCountUpdates);
 		executeStatements(statementIterators);
+		for(InsertedObject object : inserted) {
+			invalidateClosedShards(object.definition, object.values, object.key);
+			recordRecentHeadWrite(object.definition, null, object.values, object.key);
+		}
 		return key;
 	}
 
@@ -296,7 +720,14 @@ public class ObjectMapper implements CObjectShardList {
 		}
 		long timestamp = System.currentTimeMillis();
 		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforInsert(objectType, values, key, timestamp);
-		executeStatements(statementIterator);
+		recordShardPresence(keyspaceDefinition.getDefinitions().get(objectType), values, key);
+		List<CQLStatementIterator> statementIterators = Lists.<CQLStatementIterator>newArrayList(statementIterator);
+		List<CQLStatement> indexCountUpdates = Lists.newArrayList();
+		addIndexCountUpdates(indexCountUpdates, keyspaceDefinition.getDefinitions().get(objectType), values, key, 1L);
+		addIndexCountIterator(statementIterators, indexCountUpdates);
+		executeStatements(statementIterators);
+		invalidateClosedShards(keyspaceDefinition.getDefinitions().get(objectType), values, key);
+		recordRecentHeadWrite(keyspaceDefinition.getDefinitions().get(objectType), null, values, key);
 		return key;
 	}
 
@@ -341,7 +772,223 @@ public class ObjectMapper implements CObjectShardList {
 		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
 		Map<String, Object> values = getByKey(objectType, key);
 		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforDelete(objectType, key, values, null);
-		mapResults(statementIterator, def, 0L);
+		if(values == null) {
+			mapResults(statementIterator, def, 0L);
+			return;
+		}
+		try {
+			List<CQLStatementIterator> statementIterators = Lists.<CQLStatementIterator>newArrayList(statementIterator);
+			List<CQLStatement> indexCountUpdates = Lists.newArrayList();
+			addIndexCountUpdates(indexCountUpdates, def, values, key, -1L);
+			addIndexCountIterator(statementIterators, indexCountUpdates);
+			executeStatements(statementIterators);
+			invalidateClosedShards(def, values, key);
+			recordRecentHeadWrite(def, values, null, key);
+		} catch(CQLGenerationException e) {
+			throw new RhombusException("Unable to update index counts: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Delete every object matching a criteria
+	 * @param objectType Type of object to delete
+	 * @param criteria Criteria selecting the objects to delete
+	 * @return Number of objects deleted
+	 */
+	public long deleteWhere(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
+		return deleteWhere(objectType, criteria, null);
+	}
+
+	/**
+	 * Delete every object matching a criteria. Closed shards of the criteria index that lie entirely inside the time
+	 * range are read a page at a time, their objects are deleted from the static table and the other indexes, and the
+	 * shard is then removed with one partition delete and dropped from the shard index. Objects in the remaining
+	 * shards are listed and deleted row by row.
+	 * @param objectType Type of object to delete
+	 * @param criteria Criteria selecting the objects to delete
+	 * @param listener Listener notified after each batch of deletes, or null
+	 * @return Number of objects deleted
+	 */
+	public long deleteWhere(String objectType, Criteria criteria, @Nullable CObjectDeleteListener listener) throws CQLGenerationException, RhombusException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		boolean allowFiltering = criteria.getAllowFiltering() != null && criteria.getAllowFiltering();
+		CIndex index = def.getIndex(criteria.getIndexKeys(), allowFiltering);
+		if(index == null) {
+			throw new RhombusException("No index of " + objectType + " can be queried with " + criteria.getIndexKeys().keySet());
+		}
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		// Objects deleted and partitions deleted so far
+		long[] progress = {0L, 0L};
+		if(limit <= 0) {
+			for(Long shardId : getCoveredShardIds(def, index, criteria)) {
+				deleteShard(def, index, criteria.getIndexKeys(), shardId, progress, listener);
+			}
+		}
+
+		Set<Object> lastPage = Sets.newHashSet();
+		while(limit <= 0 || progress[0] < limit) {
+			Criteria page = new Criteria();
+			page.setIndexKeys(criteria.getIndexKeys());
+			page.setOrdering(criteria.getOrdering());
+			page.setStartUuid(criteria.getStartUuid());
+			page.setEndUuid(criteria.getEndUuid());
+			page.setInclusive(criteria.getInclusive());
+			page.setAllowFiltering(criteria.getAllowFiltering());
+			page.setLimit((limit <= 0) ? (long)multiGetBatchSize : Math.min(multiGetBatchSize, limit - progress[0]));
+			// Deleted objects drop out of the index, so every page starts from the beginning of the range
+			List<Map<String, Object>> objects = listFromIndex(def, page);
+			if(objects.isEmpty()) {
+				break;
+			}
+			Set<Object> ids = Sets.newHashSet();
+			for(Map<String, Object> object : objects) {
+				ids.add(object.get("id"));
+			}
+			if(lastPage.containsAll(ids)) {
+				throw new RhombusException("Deleted objects of " + objectType + " are still listed after " + progress[0] + " deletes");
+			}
+			deleteObjects(def, objects, null);
+			progress[0] += objects.size();
+			lastPage = ids;
+			reportDeleteProgress(listener, progress);
+		}
+		logger.info("Deleted {} objects of {}, {} with partition deletes", progress[0], objectType, progress[1]);
+		return progress[0];
+	}
+
+	/**
+	 * @return Shards of the criteria index that lie entirely inside the time range of the criteria and have closed,
+	 * or an empty list if the criteria can not be answered by partition deletes
+	 */
+	private List<Long> getCoveredShardIds(CDefinition def, CIndex index, Criteria criteria) throws CQLGenerationException {
+		TimebasedShardingStrategy strategy = index.getShardingStrategy();
+		// Filtered criteria only select some of the rows of a partition, and a resharded index has two layouts to clear
+		if(!def.getCompiled().isSharded(index) || !strategy.hasContiguousShardKeys() || index.getReshard() != null
+				|| !index.validateIndexKeys(criteria.getIndexKeys())) {
+			return Collections.emptyList();
+		}
+		UUID start = criteria.getStartUuid();
+		UUID end = criteria.getEndUuid();
+		Long startShardId = (start == null) ? null : Long.valueOf(strategy.getShardKey(UUIDs.unixTimestamp(start)) + 1);
+		// Shards that are still open may get writes after they were read, leave them to row deletes
+		long endShardId = strategy.getShardKey(UUIDs.unixTimestamp(getTimeUUIDAtEndOfConsistencyHorizion())) - 1;
+		if(end != null) {
+			endShardId = Math.min(endShardId, strategy.getShardKey(UUIDs.unixTimestamp(end)) - 1);
+		}
+		if(startShardId != null && startShardId > endShardId) {
+			return Collections.emptyList();
+		}
+		return getShardIdListInShardRange(def, index, criteria.getIndexKeys(), CObjectOrdering.DESCENDING, startShardId, endShardId);
+	}
+
+	/**
+	 * Delete every object in one shard of an index, then delete the partition of the index and its shard index entry
+	 */
+	private void deleteShard(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, long shardId, long[] progress,
+							 @Nullable CObjectDeleteListener listener) throws CQLGenerationException, RhombusException {
+		String keyspace = keyspaceDefinition.getName();
+		CompiledDefinition.CompiledIndex compiledIndex = def.getCompiled().getCompiledIndex(index);
+		Object before = null;
+		while(true) {
+			CQLStatement cql = CObjectCQLGenerator.makeCQLforShardPage(keyspace, def, index, indexValues, shardId, before, multiGetBatchSize);
+			List<Row> rows = Lists.newArrayList(mergeSubShardResults(executeSubShards(cql, compiledIndex), def, CObjectOrdering.DESCENDING, multiGetBatchSize));
+			if(rows.isEmpty()) {
+				break;
+			}
+			List<Map<String, Object>> objects;
+			if(compiledIndex.isThin()) {
+				objects = mapThinIndexRows(rows, def, compiledIndex, null, true);
+			} else {
+				objects = Lists.newArrayListWithCapacity(rows.size());
+				for(Row row : rows) {
+					objects.add(mapResult(row, def));
+				}
+			}
+			deleteObjects(def, objects, Collections.singleton(index));
+			progress[0] += objects.size();
+			reportDeleteProgress(listener, progress);
+			if(rows.size() < multiGetBatchSize) {
+				break;
+			}
+			before = getRowId(rows.get(rows.size() - 1), def);
+		}
+		deleteShardPartition(def, index, indexValues, shardId);
+		progress[1]++;
+		reportDeleteProgress(listener, progress);
+	}
+
+	/**
+	 * Delete one partition of an index along with its shard index entry and, for counted indexes, reset its counter
+	 * to zero. The partition must not be written again, so only closed shards should be deleted this way.
+	 * @param def Definition the index belongs to
+	 * @param index Index whose partition is deleted
+	 * @param indexValues Values of the index fields
+	 * @param shardId Time shard id of the partition
+	 */
+	protected void deleteShardPartition(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, long shardId) throws CQLGenerationException {
+		String keyspace = keyspaceDefinition.getName();
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		CQLStatement deleteShard = CObjectCQLGenerator.makeCQLforDeleteShard(keyspace, def, index, indexValues, shardId);
+		List<CQLStatement> partitionDeletes = index.getShardingStrategy().isSubSharded() ?
+				CObjectCQLGenerator.makeSubShardStatements(deleteShard, index.getShardingStrategy()) : Collections.singletonList(deleteShard);
+		for(CQLStatement partitionDelete : partitionDeletes) {
+			futures.add(cqlExecutor.executeAsync(partitionDelete));
+		}
+		for(CQLStatement shardIndexDelete : CObjectCQLGenerator.makeCQLforDeleteShardIndexEntry(keyspace, shardIndexKeyMode, def, index, indexValues, shardId)) {
+			futures.add(cqlExecutor.executeAsync(shardIndexDelete));
+		}
+		for(ResultSetFuture future : futures) {
+			future.getUninterruptibly();
+		}
+		if(index.isCounted()) {
+			resetIndexCount(def, index, indexValues, shardId);
+		}
+		ClosedShardResultCache cache = this.closedShardResultCache;
+		if(cache != null) {
+			cache.invalidateShard(CObjectCQLGenerator.makeTableName(def, index), shardId);
+		}
+	}
+
+	/**
+	 * Bring the counter of a shard back to zero. Counters can not be written again once they are deleted, so the
+	 * current count is read and subtracted instead. The shard must be closed so the count does not change meanwhile.
+	 */
+	private void resetIndexCount(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, long shardId) throws CQLGenerationException {
+		String keyspace = keyspaceDefinition.getName();
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		ShardIndexKey key = ShardIndexKey.fromValues(indexValues.values());
+		Row row = cqlExecutor.executeSync(CObjectCQLGenerator.makeCQLforGetIndexCounts(keyspace, tableName, key, shardId - 1, shardId + 1)).one();
+		if(row != null && row.getLong("rowcount") != 0) {
+			cqlExecutor.executeSync(CObjectCQLGenerator.makeCQLforIncrementIndexCount(keyspace, tableName, key.getEncoded(), shardId, -row.getLong("rowcount")));
+		}
+	}
+
+	/**
+	 * Delete a batch of objects in parallel
+	 * @param def Definition of the objects
+	 * @param objects Complete values of the objects, including their ids
+	 * @param skippedIndexes Indexes whose rows are left for a partition delete, or null
+	 */
+	protected void deleteObjects(CDefinition def, List<Map<String, Object>> objects, @Nullable Collection<CIndex> skippedIndexes) throws CQLGenerationException, RhombusException {
+		List<CQLStatementIterator> statementIterators = Lists.newArrayListWithCapacity(objects.size() + 1);
+		List<CQLStatement> indexCountUpdates = Lists.newArrayList();
+		for(Map<String, Object> object : objects) {
+			statementIterators.add(CObjectCQLGenerator.makeCQLforDelete(keyspaceDefinition.getName(), def, (UUID)object.get("id"), object, null, skippedIndexes));
+			addIndexCountUpdates(indexCountUpdates, def, object, object.get("id"), -1L);
+		}
+		addIndexCountIterator(statementIterators, indexCountUpdates);
+		executeStatements(statementIterators);
+		for(Map<String, Object> object : objects) {
+			Object key = object.get("id");
+			invalidateClosedShards(def, object, key);
+			recordRecentHeadWrite(def, object, null, key);
+		}
+	}
+
+	private static void reportDeleteProgress(@Nullable CObjectDeleteListener listener, long[] progress) {
+		if(listener != null) {
+			listener.onProgress(progress[0], progress[1]);
+		}
 	}
 
 	public void deleteObsoleteIndex(IndexUpdateRow row, CIndex index, Map<String,Object> indexValues){
@@ -377,8 +1024,23 @@ public class ObjectMapper implements CObjectShardList {
 
 		//(2) Pass it all into the cql generator so it can create the right statements
 		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforUpdate(keyspaceDefinition.getName(), def, key, oldversion, values);
-		executeStatements(statementIterator);
+		CQLStatementIterator statementIterator = CObjectCQLGenerator.makeCQLforUpdate(keyspaceDefinition.getName(), def, key, oldversion, values, shardIndexKeyMode, writeIndexValuesJson);
+		Map<String, Object> newVersion = null;
+		List<CQLStatementIterator> statementIterators = Lists.<CQLStatementIterator>newArrayList(statementIterator);
+		if(oldversion != null) {
+			newVersion = Maps.newHashMap(oldversion);
+			newVersion.putAll(values);
+			recordShardPresence(def, newVersion, key);
+			List<CQLStatement> indexCountUpdates = Lists.newArrayList();
+			addIndexCountMoves(indexCountUpdates, def, oldversion, newVersion, key);
+			addIndexCountIterator(statementIterators, indexCountUpdates);
+		}
+		executeStatements(statementIterators);
+		if(newVersion != null) {
+			invalidateClosedShards(def, oldversion, key);
+			invalidateClosedShards(def, newVersion, key);
+			recordRecentHeadWrite(def, oldversion, newVersion, key);
+		}
 		return key;
 	}
 
@@ -412,37 +1074,635 @@ public class ObjectMapper implements CObjectShardList {
 	}
 
 	/**
-	 *
+	 * Fetch several objects from the static table concurrently
 	 * @param objectType Type of object to get
-	 * @return Class of the id field for this object
+	 * @param keys Keys of the objects to get
+	 * @return Objects in the order of keys, skipping keys that do not exist
 	 */
-	public Class getTypeOfKey(String objectType){
+	public List<Map<String, Object>> getByKeys(String objectType, List<?> keys) {
 		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		return def.getPrimaryKeyClass();
+		return getByKeys(def, keys);
+	}
+
+	private List<Map<String, Object>> getByKeys(CDefinition def, List<?> keys) {
+		List<Map<String, Object>> results = Lists.newArrayListWithCapacity(keys.size());
+		for(int batchStart = 0; batchStart < keys.size(); batchStart += multiGetBatchSize) {
+			List<?> batch = keys.subList(batchStart, Math.min(keys.size(), batchStart + multiGetBatchSize));
+			List<ResultSetFuture> futures = Lists.newArrayListWithCapacity(batch.size());
+			for(Object key : batch) {
+				futures.add(cqlExecutor.executeHedgedAsync(cqlGenerator.makeCQLforGet(def.getName(), key).next()));
+			}
+			// Collect in key order so callers see the same ordering as the index they paged the keys from
+			for(ResultSetFuture future : futures) {
+				Row row = future.getUninterruptibly().one();
+				if(row != null) {
+					results.add(mapResult(row, def));
+				}
+			}
+		}
+		return results;
 	}
 
 	/**
-	 * @param objectType Type of object to query
-	 * @param criteria Criteria to query by
-	 * @return List of objects that match the specified type and criteria
-	 * @throws CQLGenerationException
+	 * Get an object without blocking, mapping it on the mapping executor
+	 * @param objectType Type of object to get
+	 * @param key Key of object to get
+	 * @return Future of the object of type with key, or of null if it does not exist
 	 */
-	public List<Map<String, Object>> list(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
-		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
-		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, false);
-		return mapResults(statementIterator, def, criteria.getLimit());
+	public ListenableFuture<Map<String, Object>> getByKeyAsync(String objectType, Object key) {
+		return getByKeyAsync(keyspaceDefinition.getDefinitions().get(objectType), key);
+	}
+
+	private ListenableFuture<Map<String, Object>> getByKeyAsync(final CDefinition def, Object key) {
+		return Futures.transform(cqlExecutor.executeHedgedAsync(cqlGenerator.makeCQLforGet(def.getName(), key).next()), new Function<ResultSet, Map<String, Object>>() {
+			@Override
+			public Map<String, Object> apply(ResultSet resultSet) {
+				Row row = resultSet.one();
+				return (row == null) ? null : mapResult(row, def);
+			}
+		}, mappingExecutor);
 	}
 
 	/**
-	 * @param objectType Type of object to count
+	 * Asynchronous version of getByKeys, reading multiGetBatchSize keys at a time
+	 * @return Future of the objects in the order of keys, skipping keys that do not exist
+	 */
+	private ListenableFuture<List<Map<String, Object>>> getByKeysAsync(CDefinition def, List<?> keys) {
+		return getByKeysAsync(def, keys, 0, Lists.<Map<String, Object>>newArrayListWithCapacity(keys.size()));
+	}
+
+	/**
+	 * Read the batch of keys starting at batchStart, then the batches after it
+	 * @param results Objects read from the batches before batchStart, the objects found are added to it
+	 */
+	private ListenableFuture<List<Map<String, Object>>> getByKeysAsync(final CDefinition def, final List<?> keys, final int batchStart, final List<Map<String, Object>> results) {
+		if(batchStart >= keys.size()) {
+			return Futures.immediateFuture(results);
+		}
+		List<?> batch = keys.subList(batchStart, Math.min(keys.size(), batchStart + multiGetBatchSize));
+		List<ListenableFuture<Map<String, Object>>> futures = Lists.newArrayListWithCapacity(batch.size());
+		for(Object key : batch) {
+			futures.add(getByKeyAsync(def, key));
+		}
+		return Futures.transform(Futures.allAsList(futures), new AsyncFunction<List<Map<String, Object>>, List<Map<String, Object>>>() {
+			@Override
+			public ListenableFuture<List<Map<String, Object>>> apply(List<Map<String, Object>> objects) {
+				for(Map<String, Object> object : objects) {
+					if(object != null) {
+						results.add(object);
+					}
+				}
+				return getByKeysAsync(def, keys, batchStart + multiGetBatchSize, results);
+			}
+		}, mappingExecutor);
+	}
+
+	/**
+	 *
+	 * @param objectType Type of object to get
+	 * @return Class of the id field for this object
+	 */
+	public Class getTypeOfKey(String objectType){
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		return def.getPrimaryKeyClass();
+	}
+
+	/**
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by
+	 * @return List of objects that match the specified type and criteria
+	 * @throws CQLGenerationException
+	 */
+	public List<Map<String, Object>> list(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		List<Map<String, Object>> recent = listFromRecentHead(def, criteria);
+		if(recent != null) {
+			return recent;
+		}
+		return listFromIndex(def, criteria);
+	}
+
+	/**
+	 * List objects without blocking. The shard index lookup, the statement of each shard and the fetches of thin
+	 * indexes are chained as futures, and rows are mapped on the mapping executor. Unlike list, the recent head
+	 * cache is only used when it already holds the head of the index values.
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by
+	 * @return Future of the objects that match the specified type and criteria
+	 */
+	public ListenableFuture<List<Map<String, Object>>> listAsync(String objectType, final Criteria criteria) throws CQLGenerationException, RhombusException {
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		List<Map<String, Object>> recent = listFromRecentHead(def, criteria, false);
+		if(recent != null) {
+			return Futures.immediateFuture(recent);
+		}
+		final CompiledDefinition.CompiledIndex index = getCompiledIndex(def, criteria);
+		final CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering() : CObjectOrdering.DESCENDING);
+		return Futures.transform(makeCQLforListAsync(def, criteria, false), new AsyncFunction<CQLStatementIterator, List<Map<String, Object>>>() {
+			@Override
+			public ListenableFuture<List<Map<String, Object>>> apply(CQLStatementIterator statementIterator) {
+				return mapResultsAsync(statementIterator, def, index, ordering, criteria.getLimit());
+			}
+		}, mappingExecutor);
+	}
+
+	/**
+	 * Publish the objects list would return to Reactive Streams subscribers, reading shards and pages of rows only
+	 * as the subscriber requests objects
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by
+	 * @return Publisher of the objects that match the specified type and criteria
+	 */
+	public Publisher<Map<String, Object>> publish(String objectType, Criteria criteria) {
+		return publish(objectType, criteria, ListPublisher.DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by
+	 * @param pageSize Number of rows fetched from the driver at a time
+	 * @return Publisher of the objects that match the specified type and criteria
+	 */
+	public Publisher<Map<String, Object>> publish(String objectType, Criteria criteria, int pageSize) {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		return new ListPublisher(this, def, criteria, getCompiledIndex(def, criteria), pageSize);
+	}
+
+	/**
+	 * Make the statements of a list or count, reading the shard index without blocking
+	 * @return Future of the statements of the criteria
+	 */
+	protected ListenableFuture<CQLStatementIterator> makeCQLforListAsync(final CDefinition def, final Criteria criteria, final boolean countOnly) throws CQLGenerationException {
+		return Futures.transform(getShardListAsync(def, criteria), new AsyncFunction<CObjectShardList, CQLStatementIterator>() {
+			@Override
+			public ListenableFuture<CQLStatementIterator> apply(CObjectShardList shardList) throws Exception {
+				return Futures.immediateFuture(cqlGenerator.makeCQLforList(def.getName(), criteria, countOnly, shardList));
+			}
+		}, mappingExecutor);
+	}
+
+	/**
+	 * Write the objects list would return as a JSON array, straight from the rows of the index instead of mapping
+	 * them first. Client filters and limits are applied as list applies them. Results answered from the recent head,
+	 * from the closed shard result cache or through a thin index are already mapped and are written from their maps.
+	 * Rows streamed from closed shards are not added to the closed shard result cache.
+	 * @param objectType Type of object to query
+	 * @param criteria Criteria to query by
+	 * @param out Stream to write the UTF-8 encoded JSON to, left open
+	 * @return Number of objects written
+	 */
+	public long listToJson(String objectType, Criteria criteria, OutputStream out) throws CQLGenerationException, RhombusException, IOException {
+		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		final CObjectJsonWriter writer = new CObjectJsonWriter(def);
+		final JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+		try {
+			generator.writeStartArray();
+			long written = visitList(def, criteria, new ResultVisitor() {
+				public void visitRow(Row row) throws IOException {
+					writer.writeRow(generator, row);
+				}
+
+				public void visitObject(Map<String, Object> object) throws IOException {
+					writer.writeObject(generator, object);
+				}
+			});
+			generator.writeEndArray();
+			return written;
+		} finally {
+			// Flushes the generator without closing the stream
+			generator.close();
+		}
+	}
+
+	/**
+	 * Visit the objects list would return, handing rows of the index to the visitor as they are read when the
+	 * results are not already mapped
+	 * @return Number of objects visited
+	 */
+	private long visitList(CDefinition def, Criteria criteria, ResultVisitor visitor) throws CQLGenerationException, RhombusException, IOException {
+		List<Map<String, Object>> results = listFromRecentHead(def, criteria);
+		CQLStatementIterator statementIterator = null;
+		CompiledDefinition.CompiledIndex index = null;
+		CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering() : CObjectOrdering.DESCENDING);
+		if(results == null) {
+			statementIterator = cqlGenerator.makeCQLforList(def.getName(), criteria, false);
+			index = getCompiledIndex(def, criteria);
+			if(index != null && index.isThin()) {
+				results = mapThinResults(statementIterator, def, index, ordering, criteria.getLimit());
+			}
+		}
+		if(results == null) {
+			return visitResults(statementIterator, def, index, ordering, criteria.getLimit(), visitor);
+		}
+		for(Map<String, Object> result : results) {
+			visitor.visitObject(result);
+		}
+		return results.size();
+	}
+
+	/**
+	 * Insert an entity, setting its id to the generated key if it has none
+	 * @param entity Instance of a class annotated with RhombusEntity
+	 * @return Key of the inserted object
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Object insert(T entity) throws CQLGenerationException, RhombusException {
+		EntityCodec<T> codec = getEntityCodec((Class<T>)entity.getClass());
+		Object key = insert(codec.getObjectType(), codec.encode(entity), codec.getId(entity));
+		codec.setId(entity, key);
+		return key;
+	}
+
+	/**
+	 * @param entityClass Class annotated with RhombusEntity
+	 * @param key Key of the object to get
+	 * @return Entity with key or null if it does not exist
+	 */
+	public <T> T getByKey(Class<T> entityClass, Object key) {
+		EntityCodec<T> codec = getEntityCodec(entityClass);
+		Row row = cqlExecutor.executeHedgedSync(cqlGenerator.makeCQLforGet(codec.getObjectType(), key).next()).one();
+		return (row == null) ? null : codec.decode(row);
+	}
+
+	/**
+	 * List entities as list lists objects, decoding rows of the index straight into entities
+	 * @param entityClass Class annotated with RhombusEntity
+	 * @param criteria Criteria to query by
+	 * @return Entities that match the criteria
+	 */
+	public <T> List<T> list(Class<T> entityClass, Criteria criteria) throws CQLGenerationException, RhombusException {
+		final EntityCodec<T> codec = getEntityCodec(entityClass);
+		final List<T> results = Lists.newArrayList();
+		try {
+			visitList(keyspaceDefinition.getDefinitions().get(codec.getObjectType()), criteria, new ResultVisitor() {
+				public void visitRow(Row row) {
+					results.add(codec.decode(row));
+				}
+
+				public void visitObject(Map<String, Object> object) {
+					results.add(codec.fromMap(object));
+				}
+			});
+		} catch(IOException e) {
+			// The visitor does not do any IO
+			throw new IllegalStateException(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Check that entity classes match the keyspace definition, so mismatches are found at startup instead of on
+	 * their first use
+	 * @param entityClasses Classes annotated with RhombusEntity
+	 * @throws IllegalArgumentException If a class has no codec or does not match its definition
+	 */
+	public void validateEntities(Class<?>... entityClasses) {
+		for(Class<?> entityClass : entityClasses) {
+			getEntityCodec(entityClass);
+		}
+	}
+
+	/**
+	 * @return Codec of an entity class, validated against the current definition of its object type
+	 */
+	private <T> EntityCodec<T> getEntityCodec(Class<T> entityClass) {
+		EntityCodec<T> codec = EntityCodecs.get(entityClass);
+		CDefinition def = keyspaceDefinition.getDefinitions().get(codec.getObjectType());
+		if(def == null) {
+			throw new IllegalArgumentException("Entity " + entityClass.getName() + " maps to " + codec.getObjectType() +
+					" which is not defined in keyspace " + keyspaceDefinition.getName());
+		}
+		if(validatedEntityCodecs.get(codec) != def) {
+			EntityCodecs.validate(codec, def);
+			validatedEntityCodecs.put(codec, def);
+		}
+		return codec;
+	}
+
+	private List<Map<String, Object>> listFromIndex(CDefinition def, Criteria criteria) throws CQLGenerationException, RhombusException {
+		String objectType = def.getName();
+		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, false);
+		CompiledDefinition.CompiledIndex index = getCompiledIndex(def, criteria);
+		CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering() : CObjectOrdering.DESCENDING);
+		if(index != null && index.isThin()) {
+			return mapThinResults(statementIterator, def, index, ordering, criteria.getLimit());
+		}
+		return mapResults(statementIterator, def, index, ordering, criteria.getLimit());
+	}
+
+	/**
+	 * Answer a descending list of the newest objects of a set of index values from the recent head cache,
+	 * loading the head from the index on a miss
+	 * @return Objects matching the criteria, or null if the criteria can not be answered from the head
+	 */
+	@Nullable
+	private List<Map<String, Object>> listFromRecentHead(CDefinition def, Criteria criteria) throws CQLGenerationException, RhombusException {
+		return listFromRecentHead(def, criteria, true);
+	}
+
+	/**
+	 * @param load false to only answer from a head the cache already holds
+	 * @return Objects matching the criteria, or null if the criteria can not be answered from the head
+	 */
+	@Nullable
+	private List<Map<String, Object>> listFromRecentHead(CDefinition def, Criteria criteria, boolean load) throws CQLGenerationException, RhombusException {
+		RecentHeadCache cache = this.recentHeadCache;
+		if(cache == null || criteria.getOrdering() == CObjectOrdering.ASCENDING || criteria.getStartUuid() != null || criteria.getEndUuid() != null) {
+			return null;
+		}
+		long limit = (criteria.getLimit() == null) ? 0L : criteria.getLimit();
+		boolean allowFiltering = criteria.getAllowFiltering() != null && criteria.getAllowFiltering();
+		SortedMap<String, Object> indexValues = criteria.getIndexKeys();
+		CIndex index = def.getIndex(indexValues, allowFiltering);
+		if(limit <= 0 || index == null || limit > index.getRecentHeadSize() || !index.validateIndexKeys(indexValues)) {
+			return null;
+		}
+		List<Map<String, Object>> recent = cache.list(def, index, indexValues, limit);
+		if(recent != null || !load) {
+			return recent;
+		}
+		Object loading = cache.beginLoad(def, index, indexValues);
+		if(loading == null) {
+			return null;
+		}
+		Criteria headCriteria = new Criteria();
+		headCriteria.setIndexKeys(indexValues);
+		headCriteria.setOrdering(CObjectOrdering.DESCENDING);
+		headCriteria.setLimit((long)index.getRecentHeadSize());
+		List<Map<String, Object>> head = null;
+		try {
+			head = listFromIndex(def, headCriteria);
+		} finally {
+			cache.completeLoad(loading, head);
+		}
+		return Lists.newArrayList(head.subList(0, (int)Math.min(limit, head.size())));
+	}
+
+	/**
+	 * @param objectType Type of object to count
 	 * @param criteria Criteria to count by
 	 * @return number of items matching the criteria
 	 * @throws CQLGenerationException
 	 */
 	public long count(String objectType, Criteria criteria) throws CQLGenerationException, RhombusException {
 		CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		Long counted = countFromIndexCounts(def, criteria);
+		if(counted != null) {
+			return counted;
+		}
 		CQLStatementIterator statementIterator = cqlGenerator.makeCQLforList(objectType, criteria, true);
-		return mapCount(statementIterator, def, criteria.getLimit());
+		return mapCount(statementIterator, def, getCompiledIndex(def, criteria), criteria.getLimit());
+	}
+
+	/**
+	 * Count objects without blocking, chaining the shard index lookup and the count of each shard as futures
+	 * @param objectType Type of object to count
+	 * @param criteria Criteria to count by
+	 * @return Future of the number of items matching the criteria
+	 */
+	public ListenableFuture<Long> countAsync(String objectType, final Criteria criteria) throws CQLGenerationException, RhombusException {
+		final CDefinition def = keyspaceDefinition.getDefinitions().get(objectType);
+		ListenableFuture<Long> counted = countFromIndexCountsAsync(def, criteria);
+		if(counted != null) {
+			return counted;
+		}
+		final CompiledDefinition.CompiledIndex index = getCompiledIndex(def, criteria);
+		return Futures.transform(makeCQLforListAsync(def, criteria, true), new AsyncFunction<CQLStatementIterator, Long>() {
+			@Override
+			public ListenableFuture<Long> apply(CQLStatementIterator statementIterator) {
+				return mapCountAsync(statementIterator, def, index, criteria.getLimit());
+			}
+		}, mappingExecutor);
+	}
+
+	/**
+	 * Count from the index counts table. Shards entirely inside the time range of the criteria are summed from their
+	 * counters, the shards holding the start and the end of the range are counted from the index table.
+	 * @return Number of objects matching the criteria, or null if the index is not counted or the criteria filter on other fields
+	 */
+	@Nullable
+	private Long countFromIndexCounts(CDefinition def, Criteria criteria) throws CQLGenerationException {
+		ListenableFuture<Long> counted = countFromIndexCountsAsync(def, criteria);
+		return (counted == null) ? null : getUninterruptibly(counted);
+	}
+
+	/**
+	 * Asynchronous version of countFromIndexCounts
+	 * @return Future of the number of objects matching the criteria, or null if the index is not counted or the criteria filter on other fields
+	 */
+	@Nullable
+	private ListenableFuture<Long> countFromIndexCountsAsync(CDefinition def, final Criteria criteria) throws CQLGenerationException {
+		boolean allowFiltering = criteria.getAllowFiltering() != null && criteria.getAllowFiltering();
+		SortedMap<String, Object> indexValues = criteria.getIndexKeys();
+		CIndex index = def.getIndex(indexValues, allowFiltering);
+		if(index == null || !index.isCounted() || !index.validateIndexKeys(indexValues)) {
+			return null;
+		}
+		TimebasedShardingStrategy strategy = index.getShardingStrategy();
+		if(def.getCompiled().isSharded(index) && !strategy.hasContiguousShardKeys()) {
+			return null;
+		}
+		UUID start = criteria.getStartUuid();
+		UUID end = criteria.getEndUuid();
+		Long startShardId = (start == null) ? null : strategy.getShardKey(UUIDs.unixTimestamp(start));
+		Long endShardId = (end == null) ? null : strategy.getShardKey(UUIDs.unixTimestamp(end));
+		if(startShardId != null && startShardId.equals(endShardId)) {
+			// The whole range is inside one shard, there is nothing to sum
+			return null;
+		}
+
+		String keyspace = keyspaceDefinition.getName();
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		boolean inclusive = criteria.getInclusive() != null && criteria.getInclusive();
+		long limit = (criteria.getLimit() != null && criteria.getLimit() > 0) ? criteria.getLimit() : Integer.MAX_VALUE;
+		List<CQLStatement> boundaryCounts = Lists.newArrayList();
+		if(startShardId != null) {
+			boundaryCounts.add(CObjectCQLGenerator.makeCQLforShardRowCountInRange(keyspace, def, index, indexValues, startShardId, start, null, inclusive, limit));
+		}
+		if(endShardId != null) {
+			boundaryCounts.add(CObjectCQLGenerator.makeCQLforShardRowCountInRange(keyspace, def, index, indexValues, endShardId, null, end, inclusive, limit));
+		}
+
+		// Every sub shard of the boundary shards first, the counters last
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		CompiledDefinition.CompiledIndex compiledIndex = def.getCompiled().getCompiledIndex(index);
+		for(CQLStatement boundaryCount : boundaryCounts) {
+			futures.addAll(executeSubShardsAsync(boundaryCount, compiledIndex));
+		}
+		futures.add(cqlExecutor.executeAsync(CObjectCQLGenerator.makeCQLforGetIndexCounts(
+				keyspace, tableName, ShardIndexKey.fromValues(indexValues.values()), startShardId, endShardId)));
+		return Futures.transform(Futures.allAsList(futures), new Function<List<ResultSet>, Long>() {
+			@Override
+			public Long apply(List<ResultSet> resultSets) {
+				long count = 0;
+				for(ResultSet resultSet : resultSets.subList(0, resultSets.size() - 1)) {
+					count += resultSet.one().getLong(0);
+				}
+				for(Row row : resultSets.get(resultSets.size() - 1)) {
+					count += row.getLong("rowcount");
+				}
+				// Counters can briefly go negative when a delete is counted before the matching insert
+				count = Math.max(count, 0L);
+				return (criteria.getLimit() != null && criteria.getLimit() > 0) ? Math.min(count, criteria.getLimit()) : count;
+			}
+		});
+	}
+
+	/**
+	 * Add the counter updates of every counted index an object is written to. They are sent with the other statements
+	 * of the write and, as counter updates are not idempotent, never retried. A write that is retried by the caller
+	 * or only partly applied leaves the counters off until RecomputeIndexCounts repairs them.
+	 * @param updates Counter updates to add to
+	 * @param def Definition of the object
+	 * @param data Complete values of the object
+	 * @param key Id of the object
+	 * @param delta 1 for an object written, -1 for an object removed
+	 */
+	private void addIndexCountUpdates(List<CQLStatement> updates, CDefinition def, Map<String, Object> data, Object key, long delta) throws CQLGenerationException {
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			if(index.isCounted() && index.validateIndexKeys(index.getIndexKeyAndValues(data))) {
+				updates.add(makeIndexCountIncrement(def, index, data, key, delta));
+			}
+		}
+	}
+
+	/**
+	 * Add the counter updates moving the counts of an updated object from the index values it had to the ones it has now
+	 */
+	private void addIndexCountMoves(List<CQLStatement> updates, CDefinition def, Map<String, Object> oldVersion, Map<String, Object> newVersion, Object key) throws CQLGenerationException {
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			if(!index.isCounted()) {
+				continue;
+			}
+			boolean wasIndexed = index.validateIndexKeys(index.getIndexKeyAndValues(oldVersion));
+			boolean isIndexed = index.validateIndexKeys(index.getIndexKeyAndValues(newVersion));
+			if(wasIndexed && isIndexed && index.getIndexValues(oldVersion).equals(index.getIndexValues(newVersion))) {
+				continue;
+			}
+			if(wasIndexed) {
+				updates.add(makeIndexCountIncrement(def, index, oldVersion, key, -1L));
+			}
+			if(isIndexed) {
+				updates.add(makeIndexCountIncrement(def, index, newVersion, key, 1L));
+			}
+		}
+	}
+
+	private static void addIndexCountIterator(List<CQLStatementIterator> statementIterators, List<CQLStatement> indexCountUpdates) {
+		if(!indexCountUpdates.isEmpty()) {
+			statementIterators.add(new BoundedCQLStatementIterator(indexCountUpdates));
+		}
+	}
+
+	private CQLStatement makeIndexCountIncrement(CDefinition def, CIndex index, Map<String, Object> data, Object key, long delta) throws CQLGenerationException {
+		return CObjectCQLGenerator.makeCQLforIncrementIndexCount(keyspaceDefinition.getName(), CObjectCQLGenerator.makeTableName(def, index),
+				ShardIndexKey.fromValues(index.getIndexValues(data)).getEncoded(), index.getShardingStrategy().getShardKey(key, def, index, data), delta);
+	}
+
+	/**
+	 * @param hashed true to scan the hashed shard index, false to scan the legacy one
+	 * @return Every row of the shard index
+	 */
+	protected Iterable<Row> scanShardIndex(boolean hashed) {
+		CQLStatement cql = hashed ? cqlGenerator.makeCQLforHashedShardIndexTableScan() : cqlGenerator.makeCQLforShardIndexTableScan();
+		Statement scan = new SimpleStatement(cql.getQuery());
+		scan.setFetchSize(1000);
+		return session.execute(scan);
+	}
+
+	/**
+	 * @return Every row of the index counts table
+	 */
+	protected Iterable<Row> scanIndexCounts() {
+		Statement scan = new SimpleStatement(cqlGenerator.makeCQLforIndexCountsTableScan().getQuery());
+		scan.setFetchSize(1000);
+		return session.execute(scan);
+	}
+
+	/**
+	 * @param tableName Name of the index table
+	 * @param indexKey Encoded shard index key of the index values
+	 * @param shardId Time shard id
+	 * @param delta Amount to add to the row count of the shard
+	 */
+	protected void incrementIndexCount(String tableName, ByteBuffer indexKey, long shardId, long delta) {
+		cqlExecutor.executeSync(CObjectCQLGenerator.makeCQLforIncrementIndexCount(keyspaceDefinition.getName(), tableName, indexKey, shardId, delta));
+	}
+
+	/**
+	 * Read what makeCQLforList needs from the shard index without blocking. Unbounded queries on sharded indexes
+	 * read their shard ids from the shard index, and bounded ones preload their entry of the shard presence cache.
+	 * @return Future of the shard list to make the statements of the criteria with
+	 */
+	private ListenableFuture<CObjectShardList> getShardListAsync(CDefinition def, Criteria criteria) throws CQLGenerationException {
+		final CObjectShardList self = this;
+		boolean allowFiltering = criteria.getAllowFiltering() != null && criteria.getAllowFiltering();
+		CIndex index = def.getIndex(criteria.getIndexKeys(), allowFiltering);
+		if(index == null || !def.getCompiled().isSharded(index)) {
+			return Futures.immediateFuture(self);
+		}
+		// Index values without the fields filtered by the client, as makeCQLforList queries them
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		for(Map.Entry<String, Object> entry : criteria.getIndexKeys().entrySet()) {
+			if(index.getCompositeKeyList().contains(entry.getKey())) {
+				indexValues.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if(!index.validateIndexKeys(indexValues)) {
+			// Let makeCQLforList report the invalid criteria
+			return Futures.immediateFuture(self);
+		}
+		TimebasedShardingStrategy strategy = index.getShardingStrategy();
+		if(criteria.getStartUuid() != null && strategy.hasContiguousShardKeys()) {
+			// Bounded query, makeCQLforList only asks the shard presence cache
+			ShardPresenceCache cache = this.shardPresenceCache;
+			if(cache == null) {
+				return Futures.immediateFuture(self);
+			}
+			return Futures.transform(cache.preload(def, index, indexValues), new Function<Object, CObjectShardList>() {
+				@Override
+				public CObjectShardList apply(Object loaded) {
+					return self;
+				}
+			});
+		}
+		CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering() : CObjectOrdering.DESCENDING);
+		UUID end = (criteria.getEndUuid() == null) ? UUIDs.startOf(System.currentTimeMillis()) : criteria.getEndUuid();
+		Long startShardId = (criteria.getStartUuid() == null) ? null : Long.valueOf(strategy.getShardKeyLowerBound(UUIDs.unixTimestamp(criteria.getStartUuid())));
+		Long endShardId = Long.valueOf(strategy.getShardKeyUpperBound(UUIDs.unixTimestamp(end)));
+		return Futures.transform(getShardIdListInShardRangeAsync(def, index, indexValues, ordering, startShardId, endShardId), new Function<List<Long>, CObjectShardList>() {
+			@Override
+			public CObjectShardList apply(final List<Long> shardIds) {
+				return new CObjectShardList() {
+					@Override
+					public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+						return shardIds;
+					}
+				};
+			}
+		});
+	}
+
+	/**
+	 * Wait for a future, rethrowing the runtime exceptions it failed with
+	 */
+	private static <T> T getUninterruptibly(ListenableFuture<T> future) {
+		try {
+			return Uninterruptibles.getUninterruptibly(future);
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof DriverException) {
+				// Copy so the stack trace includes the waiting thread
+				throw ((DriverException)cause).copy();
+			}
+			Throwables.propagateIfPossible(cause);
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private CompiledDefinition.CompiledIndex getCompiledIndex(CDefinition def, Criteria criteria) {
+		boolean allowFiltering = criteria.getAllowFiltering() != null && criteria.getAllowFiltering();
+		return def.getCompiled().getCompiledIndex(def.getIndex(criteria.getIndexKeys(), allowFiltering));
 	}
 
 	public void visitObjects(String objectType, CObjectVisitor visitor){
@@ -462,12 +1722,172 @@ public class ObjectMapper implements CObjectShardList {
 	}
 
 
+	/**
+	 * Visit every object whose id falls in a token range of the static table
+	 * @param def Definition of the objects
+	 * @param startToken Exclusive start token
+	 * @param endToken Inclusive end token
+	 * @param visitor Visitor to call for each object
+	 */
+	protected void visitObjectsInTokenRange(CDefinition def, long startToken, long endToken, CObjectVisitor visitor){
+		CQLStatement statement = CObjectCQLGenerator.makeCQLforTableScanInTokenRange(keyspaceDefinition.getName(), def, startToken, endToken);
+		BoundStatement s = cqlExecutor.getBoundStatement(session, statement);
+		s.setFetchSize(200);
+		for(Row row : session.execute(s)){
+			Map<String,Object> obj = this.mapResult(row, def);
+			if(visitor.shouldInclude(obj)){
+				visitor.visit(obj);
+			}
+		}
+	}
+
+	/**
+	 * Visit every object whose id falls in a token range of the static table along with the time it was last written
+	 * @param def Definition of the objects
+	 * @param startToken Exclusive start token
+	 * @param endToken Inclusive end token
+	 * @param visitor Visitor to call for each object
+	 */
+	protected void visitObjectWriteTimesInTokenRange(CDefinition def, long startToken, long endToken, WriteTimeVisitor visitor){
+		CQLStatement statement = CObjectCQLGenerator.makeCQLforTableScanWithWriteTimesInTokenRange(keyspaceDefinition.getName(), def, startToken, endToken);
+		int fieldCount = def.getCompiled().getNonIdFields().size();
+		// Anything written after the scan starts has a later write time
+		long scanStart = System.currentTimeMillis() * 1000;
+		BoundStatement s = cqlExecutor.getBoundStatement(session, statement);
+		s.setFetchSize(200);
+		for(Row row : session.execute(s)){
+			long writeTime = Long.MIN_VALUE;
+			for(int i = 1 + fieldCount; i < 1 + 2 * fieldCount; i++){
+				if(!row.isNull(i)){
+					writeTime = Math.max(writeTime, row.getLong(i));
+				}
+			}
+			visitor.visit(this.mapResult(row, def), writeTime == Long.MIN_VALUE ? scanStart : writeTime);
+		}
+	}
+
+	/**
+	 * Receives the objects of a static table scan
+	 */
+	interface WriteTimeVisitor {
+		/**
+		 * @param object Object read from the static table
+		 * @param writeTime Newest write time of the columns of the object in microseconds, or the time the scan
+		 *                  started if none of its columns are set
+		 */
+		void visit(Map<String, Object> object, long writeTime);
+	}
+
+	/**
+	 * Count the rows stored for index values in one layout of an index, without applying the consistency horizon
+	 * @param def Definition the index belongs to
+	 * @param index Layout of the index to count
+	 * @param indexValues Values of the index fields
+	 * @return Number of rows in every shard of the layout
+	 */
+	protected long countIndexRows(CDefinition def, CIndex index, SortedMap<String, Object> indexValues) throws CQLGenerationException {
+		String keyspace = keyspaceDefinition.getName();
+		TimebasedShardingStrategy strategy = index.getShardingStrategy();
+		List<Long> shardIds = def.getCompiled().isSharded(index) ?
+				getShardIdListInShardRange(def, index, indexValues, CObjectOrdering.ASCENDING, null, null) :
+				Lists.newArrayList(strategy.getShardKey(0L));
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		for(Long shardId : shardIds) {
+			for(long subShardKey : strategy.getSubShardKeys(shardId)) {
+				futures.add(cqlExecutor.executeAsync(CObjectCQLGenerator.makeCQLforShardRowCount(keyspace, def, index, indexValues, subShardKey, Integer.MAX_VALUE)));
+			}
+		}
+		long count = 0;
+		for(ResultSetFuture future : futures) {
+			count += future.getUninterruptibly().one().getLong(0);
+		}
+		return count;
+	}
+
+	/**
+	 * Create the table of a new layout of an index
+	 * @param def Definition the index belongs to
+	 * @param layout Layout of the index
+	 */
+	protected void createIndexLayoutTable(CDefinition def, CIndex layout) {
+		CQLStatement cql = cqlGenerator.makeWideTableCreate(def, layout);
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created index layout table with cql: {}", cql.getQuery());
+		} catch(AlreadyExistsException e) {
+			logger.debug("Index layout table already exists");
+		}
+	}
+
+	protected void dropIndexLayoutTable(CDefinition def, CIndex layout) {
+		cqlExecutor.executeSync(cqlGenerator.makeCQLforIndexTableDrop(def, layout));
+	}
+
+	protected void createReshardProgressTableIfNotExists() {
+		CQLStatement cql = cqlGenerator.makeCQLforReshardProgressTableCreate();
+		try {
+			cqlExecutor.executeSync(cql);
+			logger.debug("Created reshard progress table");
+		} catch(AlreadyExistsException e) {
+			logger.debug("Reshard progress table already exists");
+		}
+	}
+
+	/**
+	 * @param targetTableName Index table being backfilled
+	 * @return Start tokens of the token ranges already copied into the table
+	 */
+	protected Set<Long> getReshardProgress(String targetTableName) {
+		Set<Long> ret = Sets.newHashSet();
+		for(Row row : cqlExecutor.executeSync(cqlGenerator.makeCQLforGetReshardProgress(targetTableName))) {
+			ret.add(row.getLong("rangestart"));
+		}
+		return ret;
+	}
+
+	protected void recordReshardProgress(String targetTableName, long rangeStart, long rangeEnd, long copied) {
+		cqlExecutor.executeSync(cqlGenerator.makeCQLforInsertReshardProgress(targetTableName, rangeStart, rangeEnd, copied));
+	}
+
+	protected void clearReshardProgress(String targetTableName) {
+		cqlExecutor.executeSync(cqlGenerator.makeCQLforDeleteReshardProgress(targetTableName));
+	}
+
+	/**
+	 * Forget that a token range was copied so that the next backfill copies it again
+	 */
+	protected void clearReshardProgress(String targetTableName, long rangeStart) {
+		cqlExecutor.executeSync(cqlGenerator.makeCQLforDeleteReshardProgress(targetTableName, rangeStart));
+	}
+
 	protected SortedMap<String,Object> unpackIndexValuesFromJson(CDefinition def, String json) throws IOException, JsonMappingException {
-		com.fasterxml.jackson.databind.ObjectMapper om = new com.fasterxml.jackson.databind.ObjectMapper();
-		TreeMap<String,Object> jsonMap = om.readValue(json, TreeMap.class);
+		TreeMap<String,Object> jsonMap = legacyIndexValuesMapper.readValue(json, TreeMap.class);
 		return JsonUtil.rhombusMapFromJsonMap(jsonMap,def);
 	}
 
+	/**
+	 * Read the index values snapshot from an index update row, falling back to the json column for rows
+	 * written before snapshots were stored in binary or written for different indexed fields
+	 * @return The index values, or null if the snapshot cannot be read
+	 */
+	protected SortedMap<String,Object> unpackIndexValues(CDefinition def, Row update) throws IOException {
+		String json = update.getColumnDefinitions().contains("indexvalues") ? update.getString("indexvalues") : null;
+		if(update.getColumnDefinitions().contains("indexvaluesblob")) {
+			ByteBuffer encoded = update.getBytes("indexvaluesblob");
+			if(encoded != null) {
+				try {
+					return IndexValuesCodec.decode(def.getCompiled(), encoded);
+				} catch(IOException e) {
+					if(json == null) {
+						logger.warn("Dropping unreadable index update {} of {}: {}", update.getUUID("id"), def.getName(), e.getMessage());
+						return null;
+					}
+				}
+			}
+		}
+		return unpackIndexValuesFromJson(def, json);
+	}
+
 	public IndexUpdateRow getNextUpdateIndexRow(@Nullable IndexUpdateRowKey lastInstanceKey) throws IOException, JsonMappingException {
 		CQLStatement cqlForNext = (lastInstanceKey == null) ?
 			cqlGenerator.makeGetFirstEligibleIndexUpdate() : cqlGenerator.makeGetNextEligibleIndexUpdate(lastInstanceKey);
@@ -485,59 +1905,490 @@ public class ObjectMapper implements CObjectShardList {
 		String objectName = results.get(0).getString("statictablename");
 		CDefinition def = keyspaceDefinition.getDefinitions().get(objectName);
 
-		List<SortedMap<String,Object>> indexValueList = Lists.newArrayList();
-		List<UUID> ids = Lists.newArrayList();
-		for(Row update : results){
-			indexValueList.add(unpackIndexValuesFromJson(def,update.getString("indexvalues")));
-			ids.add(update.getUUID("id"));
+		List<SortedMap<String,Object>> indexValueList = Lists.newArrayList();
+		List<UUID> ids = Lists.newArrayList();
+		for(Row update : results){
+			SortedMap<String,Object> indexValues = unpackIndexValues(def, update);
+			if(indexValues == null) {
+				// Nothing can read the snapshot any more, so it is of no use to the update processor
+				deleteObsoleteUpdateIndexColumn(nextInstanceKey, update.getUUID("id"));
+				continue;
+			}
+			indexValueList.add(indexValues);
+			ids.add(update.getUUID("id"));
+		}
+
+
+		return new IndexUpdateRow(
+			objectName,
+			results.get(0).getUUID("instanceid"),
+			UUIDs.unixTimestamp(results.get(0).getUUID("id"))*1000,
+			indexValueList,
+			ids
+		);
+	}
+
+
+	/**
+	 * Iterates through cql statements executing them in sequence and mapping the results until limit is reached
+	 * @param statementIterator Statement iterator to execute
+	 * @param definition definition to execute the statements against
+	 * @return Ordered resultset concatenating results from statements in statement iterator.
+	 */
+	private List<Map<String, Object>> mapResults(CQLStatementIterator statementIterator, CDefinition definition, Long limit) throws RhombusException {
+		return mapResults(statementIterator, definition, null, CObjectOrdering.DESCENDING, limit);
+	}
+
+	/**
+	 * Iterates through cql statements executing them in sequence and mapping the results until limit is reached
+	 * @param statementIterator Statement iterator to execute
+	 * @param definition definition to execute the statements against
+	 * @param index index the statements select from, or null if they do not select from an index table
+	 * @param ordering ordering of the statements, used to merge the results of sub shards
+	 * @return Ordered resultset concatenating results from statements in statement iterator.
+	 */
+	private List<Map<String, Object>> mapResults(CQLStatementIterator statementIterator, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, CObjectOrdering ordering, Long limit) throws RhombusException {
+		List<Map<String, Object>> results = Lists.newArrayList();
+		int statementNumber = 0;
+		int resultNumber = 0;
+		Map<String, Object> clientFilters = statementIterator.getClientFilters();
+		while(statementIterator.hasNext(resultNumber) ) {
+			CQLStatement cql = statementIterator.next();
+			List<Map<String, Object>> rows = executeAndMap(cql, definition, index, ordering, remainingRows(limit, resultNumber, clientFilters), null, false);
+			for(Map<String, Object> result : rows) {
+				boolean resultMatchesFilters = true;
+				if(clientFilters != null) {
+					resultMatchesFilters = this.resultMatchesFilters(result, clientFilters);
+				}
+				if(resultMatchesFilters) {
+					results.add(result);
+					resultNumber++;
+				}
+			}
+			statementNumber++;
+			if((limit > 0 && resultNumber >= limit)) {
+				logger.debug("Breaking from mapping results");
+				break;
+			}
+			if(statementNumber > reasonableStatementLimit) {
+				throw new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements.");
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Iterates through cql statements executing them in sequence and visiting the matching rows until limit is
+	 * reached, following the same paging as mapResults
+	 * @return Number of objects visited
+	 */
+	private long visitResults(CQLStatementIterator statementIterator, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, CObjectOrdering ordering, Long limit,
+							  ResultVisitor visitor) throws RhombusException, IOException {
+		int statementNumber = 0;
+		int resultNumber = 0;
+		Map<String, Object> clientFilters = statementIterator.getClientFilters();
+		while(statementIterator.hasNext(resultNumber) ) {
+			CQLStatement cql = statementIterator.next();
+			long maxRows = remainingRows(limit, resultNumber, clientFilters);
+			List<Map<String, Object>> cached = null;
+			if(getCacheableShardId(cql, definition, index) != null) {
+				cached = this.closedShardResultCache.getRows(ClosedShardResultCache.makeKey("rows:" + maxRows, cql.getQuery(), cql.getValues(), null));
+			}
+			if(cached != null) {
+				for(Map<String, Object> result : cached) {
+					if(clientFilters == null || this.resultMatchesFilters(result, clientFilters)) {
+						visitor.visitObject(result);
+						resultNumber++;
+					}
+				}
+			} else {
+				for(Row row : mergeSubShardResults(executeSubShards(cql, index), definition, ordering, maxRows)) {
+					if(clientFilters == null || this.rowMatchesFilters(row, definition, clientFilters)) {
+						visitor.visitRow(row);
+						resultNumber++;
+					}
+				}
+			}
+			statementNumber++;
+			if((limit > 0 && resultNumber >= limit)) {
+				logger.debug("Breaking from visiting results");
+				break;
+			}
+			if(statementNumber > reasonableStatementLimit) {
+				throw new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements.");
+			}
+		}
+		return resultNumber;
+	}
+
+	/**
+	 * Receives the results of a list, either as rows of the index or as objects already mapped
+	 */
+	private interface ResultVisitor {
+		void visitRow(Row row) throws IOException;
+
+		void visitObject(Map<String, Object> object) throws IOException;
+	}
+
+	/**
+	 * Iterates through cql statements against a thin index, fetching the objects for each page of index rows
+	 * from the static table until limit is reached
+	 * @param statementIterator Statement iterator to execute
+	 * @param definition definition to execute the statements against
+	 * @param index thin index the statements select from
+	 * @return Ordered resultset concatenating results from statements in statement iterator.
+	 */
+	private List<Map<String, Object>> mapThinResults(CQLStatementIterator statementIterator, CDefinition definition, CompiledDefinition.CompiledIndex index, CObjectOrdering ordering, Long limit) throws RhombusException {
+		List<Map<String, Object>> results = Lists.newArrayList();
+		int statementNumber = 0;
+		int resultNumber = 0;
+		Map<String, Object> clientFilters = statementIterator.getClientFilters();
+		while(statementIterator.hasNext(resultNumber) ) {
+			CQLStatement cql = statementIterator.next();
+			List<Map<String, Object>> rows = executeAndMap(cql, definition, index, ordering, remainingRows(limit, resultNumber, clientFilters), clientFilters, true);
+			for(Map<String, Object> result : rows) {
+				results.add(result);
+				resultNumber++;
+			}
+			statementNumber++;
+			if((limit > 0 && resultNumber >= limit)) {
+				logger.debug("Breaking from mapping results");
+				break;
+			}
+			if(statementNumber > reasonableStatementLimit) {
+				throw new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements.");
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Execute one list statement and map its rows, using the closed shard result cache when the statement selects a closed shard
+	 * @param cql Statement produced by a list iterator
+	 * @param definition definition to execute the statement against
+	 * @param index index the statement selects from, or null
+	 * @param ordering ordering of the statement
+	 * @param maxRows Maximum number of rows to map, or 0 for no maximum
+	 * @param clientFilters Filters applied by mapThinIndexRows, only used for thin indexes
+	 * @param thin true to map the rows with mapThinIndexRows
+	 * @return Mapped rows in statement order
+	 */
+	private List<Map<String, Object>> executeAndMap(CQLStatement cql, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, CObjectOrdering ordering,
+													long maxRows, @Nullable Map<String, Object> clientFilters, boolean thin) {
+		ClosedShardResultCache cache = this.closedShardResultCache;
+		Long shardId = getCacheableShardId(cql, definition, index);
+		List<Object> cacheKey = null;
+		long invalidationCount = 0;
+		if(shardId != null) {
+			cacheKey = ClosedShardResultCache.makeKey((thin ? "thin:" : "rows:") + maxRows, cql.getQuery(), cql.getValues(), thin ? clientFilters : null);
+			List<Map<String, Object>> cached = cache.getRows(cacheKey);
+			if(cached != null) {
+				return cached;
+			}
+			invalidationCount = cache.getInvalidationCount();
+		}
+		Iterable<Row> rows = mergeSubShardResults(executeSubShards(cql, index), definition, ordering, maxRows);
+		List<Map<String, Object>> results;
+		if(thin) {
+			results = mapThinIndexRows(rows, definition, index, clientFilters, true);
+		} else {
+			results = Lists.newArrayList();
+			for(Row row : rows) {
+				results.add(mapResult(row, definition));
+			}
+		}
+		if(cacheKey != null) {
+			cache.putRows(CObjectCQLGenerator.makeTableName(definition, index.getIndex()), shardId, cacheKey, results, invalidationCount);
+		}
+		return results;
+	}
+
+	/**
+	 * Asynchronous version of mapResults and mapThinResults. Each statement is executed once the results of the
+	 * previous one are mapped, until limit is reached.
+	 * @return Future of the ordered results concatenating results from statements in statement iterator
+	 */
+	private ListenableFuture<List<Map<String, Object>>> mapResultsAsync(final CQLStatementIterator statementIterator, final CDefinition definition, @Nullable final CompiledDefinition.CompiledIndex index,
+																	   final CObjectOrdering ordering, final Long limit) {
+		final boolean thin = index != null && index.isThin();
+		final Map<String, Object> clientFilters = statementIterator.getClientFilters();
+		final List<Map<String, Object>> results = Lists.newArrayList();
+		final SettableFuture<List<Map<String, Object>>> ret = SettableFuture.create();
+		new Runnable() {
+			private int statementNumber = 0;
+
+			@Override
+			public void run() {
+				final Runnable next = this;
+				try {
+					if(!statementIterator.hasNext(results.size())) {
+						ret.set(results);
+						return;
+					}
+					CQLStatement cql = statementIterator.next();
+					long maxRows = remainingRows(limit, results.size(), clientFilters);
+					Futures.addCallback(executeAndMapAsync(cql, definition, index, ordering, maxRows, clientFilters, thin), new FutureCallback<List<Map<String, Object>>>() {
+						@Override
+						public void onSuccess(List<Map<String, Object>> rows) {
+							try {
+								for(Map<String, Object> result : rows) {
+									// Thin results are already filtered
+									if(thin || clientFilters == null || resultMatchesFilters(result, clientFilters)) {
+										results.add(result);
+									}
+								}
+								statementNumber++;
+								if(limit > 0 && results.size() >= limit) {
+									ret.set(results);
+								} else if(statementNumber > reasonableStatementLimit) {
+									ret.setException(new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements."));
+								} else {
+									next.run();
+								}
+							} catch(Throwable t) {
+								ret.setException(t);
+							}
+						}
+
+						@Override
+						public void onFailure(Throwable t) {
+							ret.setException(t);
+						}
+					}, mappingExecutor);
+				} catch(Throwable t) {
+					ret.setException(t);
+				}
+			}
+		}.run();
+		return ret;
+	}
+
+	/**
+	 * Asynchronous version of executeAndMap
+	 * @return Future of the mapped rows in statement order
+	 */
+	private ListenableFuture<List<Map<String, Object>>> executeAndMapAsync(CQLStatement cql, final CDefinition definition, @Nullable final CompiledDefinition.CompiledIndex index, final CObjectOrdering ordering,
+																		   final long maxRows, @Nullable final Map<String, Object> clientFilters, final boolean thin) {
+		final ClosedShardResultCache cache = this.closedShardResultCache;
+		final Long shardId = getCacheableShardId(cql, definition, index);
+		List<Object> cacheKey = null;
+		long invalidationCount = 0;
+		if(shardId != null) {
+			cacheKey = ClosedShardResultCache.makeKey((thin ? "thin:" : "rows:") + maxRows, cql.getQuery(), cql.getValues(), thin ? clientFilters : null);
+			List<Map<String, Object>> cached = cache.getRows(cacheKey);
+			if(cached != null) {
+				return Futures.immediateFuture(cached);
+			}
+			invalidationCount = cache.getInvalidationCount();
+		}
+		ListenableFuture<List<Map<String, Object>>> results = Futures.transform(Futures.allAsList(executeSubShardsAsync(cql, index)), new AsyncFunction<List<ResultSet>, List<Map<String, Object>>>() {
+			@Override
+			public ListenableFuture<List<Map<String, Object>>> apply(List<ResultSet> resultSets) {
+				Iterable<Row> rows = mergeSubShardResults(resultSets, definition, ordering, maxRows);
+				if(thin) {
+					return mapThinIndexRowsAsync(rows, definition, index, clientFilters, true);
+				}
+				List<Map<String, Object>> mapped = Lists.newArrayList();
+				for(Row row : rows) {
+					mapped.add(mapResult(row, definition));
+				}
+				return Futures.immediateFuture(mapped);
+			}
+		}, mappingExecutor);
+		if(cacheKey == null) {
+			return results;
+		}
+		final List<Object> finalCacheKey = cacheKey;
+		final long finalInvalidationCount = invalidationCount;
+		return Futures.transform(results, new Function<List<Map<String, Object>>, List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> apply(List<Map<String, Object>> mapped) {
+				cache.putRows(CObjectCQLGenerator.makeTableName(definition, index.getIndex()), shardId, finalCacheKey, mapped, finalInvalidationCount);
+				return mapped;
+			}
+		});
+	}
+
+	/**
+	 * Execute one list statement for a publisher. Statements against sub sharded indexes are read in full and
+	 * merged, any other statement is returned as its result set so its rows can be fetched page by page.
+	 * @param fetchSize Number of rows the driver fetches at a time
+	 * @return Future of the rows of the statement in order
+	 */
+	protected ListenableFuture<? extends Iterable<Row>> executeListStatementAsync(CQLStatement cql, final CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index,
+																			   final CObjectOrdering ordering, int fetchSize) {
+		if(index == null || !index.getShardingStrategy().isSubSharded()) {
+			return cqlExecutor.executeAsync(cql, fetchSize);
+		}
+		return Futures.transform(Futures.allAsList(executeSubShardsAsync(cql, index)), new Function<List<ResultSet>, Iterable<Row>>() {
+			@Override
+			public Iterable<Row> apply(List<ResultSet> resultSets) {
+				return mergeSubShardResults(resultSets, definition, ordering, 0);
+			}
+		});
+	}
+
+	/**
+	 * Map a page of rows of a list statement and apply client filters, fetching the objects of thin indexes
+	 * @return Future of the matching objects in row order
+	 */
+	protected ListenableFuture<List<Map<String, Object>>> mapRowsAsync(List<Row> rows, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, @Nullable Map<String, Object> clientFilters) {
+		if(index != null && index.isThin()) {
+			return mapThinIndexRowsAsync(rows, definition, index, clientFilters, true);
+		}
+		List<Map<String, Object>> results = Lists.newArrayListWithCapacity(rows.size());
+		for(Row row : rows) {
+			Map<String, Object> result = mapResult(row, definition);
+			if(clientFilters == null || this.resultMatchesFilters(result, clientFilters)) {
+				results.add(result);
+			}
+		}
+		return Futures.immediateFuture(results);
+	}
+
+	/**
+	 * Map the rows of a thin index and apply client filters. Filters on covered fields are applied to the index rows
+	 * so only matching objects are fetched, any other filters are applied after fetching.
+	 * @param rows Rows selected from the index table
+	 * @param definition definition the index belongs to
+	 * @param index thin index the rows were selected from
+	 * @param clientFilters Filters not applied at persistence layer or null
+	 * @param fetchObjects true to always return complete objects, false to return index rows when no fetch is needed to filter
+	 * @return Matching results in index order
+	 */
+	private List<Map<String, Object>> mapThinIndexRows(Iterable<Row> rows, CDefinition definition, CompiledDefinition.CompiledIndex index, @Nullable Map<String, Object> clientFilters, boolean fetchObjects) {
+		List<Map<String, Object>> indexResults = filterThinIndexRows(rows, definition, index, clientFilters);
+		boolean filtersApplied = clientFilters == null || index.storesAllFields(clientFilters.keySet());
+		if(!fetchObjects && filtersApplied) {
+			return indexResults;
+		}
+		List<Map<String, Object>> objects = getByKeys(definition, getResultIds(indexResults));
+		return filtersApplied ? objects : filterResults(objects, clientFilters);
+	}
+
+	/**
+	 * Asynchronous version of mapThinIndexRows, fetching the objects without blocking
+	 * @return Future of the matching results in index order
+	 */
+	private ListenableFuture<List<Map<String, Object>>> mapThinIndexRowsAsync(Iterable<Row> rows, CDefinition definition, CompiledDefinition.CompiledIndex index, @Nullable final Map<String, Object> clientFilters, boolean fetchObjects) {
+		List<Map<String, Object>> indexResults = filterThinIndexRows(rows, definition, index, clientFilters);
+		final boolean filtersApplied = clientFilters == null || index.storesAllFields(clientFilters.keySet());
+		if(!fetchObjects && filtersApplied) {
+			return Futures.immediateFuture(indexResults);
+		}
+		return Futures.transform(getByKeysAsync(definition, getResultIds(indexResults)), new Function<List<Map<String, Object>>, List<Map<String, Object>>>() {
+			@Override
+			public List<Map<String, Object>> apply(List<Map<String, Object>> objects) {
+				return filtersApplied ? objects : filterResults(objects, clientFilters);
+			}
+		}, mappingExecutor);
+	}
+
+	/**
+	 * Map the rows of a thin index, applying the client filters if the index stores every filtered field
+	 */
+	private List<Map<String, Object>> filterThinIndexRows(Iterable<Row> rows, CDefinition definition, CompiledDefinition.CompiledIndex index, @Nullable Map<String, Object> clientFilters) {
+		boolean filterIndexRows = clientFilters != null && index.storesAllFields(clientFilters.keySet());
+		List<Map<String, Object>> indexResults = Lists.newArrayList();
+		for(Row row : rows) {
+			Map<String, Object> indexResult = mapIndexResult(row, definition, index);
+			if(filterIndexRows && !this.resultMatchesFilters(indexResult, clientFilters)) {
+				continue;
+			}
+			indexResults.add(indexResult);
 		}
+		return indexResults;
+	}
 
+	private static List<Object> getResultIds(List<Map<String, Object>> results) {
+		List<Object> keys = Lists.newArrayListWithCapacity(results.size());
+		for(Map<String, Object> result : results) {
+			keys.add(result.get("id"));
+		}
+		return keys;
+	}
 
-		return new IndexUpdateRow(
-			objectName,
-			results.get(0).getUUID("instanceid"),
-			UUIDs.unixTimestamp(results.get(0).getUUID("id"))*1000,
-			indexValueList,
-			ids
-		);
+	private List<Map<String, Object>> filterResults(List<Map<String, Object>> objects, Map<String, Object> clientFilters) {
+		List<Map<String, Object>> results = Lists.newArrayListWithCapacity(objects.size());
+		for(Map<String, Object> object : objects) {
+			if(this.resultMatchesFilters(object, clientFilters)) {
+				results.add(object);
+			}
+		}
+		return results;
 	}
 
+	/**
+	 * Execute a statement against every shard it selects and every sub shard of those shards. Statements that select
+	 * a single shard of an index that does not use sub sharding are executed as they are. Slow reads are hedged if the
+	 * executor hedges reads.
+	 * @param cql Statement produced by a list iterator
+	 * @param index index the statement selects from, or null
+	 * @return One result set per shard and sub shard
+	 */
+	private List<ResultSet> executeSubShards(CQLStatement cql, @Nullable CompiledDefinition.CompiledIndex index) {
+		if(cql.getMergedShardIds() == null && (index == null || !index.getShardingStrategy().isSubSharded())) {
+			return Collections.singletonList(cqlExecutor.executeHedgedSync(cql));
+		}
+		List<ResultSetFuture> futures = executeSubShardsAsync(cql, index);
+		List<ResultSet> ret = Lists.newArrayListWithCapacity(futures.size());
+		for(ResultSetFuture future : futures) {
+			ret.add(future.getUninterruptibly());
+		}
+		return ret;
+	}
 
 	/**
-	 * Iterates through cql statements executing them in sequence and mapping the results until limit is reached
-	 * @param statementIterator Statement iterator to execute
-	 * @param definition definition to execute the statements against
-	 * @return Ordered resultset concatenating results from statements in statement iterator.
+	 * Asynchronous version of executeSubShards
+	 * @return One future per shard and sub shard
 	 */
-	private List<Map<String, Object>> mapResults(CQLStatementIterator statementIterator, CDefinition definition, Long limit) throws RhombusException {
-		List<Map<String, Object>> results = Lists.newArrayList();
-		int statementNumber = 0;
-		int resultNumber = 0;
-		Map<String, Object> clientFilters = statementIterator.getClientFilters();
-		while(statementIterator.hasNext(resultNumber) ) {
-			CQLStatement cql = statementIterator.next();
-			ResultSet resultSet = cqlExecutor.executeSync(cql);
-			for(Row row : resultSet) {
-				Map<String, Object> result = mapResult(row, definition);
-				boolean resultMatchesFilters = true;
-				if(clientFilters != null) {
-					resultMatchesFilters = this.resultMatchesFilters(result, clientFilters);
-				}
-				if(resultMatchesFilters) {
-					results.add(result);
-					resultNumber++;
-				}
+	private List<ResultSetFuture> executeSubShardsAsync(CQLStatement cql, @Nullable CompiledDefinition.CompiledIndex index) {
+		boolean subSharded = index != null && index.getShardingStrategy().isSubSharded();
+		if(cql.getMergedShardIds() == null && !subSharded) {
+			return Collections.singletonList(cqlExecutor.executeHedgedAsync(cql));
+		}
+		List<ResultSetFuture> futures = Lists.newArrayList();
+		for(CQLStatement shardStatement : CObjectCQLGenerator.makeMergedShardStatements(cql)) {
+			if(!subSharded) {
+				futures.add(cqlExecutor.executeHedgedAsync(shardStatement));
+				continue;
 			}
-			statementNumber++;
-			if((limit > 0 && resultNumber >= limit)) {
-				logger.debug("Breaking from mapping results");
-				break;
+			for(CQLStatement subShardStatement : CObjectCQLGenerator.makeSubShardStatements(shardStatement, index.getShardingStrategy())) {
+				futures.add(cqlExecutor.executeHedgedAsync(subShardStatement));
 			}
-			if(statementNumber > reasonableStatementLimit) {
-				throw new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements.");
+		}
+		return futures;
+	}
+
+	/**
+	 * Merge the rows of the shards and sub shards of a statement by id. Each of them is already sorted by id in the
+	 * requested ordering.
+	 * @param resultSets One result set per shard and sub shard
+	 * @param maxRows Maximum number of rows to return, or 0 for no maximum
+	 * @return Rows of every shard and sub shard in the requested ordering
+	 */
+	private Iterable<Row> mergeSubShardResults(List<ResultSet> resultSets, final CDefinition definition, CObjectOrdering ordering, long maxRows) {
+		if(resultSets.size() == 1) {
+			return resultSets.get(0);
+		}
+		final CObjectIdComparator idComparator = CObjectIdComparator.forOrdering(ordering);
+		Iterable<Row> merged = Iterables.mergeSorted(resultSets, new Comparator<Row>() {
+			@Override
+			public int compare(Row a, Row b) {
+				return idComparator.compare(getRowId(a, definition), getRowId(b, definition));
 			}
+		});
+		return maxRows > 0 ? Iterables.limit(merged, (int)Math.min(maxRows, Integer.MAX_VALUE)) : merged;
+	}
+
+	/**
+	 * @return Number of rows the next statement can contribute to the results, or 0 if client filters prevent knowing it
+	 */
+	private static long remainingRows(Long limit, int resultNumber, @Nullable Map<String, Object> clientFilters) {
+		if(limit <= 0 || clientFilters != null) {
+			return 0;
 		}
-		return results;
+		return Math.max(1, limit - resultNumber);
 	}
 
 	/**
@@ -557,26 +2408,41 @@ public class ObjectMapper implements CObjectShardList {
 		return true;
 	}
 
-	private Long mapCount(CQLStatementIterator statementIterator, CDefinition definition, Long limit) throws RhombusException {
+	/**
+	 * Make sure values in a row match values in filter, reading only the filtered columns
+	 * @param row Row retrieved from persistence
+	 * @param definition Definition of the row
+	 * @param filters Filters not applied at persistence layer
+	 * @return true if filters match, false if not
+	 */
+	private boolean rowMatchesFilters(Row row, CDefinition definition, Map<String, Object> filters) {
+		for(String filterKey : filters.keySet()) {
+			CField field = definition.getField(filterKey);
+			Object rowValue;
+			if(field != null) {
+				rowValue = getFieldValue(row, field);
+			} else if(filterKey.equals("id")) {
+				rowValue = getRowId(row, definition);
+			} else {
+				rowValue = null;
+			}
+			if(!Objects.equal(rowValue, filters.get(filterKey))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Long mapCount(CQLStatementIterator statementIterator, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, Long limit) throws RhombusException {
 		Long resultCount = 0L;
         int statementNumber = 0;
 		while (statementIterator.hasNext()){
 			CQLStatement cql = statementIterator.next();
             Map<String, Object> clientFilters = statementIterator.getClientFilters();
-			ResultSet resultSet = cqlExecutor.executeSync(cql);
-			if(!resultSet.isExhausted()){
-                if (clientFilters == null) {
-                    // If we don't have client filters, this was just a count query, so increment by the result value
-                    resultCount += resultSet.one().getLong(0);
-                } else {
-                    // Otherwise we do have client filters so we need to map the results and apply the filters
-                    for (Row row : resultSet) {
-                        Map<String, Object> result = mapResult(row, definition);
-                        if (this.resultMatchesFilters(result, clientFilters)) {
-                            resultCount++;
-                        }
-                    }
-                }
+			long[] counted = executeAndCount(cql, definition, index, clientFilters);
+			resultCount += counted[0];
+			boolean hasResults = counted[1] != 0;
+			if(hasResults){
                 statementNumber++;
                 if((limit > 0 && resultCount >= limit)) {
                     logger.debug("Breaking from mapping count query results");
@@ -591,10 +2457,185 @@ public class ObjectMapper implements CObjectShardList {
 		return resultCount;
 	}
 
+	/**
+	 * Execute one count statement, using the closed shard result cache when the statement selects a closed shard
+	 * @return Count of matching rows and 1 if the statement returned any rows, 0 otherwise
+	 */
+	private long[] executeAndCount(CQLStatement cql, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, @Nullable Map<String, Object> clientFilters) {
+		ClosedShardResultCache cache = this.closedShardResultCache;
+		Long shardId = getCacheableShardId(cql, definition, index);
+		List<Object> cacheKey = null;
+		long invalidationCount = 0;
+		if(shardId != null) {
+			cacheKey = ClosedShardResultCache.makeKey("count", cql.getQuery(), cql.getValues(), clientFilters);
+			long[] cached = cache.getCount(cacheKey);
+			if(cached != null) {
+				return cached;
+			}
+			invalidationCount = cache.getInvalidationCount();
+		}
+		long count = 0;
+		boolean hasResults = false;
+		// Counts of sub shards do not need to be merged in order, so just add them up
+		for (ResultSet resultSet : executeSubShards(cql, index)) {
+			if(!resultSet.isExhausted()){
+				hasResults = true;
+				count += countResults(resultSet, definition, index, clientFilters);
+			}
+		}
+		if(cacheKey != null) {
+			cache.putCount(CObjectCQLGenerator.makeTableName(definition, index.getIndex()), shardId, cacheKey, count, hasResults, invalidationCount);
+		}
+		return new long[]{count, hasResults ? 1L : 0L};
+	}
+
+	/**
+	 * Asynchronous version of mapCount
+	 * @return Future of the number of rows matching the statements, up to limit
+	 */
+	private ListenableFuture<Long> mapCountAsync(final CQLStatementIterator statementIterator, final CDefinition definition, @Nullable final CompiledDefinition.CompiledIndex index, final Long limit) {
+		final SettableFuture<Long> ret = SettableFuture.create();
+		new Runnable() {
+			private long resultCount = 0;
+			private int statementNumber = 0;
+
+			@Override
+			public void run() {
+				final Runnable next = this;
+				try {
+					if(!statementIterator.hasNext()) {
+						ret.set(resultCount);
+						return;
+					}
+					CQLStatement cql = statementIterator.next();
+					Futures.addCallback(executeAndCountAsync(cql, definition, index, statementIterator.getClientFilters()), new FutureCallback<long[]>() {
+						@Override
+						public void onSuccess(long[] counted) {
+							try {
+								resultCount += counted[0];
+								if(counted[1] != 0) {
+									statementNumber++;
+									if(limit > 0 && resultCount >= limit) {
+										ret.set(limit);
+										return;
+									}
+									if(statementNumber > reasonableStatementLimit) {
+										ret.setException(new RhombusException("Query attempted to execute more than " + reasonableStatementLimit + " statements."));
+										return;
+									}
+								}
+								next.run();
+							} catch(Throwable t) {
+								ret.setException(t);
+							}
+						}
+
+						@Override
+						public void onFailure(Throwable t) {
+							ret.setException(t);
+						}
+					}, mappingExecutor);
+				} catch(Throwable t) {
+					ret.setException(t);
+				}
+			}
+		}.run();
+		return ret;
+	}
+
+	/**
+	 * Asynchronous version of executeAndCount
+	 * @return Future of the count of matching rows and 1 if the statement returned any rows, 0 otherwise
+	 */
+	private ListenableFuture<long[]> executeAndCountAsync(CQLStatement cql, final CDefinition definition, @Nullable final CompiledDefinition.CompiledIndex index, @Nullable final Map<String, Object> clientFilters) {
+		final ClosedShardResultCache cache = this.closedShardResultCache;
+		final Long shardId = getCacheableShardId(cql, definition, index);
+		List<Object> cacheKey = null;
+		long invalidationCount = 0;
+		if(shardId != null) {
+			cacheKey = ClosedShardResultCache.makeKey("count", cql.getQuery(), cql.getValues(), clientFilters);
+			long[] cached = cache.getCount(cacheKey);
+			if(cached != null) {
+				return Futures.immediateFuture(cached);
+			}
+			invalidationCount = cache.getInvalidationCount();
+		}
+		final List<Object> finalCacheKey = cacheKey;
+		final long finalInvalidationCount = invalidationCount;
+		return Futures.transform(Futures.allAsList(executeSubShardsAsync(cql, index)), new AsyncFunction<List<ResultSet>, long[]>() {
+			@Override
+			public ListenableFuture<long[]> apply(List<ResultSet> resultSets) {
+				boolean hasResults = false;
+				List<ListenableFuture<Long>> counts = Lists.newArrayList();
+				// Counts of sub shards do not need to be merged in order, so just add them up
+				for(ResultSet resultSet : resultSets) {
+					if(!resultSet.isExhausted()) {
+						hasResults = true;
+						counts.add(countResultsAsync(resultSet, definition, index, clientFilters));
+					}
+				}
+				final boolean finalHasResults = hasResults;
+				return Futures.transform(Futures.allAsList(counts), new Function<List<Long>, long[]>() {
+					@Override
+					public long[] apply(List<Long> counts) {
+						long count = 0;
+						for(Long subShardCount : counts) {
+							count += subShardCount;
+						}
+						if(finalCacheKey != null) {
+							cache.putCount(CObjectCQLGenerator.makeTableName(definition, index.getIndex()), shardId, finalCacheKey, count, finalHasResults, finalInvalidationCount);
+						}
+						return new long[]{count, finalHasResults ? 1L : 0L};
+					}
+				});
+			}
+		}, mappingExecutor);
+	}
+
+	/**
+	 * Asynchronous version of countResults, fetching the objects of thin indexes without blocking
+	 */
+	private ListenableFuture<Long> countResultsAsync(ResultSet resultSet, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, @Nullable Map<String, Object> clientFilters) {
+		if(clientFilters == null || index == null || !index.isThin()) {
+			return Futures.immediateFuture(countResults(resultSet, definition, index, clientFilters));
+		}
+		return Futures.transform(mapThinIndexRowsAsync(resultSet, definition, index, clientFilters, false), new Function<List<Map<String, Object>>, Long>() {
+			@Override
+			public Long apply(List<Map<String, Object>> results) {
+				return (long)results.size();
+			}
+		});
+	}
+
+	private long countResults(ResultSet resultSet, CDefinition definition, @Nullable CompiledDefinition.CompiledIndex index, @Nullable Map<String, Object> clientFilters) {
+        if (clientFilters == null) {
+            // If we don't have client filters, this was just a count query, so use the result value
+            return resultSet.one().getLong(0);
+        } else if (index != null && index.isThin()) {
+            // Thin index rows only carry covered fields, so filtering on anything else needs the objects
+            return mapThinIndexRows(resultSet, definition, index, clientFilters, false).size();
+        }
+        // Otherwise we do have client filters so we need to map the results and apply the filters
+        long resultCount = 0;
+        for (Row row : resultSet) {
+            Map<String, Object> result = mapResult(row, definition);
+            if (this.resultMatchesFilters(result, clientFilters)) {
+                resultCount++;
+            }
+        }
+        return resultCount;
+	}
+
 
 	public List<CQLStatement> runMigration(CKeyspaceDefinition oldKeyspaceDefinition, CKeyspaceDefinition newKeyspaceDefinition, boolean executeCql) throws CObjectMigrationException {
 		List<CQLStatement> ret = Lists.newArrayList();
 		try{
+			if(executeCql) {
+				upgradeIndexUpdateTable();
+				createHashedShardIndexTableIfNotExists();
+				createShardLayoutTableIfNotExists();
+				createIndexCountsTableIfNotExists();
+			}
 			//we have the keyspace definitions, now run the migration
 			CKeyspaceDefinitionMigrator migrator = new CKeyspaceDefinitionMigrator(oldKeyspaceDefinition, newKeyspaceDefinition);
 			CQLStatementIterator cqlit = migrator.getMigrationCQL(this.cqlGenerator);
@@ -617,19 +2658,33 @@ public class ObjectMapper implements CObjectShardList {
 	 * @return Data contained in a row mapped to the object described in definition.
 	 */
 	private Map<String, Object> mapResult(Row row, CDefinition definition) {
-		Map<String, Object> result = Maps.newHashMap();
-		if(definition.getFields().containsKey("id")){
-			result.put("id",getFieldValue(row,definition.getField("id")));
-		}
-		else {
+		CompiledDefinition compiled = definition.getCompiled();
+		Map<String, Object> result = Maps.newHashMapWithExpectedSize(compiled.getFieldCount() + 1);
+		if(compiled.getIdField() == null){
 			result.put("id", row.getUUID("id"));
 		}
-		for(CField field : definition.getFields().values()) {
+		for(int ordinal = 0; ordinal < compiled.getFieldCount(); ordinal++) {
+			CField field = compiled.getField(ordinal);
+			result.put(field.getName(), getFieldValue(row, field));
+		}
+		return result;
+	}
+
+	private Map<String, Object> mapIndexResult(Row row, CDefinition definition, CompiledDefinition.CompiledIndex index) {
+		List<CField> storedFields = index.getStoredFields();
+		Map<String, Object> result = Maps.newHashMapWithExpectedSize(storedFields.size() + 1);
+		result.put("id", getRowId(row, definition));
+		for(CField field : storedFields) {
 			result.put(field.getName(), getFieldValue(row, field));
 		}
 		return result;
 	}
 
+	private Object getRowId(Row row, CDefinition definition) {
+		CField idField = definition.getCompiled().getIdField();
+		return idField == null ? row.getUUID("id") : getFieldValue(row, idField);
+	}
+
     public void prePrepareInsertStatements() throws CQLGenerationException {
         Map<String,CDefinition> defs = this.getKeyspaceDefinition().getDefinitions();
 		if(defs != null) {
@@ -704,15 +2759,54 @@ public class ObjectMapper implements CObjectShardList {
 		return JsonUtil.rhombusMapFromJsonMap(values, keyspaceDefinition.getDefinitions().get(objectType));
 	}
 
+	/**
+	 * Coerce the values of a JSON object straight from its text, with the same results as coerceRhombusValuesFromJsonMap
+	 * on the map Jackson reads from it
+	 * @param objectType Type of the object
+	 * @param json JSON object
+	 * @return Typed values of the object
+	 */
+	public Map<String, Object> coerceRhombusValuesFromJson(String objectType, String json) throws IOException {
+		return JsonUtil.rhombusMapFromJsonString(json, keyspaceDefinition.getDefinitions().get(objectType));
+	}
+
+	/**
+	 * Coerce the values of the next JSON object of a parser, with the same results as coerceRhombusValuesFromJsonMap
+	 * on the map Jackson reads from it
+	 * @param objectType Type of the object
+	 * @param parser Parser positioned before the object
+	 * @return Typed values of the object, or null if the parser has no more content
+	 */
+	public Map<String, Object> coerceRhombusValuesFromJson(String objectType, JsonParser parser) throws IOException {
+		return JsonUtil.rhombusMapFromJsonParser(parser, keyspaceDefinition.getDefinitions().get(objectType));
+	}
+
     /**
      * Creates an SSTable keyspace output directory at defaultSSTableOutputPath and table output directories for each SSTable,
-     * and initializes each SSTableWriter for each static and index table in this keyspace.
+     * and initializes each SSTableWriter for each static and index table in this keyspace. Every writer runs on its own
+     * thread, fed through a queue of SSTableWriterBufferSize rows.
      * @param sorted Defines if the SSTableWriters created by this should be set as sorted, which improves performance if
      *               rows are inserted in SSTable sort order, but throws exceptions if they are inserted in the wrong order.
      * @throws CQLGenerationException
      * @throws IOException
      */
     public void initializeSSTableWriters(boolean sorted) throws CQLGenerationException, IOException {
+        initializeSSTableWriters(sorted, false);
+    }
+
+    /**
+     * Creates an SSTable keyspace output directory at defaultSSTableOutputPath and table output directories for each SSTable,
+     * and initializes each SSTableWriter for each static and index table in this keyspace.
+     * @param sorted Defines if the SSTableWriters created by this should be set as sorted, which improves performance if
+     *               rows are inserted in SSTable sort order, but throws exceptions if they are inserted in the wrong order.
+     * @param sortRows Sorts the rows of each table into partitioner order before they reach its writer, spilling sorted
+     *                 runs of SSTableSortBufferBytes to SSTableSortDirectory, so the writers can be sorted whatever order
+     *                 objects are inserted in. Rows are only written once completeSSTableWrites is called.
+     * @throws CQLGenerationException
+     * @throws IOException
+     */
+    public void initializeSSTableWriters(boolean sorted, boolean sortRows) throws CQLGenerationException, IOException {
+        if (sortRows) { sorted = true; }
         Map<String, CDefinition> definitions = this.keyspaceDefinition.getDefinitions();
 
         // Make sure the SSTableOutput directory exists and is clear
@@ -725,26 +2819,49 @@ public class ObjectMapper implements CObjectShardList {
             throw new IOException("Failed to create SSTable keyspace output directory at " + keyspacePath);
         }
 
-        this.SSTableWriters.put(CObjectShardList.SHARD_INDEX_TABLE_NAME, Pair.create(this.buildSSTableWriterForShardIndexTable(sorted), (Map<CIndex, CQLSSTableWriter>) null));
+        Map<String, Pair<AsyncSSTableWriter, Map<CIndex, AsyncSSTableWriter>>> writers = Maps.newHashMap();
+        if (shardIndexKeyMode.usesLegacy()) {
+            writers.put(CObjectShardList.SHARD_INDEX_TABLE_NAME, Pair.create(new AsyncSSTableWriter(CObjectShardList.SHARD_INDEX_TABLE_NAME,
+                    this.buildSSTableWriterForShardIndexTable(
+                    CObjectShardList.SHARD_INDEX_TABLE_NAME,
+                    this.cqlGenerator.makeCQLforShardIndexTableCreate().getQuery(),
+                    this.cqlGenerator.makeCQLforInsertNoValuesforShardIndex(CObjectShardList.SHARD_INDEX_TABLE_NAME).getQuery(),
+                    sorted), sortRows ? makeSSTableSorterForShardIndexTable() : null, SSTableWriterBufferSize), (Map<CIndex, AsyncSSTableWriter>) null));
+        }
+        if (shardIndexKeyMode.usesHashed()) {
+            writers.put(CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME, Pair.create(new AsyncSSTableWriter(CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME,
+                    this.buildSSTableWriterForShardIndexTable(
+                    CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME,
+                    this.cqlGenerator.makeCQLforHashedShardIndexTableCreate().getQuery(),
+                    this.cqlGenerator.makeCQLforInsertNoValuesforHashedShardIndex().getQuery(),
+                    sorted), sortRows ? makeSSTableSorterForHashedShardIndexTable() : null, SSTableWriterBufferSize), (Map<CIndex, AsyncSSTableWriter>) null));
+        }
 
         for (String defName : definitions.keySet()) {
             // Build the CQLSSTableWriter for the static table
-            CQLSSTableWriter staticWriter = buildSSTableWriterForStaticTable(definitions.get(defName), sorted);
+            AsyncSSTableWriter staticWriter = new AsyncSSTableWriter(defName,
+                    buildSSTableWriterForStaticTable(definitions.get(defName), sorted),
+                    sortRows ? makeSSTableSorterForStaticTable(definitions.get(defName)) : null, SSTableWriterBufferSize);
 
             // Build the CQLSSTableWriter for all the index tables
             List<CIndex> indexes = definitions.get(defName).getIndexesAsList();
-            Map<CIndex, CQLSSTableWriter> indexWriters = Maps.newHashMap();
+            Map<CIndex, AsyncSSTableWriter> indexWriters = Maps.newHashMap();
             for (CIndex index : indexes) {
-                CQLSSTableWriter writer = buildSSTableWriterForWideTable(definitions.get(defName), index, sorted);
+                AsyncSSTableWriter writer = new AsyncSSTableWriter(CObjectCQLGenerator.makeTableName(definitions.get(defName), index),
+                        buildSSTableWriterForWideTable(definitions.get(defName), index, sorted),
+                        sortRows ? makeSSTableSorterForWideTable(definitions.get(defName), index) : null, SSTableWriterBufferSize);
                 indexWriters.put(index, writer);
             }
-            this.SSTableWriters.put(defName, Pair.create(staticWriter, indexWriters));
+            writers.put(defName, Pair.create(staticWriter, indexWriters));
         }
+        this.SSTableShardIndexRows.clear();
+        this.SSTableWriters = writers;
     }
 
     /**
      * Writes Rhombus objects into the appropriate static and index SSTableWriters for their object definition. Requires that initializeSSTableWriters
      * be called first and completeSSTableWrites be called when you're done inserting things. Object values with key "shardid" will be ignored and removed.
+     * Can be called from several threads at once, unless the writers are sorted. Each shard index row is only written once.
      * @param objects Map keyed by object name with a list of Rhombus objects to insert for that table
      * @throws CQLGenerationException
      * @throws IOException
@@ -758,10 +2875,13 @@ public class ObjectMapper implements CObjectShardList {
             if (!this.SSTableWriters.containsKey(tableName)) {
                 throw new RuntimeException("Tried to write to uninitialized SSTableWriter for static table " + tableName);
             }
-            CQLSSTableWriter staticWriter = this.SSTableWriters.get(tableName).left;
-            Map<CIndex, CQLSSTableWriter> indexWriters = this.SSTableWriters.get(tableName).right;
+            AsyncSSTableWriter staticWriter = this.SSTableWriters.get(tableName).left;
+            Map<CIndex, AsyncSSTableWriter> indexWriters = this.SSTableWriters.get(tableName).right;
 
-            for (Map<String, Object> insert : objects.get(tableName)) {
+            for (Map<String, Object> object : objects.get(tableName)) {
+                // The writers hold on to the rows until their threads get to them, so rows are copied rather than changed
+                Map<String, Object> insert = Maps.newHashMap(object);
+                insert.remove("shardid");
                 staticWriter.addRow(insert);
                 for (CIndex index : indexWriters.keySet()) {
                     if(definition.isAllowNullPrimaryKeyInserts()){
@@ -771,21 +2891,34 @@ public class ObjectMapper implements CObjectShardList {
                         }
                     }
                     // Add the shard id to index writes
-                    long shardId = index.getShardingStrategy().getShardKey(insert.get("id"));
-                    insert.put("shardid", shardId);
-                    indexWriters.get(index).addRow(insert);
-                    // Pull the shardid back out to avoid the overhead of cloning the values and keep our abstraction from leaking
-                    insert.remove("shardid");
-
-                    // If this index uses shards, we need to record the write into the shard index table
-                    if((!(index.getShardingStrategy() instanceof ShardingStrategyNone))){
-                        String indexValuesString = CObjectCQLGenerator.makeIndexValuesString(index.getIndexValues(insert));
-                        Map<String, Object> shardIndexInsert = Maps.newHashMap();
-                        shardIndexInsert.put("tablename", CObjectCQLGenerator.makeTableName(definition, index));
-                        shardIndexInsert.put("indexvalues", indexValuesString);
-                        shardIndexInsert.put("shardid", shardId);
-                        shardIndexInsert.put("targetrowkey", shardId+":"+indexValuesString);
-                        this.SSTableWriters.get(CObjectShardList.SHARD_INDEX_TABLE_NAME).left.addRow(shardIndexInsert);
+                    long shardId = index.getShardingStrategy().getShardKey(insert.get("id"), definition, index, insert);
+                    Map<String, Object> indexInsert = Maps.newHashMap(insert);
+                    indexInsert.put("shardid", index.getShardingStrategy().getSubShardKey(shardId, insert.get("id")));
+                    indexWriters.get(index).addRow(indexInsert);
+
+                    // If this index uses shards, we need to record the write into the shard index table, once per shard
+                    if(!definition.getCompiled().isSharded(index)){
+                        continue;
+                    }
+                    ShardIndexKey key = ShardIndexKey.fromValues(index.getIndexValues(insert));
+                    if(this.SSTableShardIndexRows.add(Arrays.<Object>asList(CObjectCQLGenerator.makeTableName(definition, index), key, shardId))){
+                        if (shardIndexKeyMode.usesLegacy()) {
+                            String indexValuesString = CObjectCQLGenerator.makeIndexValuesString(index.getIndexValues(insert));
+                            Map<String, Object> shardIndexInsert = Maps.newHashMap();
+                            shardIndexInsert.put("tablename", CObjectCQLGenerator.makeTableName(definition, index));
+                            shardIndexInsert.put("indexvalues", indexValuesString);
+                            shardIndexInsert.put("shardid", shardId);
+                            shardIndexInsert.put("targetrowkey", shardId+":"+indexValuesString);
+                            this.SSTableWriters.get(CObjectShardList.SHARD_INDEX_TABLE_NAME).left.addRow(shardIndexInsert);
+                        }
+                        if (shardIndexKeyMode.usesHashed()) {
+                            Map<String, Object> shardIndexInsert = Maps.newHashMap();
+                            shardIndexInsert.put("tablename", CObjectCQLGenerator.makeTableName(definition, index));
+                            shardIndexInsert.put("indexhash", key.getHash());
+                            shardIndexInsert.put("shardid", shardId);
+                            shardIndexInsert.put("indexkey", key.getEncoded());
+                            this.SSTableWriters.get(CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME).left.addRow(shardIndexInsert);
+                        }
                     }
                 }
             }
@@ -793,21 +2926,17 @@ public class ObjectMapper implements CObjectShardList {
     }
 
     /**
-     * Builds an SSTableWriter for a static table
+     * Builds an SSTableWriter for a shard index table
+     * @param tableName Name of the shard index table
+     * @param createCQL CQL create syntax for the table
+     * @param insertCQL CQL insert syntax for the table
      * @param sorted Defines if the SSTableWriters created by this should be set as sorted, which improves performance if
      *               rows are inserted in SSTable sort order, but throws exceptions if they are inserted in the wrong order.
-     * @return A CQLSSTableWriter for this static table
+     * @return A CQLSSTableWriter for this shard index table
      * @throws CQLGenerationException
      * @throws IOException
      */
-    private CQLSSTableWriter buildSSTableWriterForShardIndexTable(boolean sorted) throws CQLGenerationException, IOException {
-        // Generate CQL create syntax
-        String createCQL = this.cqlGenerator.makeCQLforShardIndexTableCreate().getQuery();
-
-        // Generate CQL insert syntax
-        String tableName = CObjectShardList.SHARD_INDEX_TABLE_NAME;
-        String insertCQL = this.cqlGenerator.makeCQLforInsertNoValuesforShardIndex(tableName).getQuery();
-
+    private CQLSSTableWriter buildSSTableWriterForShardIndexTable(String tableName, String createCQL, String insertCQL, boolean sorted) throws CQLGenerationException, IOException {
         String SSTablePath = this.defaultSSTableOutputPath + "/" + keyspaceDefinition.getName() + "/" + tableName;
         if (!new File(SSTablePath).mkdir()) {
             throw new IOException("Failed to create new directory for SSTable writing at path: " + SSTablePath);
@@ -834,7 +2963,7 @@ public class ObjectMapper implements CObjectShardList {
     private CQLSSTableWriter buildSSTableWriterForStaticTable(CDefinition definition, boolean sorted) throws CQLGenerationException, IOException {
         // Generate CQL create syntax
         String tableName = definition.getName();
-        String createCQL = this.cqlGenerator.makeStaticTableCreate(definition).getQuery();
+        String createCQL = this.cqlGenerator.makeStaticTableCreate(definition, false).getQuery();
 
         // Generate CQL insert syntax
         String insertCQL = this.cqlGenerator.makeCQLforInsertNoValuesforStaticTable(tableName).getQuery();
@@ -865,11 +2994,11 @@ public class ObjectMapper implements CObjectShardList {
     private CQLSSTableWriter buildSSTableWriterForWideTable(CDefinition definition, CIndex index, boolean sorted) throws CQLGenerationException, IOException {
         String indexTableName = CObjectCQLGenerator.makeTableName(definition, index);
         // Generate CQL create syntax
-        String createCQL = this.cqlGenerator.makeWideTableCreate(definition, index).getQuery();
+        String createCQL = this.cqlGenerator.makeWideTableCreate(definition, index, false).getQuery();
 
         // Generate CQL insert syntax
         // Just use 1 as the value for shardId, doesn't matter since we're not actually using values here
-        String insertCQL = this.cqlGenerator.makeCQLforInsertNoValuesforWideTable(definition, indexTableName, 1L).getQuery();
+        String insertCQL = this.cqlGenerator.makeCQLforInsertNoValuesforWideTable(definition, index, 1L).getQuery();
 
         String SSTablePath = this.defaultSSTableOutputPath + "/" + keyspaceDefinition.getName() + "/" + indexTableName;
         if (!new File(SSTablePath).mkdir()) {
@@ -885,6 +3014,64 @@ public class ObjectMapper implements CObjectShardList {
         return builder.build();
     }
 
+    /**
+     * Builds a sorter for the legacy shard index table, partitioned by (tablename, indexvalues)
+     */
+    private ExternalRowSorter makeSSTableSorterForShardIndexTable() {
+        LinkedHashMap<String, DataType> columns = Maps.newLinkedHashMap();
+        columns.put("tablename", DataType.varchar());
+        columns.put("indexvalues", DataType.varchar());
+        columns.put("shardid", DataType.bigint());
+        columns.put("targetrowkey", DataType.varchar());
+        return new ExternalRowSorter(CObjectShardList.SHARD_INDEX_TABLE_NAME, columns,
+                Arrays.asList("tablename", "indexvalues"), SSTableSortBufferBytes, SSTableSortDirectory);
+    }
+
+    /**
+     * Builds a sorter for the hashed shard index table, partitioned by (tablename, indexhash)
+     */
+    private ExternalRowSorter makeSSTableSorterForHashedShardIndexTable() {
+        LinkedHashMap<String, DataType> columns = Maps.newLinkedHashMap();
+        columns.put("tablename", DataType.varchar());
+        columns.put("indexhash", DataType.bigint());
+        columns.put("shardid", DataType.bigint());
+        columns.put("indexkey", DataType.blob());
+        return new ExternalRowSorter(CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME, columns,
+                Arrays.asList("tablename", "indexhash"), SSTableSortBufferBytes, SSTableSortDirectory);
+    }
+
+    /**
+     * Builds a sorter for a static table, partitioned by id
+     */
+    private ExternalRowSorter makeSSTableSorterForStaticTable(CDefinition definition) {
+        LinkedHashMap<String, DataType> columns = makeSSTableSorterColumns(definition, definition.getFields().values());
+        return new ExternalRowSorter(definition.getName(), columns, Arrays.asList("id"), SSTableSortBufferBytes, SSTableSortDirectory);
+    }
+
+    /**
+     * Builds a sorter for a wide table, partitioned by shardid and the fields of the index
+     */
+    private ExternalRowSorter makeSSTableSorterForWideTable(CDefinition definition, CIndex index) {
+        CompiledDefinition.CompiledIndex compiledIndex = definition.getCompiled().getCompiledIndex(index);
+        Collection<CField> fields = (compiledIndex != null && compiledIndex.isThin()) ? compiledIndex.getStoredFields() : definition.getFields().values();
+        LinkedHashMap<String, DataType> columns = makeSSTableSorterColumns(definition, fields);
+        columns.put("shardid", DataType.bigint());
+        List<String> partitionKey = Lists.newArrayList("shardid");
+        partitionKey.addAll(index.getCompositeKeyList());
+        return new ExternalRowSorter(CObjectCQLGenerator.makeTableName(definition, index), columns, partitionKey,
+                SSTableSortBufferBytes, SSTableSortDirectory);
+    }
+
+    private LinkedHashMap<String, DataType> makeSSTableSorterColumns(CDefinition definition, Collection<CField> fields) {
+        LinkedHashMap<String, DataType> columns = Maps.newLinkedHashMap();
+        CField id = definition.getField("id");
+        columns.put("id", ExternalRowSorter.getDataType((id == null) ? CField.CDataType.TIMEUUID : id.getType()));
+        for (CField field : fields) {
+            columns.put(field.getName(), ExternalRowSorter.getDataType(field.getType()));
+        }
+        return columns;
+    }
+
     /**
      * Sets the path to write SSTables to, if not set it will default to the current user.dir
      * @param path Path to write SSTables to
@@ -893,22 +3080,56 @@ public class ObjectMapper implements CObjectShardList {
         this.defaultSSTableOutputPath = path;
     }
 
+    /**
+     * Sets the number of rows each SSTable writer queues before producers block, used by initializeSSTableWriters
+     * @param bufferSize Maximum number of rows waiting to be written to each table
+     */
+    public void setSSTableWriterBufferSize(int bufferSize) {
+        this.SSTableWriterBufferSize = bufferSize;
+    }
+
+    /**
+     * Sets the size of the rows each table holds in memory before spilling a sorted run, used when sorting rows
+     * @param bufferBytes Approximate size of the rows held in memory by each table
+     */
+    public void setSSTableSortBufferBytes(long bufferBytes) {
+        this.SSTableSortBufferBytes = bufferBytes;
+    }
+
+    /**
+     * Sets the directory sorted runs are spilled to, defaulting to java.io.tmpdir
+     * @param directory Directory to write run files to
+     */
+    public void setSSTableSortDirectory(File directory) {
+        this.SSTableSortDirectory = directory;
+    }
+
     /**
      * Completes writes to SSTables and cleans up empty table directories. Must be called after writing to SSTables if
      * you actually want to use the SSTables for anything.
-     * @throws IOException
+     * @throws IOException if any writer failed, after every writer has been closed
      */
     public void completeSSTableWrites() throws IOException {
         Map<String, CDefinition> definitions = this.keyspaceDefinition.getDefinitions();
+        // Let every writer drain its queue before waiting on any of them
+        for (Pair<AsyncSSTableWriter, Map<CIndex, AsyncSSTableWriter>> writers : this.SSTableWriters.values()) {
+            writers.left.finish();
+            if (writers.right != null) {
+                for (AsyncSSTableWriter indexWriter : writers.right.values()) {
+                    indexWriter.finish();
+                }
+            }
+        }
+        // Close all SSTableWriters, even when one of them fails, so no writer thread or file is left open
+        Map<String, IOException> failures = Maps.newLinkedHashMap();
         for (String tableName : this.SSTableWriters.keySet()) {
-            // Close all SSTableWriters
-            this.SSTableWriters.get(tableName).left.close();
+            closeSSTableWriter(this.SSTableWriters.get(tableName).left, failures);
             this.clearSSTableDirectoryIfEmpty(tableName);
 
-            Map<CIndex, CQLSSTableWriter> indexWriters = this.SSTableWriters.get(tableName).right;
+            Map<CIndex, AsyncSSTableWriter> indexWriters = this.SSTableWriters.get(tableName).right;
             if (indexWriters != null) {
-                for (CQLSSTableWriter indexWriter : indexWriters.values()) {
-                    indexWriter.close();
+                for (AsyncSSTableWriter indexWriter : indexWriters.values()) {
+                    closeSSTableWriter(indexWriter, failures);
                 }
                 // Clear out empty SSTable directories that haven't been written to
                 CDefinition def = definitions.get(tableName);
@@ -918,6 +3139,21 @@ public class ObjectMapper implements CObjectShardList {
                 }
             }
         }
+        if (failures.size() == 1) {
+            throw failures.values().iterator().next();
+        }
+        if (!failures.isEmpty()) {
+            throw new IOException("Failed writing SSTables for " + Joiner.on(", ").join(failures.keySet()), failures.values().iterator().next());
+        }
+    }
+
+    private void closeSSTableWriter(AsyncSSTableWriter writer, Map<String, IOException> failures) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.error("Failed closing SSTable writer for " + writer.getTableName(), e);
+            failures.put(writer.getTableName(), e);
+        }
     }
 
     /**
@@ -938,6 +3174,28 @@ public class ObjectMapper implements CObjectShardList {
 		this.cqlExecutor.setLogCql(logCql);
 	}
 
+	public ShardIndexKeyMode getShardIndexKeyMode() {
+		return shardIndexKeyMode;
+	}
+
+	public void setShardIndexKeyMode(ShardIndexKeyMode shardIndexKeyMode) {
+		this.shardIndexKeyMode = shardIndexKeyMode;
+		this.cqlGenerator.setShardIndexKeyMode(shardIndexKeyMode);
+	}
+
+	public boolean getWriteIndexValuesJson() {
+		return writeIndexValuesJson;
+	}
+
+	/**
+	 * @param writeIndexValuesJson Also write index value snapshots to the json indexvalues column of __index_updates.
+	 *                             Enable while mappers of a release that cannot read the binary snapshot are still running,
+	 *                             or while migrating the indexed fields of a definition, and disable it afterwards.
+	 */
+	public void setWriteIndexValuesJson(boolean writeIndexValuesJson) {
+		this.writeIndexValuesJson = writeIndexValuesJson;
+	}
+
 	public boolean getExecuteAsync() {
 		return executeAsync;
 	}
@@ -948,9 +3206,17 @@ public class ObjectMapper implements CObjectShardList {
 	}
 
 	public void teardown() {
+		defaultMappingExecutorService.shutdown();
 		session.close();
 	}
 
+	private static ThreadPoolExecutor makeMappingExecutorService() {
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(MAPPING_THREADS, MAPPING_THREADS, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("rhombus-mapping-%d").setDaemon(true).build());
+		ret.allowCoreThreadTimeOut(true);
+		return ret;
+	}
+
 	public boolean isCacheBoundedQueries() {
 		return cacheBoundedQueries;
 	}
@@ -959,6 +3225,74 @@ public class ObjectMapper implements CObjectShardList {
 		this.cacheBoundedQueries = cacheBoundedQueries;
 	}
 
+	public ClosedShardResultCache getClosedShardResultCache() {
+		return closedShardResultCache;
+	}
+
+	/**
+	 * @param closedShardResultCache Cache for the results of statements against closed shards, or null to always read them from Cassandra
+	 */
+	public void setClosedShardResultCache(@Nullable ClosedShardResultCache closedShardResultCache) {
+		this.closedShardResultCache = closedShardResultCache;
+	}
+
+	public RecentHeadCache getRecentHeadCache() {
+		return recentHeadCache;
+	}
+
+	/**
+	 * @param recentHeadCache Cache for the newest objects of indexes with a recentHeadSize, or null to always list them from Cassandra
+	 */
+	public void setRecentHeadCache(@Nullable RecentHeadCache recentHeadCache) {
+		this.recentHeadCache = recentHeadCache;
+	}
+
+	public ShardPresenceCache getShardPresenceCache() {
+		return shardPresenceCache;
+	}
+
+	/**
+	 * Off by default. Writes by other processes to older shards are only seen once the cache entry expires.
+	 * @param shardPresenceCache Cache used to skip empty shards of bounded queries, or null to query every shard in the range
+	 */
+	public void setShardPresenceCache(@Nullable ShardPresenceCache shardPresenceCache) {
+		this.shardPresenceCache = shardPresenceCache;
+	}
+
+	public Executor getMappingExecutor() {
+		return mappingExecutor;
+	}
+
+	/**
+	 * @param mappingExecutor Executor the asynchronous reads map rows and issue their next statements on. Defaults to
+	 *                        a bounded pool of daemon threads owned by this object mapper. Mapping may block while the
+	 *                        driver fetches the next page of a result set, so this must not run tasks on driver threads.
+	 *                        The caller remains responsible for shutting down an executor it passes in.
+	 */
+	public void setMappingExecutor(Executor mappingExecutor) {
+		this.mappingExecutor = (mappingExecutor == null) ? defaultMappingExecutorService : mappingExecutor;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @param retryPolicy Policy retrying idempotent statements of executeStatements that fail asynchronously. Retries
+	 *                    only happen within the batch timeout. Defaults to three attempts backing off from 50ms.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @param deadLetterHandler Handler receiving the statements of executeStatements that still failed after being
+	 *                          retried, or null to throw a StatementFailureException instead
+	 */
+	public void setDeadLetterHandler(@Nullable StatementDeadLetterHandler deadLetterHandler) {
+		this.deadLetterHandler = deadLetterHandler;
+	}
+
     public void setCompaction(String strategy, Map<String,Object> options) throws CQLGenerationException, RhombusException {
         CQLStatementIterator cql = cqlGenerator.makeCQLforCompaction(keyspaceDefinition, strategy, options);
         executeStatements(cql);
@@ -0,0 +1,247 @@
+package com.pardot.rhombus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CField;
+import com.pardot.rhombus.cobject.CIndex;
+import com.pardot.rhombus.cobject.CQLGenerationException;
+import com.pardot.rhombus.cobject.ShardIndexKey;
+import com.pardot.rhombus.util.JsonUtil;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the newest objects of each set of index values, for indexes with a recentHeadSize. A head holds
+ * up to recentHeadSize objects in descending id order and always holds the newest objects of its index values,
+ * so a descending list() without a time range whose limit fits in the head is answered from memory.
+ *
+ * Heads are loaded from the index on the first miss and kept up to date by the writes of this process.
+ * Writes made by other processes are only seen once the head expires, which by default happens after the
+ * consistency horizon of the ObjectMapper. Only objects with time uuid ids are cached.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class RecentHeadCache {
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000L;
+
+	// Same order as the index tables, newest first
+	private static final Comparator<UUID> DESCENDING = new Comparator<UUID>() {
+		@Override
+		public int compare(UUID a, UUID b) {
+			long aTimestamp = a.timestamp();
+			long bTimestamp = b.timestamp();
+			if(aTimestamp != bTimestamp) {
+				return aTimestamp < bTimestamp ? 1 : -1;
+			}
+			return b.compareTo(a);
+		}
+	};
+
+	private final Cache<List<Object>, Head> heads;
+
+	/**
+	 * @param expireAfterMillis Milliseconds after which a head is loaded from the index again
+	 */
+	public RecentHeadCache(long expireAfterMillis) {
+		this(DEFAULT_MAXIMUM_SIZE, expireAfterMillis);
+	}
+
+	/**
+	 * @param maximumSize Maximum number of heads to keep
+	 * @param expireAfterMillis Milliseconds after which a head is loaded from the index again
+	 */
+	public RecentHeadCache(long maximumSize, long expireAfterMillis) {
+		this.heads = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param def Definition being listed
+	 * @param index Index being listed, with a recentHeadSize of at least limit
+	 * @param indexValues Values of the index fields
+	 * @param limit Number of objects to return
+	 * @return Copies of the newest limit objects, or null if the head is not loaded
+	 */
+	@Nullable
+	public List<Map<String, Object>> list(CDefinition def, CIndex index, Map<String, Object> indexValues, long limit) throws CQLGenerationException {
+		Head head = heads.getIfPresent(makeCacheKey(def, index, indexValues));
+		return (head == null) ? null : head.list(limit);
+	}
+
+	/**
+	 * Claim the head of a set of index values for loading. Writes made until the load completes discard the load.
+	 * @return Head to pass to completeLoad, or null if another caller is loading it
+	 */
+	@Nullable
+	public Object beginLoad(CDefinition def, CIndex index, Map<String, Object> indexValues) throws CQLGenerationException {
+		Head head = new Head(index.getRecentHeadSize());
+		Head existing = heads.asMap().putIfAbsent(makeCacheKey(def, index, indexValues), head);
+		return (existing == null) ? head : null;
+	}
+
+	/**
+	 * @param loading Head returned by beginLoad
+	 * @param objects Newest objects of the index values in descending order, at most recentHeadSize of them
+	 */
+	public void completeLoad(Object loading, List<Map<String, Object>> objects) {
+		Head head = (Head)loading;
+		if(!head.load(objects)) {
+			heads.asMap().values().remove(head);
+		}
+	}
+
+	/**
+	 * Apply a write to the heads of every index of the definition that keeps one
+	 * @param def Definition written to
+	 * @param oldValues Values the object had before the write, or null for an insert
+	 * @param newValues Values the object has after the write, or null for a delete
+	 * @param key Id of the object
+	 */
+	public void recordWrite(CDefinition def, @Nullable Map<String, Object> oldValues, @Nullable Map<String, Object> newValues, Object key) throws CQLGenerationException {
+		if(!(key instanceof UUID) || ((UUID)key).version() != 1) {
+			return;
+		}
+		Map<String, Object> object = null;
+		if(newValues != null) {
+			object = makeObject(def, newValues, key);
+		}
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			if(index.getRecentHeadSize() <= 0) {
+				continue;
+			}
+			if(oldValues != null && index.validateIndexKeys(index.getIndexKeyAndValues(oldValues))) {
+				Head head = heads.getIfPresent(makeCacheKey(def, index, oldValues));
+				if(head != null) {
+					head.remove((UUID)key);
+				}
+			}
+			if(object != null && index.validateIndexKeys(index.getIndexKeyAndValues(object))) {
+				Head head = heads.getIfPresent(makeCacheKey(def, index, object));
+				if(head != null) {
+					head.add((UUID)key, object);
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		heads.invalidateAll();
+	}
+
+	public long size() {
+		return heads.size();
+	}
+
+	public com.google.common.cache.CacheStats getStats() {
+		return heads.stats();
+	}
+
+	/**
+	 * Build the object a list would return from the values of a write
+	 */
+	private static Map<String, Object> makeObject(CDefinition def, Map<String, Object> values, Object key) {
+		Map<String, Object> object = Maps.newHashMapWithExpectedSize(def.getFields().size() + 1);
+		for(CField field : def.getFields().values()) {
+			Object value = values.get(field.getName());
+			try {
+				value = JsonUtil.typedObjectFromValueAndField(value, field);
+			} catch(IllegalArgumentException e) {
+				// Values the json coercion does not know, like blobs, are already typed
+			}
+			object.put(field.getName(), value);
+		}
+		object.put("id", key);
+		return object;
+	}
+
+	private static List<Object> makeCacheKey(CDefinition def, CIndex index, Map<String, Object> values) throws CQLGenerationException {
+		return Arrays.<Object>asList(def.getName(), index.getKey(), ShardIndexKey.fromValues(index.getIndexValues(values)));
+	}
+
+	private static class Head {
+		private final int capacity;
+		private final TreeMap<UUID, Map<String, Object>> objects = new TreeMap<UUID, Map<String, Object>>(DESCENDING);
+		private boolean loaded = false;
+		private boolean dirty = false;
+		// true while the head holds every object of its index values
+		private boolean exhaustive = false;
+
+		private Head(int capacity) {
+			this.capacity = capacity;
+		}
+
+		private synchronized boolean load(List<Map<String, Object>> loadedObjects) {
+			if(dirty || loadedObjects == null) {
+				return false;
+			}
+			for(Map<String, Object> object : loadedObjects) {
+				Object id = object.get("id");
+				if(!(id instanceof UUID) || ((UUID)id).version() != 1) {
+					return false;
+				}
+				objects.put((UUID)id, Maps.newHashMap(object));
+			}
+			exhaustive = loadedObjects.size() < capacity;
+			trim();
+			loaded = true;
+			return true;
+		}
+
+		@Nullable
+		private synchronized List<Map<String, Object>> list(long limit) {
+			if(!loaded || (limit > objects.size() && !exhaustive)) {
+				return null;
+			}
+			List<Map<String, Object>> ret = Lists.newArrayListWithCapacity((int)Math.min(limit, objects.size()));
+			for(Map<String, Object> object : objects.values()) {
+				if(ret.size() >= limit) {
+					break;
+				}
+				ret.add(Maps.newHashMap(object));
+			}
+			return ret;
+		}
+
+		private synchronized void add(UUID id, Map<String, Object> object) {
+			if(!loaded) {
+				dirty = true;
+				return;
+			}
+			// Objects older than the oldest one held may have newer objects missing from the head before them
+			if(exhaustive || objects.containsKey(id) || (!objects.isEmpty() && DESCENDING.compare(id, objects.lastKey()) < 0)) {
+				objects.put(id, object);
+				trim();
+			}
+		}
+
+		private synchronized void remove(UUID id) {
+			if(!loaded) {
+				dirty = true;
+				return;
+			}
+			objects.remove(id);
+		}
+
+		private void trim() {
+			while(objects.size() > capacity) {
+				objects.pollLastEntry();
+				exhaustive = false;
+			}
+		}
+	}
+}
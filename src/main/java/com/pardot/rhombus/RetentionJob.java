@@ -0,0 +1,313 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.util.JsonUtil;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes data that is older than the retention declared in the keyspace definition. A retention on a definition
+ * expires its objects, a retention on an index only expires the rows of that index and overrides the retention of
+ * its definition.
+ *
+ * Shards of an index that end before the cutoff are dropped whole: every partition of an expired shard recorded in
+ * the shard index is removed with a single partition delete along with its shard index entry. Expired objects are
+ * found by scanning the static table by token range in parallel, and are deleted from the static table and from
+ * any index whose shard for them is not dropped, such as the shard holding the cutoff and unsharded indexes.
+ *
+ * Only objects with time uuid ids can be expired. Indexes whose sharding strategy does not have contiguous shard
+ * keys have their rows deleted with the objects instead of by shard.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class RetentionJob {
+
+	private static Logger logger = LoggerFactory.getLogger(RetentionJob.class);
+	private static final int deleteBatchSize = 100;
+
+	private final ObjectMapper objectMapper;
+	private int threads = 4;
+	private int tokenRanges = 256;
+	private final AtomicLong objectsDeleted = new AtomicLong();
+	private final AtomicLong partitionsDeleted = new AtomicLong();
+	private final Counter objectsDeletedCounter = Metrics.defaultRegistry().newCounter(RetentionJob.class, "objectsDeleted");
+	private final Counter partitionsDeletedCounter = Metrics.defaultRegistry().newCounter(RetentionJob.class, "partitionsDeleted");
+	private final Counter tokenRangesScannedCounter = Metrics.defaultRegistry().newCounter(RetentionJob.class, "tokenRangesScanned");
+
+	public RetentionJob(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Expire the data of every definition of the keyspace
+	 */
+	public void run() throws Exception {
+		run(objectMapper.getKeyspaceDefinition().getDefinitions().values(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Expire the data of one object type
+	 * @param objectType Type of object to expire
+	 */
+	public void run(String objectType) throws Exception {
+		CDefinition def = objectMapper.getKeyspaceDefinition().getDefinitions().get(objectType);
+		if(def == null) {
+			throw new IllegalArgumentException("No definition for object type " + objectType);
+		}
+		run(Collections.singletonList(def), System.currentTimeMillis());
+	}
+
+	/**
+	 * @param definitions Definitions to expire the data of
+	 * @param now Time the retention periods are measured back from
+	 */
+	public void run(Collection<CDefinition> definitions, long now) throws Exception {
+		// First shard of each index layout that is kept, keyed by index table name
+		Map<String, Long> keptShardIds = Maps.newHashMap();
+		Map<String, Object[]> expiringTables = Maps.newHashMap();
+		for(CDefinition def : definitions) {
+			Map<CIndex, Long> defKeptShardIds = getKeptShardIds(def, now);
+			for(Map.Entry<CIndex, Long> entry : defKeptShardIds.entrySet()) {
+				String tableName = CObjectCQLGenerator.makeTableName(def, entry.getKey());
+				keptShardIds.put(tableName, entry.getValue());
+				expiringTables.put(tableName, new Object[]{def, entry.getKey()});
+			}
+			Period period = def.getRetentionPeriod();
+			if(period != null) {
+				expireObjects(def, new DateTime(now).minus(period).getMillis(), defKeptShardIds);
+			}
+		}
+		if(!expiringTables.isEmpty()) {
+			dropExpiredShards(expiringTables, keptShardIds);
+		}
+		objectMapper.clearShardPresenceCache();
+		if(objectMapper.getRecentHeadCache() != null) {
+			objectMapper.getRecentHeadCache().clear();
+		}
+		logger.info("Retention deleted {} objects and {} index partitions", objectsDeleted.get(), partitionsDeleted.get());
+	}
+
+	/**
+	 * @return First shard id kept by each index layout of the definition that has a retention and can drop whole shards
+	 */
+	private Map<CIndex, Long> getKeptShardIds(CDefinition def, long now) {
+		Map<CIndex, Long> ret = Maps.newHashMap();
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			Period period = (index.getRetentionPeriod() != null) ? index.getRetentionPeriod() : def.getRetentionPeriod();
+			if(period == null || !def.getCompiled().isSharded(index)) {
+				continue;
+			}
+			if(!index.getShardingStrategy().hasContiguousShardKeys()) {
+				if(index.getRetention() != null) {
+					logger.warn("Index {}:{} has a retention but its shards can not be dropped by time", def.getName(), index.getKey());
+				}
+				continue;
+			}
+			// Every shard before the one holding the cutoff ends before the cutoff
+			ret.put(index, index.getShardingStrategy().getShardKey(new DateTime(now).minus(period).getMillis()));
+		}
+		return ret;
+	}
+
+	/**
+	 * Delete every object of a definition created before the cutoff
+	 */
+	private void expireObjects(final CDefinition def, final long cutoff, final Map<CIndex, Long> keptShardIds) throws Exception {
+		long[] boundaries = IndexResharder.splitTokenRing(tokenRanges);
+		List<Callable<Void>> scans = Lists.newArrayList();
+		for(int i = 0; i < tokenRanges; i++) {
+			final long start = boundaries[i];
+			final long end = boundaries[i + 1];
+			scans.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					expireTokenRange(def, cutoff, keptShardIds, start, end);
+					tokenRangesScannedCounter.inc();
+					return null;
+				}
+			});
+		}
+		logger.info("Scanning {} token ranges of {} for objects older than {}", tokenRanges, def.getName(), new DateTime(cutoff));
+		runAll(scans);
+	}
+
+	private void expireTokenRange(final CDefinition def, final long cutoff, final Map<CIndex, Long> keptShardIds, long start, long end) throws Exception {
+		final List<Map<String, Object>> batch = Lists.newArrayList();
+		final Exception[] failure = new Exception[1];
+		objectMapper.visitObjectsInTokenRange(def, start, end, new CObjectVisitor() {
+			public void visit(Map<String, Object> object) {
+				batch.add(object);
+				if(batch.size() >= deleteBatchSize) {
+					try {
+						deleteBatch(def, batch, keptShardIds);
+					} catch(Exception e) {
+						failure[0] = e;
+					}
+				}
+			}
+
+			public boolean shouldInclude(Map<String, Object> object) {
+				Object id = object.get("id");
+				return failure[0] == null && id instanceof UUID && ((UUID)id).version() == 1 && UUIDs.unixTimestamp((UUID)id) < cutoff;
+			}
+		});
+		if(failure[0] != null) {
+			throw failure[0];
+		}
+		deleteBatch(def, batch, keptShardIds);
+	}
+
+	/**
+	 * Delete a batch of expired objects, leaving the rows of shards that are dropped whole to the partition deletes
+	 */
+	private void deleteBatch(CDefinition def, List<Map<String, Object>> batch, Map<CIndex, Long> keptShardIds) throws CQLGenerationException, RhombusException {
+		Map<Set<CIndex>, List<Map<String, Object>>> bySkippedIndexes = Maps.newHashMap();
+		for(Map<String, Object> object : batch) {
+			Set<CIndex> skipped = Sets.newHashSet();
+			for(Map.Entry<CIndex, Long> entry : keptShardIds.entrySet()) {
+				CIndex index = entry.getKey();
+				if(index.validateIndexKeys(index.getIndexKeyAndValues(object))
+						&& index.getShardingStrategy().getShardKey(object.get("id"), def, index, object) < entry.getValue()) {
+					skipped.add(index);
+				}
+			}
+			List<Map<String, Object>> group = bySkippedIndexes.get(skipped);
+			if(group == null) {
+				group = Lists.newArrayList();
+				bySkippedIndexes.put(skipped, group);
+			}
+			group.add(object);
+		}
+		for(Map.Entry<Set<CIndex>, List<Map<String, Object>>> group : bySkippedIndexes.entrySet()) {
+			objectMapper.deleteObjects(def, group.getValue(), group.getKey());
+		}
+		objectsDeleted.addAndGet(batch.size());
+		objectsDeletedCounter.inc(batch.size());
+		batch.clear();
+	}
+
+	/**
+	 * Read every expired shard from the shard index and delete it as a whole partition
+	 */
+	private void dropExpiredShards(Map<String, Object[]> expiringTables, Map<String, Long> keptShardIds) throws Exception {
+		ShardIndexKeyMode mode = objectMapper.getShardIndexKeyMode();
+		Set<List<Object>> seen = Sets.newHashSet();
+		List<Callable<Void>> drops = Lists.newArrayList();
+		if(mode.usesLegacy()) {
+			for(Row row : objectMapper.scanShardIndex(false)) {
+				addDrop(drops, seen, expiringTables, keptShardIds, row.getString("tablename"), row.getLong("shardid"),
+						ShardIndexKey.decodeLegacyString(row.getString("indexvalues")));
+			}
+		}
+		if(mode.usesHashed()) {
+			for(Row row : objectMapper.scanShardIndex(true)) {
+				addDrop(drops, seen, expiringTables, keptShardIds, row.getString("tablename"), row.getLong("shardid"),
+						ShardIndexKey.decode(row.getBytes("indexkey")));
+			}
+		}
+		logger.info("Dropping {} expired index partitions", drops.size());
+		runAll(drops);
+	}
+
+	private void addDrop(List<Callable<Void>> drops, Set<List<Object>> seen, Map<String, Object[]> expiringTables, Map<String, Long> keptShardIds,
+						 String tableName, final long shardId, List<String> values) throws CQLGenerationException {
+		Long keptShardId = keptShardIds.get(tableName);
+		if(keptShardId == null || shardId >= keptShardId) {
+			return;
+		}
+		final CDefinition def = (CDefinition)expiringTables.get(tableName)[0];
+		final CIndex index = (CIndex)expiringTables.get(tableName)[1];
+		final SortedMap<String, Object> indexValues = parseIndexValues(def, index, values);
+		if(indexValues == null || !seen.add(Arrays.<Object>asList(tableName, shardId, ShardIndexKey.fromValues(values)))) {
+			return;
+		}
+		drops.add(new Callable<Void>() {
+			public Void call() throws Exception {
+				objectMapper.deleteShardPartition(def, index, indexValues, shardId);
+				partitionsDeleted.incrementAndGet();
+				partitionsDeletedCounter.inc();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @param values Index values as stored in the shard index, in index key order
+	 * @return Index values typed by their fields, or null if they can not be read back
+	 */
+	protected static SortedMap<String, Object> parseIndexValues(CDefinition def, CIndex index, List<String> values) {
+		List<String> keys = index.getCompositeKeyList();
+		if(values.size() != keys.size()) {
+			return null;
+		}
+		SortedMap<String, Object> ret = Maps.newTreeMap();
+		for(int i = 0; i < keys.size(); i++) {
+			String value = values.get(i);
+			CField field = def.getField(keys.get(i));
+			if(value == null || field == null) {
+				return null;
+			}
+			try {
+				// Timestamps are stored as milliseconds, which the json coercion only takes as numbers
+				ret.put(field.getName(), (field.getType() == CField.CDataType.TIMESTAMP) ?
+						new Date(Long.parseLong(value)) : JsonUtil.typedObjectFromValueAndField(value, field));
+			} catch(IllegalArgumentException e) {
+				logger.warn("Unable to read index value {} of {}:{} from the shard index", value, def.getName(), index.getKey());
+				return null;
+			}
+		}
+		return ret;
+	}
+
+	private void runAll(List<Callable<Void>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for(Future<Void> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch(ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public long getObjectsDeleted() {
+		return objectsDeleted.get();
+	}
+
+	public long getPartitionsDeleted() {
+		return partitionsDeleted.get();
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getTokenRanges() {
+		return tokenRanges;
+	}
+
+	public void setTokenRanges(int tokenRanges) {
+		this.tokenRanges = tokenRanges;
+	}
+}
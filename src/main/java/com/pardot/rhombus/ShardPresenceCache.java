@@ -0,0 +1,143 @@
+package com.pardot.rhombus;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.pardot.rhombus.cobject.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the shards each index table and set of index values has written to, built from the shard index
+ * and kept up to date by the writes of this process. Bounded queries use it to skip the shards of their
+ * time range that are known to be empty.
+ *
+ * Shards from the one that was current when an entry was loaded onwards are always queried, so the first
+ * write to a new shard by another process is never missed. A write by another process to an older, empty
+ * shard is only seen once the entry expires.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ShardPresenceCache {
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 100000L;
+	public static final long DEFAULT_EXPIRE_AFTER_WRITE_SECONDS = 300L;
+
+	private final ObjectMapper objectMapper;
+	private final Cache<List<Object>, ShardPresenceBitmap> bitmaps;
+
+	public ShardPresenceCache(ObjectMapper objectMapper) {
+		this(objectMapper, DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_AFTER_WRITE_SECONDS);
+	}
+
+	/**
+	 * @param objectMapper Object mapper to read the shard index with
+	 * @param maximumSize Maximum number of index table and index value combinations to keep
+	 * @param expireAfterWriteSeconds Seconds after which an entry is reloaded from the shard index
+	 */
+	public ShardPresenceCache(ObjectMapper objectMapper, long maximumSize, long expireAfterWriteSeconds) {
+		this.objectMapper = objectMapper;
+		this.bitmaps = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index being queried
+	 * @param indexValues Values of the index fields
+	 * @param shardIdRange Closed range of shard ids covered by the query
+	 * @param ordering Order of the returned shard ids
+	 * @return Shard ids in the range that may hold rows
+	 */
+	public List<Long> getPresentShardIds(final CDefinition def, final CIndex index, final SortedMap<String, Object> indexValues,
+										 Range<Long> shardIdRange, CObjectOrdering ordering) throws CQLGenerationException {
+		ShardPresenceBitmap bitmap;
+		try {
+			bitmap = bitmaps.get(makeCacheKey(def, index, indexValues.values()), new Callable<ShardPresenceBitmap>() {
+				@Override
+				public ShardPresenceBitmap call() throws Exception {
+					// Take the current shard before reading so a shard created during the read stays open
+					long openShardId = index.getShardingStrategy().getShardKey(System.currentTimeMillis());
+					List<Long> shardIds = objectMapper.getShardIdListInShardRange(def, index, indexValues, CObjectOrdering.ASCENDING, null, null);
+					return new ShardPresenceBitmap(shardIds, openShardId);
+				}
+			});
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof CQLGenerationException) {
+				throw (CQLGenerationException)e.getCause();
+			}
+			throw new CQLGenerationException("Unable to load shard presence of " + CObjectCQLGenerator.makeTableName(def, index) + ": " + e.getCause().getMessage());
+		}
+		return bitmap.getShardIds(shardIdRange, ordering);
+	}
+
+	/**
+	 * Load the entry of an index and set of index values from the shard index without blocking, so that
+	 * getPresentShardIds finds it loaded
+	 * @param def Definition the index belongs to
+	 * @param index Index about to be queried
+	 * @param indexValues Values of the index fields
+	 * @return Future completed once the entry is loaded
+	 */
+	public ListenableFuture<?> preload(CDefinition def, CIndex index, SortedMap<String, Object> indexValues) throws CQLGenerationException {
+		final List<Object> cacheKey = makeCacheKey(def, index, indexValues.values());
+		if(bitmaps.getIfPresent(cacheKey) != null) {
+			return Futures.immediateFuture(null);
+		}
+		final long openShardId = index.getShardingStrategy().getShardKey(System.currentTimeMillis());
+		return Futures.transform(objectMapper.getShardIdListInShardRangeAsync(def, index, indexValues, CObjectOrdering.ASCENDING, null, null),
+				new Function<List<Long>, Object>() {
+					@Override
+					public Object apply(List<Long> shardIds) {
+						bitmaps.put(cacheKey, new ShardPresenceBitmap(shardIds, openShardId));
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * Mark the shards an object was written to in every loaded entry of its indexes
+	 * @param def Definition of the object
+	 * @param data Complete values of the object
+	 * @param key Id of the object
+	 */
+	public void recordWrite(CDefinition def, Map<String, Object> data, Object key) throws CQLGenerationException {
+		for(CIndex index : def.getCompiled().getIndexes()) {
+			if(!def.getCompiled().isSharded(index) || !index.getShardingStrategy().hasContiguousShardKeys()) {
+				continue;
+			}
+			if(!data.keySet().containsAll(index.getCompositeKeyList())) {
+				// Objects without every index field are not written to the index
+				continue;
+			}
+			ShardPresenceBitmap bitmap = bitmaps.getIfPresent(makeCacheKey(def, index, index.getIndexValues(data)));
+			if(bitmap != null) {
+				bitmap.add(index.getShardingStrategy().getShardKey(key, def, index, data));
+			}
+		}
+	}
+
+	/**
+	 * Forget every entry, used when the shard index is truncated or rebuilt
+	 */
+	public void clear() {
+		bitmaps.invalidateAll();
+	}
+
+	private static List<Object> makeCacheKey(CDefinition def, CIndex index, Collection values) throws CQLGenerationException {
+		return Arrays.<Object>asList(CObjectCQLGenerator.makeTableName(def, index), ShardIndexKey.fromValues(values));
+	}
+}
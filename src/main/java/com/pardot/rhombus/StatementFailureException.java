@@ -0,0 +1,26 @@
+package com.pardot.rhombus;
+
+import com.pardot.rhombus.cobject.async.StatementFailure;
+
+import java.util.List;
+
+/**
+ * Thrown when statements executed asynchronously still failed after being retried
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class StatementFailureException extends RhombusException {
+
+	private final List<StatementFailure> failures;
+
+	public StatementFailureException(List<StatementFailure> failures) {
+		super(failures.size() + " statements failed, first failure: " + failures.get(0));
+		this.failures = failures;
+		initCause(failures.get(0).getCause());
+	}
+
+	public List<StatementFailure> getFailures() {
+		return failures;
+	}
+}
@@ -0,0 +1,34 @@
+package com.pardot.rhombus.cli.commands;
+
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * Copies the legacy shard index of an existing keyspace into the hashed shard index. Once it has run against a
+ * keyspace whose mappers write the hashed layout, the keyspace can be switched to shardIndexKeyMode HASHED.
+ *
+ * Date: 10/19/26
+ */
+public class BackfillShardIndex extends RcliWithExistingKeyspace {
+
+	public boolean executeCommand(CommandLine cl){
+		boolean ret = false;
+		try {
+			ret = super.executeCommand(cl);
+		} catch (Exception e) {
+			System.out.println("Exception executing command");
+			e.printStackTrace();
+		}
+		if(!ret){
+			return false;
+		}
+		try{
+			long copied = this.objectMapper.backfillHashedShardIndex();
+			System.out.println("Copied " + copied + " shard index rows into the hashed shard index");
+			return true;
+		} catch (Exception e) {
+			System.out.println("Error encountered while backfilling the hashed shard index");
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
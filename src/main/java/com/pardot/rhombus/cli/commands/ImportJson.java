@@ -0,0 +1,101 @@
+package com.pardot.rhombus.cli.commands;
+
+import com.pardot.rhombus.BulkImporter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import java.io.File;
+
+/**
+ * Imports a file of newline-delimited JSON objects into an existing keyspace, either through inserts or by writing
+ * SSTables to be loaded with sstableloader
+ *
+ * Date: 10/19/26
+ */
+public class ImportJson extends RcliWithExistingKeyspace {
+
+	public Options getCommandOptions(){
+		Options ret = super.getCommandOptions();
+		Option file = OptionBuilder.withArgName("filename")
+				.hasArg()
+				.withDescription("File of newline-delimited JSON objects to import")
+				.create( "file" );
+		Option objectType = OptionBuilder.withArgName("type")
+				.hasArg()
+				.withDescription("Object type of the objects in the file")
+				.create( "objecttype" );
+		Option offset = OptionBuilder.withArgName("bytes")
+				.hasArg()
+				.withDescription("Byte offset to resume an earlier import from")
+				.create( "offset" );
+		Option batchSize = OptionBuilder.withArgName("count")
+				.hasArg()
+				.withDescription("Number of objects written per batch")
+				.create( "batchsize" );
+		Option concurrency = OptionBuilder.withArgName("count")
+				.hasArg()
+				.withDescription("Number of batches inserted at the same time")
+				.create( "concurrency" );
+		Option sstables = OptionBuilder.withArgName("directory")
+				.hasArg()
+				.withDescription("Write SSTables to this directory instead of inserting, requires -Dcassandra.config")
+				.create( "sstables" );
+		Option sortRows = new Option( "sortrows", "Sort rows before writing SSTables so the writers do not buffer whole tables in memory" );
+		ret.addOption(file);
+		ret.addOption(objectType);
+		ret.addOption(offset);
+		ret.addOption(batchSize);
+		ret.addOption(concurrency);
+		ret.addOption(sstables);
+		ret.addOption(sortRows);
+		return ret;
+	}
+
+	public boolean executeCommand(CommandLine cl){
+		boolean ret = false;
+		try {
+			ret = super.executeCommand(cl);
+		} catch (Exception e) {
+			System.out.println("Exception executing command");
+			e.printStackTrace();
+		}
+		if(!ret){
+			return false;
+		}
+		if(!cl.hasOption("file") || !cl.hasOption("objecttype")){
+			displayHelpMessage();
+			return false;
+		}
+		BulkImporter importer = new BulkImporter(this.objectMapper);
+		try{
+			if(cl.hasOption("batchsize")){
+				importer.setBatchSize(Integer.parseInt(cl.getOptionValue("batchsize")));
+			}
+			if(cl.hasOption("concurrency")){
+				importer.setConcurrency(Integer.parseInt(cl.getOptionValue("concurrency")));
+			}
+			long offset = cl.hasOption("offset") ? Long.parseLong(cl.getOptionValue("offset")) : 0L;
+			long start = System.currentTimeMillis();
+			long end;
+			if(cl.hasOption("sstables")){
+				importer.setOutput(BulkImporter.Output.SSTABLE);
+				this.objectMapper.setSSTableOutputPath(cl.getOptionValue("sstables"));
+				this.objectMapper.initializeSSTableWriters(cl.hasOption("sortrows"), cl.hasOption("sortrows"));
+				end = importer.importFile(cl.getOptionValue("objecttype"), new File(cl.getOptionValue("file")), offset);
+				this.objectMapper.completeSSTableWrites();
+			} else {
+				end = importer.importFile(cl.getOptionValue("objecttype"), new File(cl.getOptionValue("file")), offset);
+			}
+			long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+			System.out.println("Imported " + importer.getRowsImported() + " objects at " + (importer.getRowsImported() * 1000L / elapsed) +
+					" rows/sec, read up to offset " + end);
+			return true;
+		} catch (Exception e) {
+			System.out.println("Error encountered while importing, resume from offset " + importer.getResumeOffset());
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.pardot.rhombus.cli.commands;
+
+import com.pardot.rhombus.IndexCountRecomputer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+/**
+ * Recounts the objects of an existing keyspace into the counters of its counted indexes, repairing any drift
+ *
+ * Date: 10/19/26
+ */
+public class RecomputeIndexCounts extends RcliWithExistingKeyspace {
+
+	public Options getCommandOptions(){
+		Options ret = super.getCommandOptions();
+		Option objectType = OptionBuilder.withArgName("type")
+				.hasArg()
+				.withDescription("Only recompute the counters of this object type")
+				.create( "objecttype" );
+		ret.addOption(objectType);
+		return ret;
+	}
+
+	public boolean executeCommand(CommandLine cl){
+		boolean ret = false;
+		try {
+			ret = super.executeCommand(cl);
+		} catch (Exception e) {
+			System.out.println("Exception executing command");
+			e.printStackTrace();
+		}
+		if(!ret){
+			return false;
+		}
+		try{
+			IndexCountRecomputer recomputer = new IndexCountRecomputer(this.objectMapper);
+			long repaired;
+			if(cl.hasOption("objecttype")){
+				repaired = recomputer.recompute(cl.getOptionValue("objecttype"));
+			} else {
+				repaired = recomputer.recomputeAll();
+			}
+			System.out.println("Repaired " + repaired + " index counters");
+			return true;
+		} catch (Exception e) {
+			System.out.println("Error encountered while recomputing index counts");
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
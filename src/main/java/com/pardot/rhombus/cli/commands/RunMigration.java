@@ -1,6 +1,7 @@
 package com.pardot.rhombus.cli.commands;
 
 import com.pardot.rhombus.ConnectionManager;
+import com.pardot.rhombus.IndexResharder;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
 import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
@@ -34,8 +35,27 @@ public class RunMigration extends RcliWithExistingKeyspace {
 				.withDescription("Resource filename of the new keyspace definition")
 				.create( "newkeyspaceresource" );
 		Option list = new Option( "l", "Only list the cql for the migration (does not run the migration)" );
+		Option reshard = new Option( "reshard", "Reshard indexes whose sharding strategy changed while the keyspace stays online. Rerun to resume." );
+		Option retire = new Option( "retire", "With -reshard, drop the old layout of indexes whose reads have been flipped" );
+		Option threads = OptionBuilder.withArgName("count")
+				.hasArg()
+				.withDescription("Number of token ranges to backfill and verify in parallel while resharding")
+				.create( "reshardthreads" );
+		Option rate = OptionBuilder.withArgName("objects")
+				.hasArg()
+				.withDescription("Maximum number of objects to backfill or verify per second while resharding")
+				.create( "reshardrate" );
+		Option settle = OptionBuilder.withArgName("seconds")
+				.hasArg()
+				.withDescription("Seconds to wait after each reshard step for running applications to load the new definition")
+				.create( "reshardsettle" );
 		ret.addOption(keyspaceFile);
 		ret.addOption(keyspaceResource);
+		ret.addOption(reshard);
+		ret.addOption(retire);
+		ret.addOption(threads);
+		ret.addOption(rate);
+		ret.addOption(settle);
 		return ret;
 	}
 
@@ -76,6 +96,9 @@ public class RunMigration extends RcliWithExistingKeyspace {
 
 		//now run the migration
 		try{
+			if(cl.hasOption("reshard")){
+				return runReshard(cl, NewkeyDef);
+			}
 			boolean printOnly = cl.hasOption("l");
 			return runMigration(this.getConnectionManager(), NewkeyDef, printOnly);
 		}
@@ -86,6 +109,24 @@ public class RunMigration extends RcliWithExistingKeyspace {
 		}
 	}
 
+	public boolean runReshard(CommandLine cl, CKeyspaceDefinition newDefinition) throws CObjectMigrationException {
+		IndexResharder resharder = new IndexResharder(this.getConnectionManager(), this.objectMapper);
+		if(cl.hasOption("reshardthreads")){
+			resharder.setThreads(Integer.parseInt(cl.getOptionValue("reshardthreads")));
+		}
+		if(cl.hasOption("reshardrate")){
+			resharder.setMaxObjectsPerSecond(Double.parseDouble(cl.getOptionValue("reshardrate")));
+		}
+		if(cl.hasOption("reshardsettle")){
+			resharder.setSettleMillis(Long.parseLong(cl.getOptionValue("reshardsettle")) * 1000L);
+		}
+		if(!resharder.run(newDefinition, cl.hasOption("retire"))){
+			System.out.println("Reshard verification failed, reads were not flipped. Fix the differences and run the migration again.");
+			return false;
+		}
+		return true;
+	}
+
 	public boolean runMigration(ConnectionManager cm, CKeyspaceDefinition oldDefinition, boolean printOnly) throws CObjectMigrationException {
 		if(printOnly){
 			//just print out a list of CQL statements for the migration
@@ -0,0 +1,60 @@
+package com.pardot.rhombus.cli.commands;
+
+import com.pardot.rhombus.RetentionJob;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+/**
+ * Deletes the data of an existing keyspace that is older than the retention of its definitions and indexes
+ *
+ * Date: 10/19/26
+ */
+public class RunRetention extends RcliWithExistingKeyspace {
+
+	public Options getCommandOptions(){
+		Options ret = super.getCommandOptions();
+		Option objectType = OptionBuilder.withArgName("type")
+				.hasArg()
+				.withDescription("Only expire the data of this object type")
+				.create( "objecttype" );
+		Option threads = OptionBuilder.withArgName("count")
+				.hasArg()
+				.withDescription("Number of token ranges and shards to delete in parallel")
+				.create( "threads" );
+		ret.addOption(objectType);
+		ret.addOption(threads);
+		return ret;
+	}
+
+	public boolean executeCommand(CommandLine cl){
+		boolean ret = false;
+		try {
+			ret = super.executeCommand(cl);
+		} catch (Exception e) {
+			System.out.println("Exception executing command");
+			e.printStackTrace();
+		}
+		if(!ret){
+			return false;
+		}
+		try{
+			RetentionJob job = new RetentionJob(this.objectMapper);
+			if(cl.hasOption("threads")){
+				job.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+			}
+			if(cl.hasOption("objecttype")){
+				job.run(cl.getOptionValue("objecttype"));
+			} else {
+				job.run();
+			}
+			System.out.println("Deleted " + job.getObjectsDeleted() + " objects and " + job.getPartitionsDeleted() + " index partitions");
+			return true;
+		} catch (Exception e) {
+			System.out.println("Error encountered while running retention");
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
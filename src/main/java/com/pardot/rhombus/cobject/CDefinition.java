@@ -2,15 +2,15 @@ package com.pardot.rhombus.cobject;
 
 
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.pardot.rhombus.util.MapToListSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.joda.time.Period;
 
 import java.io.IOException;
 import java.util.*;
@@ -32,11 +32,17 @@ public class CDefinition {
 	@JsonProperty
 	private Map<String, CIndex> indexes;
 
-	@JsonIgnore
-	private SortedMap<String, CIndex> indexesIndexedByFields;
-
 	private boolean allowNullPrimaryKeyInserts = false;
 
+	private String retention;
+
+	private CTableOptions tableOptions;
+
+	@JsonIgnore
+	private volatile CompiledDefinition compiled;
+	// Number of changes made to the indexes, guarded by this, so that a compile racing a change is not kept
+	private int indexChanges = 0;
+
 	public CDefinition(){
 	}
 
@@ -51,6 +57,7 @@ public class CDefinition {
 	}
 	public void setName(String name) {
 		this.name = name;
+		this.compiled = null;
 	}
 	public Map<String, CField> getFields() {
 		return fields;
@@ -60,17 +67,18 @@ public class CDefinition {
 		for(CField field : fields) {
 			this.fields.put(field.getName(), field);
 		}
+		this.compiled = null;
 	}
 	public Map<String, CIndex> getIndexes() {
 		return indexes;
 	}
 	public void setIndexes(List<CIndex> indexes) {
 		this.indexes = Maps.newHashMap();
-		this.indexesIndexedByFields = Maps.newTreeMap();
 		for(CIndex index : indexes) {
+			index.attachTo(this);
 			this.indexes.put(index.getName(), index);
-			this.indexesIndexedByFields.put(index.getKey(),index);
 		}
+		this.compiled = null;
 	}
 
 	public boolean isAllowNullPrimaryKeyInserts() {
@@ -79,25 +87,97 @@ public class CDefinition {
 
 	public void setAllowNullPrimaryKeyInserts(boolean allowNullPrimaryKeyInserts) {
 		this.allowNullPrimaryKeyInserts = allowNullPrimaryKeyInserts;
+		this.compiled = null;
+	}
+
+	/**
+	 * @return ISO-8601 period after which objects are removed by the retention job, or null to keep them forever
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getRetention() {
+		return retention;
+	}
+
+	public void setRetention(String retention) {
+		if(retention != null) {
+			// Fail when the definition is read rather than when the retention job runs
+			Period.parse(retention);
+		}
+		this.retention = retention;
 	}
 
 	@JsonIgnore
-	public Collection<String> getRequiredFields(){
-		Map<String,String> ret = Maps.newHashMap();
+	public Period getRetentionPeriod() {
+		return (retention == null) ? null : Period.parse(retention);
+	}
+
+	/**
+	 * @return Cassandra table options of the static table, or null for the defaults of the cluster
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public CTableOptions getTableOptions() {
+		return tableOptions;
+	}
+
+	public void setTableOptions(CTableOptions tableOptions) {
+		this.tableOptions = tableOptions;
+	}
+
+	/**
+	 * @return The compiled runtime form of this definition, compiling it on first use and again after one of its
+	 * indexes was changed
+	 */
+	@JsonIgnore
+	public CompiledDefinition getCompiled() {
+		CompiledDefinition ret = compiled;
+		if(ret == null) {
+			ret = compile();
+		}
+		return ret;
+	}
+
+	/**
+	 * Rebuild the compiled runtime form of this definition. This must be called after
+	 * modifying the maps returned by getFields() or getIndexes() directly. Changes made
+	 * through the setters of an index are picked up without it.
+	 * @return The newly compiled definition
+	 */
+	public CompiledDefinition compile() {
+		int changesBefore;
+		synchronized(this) {
+			changesBefore = indexChanges;
+		}
 		if(indexes != null) {
-			for( CIndex i : indexes.values()){
-				for(String key : i.getCompositeKeyList()){
-					ret.put(key,key);
-				}
+			for(CIndex index : indexes.values()) {
+				index.attachTo(this);
+			}
+		}
+		CompiledDefinition ret = CompiledDefinition.compile(this);
+		synchronized(this) {
+			// An index changed while compiling, leave it to the next call to compile again
+			if(indexChanges == changesBefore) {
+				this.compiled = ret;
 			}
 		}
-		return ret.values();
+		return ret;
+	}
+
+	/**
+	 * Called by the setters of the indexes of this definition
+	 */
+	synchronized void indexChanged() {
+		indexChanges++;
+		this.compiled = null;
+	}
+
+	@JsonIgnore
+	public Collection<String> getRequiredFields(){
+		return getCompiled().getRequiredFields();
 	}
 
 	public Map<String, Object> makeIndexValues(Map<String,Object> allValues){
 		Map<String,Object> ret = Maps.newTreeMap();
-		Collection<String> requiredFields = getRequiredFields();
-		for(String f: requiredFields){
+		for(String f: getRequiredFields()){
 			ret.put(f, allValues.get(f));
 		}
 		return ret;
@@ -107,8 +187,7 @@ public class CDefinition {
 		if(allowFiltering) {
 			return getMostSelectiveMatchingIndex(indexValues);
 		} else {
-			String key = Joiner.on(":").join(indexValues.keySet());
-			return indexesIndexedByFields.get(key);
+			return getCompiled().getExactIndex(indexValues.keySet());
 		}
 	}
 
@@ -118,21 +197,7 @@ public class CDefinition {
 	 * @return The most selective index matching keys in indexValues
 	 */
 	public CIndex getMostSelectiveMatchingIndex(SortedMap<String,Object> indexValues) {
-		List<String> keys = Lists.newArrayList();
-		for(String key : indexValues.keySet()) {
-			if(this.isFieldUsedInAnyIndex(key)) {
-				keys.add(key);
-			}
-		}
-		while(!keys.isEmpty()) {
-			String key = Joiner.on(":").join(keys);
-			CIndex index = indexesIndexedByFields.get(key);
-			if(index != null) {
-				return index;
-			}
-			keys.remove(keys.size() - 1);
-		}
-		return null;
+		return getCompiled().getMostSelectiveIndex(indexValues.keySet());
 	}
 
 	/**
@@ -140,21 +205,15 @@ public class CDefinition {
 	 * @return true if the supplied field is used in any index
 	 */
 	public boolean isFieldUsedInAnyIndex(String field) {
-		for(CIndex index : indexes.values()) {
-			if(index.getCompositeKeyList().contains(field)) {
-				return true;
-			}
-		}
-		return false;
+		return getCompiled().isFieldUsedInAnyIndex(field);
 	}
 
+	/**
+	 * @return Every index layout that writes go to, as an immutable list
+	 */
 	@JsonIgnore
 	public List<CIndex> getIndexesAsList(){
-		List<CIndex> ret = Lists.newArrayList();
-		for(String key: this.indexes.keySet()){
-			ret.add(this.indexes.get(key));
-		}
-		return ret;
+		return getCompiled().getIndexes();
 	}
 
 	public CField getField(String fieldName) {
@@ -193,6 +252,8 @@ public class CDefinition {
 		final CDefinition other = (CDefinition)otherObject;
 		return Objects.equal(this.getName(), other.getName())
 				&& Objects.equal(this.isAllowNullPrimaryKeyInserts(), other.isAllowNullPrimaryKeyInserts())
+				&& Objects.equal(this.getRetention(), other.getRetention())
+				&& Objects.equal(this.getTableOptions(), other.getTableOptions())
 				&& Objects.equal(this.getFields(), other.getFields())
 				&& Objects.equal(this.getIndexes(), other.getIndexes());
 	}
@@ -6,6 +6,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.pardot.rhombus.cobject.shardingstrategy.TimebasedShardingStrategy;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.joda.time.Period;
 
 import java.util.*;
 
@@ -21,6 +23,17 @@ public class CIndex {
 
 	private TimebasedShardingStrategy shardingStrategy;
 
+	private CIndexStorage storage = CIndexStorage.FULL;
+	private List<String> coveringFields = Lists.newArrayList();
+	private int layoutVersion = 0;
+	private CIndexReshard reshard;
+	private boolean counted = false;
+	private int recentHeadSize = 0;
+	private String retention;
+	private CTableOptions tableOptions;
+	// Definition this index belongs to, whose compiled form every setter drops
+	private volatile CDefinition definition;
+
 	public CIndex() {
 
 	}
@@ -66,6 +79,144 @@ public class CIndex {
 
 	public void setShardingStrategy(TimebasedShardingStrategy shardingStrategy){
 		this.shardingStrategy = shardingStrategy;
+		changed();
+	}
+
+	public CIndexStorage getStorage() {
+		return storage;
+	}
+
+	public void setStorage(CIndexStorage storage) {
+		this.storage = (storage == null) ? CIndexStorage.FULL : storage;
+		changed();
+	}
+
+	/**
+	 * @return Version of the index table layout, incremented every time the index is resharded
+	 */
+	public int getLayoutVersion() {
+		return layoutVersion;
+	}
+
+	public void setLayoutVersion(int layoutVersion) {
+		this.layoutVersion = layoutVersion;
+		changed();
+	}
+
+	/**
+	 * @return Second layout written while the index is resharded, or null
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public CIndexReshard getReshard() {
+		return reshard;
+	}
+
+	public void setReshard(CIndexReshard reshard) {
+		if(reshard != null) {
+			reshard.attachTo(this);
+		}
+		this.reshard = reshard;
+		changed();
+	}
+
+	/**
+	 * @return Key identifying this layout of the index among every layout written for its definition
+	 */
+	@JsonIgnore
+	public String getLayoutKey() {
+		return layoutVersion == 0 ? key : key + "@" + layoutVersion;
+	}
+
+	/**
+	 * @return true if the number of rows in each shard of the index is kept in the index counts table
+	 */
+	public boolean isCounted() {
+		return counted;
+	}
+
+	public void setCounted(boolean counted) {
+		this.counted = counted;
+		changed();
+	}
+
+	/**
+	 * @return Number of the newest objects of each set of index values kept in memory for descending lists, or 0
+	 */
+	public int getRecentHeadSize() {
+		return recentHeadSize;
+	}
+
+	public void setRecentHeadSize(int recentHeadSize) {
+		this.recentHeadSize = recentHeadSize;
+		changed();
+	}
+
+	/**
+	 * @return ISO-8601 period after which whole shards of this index are dropped by the retention job, or null to use the retention of the definition
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getRetention() {
+		return retention;
+	}
+
+	public void setRetention(String retention) {
+		if(retention != null) {
+			Period.parse(retention);
+		}
+		this.retention = retention;
+		changed();
+	}
+
+	@JsonIgnore
+	public Period getRetentionPeriod() {
+		return (retention == null) ? null : Period.parse(retention);
+	}
+
+	/**
+	 * @return Cassandra table options of every layout of this index, or null for the defaults of the cluster
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public CTableOptions getTableOptions() {
+		return tableOptions;
+	}
+
+	public void setTableOptions(CTableOptions tableOptions) {
+		this.tableOptions = tableOptions;
+		changed();
+	}
+
+	/**
+	 * @param definition Definition this index belongs to, recompiled whenever the index changes
+	 */
+	void attachTo(CDefinition definition) {
+		this.definition = definition;
+	}
+
+	/**
+	 * Drop the compiled form of the definition this index belongs to, so it is compiled again with the change
+	 */
+	void changed() {
+		CDefinition currentDefinition = definition;
+		if(currentDefinition != null) {
+			currentDefinition.indexChanged();
+		}
+	}
+
+	@JsonIgnore
+	public boolean isThin() {
+		return storage == CIndexStorage.THIN;
+	}
+
+	/**
+	 * @return Fields other than the index keys that a thin index table stores alongside the id
+	 */
+	public List<String> getCoveringFields() {
+		return coveringFields;
+	}
+
+	public void setCoveringFields(List<String> coveringFields) {
+		this.coveringFields = (coveringFields == null) ? Lists.<String>newArrayList() : coveringFields;
+		changed();
 	}
 
 	@JsonIgnore
@@ -82,6 +233,7 @@ public class CIndex {
 		java.util.Collections.sort(listtoset);
 		this.compositeKeyList = listtoset;
 		this.key = Joiner.on(":").join(listtoset);
+		changed();
 	}
 
 	@JsonIgnore
@@ -118,6 +270,14 @@ public class CIndex {
 		final CIndex other = (CIndex)otherObject;
 		return Objects.equal(this.getKey(), other.getKey())
 				&& Objects.equal(this.getShardingStrategy(), other.getShardingStrategy())
-				&& Objects.equal(this.getCompositeKeyList(), other.getCompositeKeyList());
+				&& Objects.equal(this.getCompositeKeyList(), other.getCompositeKeyList())
+				&& Objects.equal(this.getStorage(), other.getStorage())
+				&& Objects.equal(this.getCoveringFields(), other.getCoveringFields())
+				&& this.getLayoutVersion() == other.getLayoutVersion()
+				&& this.isCounted() == other.isCounted()
+				&& this.getRecentHeadSize() == other.getRecentHeadSize()
+				&& Objects.equal(this.getRetention(), other.getRetention())
+				&& Objects.equal(this.getTableOptions(), other.getTableOptions())
+				&& Objects.equal(this.getReshard(), other.getReshard());
 	}
 }
@@ -0,0 +1,103 @@
+package com.pardot.rhombus.cobject;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Objects;
+import com.pardot.rhombus.cobject.shardingstrategy.TimebasedShardingStrategy;
+
+/**
+ * Second layout of an index that is being resharded. Writes to the index also go to this layout, reads never do.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CIndexReshard {
+
+	private TimebasedShardingStrategy shardingStrategy;
+	private int layoutVersion;
+	private CIndexReshardPhase phase = CIndexReshardPhase.BACKFILL;
+	// Index being resharded, told about every change so that its definition is compiled again
+	private volatile CIndex index;
+
+	public CIndexReshard() {
+
+	}
+
+	public CIndexReshard(TimebasedShardingStrategy shardingStrategy, int layoutVersion, CIndexReshardPhase phase) {
+		this.shardingStrategy = shardingStrategy;
+		this.layoutVersion = layoutVersion;
+		this.phase = phase;
+	}
+
+	/**
+	 * @param index Index being resharded
+	 * @return Index describing this layout, used to write to it
+	 */
+	@JsonIgnore
+	public CIndex makeLayoutIndex(CIndex index) {
+		CIndex ret = new CIndex(index.getKey(), shardingStrategy);
+		ret.setStorage(index.getStorage());
+		ret.setCoveringFields(index.getCoveringFields());
+		ret.setLayoutVersion(layoutVersion);
+		ret.setCounted(index.isCounted());
+		ret.setRetention(index.getRetention());
+		ret.setTableOptions(index.getTableOptions());
+		return ret;
+	}
+
+	public TimebasedShardingStrategy getShardingStrategy() {
+		return shardingStrategy;
+	}
+
+	public void setShardingStrategy(TimebasedShardingStrategy shardingStrategy) {
+		this.shardingStrategy = shardingStrategy;
+		changed();
+	}
+
+	public int getLayoutVersion() {
+		return layoutVersion;
+	}
+
+	public void setLayoutVersion(int layoutVersion) {
+		this.layoutVersion = layoutVersion;
+		changed();
+	}
+
+	public CIndexReshardPhase getPhase() {
+		return phase;
+	}
+
+	public void setPhase(CIndexReshardPhase phase) {
+		this.phase = (phase == null) ? CIndexReshardPhase.BACKFILL : phase;
+		changed();
+	}
+
+	void attachTo(CIndex index) {
+		this.index = index;
+	}
+
+	private void changed() {
+		CIndex currentIndex = index;
+		if(currentIndex != null) {
+			currentIndex.changed();
+		}
+	}
+
+	@Override
+	public boolean equals(Object otherObject) {
+		if(otherObject == null) {
+			return false;
+		}
+		if(this.getClass() != otherObject.getClass()) {
+			return false;
+		}
+		final CIndexReshard other = (CIndexReshard)otherObject;
+		return Objects.equal(this.getShardingStrategy(), other.getShardingStrategy())
+				&& this.getLayoutVersion() == other.getLayoutVersion()
+				&& this.getPhase() == other.getPhase();
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.getShardingStrategy(), this.getLayoutVersion(), this.getPhase());
+	}
+}
@@ -0,0 +1,15 @@
+package com.pardot.rhombus.cobject;
+
+/**
+ * Phase of an online reshard of an index.
+ *
+ * BACKFILL: the reshard layout is the new layout. It receives every write and is being backfilled, while reads still use the index's own layout.
+ * RETIRE: reads have been flipped to the new layout. The reshard layout is the old one, which keeps receiving writes until it is retired.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public enum CIndexReshardPhase {
+	BACKFILL,
+	RETIRE
+}
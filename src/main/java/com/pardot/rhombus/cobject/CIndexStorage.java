@@ -0,0 +1,16 @@
+package com.pardot.rhombus.cobject;
+
+/**
+ * Controls which columns an index table stores.
+ *
+ * FULL index tables store a complete copy of every field, so a list query can be answered from the index alone.
+ * THIN index tables store only the id, the shard id, the index columns and the covering fields of the index.
+ * A list query against a thin index pages ids from the index table and then fetches the objects from the static table.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public enum CIndexStorage {
+	FULL,
+	THIN
+}
@@ -60,6 +60,17 @@ public class CKeyspaceDefinition {
 		}
 	}
 
+	/**
+	 * Compile the runtime form of every definition in this keyspace
+	 */
+	public void compileDefinitions() {
+		if(definitions != null) {
+			for(CDefinition def : definitions.values()) {
+				def.compile();
+			}
+		}
+	}
+
 	@Override
 	public boolean equals(Object other) {
 		if(other == null) {
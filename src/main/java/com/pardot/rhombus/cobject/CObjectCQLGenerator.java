@@ -1,26 +1,30 @@
 package com.pardot.rhombus.cobject;
 
+import com.datastax.driver.core.RegularStatement;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.Delete;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.utils.UUIDs;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.pardot.rhombus.Criteria;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardStrategyException;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyAdaptive;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyNone;
+import com.pardot.rhombus.cobject.shardingstrategy.TimebasedShardingStrategy;
 import com.pardot.rhombus.cobject.statement.*;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.joda.time.DateTime;
+import org.joda.time.Period;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -34,39 +38,67 @@ public class CObjectCQLGenerator {
 
 	protected static final String KEYSPACE_DEFINITIONS_TABLE_NAME = "__keyspace_definitions";
 	protected static final String INDEX_UPDATES_TABLE_NAME = "__index_updates";
+	protected static final String RESHARD_PROGRESS_TABLE_NAME = "__reshard_progress";
+	protected static final String INDEX_COUNTS_TABLE_NAME = "__index_counts";
     protected static final Integer MAX_CQL_STATEMENT_LIMIT = 1000;
 
-	protected static final String TEMPLATE_CREATE_STATIC = "CREATE TABLE \"%s\".\"%s\" (id %s PRIMARY KEY, %s);";
-	protected static final String TEMPLATE_CREATE_WIDE = "CREATE TABLE \"%s\".\"%s\" (id %s, shardid bigint, %s, PRIMARY KEY ((shardid, %s),id) );";
+	protected static final String TEMPLATE_CREATE_STATIC = "CREATE TABLE \"%s\".\"%s\" (id %s PRIMARY KEY, %s)%s;";
+	protected static final String TEMPLATE_CREATE_WIDE = "CREATE TABLE \"%s\".\"%s\" (id %s, shardid bigint, %s, PRIMARY KEY ((shardid, %s),id) )%s;";
 	protected static final String TEMPLATE_CREATE_KEYSPACE_LIST = "CREATE TABLE \"%s\".\"" + KEYSPACE_DEFINITIONS_TABLE_NAME + "\" (id uuid, name varchar, def varchar, PRIMARY KEY ((name), id));";
+	protected static final String TEMPLATE_CREATE_HASHED_WIDE_INDEX = "CREATE TABLE \"%s\".\"%s\" (tablename varchar, indexhash bigint, shardid bigint, indexkey blob, PRIMARY KEY ((tablename, indexhash), shardid, indexkey) );";
+	protected static final String TEMPLATE_CREATE_SHARD_LAYOUT = "CREATE TABLE \"%s\".\"%s\" (tablename varchar, indexhash bigint, coarsekey bigint, indexkey blob, fine boolean, PRIMARY KEY ((tablename, indexhash), coarsekey, indexkey) );";
 	protected static final String TEMPLATE_CREATE_WIDE_INDEX = "CREATE TABLE \"%s\".\"%s\" (shardid bigint, tablename varchar, indexvalues varchar, targetrowkey varchar, PRIMARY KEY ((tablename, indexvalues),shardid) );";
-	protected static final String TEMPLATE_CREATE_INDEX_UPDATES = "CREATE TABLE \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" (id timeuuid, statictablename varchar, instanceid timeuuid, indexvalues varchar, PRIMARY KEY ((statictablename,instanceid),id))";
+	protected static final String TEMPLATE_CREATE_RESHARD_PROGRESS = "CREATE TABLE \"%s\".\"" + RESHARD_PROGRESS_TABLE_NAME + "\" (tablename varchar, rangestart bigint, rangeend bigint, copied bigint, PRIMARY KEY ((tablename), rangestart));";
+	protected static final String TEMPLATE_CREATE_INDEX_COUNTS = "CREATE TABLE \"%s\".\"" + INDEX_COUNTS_TABLE_NAME + "\" (tablename varchar, indexkey blob, shardid bigint, rowcount counter, PRIMARY KEY ((tablename, indexkey), shardid));";
+	protected static final String TEMPLATE_CREATE_INDEX_UPDATES = "CREATE TABLE \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" (id timeuuid, statictablename varchar, instanceid timeuuid, indexvalues varchar, indexvaluesblob blob, PRIMARY KEY ((statictablename,instanceid),id))";
+	protected static final String TEMPLATE_UPGRADE_INDEX_UPDATES = "ALTER TABLE \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" ADD indexvaluesblob blob;";
 	protected static final String TEMPLATE_TRUNCATE_INDEX_UPDATES = "TRUNCATE \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\";";
 	protected static final String TEMPLATE_DROP = "DROP TABLE \"%s\".\"%s\";";
 	protected static final String TEMPLATE_TRUNCATE = "TRUNCATE \"%s\".\"%s\";";
 	protected static final String TEMPLATE_INSERT_STATIC = "INSERT INTO \"%s\".\"%s\" (%s) VALUES (%s)%s;";//"USING TIMESTAMP %s%s;";//Add back when timestamps become preparable
 	protected static final String TEMPLATE_INSERT_WIDE = "INSERT INTO \"%s\".\"%s\" (%s) VALUES (%s)%s;";//"USING TIMESTAMP %s%s;";//Add back when timestamps become preparable
 	protected static final String TEMPLATE_INSERT_KEYSPACE = "INSERT INTO \"%s\".\"" + KEYSPACE_DEFINITIONS_TABLE_NAME + "\" (id, name, def) values (?, ?, ?);";
+	protected static final String TEMPLATE_INSERT_HASHED_WIDE_INDEX = "INSERT INTO \"%s\".\"%s\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);";
+	protected static final String TEMPLATE_INSERT_SHARD_LAYOUT = "INSERT INTO \"%s\".\"%s\" (tablename, indexhash, coarsekey, indexkey, fine) VALUES (?, ?, ?, ?, ?) IF NOT EXISTS;";
 	protected static final String TEMPLATE_INSERT_WIDE_INDEX = "INSERT INTO \"%s\".\"%s\" (tablename, indexvalues, shardid, targetrowkey) VALUES (?, ?, ?, ?);";//"USING TIMESTAMP %s;";//Add back when timestamps become preparable
-	protected static final String TEMPLATE_INSERT_INDEX_UPDATES = "INSERT INTO \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" (id, statictablename, instanceid, indexvalues) values (?, ?, ?, ?);";
+	protected static final String TEMPLATE_INSERT_RESHARD_PROGRESS = "INSERT INTO \"%s\".\"" + RESHARD_PROGRESS_TABLE_NAME + "\" (tablename, rangestart, rangeend, copied) VALUES (?, ?, ?, ?);";
+	protected static final String TEMPLATE_UPDATE_INDEX_COUNT = "UPDATE \"%s\".\"" + INDEX_COUNTS_TABLE_NAME + "\" SET rowcount = rowcount + ? WHERE tablename = ? AND indexkey = ? AND shardid = ?;";
+	protected static final String TEMPLATE_INSERT_INDEX_UPDATES = "INSERT INTO \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" (id, statictablename, instanceid, indexvaluesblob) values (?, ?, ?, ?);";
+	protected static final String TEMPLATE_INSERT_INDEX_UPDATES_WITH_JSON = "INSERT INTO \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" (id, statictablename, instanceid, indexvalues, indexvaluesblob) values (?, ?, ?, ?, ?);";
 	protected static final String TEMPLATE_SELECT_STATIC = "SELECT * FROM \"%s\".\"%s\" WHERE %s;";
 	protected static final String TEMPLATE_SELECT_WIDE = "SELECT %s FROM \"%s\".\"%s\" WHERE shardid = %s AND %s ORDER BY id %s %s ALLOW FILTERING;";
 	protected static final String TEMPLATE_SELECT_KEYSPACE = "SELECT def FROM \"%s\".\"" + KEYSPACE_DEFINITIONS_TABLE_NAME + "\" WHERE name = ? ORDER BY id DESC LIMIT 1;";
+	protected static final String TEMPLATE_SELECT_HASHED_WIDE_INDEX = "SELECT shardid, indexkey FROM \"%s\".\"%s\" WHERE tablename = ? AND indexhash = ?%s ORDER BY shardid %s;";
+	protected static final String TEMPLATE_SELECT_SHARD_LAYOUT = "SELECT indexkey, fine FROM \"%s\".\"%s\" WHERE tablename = ? AND indexhash = ? AND coarsekey = ?;";
+	protected static final String TEMPLATE_SELECT_SHARD_COUNT = "SELECT count(*) FROM \"%s\".\"%s\" WHERE shardid = ? AND %s LIMIT %d;";
+	protected static final String TEMPLATE_SELECT_SHARD_PAGE = "SELECT * FROM \"%s\".\"%s\" WHERE shardid = ? AND %s ORDER BY id DESC LIMIT %d;";
 	protected static final String TEMPLATE_SELECT_WIDE_INDEX = "SELECT shardid FROM \"%s\".\"%s\" WHERE tablename = ? AND indexvalues = ?%s ORDER BY shardid %s ALLOW FILTERING;";
+	protected static final String TEMPLATE_SELECT_INDEX_COUNTS = "SELECT shardid, rowcount FROM \"%s\".\"" + INDEX_COUNTS_TABLE_NAME + "\" WHERE tablename = ? AND indexkey = ?%s;";
+	protected static final String TEMPLATE_SELECT_RESHARD_PROGRESS = "SELECT rangestart, rangeend, copied FROM \"%s\".\"" + RESHARD_PROGRESS_TABLE_NAME + "\" WHERE tablename = ?;";
+	protected static final String TEMPLATE_DELETE_RESHARD_PROGRESS = "DELETE FROM \"%s\".\"" + RESHARD_PROGRESS_TABLE_NAME + "\" WHERE tablename = ?;";
+	protected static final String TEMPLATE_DELETE_RESHARD_PROGRESS_RANGE = "DELETE FROM \"%s\".\"" + RESHARD_PROGRESS_TABLE_NAME + "\" WHERE tablename = ? AND rangestart = ?;";
 	protected static final String TEMPLATE_DELETE = "DELETE FROM \"%s\".\"%s\" WHERE %s;";//"DELETE FROM %s USING TIMESTAMP %s WHERE %s;"; //Add back when timestamps become preparable
+	protected static final String TEMPLATE_DELETE_WIDE_INDEX = "DELETE FROM \"%s\".\"%s\" WHERE tablename = ? AND indexvalues = ? AND shardid = ?;";
+	protected static final String TEMPLATE_DELETE_HASHED_WIDE_INDEX = "DELETE FROM \"%s\".\"%s\" WHERE tablename = ? AND indexhash = ? AND shardid = ? AND indexkey = ?;";
 	protected static final String TEMPLATE_DELETE_OBSOLETE_UPDATE_INDEX_COLUMN = "DELETE FROM \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" WHERE  statictablename = ? and instanceid = ? and id = ?";
 	protected static final String TEMPLATE_SELECT_FIRST_ELIGIBLE_INDEX_UPDATE = "SELECT statictablename,instanceid FROM \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" WHERE id < ? limit 1 allow filtering;";
 	protected static final String TEMPLATE_SELECT_NEXT_ELIGIBLE_INDEX_UPDATE = "SELECT statictablename,instanceid FROM \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" where token(statictablename,instanceid) > token(?,?) and id < ? limit 1 allow filtering;";
 	protected static final String TEMPLATE_SELECT_ROW_INDEX_UPDATE = "SELECT * FROM \"%s\".\"" + INDEX_UPDATES_TABLE_NAME + "\" where statictablename = ? and instanceid = ? order by id DESC;";
 	protected static final String TEMPLATE_SET_COMPACTION_LEVELED = "ALTER TABLE \"%s\".\"%s\" WITH compaction = { 'class' :  'LeveledCompactionStrategy',  'sstable_size_in_mb' : %d }";
 	protected static final String TEMPLATE_SET_COMPACTION_TIERED = "ALTER TABLE \"%s\".\"%s\" WITH compaction = { 'class' :  'SizeTieredCompactionStrategy',  'min_threshold' : %d }";
+	protected static final String TEMPLATE_SET_TABLE_OPTIONS = "ALTER TABLE \"%s\".\"%s\"%s;";
 	protected static final String TEMPLATE_TABLE_SCAN = "SELECT * FROM \"%s\".\"%s\";";
+	protected static final String TEMPLATE_TABLE_SCAN_TOKEN_RANGE = "SELECT * FROM \"%s\".\"%s\" WHERE token(id) > ? AND token(id) <= ?;";
+	protected static final String TEMPLATE_TABLE_SCAN_TOKEN_RANGE_COLUMNS = "SELECT %s FROM \"%s\".\"%s\" WHERE token(id) > ? AND token(id) <= ?;";
 	protected static final String TEMPLATE_ADD_FIELD = "ALTER TABLE \"%s\".\"%s\" add %s %s";
 
-	protected Map<String, CDefinition> definitions;
+	private static final com.fasterxml.jackson.databind.ObjectMapper indexValuesJsonMapper = new com.fasterxml.jackson.databind.ObjectMapper();
+
+	protected volatile Map<String, CDefinition> definitions;
 	protected CObjectShardList shardList;
 	private Integer consistencyHorizon;
 	private String keyspace;
+	private ShardIndexKeyMode shardIndexKeyMode = ShardIndexKeyMode.DEFAULT;
 
 	/**
 	 * Single Param constructor, mostly for testing convenience. Use the other constructor.
@@ -174,6 +206,28 @@ public class CObjectCQLGenerator {
         return makeInsertStatementWide(this.keyspace, tableName, fieldNames, valuePlaceholders, id, shardId, null, null);
     }
 
+    /**
+     * @param definition The object definition of the wide table to insert into
+     * @param index - The index whose wide table to insert into
+     * @return CQL insert statement that only includes the fields stored in the index table
+     * @throws CQLGenerationException
+     */
+    @NotNull
+    public CQLStatement makeCQLforInsertNoValuesforWideTable(CDefinition definition, CIndex index, Long shardId) throws CQLGenerationException {
+        CompiledDefinition.CompiledIndex compiledIndex = definition.getCompiled().getCompiledIndex(index);
+        if (compiledIndex == null || !compiledIndex.isThin()) {
+            return makeCQLforInsertNoValuesforWideTable(definition, makeTableName(definition, index), shardId);
+        }
+        Object id = definition.getFields().get("id");
+        List<String> fieldNames = new ArrayList<String>();
+        for (CField field : compiledIndex.getStoredFields()) {
+            fieldNames.add(field.getName());
+        }
+        List<Object> valuePlaceholders = new ArrayList<Object>(fieldNames);
+        shardId = (shardId == null) ? 1L : shardId;
+        return makeInsertStatementWide(this.keyspace, compiledIndex.getTableName(), fieldNames, valuePlaceholders, id, shardId, null, null);
+    }
+
     /**
      * @param tableName - The name of the wide table to insert into
      * @return CQL insert statement
@@ -191,6 +245,21 @@ public class CObjectCQLGenerator {
                 null);
     }
 
+    /**
+     * @return CQL insert statement for the hashed shard index
+     */
+    @NotNull
+    public CQLStatement makeCQLforInsertNoValuesforHashedShardIndex() {
+        return CQLStatement.make(
+                String.format(
+                        TEMPLATE_INSERT_HASHED_WIDE_INDEX,
+                        keyspace,
+                        CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME
+                ),
+                CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME,
+                null);
+    }
+
 	/**
 	 *
 	 * @param objType - The name of the Object type aka CDefinition.name
@@ -200,7 +269,7 @@ public class CObjectCQLGenerator {
 	 */
 	@NotNull
 	public CQLStatementIterator makeCQLforInsert(String objType, Map<String,Object> data) throws CQLGenerationException {
-		return makeCQLforInsert(this.keyspace, this.definitions.get(objType), data);
+		return makeCQLforInsert(this.keyspace, this.definitions.get(objType), data, null, null, null, shardIndexKeyMode);
 	}
 
 	/**
@@ -223,7 +292,7 @@ public class CObjectCQLGenerator {
 	 */
 	@NotNull
 	public CQLStatementIterator makeCQLforInsert(String objType, Map<String,Object> data, Object key, Long timestamp) throws CQLGenerationException {
-		return makeCQLforInsert(this.keyspace, this.definitions.get(objType), data, key, timestamp, null);
+		return makeCQLforInsert(this.keyspace, this.definitions.get(objType), data, key, timestamp, null, shardIndexKeyMode);
 	}
 
 	/**
@@ -262,6 +331,18 @@ public class CObjectCQLGenerator {
 	 */
 	@NotNull
 	public CQLStatementIterator makeCQLforList(String objType, Criteria criteria, boolean countOnly) throws CQLGenerationException {
+		return makeCQLforList(objType, criteria, countOnly, shardList);
+	}
+
+	/**
+	 * @param objType - The name of the Object type aka CDefinition.name
+	 * @param criteria - The criteria object describing which rows to retrieve
+	 * @param countOnly - true means you want a count of rows, false means you want the rows themselves
+	 * @param shardList - Shard list to read the shards of unbounded queries from instead of the one of the generator
+	 * @return Iterator of CQL statements that need to be executed for this task.
+	 */
+	@NotNull
+	public CQLStatementIterator makeCQLforList(String objType, Criteria criteria, boolean countOnly, CObjectShardList shardList) throws CQLGenerationException {
 		CDefinition definition = this.definitions.get(objType);
 		CObjectOrdering ordering = (criteria.getOrdering() != null ? criteria.getOrdering(): CObjectOrdering.DESCENDING);
 		UUID endUuid = (criteria.getEndUuid() == null ? UUIDs.startOf(DateTime.now().getMillis()) : criteria.getEndUuid());
@@ -341,23 +422,43 @@ public class CObjectCQLGenerator {
 		Long endTime = (end == null) ? null : UUIDs.unixTimestamp(end);
 
 		CQLStatementIterator returnIterator = null;
-		if((startTime != null && endTime != null) || (i.getShardingStrategy() instanceof ShardingStrategyNone)) {
+		if((startTime != null && endTime != null && i.getShardingStrategy().hasContiguousShardKeys()) || !def.getCompiled().isSharded(i)) {
 			//the query is either bounded or unsharded, so we do not need to check the shardindex
 			try {
 				Range<Long> shardIdRange = i.getShardingStrategy().getShardKeyRange(startTime,endTime);
-				returnIterator = new UnboundableCQLStatementIterator(shardIdRange, limit, ordering, templateCQLStatement, def.getName());
+				List<Long> presentShardIds = null;
+				if(def.getCompiled().isSharded(i) && shardList instanceof CObjectShardPresence) {
+					//only query the shards in the range that have been written to
+					presentShardIds = ((CObjectShardPresence)shardList).getPresentShardIds(def, i, indexValues, shardIdRange, ordering);
+				}
+				if(presentShardIds != null) {
+					returnIterator = new BoundedLazyCQLStatementIterator(presentShardIds, templateCQLStatement, limit, def.getName());
+				} else {
+					returnIterator = new UnboundableCQLStatementIterator(shardIdRange, limit, ordering, templateCQLStatement, def.getName());
+				}
 			}
 			catch(ShardStrategyException e){
 				throw new CQLGenerationException(e.getMessage());
 			}
 		} else {
 			//we have an unbounded query
-			returnIterator = new BoundedLazyCQLStatementIterator(
-					shardList.getShardIdList(def,indexValues,ordering,start,end),
-					templateCQLStatement,
-					limit,
-					def.getName()
-			);
+			List<Long> shardIds = shardList.getShardIdList(def,indexValues,ordering,start,end);
+			if(i.getShardingStrategy() instanceof ShardingStrategyAdaptive) {
+				//a window may hold rows in both its coarse and its fine shards, which have to be read together to keep the ordering
+				returnIterator = BoundedLazyCQLStatementIterator.forShardGroups(
+						ShardingStrategyAdaptive.groupShardIdsByWindow(shardIds),
+						templateCQLStatement,
+						limit,
+						def.getName()
+				);
+			} else {
+				returnIterator = new BoundedLazyCQLStatementIterator(
+						shardIds,
+						templateCQLStatement,
+						limit,
+						def.getName()
+				);
+			}
 		}
 
 		// Set the client filters on the returned iterator so the client can take care of them
@@ -365,6 +466,43 @@ public class CObjectCQLGenerator {
 		return returnIterator;
 	}
 
+	/**
+	 * Statements from a list iterator of an adaptive index select every shard of a time window
+	 * @param statement Statement produced by a list iterator
+	 * @return One statement per shard the statement selects
+	 */
+	public static List<CQLStatement> makeMergedShardStatements(CQLStatement statement){
+		long[] shardIds = statement.getMergedShardIds();
+		if(shardIds == null){
+			return Collections.singletonList(statement);
+		}
+		List<CQLStatement> ret = Lists.newArrayListWithCapacity(shardIds.length);
+		for(long shardId : shardIds){
+			Object[] values = statement.getValues().clone();
+			values[0] = Long.valueOf(shardId);
+			ret.add(CQLStatement.make(statement.getQuery(), statement.getObjectName(), values));
+		}
+		return ret;
+	}
+
+	/**
+	 * Statements from a list iterator select a whole time shard. When the index splits its time shards into
+	 * hash buckets the statement has to be run against every bucket and the results merged by id.
+	 * @param timeShardStatement Statement produced by a list iterator, the shard id is its first value
+	 * @param shardingStrategy Sharding strategy of the index the statement selects from
+	 * @return One statement per sub shard of the time shard
+	 */
+	public static List<CQLStatement> makeSubShardStatements(CQLStatement timeShardStatement, TimebasedShardingStrategy shardingStrategy){
+		long[] subShardKeys = shardingStrategy.getSubShardKeys((Long)timeShardStatement.getValues()[0]);
+		List<CQLStatement> ret = Lists.newArrayListWithCapacity(subShardKeys.length);
+		for(long subShardKey : subShardKeys){
+			Object[] values = timeShardStatement.getValues().clone();
+			values[0] = Long.valueOf(subShardKey);
+			ret.add(CQLStatement.make(timeShardStatement.getQuery(), timeShardStatement.getObjectName(), values));
+		}
+		return ret;
+	}
+
 	/**
 	 *
 	 * @return an iterator for getting all the keyspace definitions
@@ -408,6 +546,324 @@ public class CObjectCQLGenerator {
 		return CQLStatement.make(String.format(TEMPLATE_CREATE_WIDE_INDEX, this.keyspace, CObjectShardList.SHARD_INDEX_TABLE_NAME), CObjectShardList.SHARD_INDEX_TABLE_NAME);
 	}
 
+	/**
+	 *
+	 * @return String of single CQL statement required to create the Hashed Shard Index Table
+	 */
+	public CQLStatement makeCQLforHashedShardIndexTableCreate(){
+		return CQLStatement.make(String.format(TEMPLATE_CREATE_HASHED_WIDE_INDEX, this.keyspace, CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME), CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME);
+	}
+
+	/**
+	 *
+	 * @return CQL statement required to create the table recording the layouts chosen by adaptive sharding strategies
+	 */
+	public CQLStatement makeCQLforShardLayoutTableCreate(){
+		return CQLStatement.make(String.format(TEMPLATE_CREATE_SHARD_LAYOUT, this.keyspace, CObjectShardList.SHARD_LAYOUT_TABLE_NAME), CObjectShardList.SHARD_LAYOUT_TABLE_NAME);
+	}
+
+	public CQLStatement makeCQLforShardLayoutTableDrop(){
+		return CQLStatement.make(String.format(TEMPLATE_DROP, this.keyspace, CObjectShardList.SHARD_LAYOUT_TABLE_NAME),
+				CObjectShardList.SHARD_LAYOUT_TABLE_NAME);
+	}
+
+	public CQLStatement makeCQLforShardLayoutTableTruncate(){
+		return CQLStatement.make(String.format(TEMPLATE_TRUNCATE, this.keyspace, CObjectShardList.SHARD_LAYOUT_TABLE_NAME),
+				CObjectShardList.SHARD_LAYOUT_TABLE_NAME);
+	}
+
+	/**
+	 * @param targetTableName Name of the index table
+	 * @param key Shard index key of the index values
+	 * @param coarseKey Coarse key of the time window
+	 * @return CQL statement reading the layouts recorded for the window. Rows of other index values sharing the hash are filtered by the caller.
+	 */
+	public static CQLStatement makeCQLforGetShardLayout(String keyspace, String targetTableName, ShardIndexKey key, long coarseKey){
+		return CQLStatement.make(String.format(TEMPLATE_SELECT_SHARD_LAYOUT, keyspace, CObjectShardList.SHARD_LAYOUT_TABLE_NAME),
+				CObjectShardList.SHARD_LAYOUT_TABLE_NAME,
+				Arrays.asList(targetTableName, key.getHash(), coarseKey).toArray());
+	}
+
+	/**
+	 * @param targetTableName Name of the index table
+	 * @param key Shard index key of the index values
+	 * @param coarseKey Coarse key of the time window
+	 * @param fine Layout chosen for the window
+	 * @return Conditional CQL statement recording the layout unless another writer already recorded one
+	 */
+	public static CQLStatement makeCQLforInsertShardLayout(String keyspace, String targetTableName, ShardIndexKey key, long coarseKey, boolean fine){
+		return CQLStatement.make(String.format(TEMPLATE_INSERT_SHARD_LAYOUT, keyspace, CObjectShardList.SHARD_LAYOUT_TABLE_NAME),
+				CObjectShardList.SHARD_LAYOUT_TABLE_NAME,
+				Arrays.asList(targetTableName, key.getHash(), coarseKey, key.getEncoded(), fine).toArray());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index whose table is counted
+	 * @param indexValues Values of the index fields
+	 * @param shardId Shard id of the partition to count
+	 * @param limit Maximum number of rows to count
+	 * @return CQL statement counting the rows of one index partition
+	 */
+	public static CQLStatement makeCQLforShardRowCount(String keyspace, CDefinition def, CIndex index, SortedMap<String,Object> indexValues, long shardId, long limit){
+		CQLStatement whereCQL = makeAndedEqualList(def, indexValues);
+		List<Object> values = Lists.newArrayList(whereCQL.getValues());
+		values.add(0, shardId);
+		String tableName = makeTableName(def, index);
+		return CQLStatement.make(String.format(TEMPLATE_SELECT_SHARD_COUNT, keyspace, tableName, whereCQL.getQuery(), limit), tableName, values.toArray());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Layout of the index whose table is dropped
+	 * @return CQL statement dropping the table of one layout of an index
+	 */
+	public CQLStatement makeCQLforIndexTableDrop(CDefinition def, CIndex index){
+		return makeTableDrop(this.keyspace, makeTableName(def, index));
+	}
+
+	public CQLStatement makeCQLforIndexCountsTableCreate(){
+		return CQLStatement.make(String.format(TEMPLATE_CREATE_INDEX_COUNTS, this.keyspace), INDEX_COUNTS_TABLE_NAME);
+	}
+
+	public CQLStatement makeCQLforIndexCountsTableDrop(){
+		return makeTableDrop(this.keyspace, INDEX_COUNTS_TABLE_NAME);
+	}
+
+	public CQLStatement makeCQLforIndexCountsTableTruncate(){
+		return CQLStatement.make(String.format(TEMPLATE_TRUNCATE, this.keyspace, INDEX_COUNTS_TABLE_NAME), INDEX_COUNTS_TABLE_NAME);
+	}
+
+	public CQLStatement makeCQLforIndexCountsTableScan(){
+		return CQLStatement.make(String.format(TEMPLATE_TABLE_SCAN, this.keyspace, INDEX_COUNTS_TABLE_NAME), INDEX_COUNTS_TABLE_NAME);
+	}
+
+	/**
+	 * @param targetTableName Name of the index table
+	 * @param indexKey Encoded shard index key of the index values
+	 * @param shardId Time shard id the rows were written to
+	 * @param delta Number of rows added, negative for removed rows
+	 * @return CQL statement adjusting the row count of one shard of an index. Counter updates cannot be batched with other statements.
+	 */
+	public static CQLStatement makeCQLforIncrementIndexCount(String keyspace, String targetTableName, ByteBuffer indexKey, long shardId, long delta){
+		CQLStatement statement = CQLStatement.make(String.format(TEMPLATE_UPDATE_INDEX_COUNT, keyspace), INDEX_COUNTS_TABLE_NAME,
+				Arrays.<Object>asList(delta, targetTableName, indexKey, shardId).toArray());
+		// Applying a counter update twice counts the rows twice
+		statement.setIdempotent(false);
+		statement.setCounterUpdate(true);
+		return statement;
+	}
+
+	/**
+	 * @param targetTableName Name of the index table
+	 * @param key Shard index key of the index values
+	 * @param afterShardId Only read counts of shards after this one, or null for no lower bound
+	 * @param beforeShardId Only read counts of shards before this one, or null for no upper bound
+	 * @return CQL statement reading the row counts of the shards of one set of index values
+	 */
+	public static CQLStatement makeCQLforGetIndexCounts(String keyspace, String targetTableName, ShardIndexKey key, @Nullable Long afterShardId, @Nullable Long beforeShardId){
+		List<Object> values = Lists.<Object>newArrayList(targetTableName, key.getEncoded());
+		String range = "";
+		if(afterShardId != null){
+			range += " AND shardid > ?";
+			values.add(afterShardId);
+		}
+		if(beforeShardId != null){
+			range += " AND shardid < ?";
+			values.add(beforeShardId);
+		}
+		return CQLStatement.make(String.format(TEMPLATE_SELECT_INDEX_COUNTS, keyspace, range), INDEX_COUNTS_TABLE_NAME, values.toArray());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index whose table is counted
+	 * @param indexValues Values of the index fields
+	 * @param shardId Time shard id of the partition to count
+	 * @param start Lower bound on the ids to count, or null
+	 * @param end Upper bound on the ids to count, or null
+	 * @param inclusive true if the bounds are inclusive
+	 * @param limit Maximum number of rows to count
+	 * @return CQL statement counting the rows of one index partition within a range of ids
+	 */
+	public static CQLStatement makeCQLforShardRowCountInRange(String keyspace, CDefinition def, CIndex index, SortedMap<String,Object> indexValues, long shardId,
+															  @Nullable UUID start, @Nullable UUID end, boolean inclusive, long limit){
+		CQLStatement whereCQL = makeAndedEqualList(def, indexValues);
+		String whereQuery = whereCQL.getQuery();
+		List<Object> values = Lists.newArrayList(whereCQL.getValues());
+		values.add(0, shardId);
+		if(start != null){
+			whereQuery += " AND id >" + (inclusive ? "= " : " ") + "?";
+			values.add(start);
+		}
+		if(end != null){
+			whereQuery += " AND id <" + (inclusive ? "= " : " ") + "?";
+			values.add(end);
+		}
+		String tableName = makeTableName(def, index);
+		return CQLStatement.make(String.format(TEMPLATE_SELECT_SHARD_COUNT, keyspace, tableName, whereQuery, limit), tableName, values.toArray());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index whose table is read
+	 * @param indexValues Values of the index fields
+	 * @param shardId Time shard id of the partition to read
+	 * @param before Id to read the rows before, or null to start from the newest row
+	 * @param limit Maximum number of rows to read
+	 * @return CQL statement reading one page of an index partition, newest first
+	 */
+	public static CQLStatement makeCQLforShardPage(String keyspace, CDefinition def, CIndex index, SortedMap<String,Object> indexValues, long shardId,
+												   @Nullable Object before, int limit){
+		CQLStatement whereCQL = makeAndedEqualList(def, indexValues);
+		String whereQuery = whereCQL.getQuery();
+		List<Object> values = Lists.newArrayList(whereCQL.getValues());
+		values.add(0, shardId);
+		if(before != null){
+			whereQuery += " AND id < ?";
+			values.add(before);
+		}
+		String tableName = makeTableName(def, index);
+		return CQLStatement.make(String.format(TEMPLATE_SELECT_SHARD_PAGE, keyspace, tableName, whereQuery, limit), tableName, values.toArray());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index whose partition is deleted
+	 * @param indexValues Values of the index fields
+	 * @param shardId Time shard id of the partition, expand it with makeSubShardStatements for sub sharded indexes
+	 * @return CQL statement deleting a whole index partition
+	 */
+	public static CQLStatement makeCQLforDeleteShard(String keyspace, CDefinition def, CIndex index, SortedMap<String,Object> indexValues, long shardId){
+		CQLStatement whereCQL = makeAndedEqualList(def, indexValues);
+		List<Object> values = Lists.newArrayList(whereCQL.getValues());
+		values.add(0, shardId);
+		String tableName = makeTableName(def, index);
+		return CQLStatement.make(String.format(TEMPLATE_DELETE, keyspace, tableName, "shardid = ? AND " + whereCQL.getQuery()), tableName, values.toArray());
+	}
+
+	/**
+	 * @param shardIndexKeyMode Layouts of the shard index to delete from
+	 * @param def Definition the index belongs to
+	 * @param index Index whose shard is no longer used
+	 * @param indexValues Values of the index fields
+	 * @param shardId Time shard id to remove from the shard index
+	 * @return CQL statements removing a shard from the shard index
+	 */
+	public static List<CQLStatement> makeCQLforDeleteShardIndexEntry(String keyspace, ShardIndexKeyMode shardIndexKeyMode, CDefinition def, CIndex index,
+																	  SortedMap<String,Object> indexValues, long shardId) throws CQLGenerationException {
+		List<CQLStatement> ret = Lists.newArrayList();
+		String targetTableName = makeTableName(def, index);
+		if(shardIndexKeyMode.usesLegacy()){
+			ret.add(CQLStatement.make(
+					String.format(TEMPLATE_DELETE_WIDE_INDEX, keyspace, CObjectShardList.SHARD_INDEX_TABLE_NAME),
+					CObjectShardList.SHARD_INDEX_TABLE_NAME,
+					Arrays.<Object>asList(targetTableName, makeIndexValuesString(indexValues.values()), shardId).toArray()));
+		}
+		if(shardIndexKeyMode.usesHashed()){
+			ShardIndexKey key = ShardIndexKey.fromValues(indexValues.values());
+			ret.add(CQLStatement.make(
+					String.format(TEMPLATE_DELETE_HASHED_WIDE_INDEX, keyspace, CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME),
+					CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME,
+					Arrays.<Object>asList(targetTableName, key.getHash(), shardId, key.getEncoded()).toArray()));
+		}
+		return ret;
+	}
+
+	public CQLStatement makeCQLforReshardProgressTableCreate(){
+		return CQLStatement.make(String.format(TEMPLATE_CREATE_RESHARD_PROGRESS, this.keyspace), RESHARD_PROGRESS_TABLE_NAME);
+	}
+
+	/**
+	 * @param targetTableName Name of the index table being backfilled
+	 * @return CQL statement reading the token ranges already copied into the table
+	 */
+	public CQLStatement makeCQLforGetReshardProgress(String targetTableName){
+		return CQLStatement.make(String.format(TEMPLATE_SELECT_RESHARD_PROGRESS, this.keyspace), RESHARD_PROGRESS_TABLE_NAME, Arrays.asList(targetTableName).toArray());
+	}
+
+	/**
+	 * @param targetTableName Name of the index table being backfilled
+	 * @param rangeStart Exclusive start token of the copied range
+	 * @param rangeEnd Inclusive end token of the copied range
+	 * @param copied Number of objects copied from the range
+	 * @return CQL statement recording that a token range has been copied
+	 */
+	public CQLStatement makeCQLforInsertReshardProgress(String targetTableName, long rangeStart, long rangeEnd, long copied){
+		return CQLStatement.make(String.format(TEMPLATE_INSERT_RESHARD_PROGRESS, this.keyspace), RESHARD_PROGRESS_TABLE_NAME,
+				Arrays.asList(targetTableName, rangeStart, rangeEnd, copied).toArray());
+	}
+
+	public CQLStatement makeCQLforDeleteReshardProgress(String targetTableName){
+		return CQLStatement.make(String.format(TEMPLATE_DELETE_RESHARD_PROGRESS, this.keyspace), RESHARD_PROGRESS_TABLE_NAME, Arrays.asList(targetTableName).toArray());
+	}
+
+	/**
+	 * @param targetTableName Name of the index table being backfilled
+	 * @param rangeStart Exclusive start token of the range to copy again
+	 * @return CQL statement forgetting that a token range has been copied
+	 */
+	public CQLStatement makeCQLforDeleteReshardProgress(String targetTableName, long rangeStart){
+		return CQLStatement.make(String.format(TEMPLATE_DELETE_RESHARD_PROGRESS_RANGE, this.keyspace), RESHARD_PROGRESS_TABLE_NAME, Arrays.asList(targetTableName, rangeStart).toArray());
+	}
+
+	/**
+	 * @param def Definition whose static table is scanned
+	 * @param startToken Exclusive start token
+	 * @param endToken Inclusive end token
+	 * @return CQL statement reading every object of the static table in a token range
+	 */
+	public static CQLStatement makeCQLforTableScanInTokenRange(String keyspace, CDefinition def, long startToken, long endToken){
+		String tableName = makeTableName(def, null);
+		return CQLStatement.make(String.format(TEMPLATE_TABLE_SCAN_TOKEN_RANGE, keyspace, tableName), tableName,
+				Arrays.asList(startToken, endToken).toArray());
+	}
+
+	/**
+	 * @param def Definition whose static table is scanned
+	 * @param startToken Exclusive start token
+	 * @param endToken Inclusive end token
+	 * @return CQL statement reading every object of the static table in a token range, followed by the write time
+	 * of every non id field in the order of CompiledDefinition.getNonIdFields
+	 */
+	public static CQLStatement makeCQLforTableScanWithWriteTimesInTokenRange(String keyspace, CDefinition def, long startToken, long endToken){
+		String tableName = makeTableName(def, null);
+		List<String> columns = Lists.newArrayList("id");
+		List<CField> fields = def.getCompiled().getNonIdFields();
+		for(CField field : fields){
+			columns.add(field.getName());
+		}
+		for(CField field : fields){
+			columns.add("writetime(" + field.getName() + ")");
+		}
+		return CQLStatement.make(String.format(TEMPLATE_TABLE_SCAN_TOKEN_RANGE_COLUMNS, makeCommaList(columns), keyspace, tableName), tableName,
+				Arrays.asList(startToken, endToken).toArray());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Layout of the index to write to
+	 * @param data Complete values of the object
+	 * @param key Id of the object
+	 * @param writeTime Time the object was last written in microseconds, which the index row is written with
+	 * @return CQL statements writing an existing object into one layout of an index and its shard index
+	 */
+	public static List<CQLStatement> makeCQLforIndexBackfill(String keyspace, CDefinition def, CIndex index, Map<String,Object> data, Object key, long writeTime, ShardIndexKeyMode shardIndexKeyMode) throws CQLGenerationException {
+		List<CQLStatement> ret = Lists.newArrayList();
+		if(def.isAllowNullPrimaryKeyInserts() && !index.validateIndexKeys(index.getIndexKeyAndValues(data))){
+			//objects without every index field were never written to the index
+			return ret;
+		}
+		addCQLStatmentsForIndexInsert(keyspace, true, ret, def, data, index, key, makeFieldAndValueList(def, data), null, null, shardIndexKeyMode);
+		//the index row comes first. Writing it at the time the object was written lets updates and deletes made since win.
+		CQLStatement insert = ret.get(0);
+		String query = insert.getQuery();
+		Object[] values = Arrays.copyOf(insert.getValues(), insert.getValues().length + 1);
+		values[values.length - 1] = Long.valueOf(writeTime);
+		ret.set(0, CQLStatement.make(query.substring(0, query.length() - 1) + " USING TIMESTAMP ?;", insert.getObjectName(), values));
+		return ret;
+	}
+
 	private CQLStatement makeCQLforAddFieldToTable(String tableName, CField newField){
 		String query = String.format(TEMPLATE_ADD_FIELD, this.keyspace, tableName, newField.getName(), newField.getType());
 		return CQLStatement.make(query, tableName);
@@ -421,6 +877,11 @@ public class CObjectCQLGenerator {
 
 		//now make the alter statements for the indexes
 		for(CIndex i: existingIndexes){
+			CompiledDefinition.CompiledIndex compiledIndex = def.getCompiled().getCompiledIndex(i);
+			if(compiledIndex != null && !compiledIndex.isStoredField(newFieldName)){
+				//thin index tables only store their index and covering fields
+				continue;
+			}
 			ret.add(makeCQLforAddFieldToTable(makeTableName(def,i),theNewField));
 		}
 
@@ -437,6 +898,11 @@ public class CObjectCQLGenerator {
 				CObjectShardList.SHARD_INDEX_TABLE_NAME);
 	}
 
+	public CQLStatement makeCQLforHashedShardIndexTableDrop(){
+		return CQLStatement.make(String.format(TEMPLATE_DROP, this.keyspace, CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME),
+				CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME);
+	}
+
 	/**
 	 *
 	 * @return String of single CQL statement required to create the Shard Index Table
@@ -446,6 +912,34 @@ public class CObjectCQLGenerator {
 				CObjectShardList.SHARD_INDEX_TABLE_NAME);
 	}
 
+	public CQLStatement makeCQLforHashedShardIndexTableTruncate(){
+		return CQLStatement.make(String.format(TEMPLATE_TRUNCATE, this.keyspace, CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME),
+				CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME);
+	}
+
+	/**
+	 * @return Statement scanning the legacy shard index, used to backfill the hashed shard index
+	 */
+	public CQLStatement makeCQLforShardIndexTableScan(){
+		return CQLStatement.make(String.format(TEMPLATE_TABLE_SCAN, this.keyspace, CObjectShardList.SHARD_INDEX_TABLE_NAME),
+				CObjectShardList.SHARD_INDEX_TABLE_NAME);
+	}
+
+	public CQLStatement makeCQLforHashedShardIndexTableScan(){
+		return CQLStatement.make(String.format(TEMPLATE_TABLE_SCAN, this.keyspace, CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME),
+				CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME);
+	}
+
+	/**
+	 * @param targetTableName Name of the index table the shard belongs to
+	 * @param shardId Id of the shard
+	 * @param legacyIndexValues Index values string read from the legacy shard index
+	 * @return Statement copying a legacy shard index row into the hashed shard index
+	 */
+	public CQLStatement makeCQLforHashedShardIndexBackfill(String targetTableName, long shardId, String legacyIndexValues) throws CQLGenerationException {
+		return makeInsertStatementHashedWideIndex(this.keyspace, targetTableName, shardId, ShardIndexKey.fromLegacyString(legacyIndexValues));
+	}
+
 	/**
 	 *
 	 * @return CQLStatement of single CQL statement required to get the first update token
@@ -488,19 +982,35 @@ public class CObjectCQLGenerator {
 	 */
 	public static CQLStatement makeCQLforGetShardIndexList(String keyspace, CDefinition def, SortedMap<String,Object> indexValues, CObjectOrdering ordering,@Nullable UUID start, @Nullable UUID end) throws CQLGenerationException {
 		CIndex i = def.getIndex(indexValues, false);
+		Long startShardId = (start == null) ? null : Long.valueOf(i.getShardingStrategy().getShardKeyLowerBound(UUIDs.unixTimestamp(start)));
+		Long endShardId = (end == null) ? null : Long.valueOf(i.getShardingStrategy().getShardKeyUpperBound(UUIDs.unixTimestamp(end)));
+		return makeCQLforGetShardIndexListInShardRange(keyspace, def, i, indexValues, ordering, startShardId, endShardId);
+	}
+
+	/**
+	 *
+	 * @param def - CDefinition the index belongs to
+	 * @param i - Layout of the index for which to pull the shard list
+	 * @param indexValues - Values identifing the specific index for which to pull the shard list
+	 * @param ordering - ASC or DESC
+	 * @param startShardId - Smallest shard id to return
+	 * @param endShardId - Largest shard id to return
+	 * @return Single CQL statement needed to retrieve the list of shardids
+	 */
+	public static CQLStatement makeCQLforGetShardIndexListInShardRange(String keyspace, CDefinition def, CIndex i, SortedMap<String,Object> indexValues, CObjectOrdering ordering,@Nullable Long startShardId, @Nullable Long endShardId) throws CQLGenerationException {
 		String indexValueString = makeIndexValuesString(indexValues.values());
 		List values = Lists.newArrayList();
 		values.add(makeTableName(def,i));
 		values.add(indexValueString);
 
 		String whereCQL = "";
-		if(start != null){
+		if(startShardId != null){
 			whereCQL += " AND shardid >= ?";
-			values.add(Long.valueOf(i.getShardingStrategy().getShardKey(start)));
+			values.add(startShardId);
 		}
-		if(end != null){
+		if(endShardId != null){
 			whereCQL += " AND shardid <= ?";
-			values.add(Long.valueOf(i.getShardingStrategy().getShardKey(end)));
+			values.add(endShardId);
 		}
 		String query =  String.format(
 			TEMPLATE_SELECT_WIDE_INDEX,
@@ -512,10 +1022,63 @@ public class CObjectCQLGenerator {
 		return CQLStatement.make(query, CObjectShardList.SHARD_INDEX_TABLE_NAME, values.toArray());
 	}
 
+	/**
+	 *
+	 * @param def - CIndex for the index for which to pull the shard list
+	 * @param indexValues - Values identifing the specific index for which to pull the shard list
+	 * @param key - Shard index key of the index values identifing the specific index for which to pull the shard list
+	 * @param ordering - ASC or DESC
+	 * @param start - Start UUID for bounding
+	 * @param end - End UUID for bounding
+	 * @return Single CQL statement needed to retrieve the list of shardids and their verification keys from the hashed shard index
+	 */
+	public static CQLStatement makeCQLforGetHashedShardIndexList(String keyspace, CDefinition def, SortedMap<String,Object> indexValues, ShardIndexKey key, CObjectOrdering ordering,@Nullable UUID start, @Nullable UUID end) throws CQLGenerationException {
+		CIndex i = def.getIndex(indexValues, false);
+		Long startShardId = (start == null) ? null : Long.valueOf(i.getShardingStrategy().getShardKeyLowerBound(UUIDs.unixTimestamp(start)));
+		Long endShardId = (end == null) ? null : Long.valueOf(i.getShardingStrategy().getShardKeyUpperBound(UUIDs.unixTimestamp(end)));
+		return makeCQLforGetHashedShardIndexListInShardRange(keyspace, def, i, indexValues, key, ordering, startShardId, endShardId);
+	}
+
+	/**
+	 *
+	 * @param def - CDefinition the index belongs to
+	 * @param i - Layout of the index for which to pull the shard list
+	 * @param indexValues - Values identifing the specific index for which to pull the shard list
+	 * @param key - Shard index key of the index values identifing the specific index for which to pull the shard list
+	 * @param ordering - ASC or DESC
+	 * @param startShardId - Smallest shard id to return
+	 * @param endShardId - Largest shard id to return
+	 * @return Single CQL statement needed to retrieve the list of shardids and their verification keys from the hashed shard index
+	 */
+	public static CQLStatement makeCQLforGetHashedShardIndexListInShardRange(String keyspace, CDefinition def, CIndex i, SortedMap<String,Object> indexValues, ShardIndexKey key, CObjectOrdering ordering,@Nullable Long startShardId, @Nullable Long endShardId) throws CQLGenerationException {
+		List values = Lists.newArrayList();
+		values.add(makeTableName(def,i));
+		values.add(Long.valueOf(key.getHash()));
+
+		String whereCQL = "";
+		if(startShardId != null){
+			whereCQL += " AND shardid >= ?";
+			values.add(startShardId);
+		}
+		if(endShardId != null){
+			whereCQL += " AND shardid <= ?";
+			values.add(endShardId);
+		}
+		String query =  String.format(
+			TEMPLATE_SELECT_HASHED_WIDE_INDEX,
+			keyspace,
+			CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME,
+			whereCQL,
+			ordering
+		);
+		return CQLStatement.make(query, CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME, values.toArray());
+	}
+
     private CQLStatementIterator makeCQLforLeveledCompaction(CKeyspaceDefinition keyspaceDefinition, Integer sstableSize){
         List ret =  Lists.newArrayList();
         //global tables
         ret.add(makeCQLforLeveledCompaction(keyspaceDefinition.getName(), "__shardindex", sstableSize));
+        ret.add(makeCQLforLeveledCompaction(keyspaceDefinition.getName(), CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME, sstableSize));
         ret.add(makeCQLforLeveledCompaction(keyspaceDefinition.getName(), "__index_updates", sstableSize));
 
         //CDefinition tables
@@ -523,7 +1086,7 @@ public class CObjectCQLGenerator {
             //static table
             ret.add(makeCQLforLeveledCompaction(keyspaceDefinition.getName(), makeTableName(def, null), sstableSize));
             //indexes
-            for(CIndex index : def.getIndexes().values()){
+            for(CIndex index : def.getCompiled().getIndexes()){
                 ret.add(makeCQLforLeveledCompaction(keyspaceDefinition.getName(), makeTableName(def,index), sstableSize));
             }
         }
@@ -534,6 +1097,7 @@ public class CObjectCQLGenerator {
         List ret =  Lists.newArrayList();
         //global tables
         ret.add(makeCQLforTieredCompaction(keyspaceDefinition.getName(), "__shardindex", minThreshold));
+        ret.add(makeCQLforTieredCompaction(keyspaceDefinition.getName(), CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME, minThreshold));
         ret.add(makeCQLforTieredCompaction(keyspaceDefinition.getName(), "__index_updates", minThreshold));
 
         //CDefinition tables
@@ -541,7 +1105,7 @@ public class CObjectCQLGenerator {
             //static table
             ret.add(makeCQLforTieredCompaction(keyspaceDefinition.getName(), makeTableName(def, null), minThreshold));
             //indexes
-            for(CIndex index : def.getIndexes().values()){
+            for(CIndex index : def.getCompiled().getIndexes()){
                 ret.add(makeCQLforTieredCompaction(keyspaceDefinition.getName(), makeTableName(def,index), minThreshold));
             }
         }
@@ -582,11 +1146,26 @@ public class CObjectCQLGenerator {
 		return CQLStatement.make(String.format(TEMPLATE_CREATE_INDEX_UPDATES, this.keyspace), INDEX_UPDATES_TABLE_NAME);
 	}
 
+	/**
+	 * Adds the binary index values column to an index update table created before it existed
+	 * @return Statement upgrading the index update table
+	 */
+	public CQLStatement makeCQLforIndexUpdateTableUpgrade(){
+		return CQLStatement.make(String.format(TEMPLATE_UPGRADE_INDEX_UPDATES, this.keyspace), INDEX_UPDATES_TABLE_NAME);
+	}
+
 	public CQLStatement makeCQLforIndexUpdateTableTruncate(){
 		return CQLStatement.make(String.format(TEMPLATE_TRUNCATE_INDEX_UPDATES, this.keyspace), INDEX_UPDATES_TABLE_NAME);
 	}
 
-	public static CQLStatementIterator makeCQLforUpdate(String keyspace, CDefinition def, UUID key, Map<String,Object> oldValues, Map<String, Object> newValues) throws CQLGenerationException {
+	public static CQLStatementIterator makeCQLforUpdate(String keyspace, CDefinition def, UUID key, Map<String,Object> oldValues, Map<String, Object> newValues, ShardIndexKeyMode shardIndexKeyMode) throws CQLGenerationException {
+		return makeCQLforUpdate(keyspace, def, key, oldValues, newValues, shardIndexKeyMode, false);
+	}
+
+	/**
+	 * @param writeIndexValuesJson Also write the index values snapshot to the json indexvalues column, see makeInsertUpdateIndexStatement
+	 */
+	public static CQLStatementIterator makeCQLforUpdate(String keyspace, CDefinition def, UUID key, Map<String,Object> oldValues, Map<String, Object> newValues, ShardIndexKeyMode shardIndexKeyMode, boolean writeIndexValuesJson) throws CQLGenerationException {
 		List<CQLStatement> ret = Lists.newArrayList();
 		//(1) Detect if there are any changed index values in values
 		List<CIndex> affectedIndexes = getAffectedIndexes(def, oldValues, newValues);
@@ -619,7 +1198,7 @@ public class CObjectCQLGenerator {
 					continue;
 				}
 			}
-			ret.add(makeCQLforDeleteUUIDFromIndex(keyspace, def, i, key, compositeKeyToDelete, null));
+			ret.addAll(makeCQLforDeleteUUIDFromIndexShards(keyspace, def, i, key, compositeKeyToDelete));
 		}
 
 		//(4) Add index values to the new values list
@@ -639,7 +1218,7 @@ public class CObjectCQLGenerator {
 					continue;
 				}
 			}
-			addCQLStatmentsForIndexInsert(keyspace, true, ret, def, completeValues, i, key, fieldsAndValues,null, null);
+			addCQLStatmentsForIndexInsert(keyspace, true, ret, def, completeValues, i, key, fieldsAndValues,null, null, shardIndexKeyMode);
 		}
 
 		//(6) Insert into the existing indexes without the shard index addition
@@ -650,7 +1229,7 @@ public class CObjectCQLGenerator {
 					continue;
 				}
 			}
-			addCQLStatmentsForIndexInsert(keyspace, false, ret, def, newValuesAndIndexValues, i, key, fieldsAndValuesForNewValuesAndIndexValues,null, null);
+			addCQLStatmentsForIndexInsert(keyspace, false, ret, def, newValuesAndIndexValues, i, key, fieldsAndValuesForNewValuesAndIndexValues,null, null, shardIndexKeyMode);
 		}
 
 		//(7) Update the static table (be sure to only update and not insert the completevalues just in case they are wrong, the background job will fix them later)
@@ -666,17 +1245,14 @@ public class CObjectCQLGenerator {
 		));
 
 		//(8) Insert a snapshot of the updated values for this id into the __index_updates
-		ret.add(makeInsertUpdateIndexStatement(keyspace, def, key, def.makeIndexValues(completeValues)));
+		ret.add(makeInsertUpdateIndexStatement(keyspace, def, key, def.makeIndexValues(completeValues), writeIndexValuesJson));
 
 		return new BoundedCQLStatementIterator(ret);
 	}
 
 	public static List<CIndex> getAffectedIndexes(CDefinition def, Map<String,Object> oldValues, Map<String,Object> newValues){
 		List<CIndex> ret = Lists.newArrayList();
-		if(def.getIndexes() == null) {
-			return ret;
-		}
-		for(CIndex i : def.getIndexes().values()){
+		for(CIndex i : def.getCompiled().getIndexes()){
 			if(i.areValuesAssociatedWithIndex(newValues)){
 				//This change does indeed effect this index
 				ret.add(i);
@@ -687,10 +1263,7 @@ public class CObjectCQLGenerator {
 
 	public static List<CIndex> getUnaffectedIndexes(CDefinition def, Map<String,Object> oldValues, Map<String,Object> newValues){
 		List<CIndex> ret = Lists.newArrayList();
-		if(def.getIndexes() == null) {
-			return ret;
-		}
-		for(CIndex i : def.getIndexes().values()){
+		for(CIndex i : def.getCompiled().getIndexes()){
 			if(!i.areValuesAssociatedWithIndex(newValues)){
 				//This change does not effect this index
 				ret.add(i);
@@ -702,10 +1275,8 @@ public class CObjectCQLGenerator {
 	public CQLStatementIterator makeCQLforCreate(CDefinition def){
 		List<CQLStatement> ret = Lists.newArrayList();
 		ret.add(makeStaticTableCreate(def));
-		if(def.getIndexes() != null) {
-			for(CIndex i : def.getIndexes().values()){
-				ret.add(makeWideTableCreate(def, i));
-			}
+		for(CIndex i : def.getCompiled().getIndexes()){
+			ret.add(makeWideTableCreate(def, i));
 		}
 		return new BoundedCQLStatementIterator(ret);
 	}
@@ -714,10 +1285,8 @@ public class CObjectCQLGenerator {
 	protected static CQLStatementIterator makeCQLforDrop(String keyspace, CDefinition def){
 		List<CQLStatement> ret = Lists.newArrayList();
 		ret.add(makeTableDrop(keyspace, def.getName()));
-		if(def.getIndexes() != null) {
-			for(CIndex i : def.getIndexes().values()){
-				ret.add(makeTableDrop(keyspace, makeTableName(def, i)));
-			}
+		for(CIndex i : def.getCompiled().getIndexes()){
+			ret.add(makeTableDrop(keyspace, makeTableName(def, i)));
 		}
 		return new BoundedCQLStatementIterator(ret);
 	}
@@ -725,10 +1294,8 @@ public class CObjectCQLGenerator {
 	protected static CQLStatementIterator makeCQLforTruncate(String keyspace, CDefinition def){
 		List<CQLStatement> ret = Lists.newArrayList();
 		ret.add(makeTableTruncate(keyspace, def.getName()));
-		if(def.getIndexes() != null) {
-			for(CIndex i : def.getIndexes().values()){
-				ret.add(makeTableTruncate(keyspace, makeTableName(def, i)));
-			}
+		for(CIndex i : def.getCompiled().getIndexes()){
+			ret.add(makeTableTruncate(keyspace, makeTableName(def, i)));
 		}
 		return new BoundedCQLStatementIterator(ret);
 	}
@@ -755,19 +1322,36 @@ public class CObjectCQLGenerator {
 	}
 
 	public static CQLStatement makeInsertUpdateIndexStatement(String keyspace, CDefinition def, UUID instanceId, Map<String,Object> indexvalues) throws CQLGenerationException {
+		return makeInsertUpdateIndexStatement(keyspace, def, instanceId, indexvalues, false);
+	}
+
+	/**
+	 * @param writeIndexValuesJson Also write the snapshot to the json indexvalues column. Only needed while mappers
+	 *                             that cannot read the binary snapshot are still running, or while the indexed fields
+	 *                             of a definition are being migrated and older snapshots must stay readable.
+	 */
+	public static CQLStatement makeInsertUpdateIndexStatement(String keyspace, CDefinition def, UUID instanceId, Map<String,Object> indexvalues, boolean writeIndexValuesJson) throws CQLGenerationException {
 		UUID id = UUIDs.timeBased();
 		String tableName = makeTableName(def,null);
-		String indexValuesAsJson;
+		ByteBuffer encodedIndexValues;
+		String indexValuesAsJson = null;
 		try{
-			ObjectMapper om = new ObjectMapper();
-			indexValuesAsJson = om.writeValueAsString(indexvalues);
+			encodedIndexValues = IndexValuesCodec.encode(def.getCompiled(), indexvalues);
+			if(writeIndexValuesJson) {
+				indexValuesAsJson = indexValuesJsonMapper.writeValueAsString(indexvalues);
+			}
 		}
 		catch (Exception e){
 			throw new CQLGenerationException(e.getMessage());
 		}
+		if(writeIndexValuesJson) {
+			return CQLStatement.make(String.format(TEMPLATE_INSERT_INDEX_UPDATES_WITH_JSON,keyspace),
+					tableName,
+					Arrays.asList(id, tableName, instanceId, indexValuesAsJson, encodedIndexValues).toArray() );
+		}
 		return CQLStatement.make(String.format(TEMPLATE_INSERT_INDEX_UPDATES,keyspace),
 				tableName,
-				Arrays.asList(id, tableName, instanceId, indexValuesAsJson).toArray() );
+				Arrays.asList(id, tableName, instanceId, encodedIndexValues).toArray() );
 	}
 
 	protected static CQLStatement makeInsertStatementWide(String keyspace, String tableName, List<String> fields, List<Object> values, Object uuid, long shardid, Long timestamp, Integer ttl){
@@ -789,6 +1373,18 @@ public class CObjectCQLGenerator {
 		return CQLStatement.make(query, tableName, values.toArray());
 	}
 
+	protected static CQLStatement makeInsertStatementHashedWideIndex(String keyspace, String targetTableName, long shardId, ShardIndexKey key) {
+		Object[] values = {targetTableName, Long.valueOf(key.getHash()), Long.valueOf(shardId), key.getEncoded()};
+		return CQLStatement.make(
+				String.format(
+					TEMPLATE_INSERT_HASHED_WIDE_INDEX,
+					keyspace,
+					CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME
+				),
+				CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME,
+				values);
+	}
+
 	protected static CQLStatement makeInsertStatementWideIndex(String keyspace, String tableName, String targetTableName, long shardId, List indexValues, Long timestamp) throws CQLGenerationException {
 		String indexValuesString = makeIndexValuesString(indexValues);
 		Object[] values = {targetTableName, indexValuesString, Long.valueOf(shardId), shardId+":"+indexValuesString};
@@ -811,11 +1407,7 @@ public class CObjectCQLGenerator {
 		return new BoundedCQLStatementIterator(ret);
 	}
 
-	protected static CQLStatementIterator makeCQLforInsert(@NotNull String keyspace, @NotNull CDefinition def, @NotNull Map<String,Object> data) throws CQLGenerationException{
-		return makeCQLforInsert(keyspace, def, data, null, null, null);
-	}
-
-	protected static CQLStatementIterator makeCQLforInsert(@NotNull String keyspace, @NotNull CDefinition def, @NotNull Map<String,Object> data, @Nullable Object uuid, Long timestamp, Integer ttl) throws CQLGenerationException{
+	protected static CQLStatementIterator makeCQLforInsert(@NotNull String keyspace, @NotNull CDefinition def, @NotNull Map<String,Object> data, @Nullable Object uuid, Long timestamp, Integer ttl, ShardIndexKeyMode shardIndexKeyMode) throws CQLGenerationException{
 		List<CQLStatement> ret = Lists.newArrayList();
 		if(uuid == null){
 			uuid = UUIDs.timeBased();
@@ -838,44 +1430,56 @@ public class CObjectCQLGenerator {
 				ttl
 		));
 		//Index Tables
-		if(def.getIndexes() != null) {
-			for(CIndex i : def.getIndexes().values()){
-				if(def.isAllowNullPrimaryKeyInserts()){
-					//check if we have the necessary primary fields to insert on this index. If not just continue;
-					if(!i.validateIndexKeys(i.getIndexKeyAndValues(data))){
-						continue;
-					}
+		for(CIndex i : def.getCompiled().getIndexes()){
+			if(def.isAllowNullPrimaryKeyInserts()){
+				//check if we have the necessary primary fields to insert on this index. If not just continue;
+				if(!i.validateIndexKeys(i.getIndexKeyAndValues(data))){
+					continue;
 				}
-				//insert it into the index
-				addCQLStatmentsForIndexInsert(keyspace, true, ret, def,data,i,uuid,fieldsAndValues,timestamp,ttl);
 			}
+			//insert it into the index
+			addCQLStatmentsForIndexInsert(keyspace, true, ret, def,data,i,uuid,fieldsAndValues,timestamp,ttl,shardIndexKeyMode);
 		}
 		return new BoundedCQLStatementIterator(ret);
 	}
 
-	public static void addCQLStatmentsForIndexInsert(String keyspace, boolean includeShardInsert, List<CQLStatement> statementListToAddTo, CDefinition def, @NotNull Map<String,Object> data, CIndex i, Object uuid, Map<String,ArrayList> fieldsAndValues,Long timestamp, Integer ttl) throws CQLGenerationException {
+	public static void addCQLStatmentsForIndexInsert(String keyspace, boolean includeShardInsert, List<CQLStatement> statementListToAddTo, CDefinition def, @NotNull Map<String,Object> data, CIndex i, Object uuid, Map<String,ArrayList> fieldsAndValues,Long timestamp, Integer ttl, ShardIndexKeyMode shardIndexKeyMode) throws CQLGenerationException {
 		//insert it into the index
-		long shardId = i.getShardingStrategy().getShardKey(uuid);
+		long shardId = i.getShardingStrategy().getShardKey(uuid, def, i, data);
+		CompiledDefinition.CompiledIndex compiledIndex = def.getCompiled().getCompiledIndex(i);
+		if(compiledIndex != null && compiledIndex.isThin()){
+			fieldsAndValues = makeStoredFieldAndValueList(compiledIndex, fieldsAndValues);
+		}
 		statementListToAddTo.add(makeInsertStatementWide(
                 keyspace,
 				makeTableName(def,i),
 				(List<String>)fieldsAndValues.get("fields").clone(),
 				(List<Object>)fieldsAndValues.get("values").clone(),
 				uuid,
-				shardId,
+				i.getShardingStrategy().getSubShardKey(shardId, uuid),
 				timestamp,
 				ttl
 		));
-		if( includeShardInsert && (!(i.getShardingStrategy() instanceof ShardingStrategyNone))){
+		if( includeShardInsert && def.getCompiled().isSharded(i)){
 			//record that we have made an insert into that shard
-			statementListToAddTo.add(makeInsertStatementWideIndex(
-                    keyspace,
-					CObjectShardList.SHARD_INDEX_TABLE_NAME,
-					makeTableName(def,i),
-					shardId,
-					i.getIndexValues(data),
-					timestamp
-			));
+			if(shardIndexKeyMode.usesLegacy()){
+				statementListToAddTo.add(makeInsertStatementWideIndex(
+						keyspace,
+						CObjectShardList.SHARD_INDEX_TABLE_NAME,
+						makeTableName(def,i),
+						shardId,
+						i.getIndexValues(data),
+						timestamp
+				));
+			}
+			if(shardIndexKeyMode.usesHashed()){
+				statementListToAddTo.add(makeInsertStatementHashedWideIndex(
+						keyspace,
+						makeTableName(def,i),
+						shardId,
+						ShardIndexKey.fromValues(i.getIndexValues(data))
+				));
+			}
 		}
 	}
 
@@ -890,19 +1494,30 @@ public class CObjectCQLGenerator {
 	}
 
 	protected static CQLStatementIterator makeCQLforDelete(String keyspace, CDefinition def, UUID key, Map<String,Object> data, Long timestamp){
+		return makeCQLforDelete(keyspace, def, key, data, timestamp, null);
+	}
+
+	/**
+	 * @param skippedIndexes Indexes whose rows are left alone because their whole partitions are deleted, or null
+	 * @return Statements deleting the object from the static table and every index other than the skipped ones
+	 */
+	public static CQLStatementIterator makeCQLforDelete(String keyspace, CDefinition def, UUID key, Map<String,Object> data, Long timestamp, @Nullable Collection<CIndex> skippedIndexes){
 		if(timestamp == null){
 			timestamp = Long.valueOf(System.currentTimeMillis());
 		}
 		List<CQLStatement> ret = Lists.newArrayList();
 		ret.add(makeCQLforDeleteUUIDFromStaticTable(keyspace, def, key, timestamp));
-		for(CIndex i : def.getIndexes().values()){
+		for(CIndex i : def.getCompiled().getIndexes()){
+			if(skippedIndexes != null && skippedIndexes.contains(i)){
+				continue;
+			}
 			if(def.isAllowNullPrimaryKeyInserts()){
 				//check if we have the necessary primary fields to insert on this index. If not just continue;
 				if(!i.validateIndexKeys(i.getIndexKeyAndValues(data))){
 					continue;
 				}
 			}
-			ret.add(makeCQLforDeleteUUIDFromIndex(keyspace, def, i, key, i.getIndexKeyAndValues(data), timestamp));
+			ret.addAll(makeCQLforDeleteUUIDFromIndexShards(keyspace, def, i, key, i.getIndexKeyAndValues(data)));
 		}
 		return new BoundedCQLStatementIterator(ret);
 	}
@@ -921,7 +1536,22 @@ public class CObjectCQLGenerator {
 
 
 	public static CQLStatement makeCQLforDeleteUUIDFromIndex(String keyspace, CDefinition def, CIndex index, UUID uuid, Map<String,Object> indexValues, Long timestamp){
-		List values = Lists.newArrayList( uuid, Long.valueOf(index.getShardingStrategy().getShardKey(uuid)) );
+		return makeCQLforDeleteUUIDFromIndexShard(keyspace, def, index, uuid, indexValues, getIndexShardKey(def, index, uuid, indexValues));
+	}
+
+	/**
+	 * @return Statements deleting the object from every index table partition it may have been written to
+	 */
+	public static List<CQLStatement> makeCQLforDeleteUUIDFromIndexShards(String keyspace, CDefinition def, CIndex index, UUID uuid, Map<String,Object> indexValues){
+		List<CQLStatement> ret = Lists.newArrayList();
+		for(long shardId : getPossibleIndexShardKeys(def, index, uuid, indexValues)){
+			ret.add(makeCQLforDeleteUUIDFromIndexShard(keyspace, def, index, uuid, indexValues, shardId));
+		}
+		return ret;
+	}
+
+	private static CQLStatement makeCQLforDeleteUUIDFromIndexShard(String keyspace, CDefinition def, CIndex index, UUID uuid, Map<String,Object> indexValues, long shardId){
+		List values = Lists.newArrayList( uuid, Long.valueOf(shardId) );
 		CQLStatement wheres = makeAndedEqualList(def, indexValues);
 		values.addAll(Arrays.asList(wheres.getValues()));
 		String whereCQL = String.format( "id = ? AND shardid = ? AND %s", wheres.getQuery());
@@ -935,13 +1565,38 @@ public class CObjectCQLGenerator {
 	}
 
 	public static Statement makeCQLforDeleteUUIDFromIndex_WorkaroundForUnpreparableTimestamp(String keyspace, CDefinition def, CIndex index, UUID uuid, Map<String,Object> indexValues, Long timestamp){
-		Statement ret = QueryBuilder.delete()
-						.from(keyspace,makeIndexTableName(def,index))
-						.using(QueryBuilder.timestamp(timestamp))
-						.where(QueryBuilder.eq("id",uuid))
-						.and(QueryBuilder.eq("shardid", Long.valueOf(index.getShardingStrategy().getShardKey(uuid))));
-		for(String key : indexValues.keySet()){
-			((Delete.Where)ret).and(QueryBuilder.eq(key,indexValues.get(key)));
+		long[] shardIds = getPossibleIndexShardKeys(def, index, uuid, indexValues);
+		RegularStatement[] deletes = new RegularStatement[shardIds.length];
+		for(int s = 0; s < shardIds.length; s++){
+			Delete.Where delete = QueryBuilder.delete()
+							.from(keyspace,makeIndexTableName(def,index))
+							.using(QueryBuilder.timestamp(timestamp))
+							.where(QueryBuilder.eq("id",uuid))
+							.and(QueryBuilder.eq("shardid", Long.valueOf(shardIds[s])));
+			for(String key : indexValues.keySet()){
+				delete.and(QueryBuilder.eq(key,indexValues.get(key)));
+			}
+			deletes[s] = delete;
+		}
+		return (deletes.length == 1) ? deletes[0] : QueryBuilder.unloggedBatch(deletes);
+	}
+
+	/**
+	 * @return Shard id of the index table partition holding the object
+	 */
+	protected static long getIndexShardKey(CDefinition def, CIndex index, UUID uuid, Map<String,Object> indexValues){
+		TimebasedShardingStrategy shardingStrategy = index.getShardingStrategy();
+		return shardingStrategy.getSubShardKey(shardingStrategy.getShardKey(uuid, def, index, indexValues), uuid);
+	}
+
+	/**
+	 * @return Shard ids of every index table partition that may hold the object
+	 */
+	protected static long[] getPossibleIndexShardKeys(CDefinition def, CIndex index, UUID uuid, Map<String,Object> indexValues){
+		TimebasedShardingStrategy shardingStrategy = index.getShardingStrategy();
+		long[] ret = shardingStrategy.getPossibleShardKeys(uuid, def, index, indexValues);
+		for(int s = 0; s < ret.length; s++){
+			ret[s] = shardingStrategy.getSubShardKey(ret[s], uuid);
 		}
 		return ret;
 	}
@@ -955,26 +1610,139 @@ public class CObjectCQLGenerator {
 	}
 
 	public CQLStatement makeStaticTableCreate(CDefinition def){
+		return makeStaticTableCreate(def, true);
+	}
+
+	/**
+	 * @param def Definition of the table
+	 * @param withTableOptions false to leave out the table options, as offline SSTable writers do not apply them
+	 * @return Statement creating the static table of the definition
+	 */
+	public CQLStatement makeStaticTableCreate(CDefinition def, boolean withTableOptions){
 		String query = String.format(
 			TEMPLATE_CREATE_STATIC,
 			keyspace,
 			def.getName(),
 			def.getPrimaryKeyType(),
-			makeFieldList(def.getFields().values(),true));
+			makeFieldList(def.getFields().values(),true),
+			withTableOptions ? makeTableOptionsCQL(def.getTableOptions(), null) : "");
 		return CQLStatement.make(query, def.getName());
 	}
 
 	public CQLStatement makeWideTableCreate(CDefinition def, CIndex index){
+		return makeWideTableCreate(def, index, true);
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index of the table
+	 * @param withTableOptions false to leave out the table options, as offline SSTable writers do not apply them
+	 * @return Statement creating the table of the index
+	 */
+	public CQLStatement makeWideTableCreate(CDefinition def, CIndex index, boolean withTableOptions){
+		CompiledDefinition.CompiledIndex compiledIndex = def.getCompiled().getCompiledIndex(index);
+		Collection<CField> fields = (compiledIndex != null && compiledIndex.isThin()) ? compiledIndex.getStoredFields() : def.getFields().values();
 		String query = String.format(
 			TEMPLATE_CREATE_WIDE,
 			keyspace,
 			makeTableName(def,index),
 			def.getPrimaryKeyType(),
-			makeFieldList(def.getFields().values(), true),
-			makeCommaList(index.getCompositeKeyList()));
+			makeFieldList(fields, true),
+			makeCommaList(index.getCompositeKeyList()),
+			withTableOptions ? makeTableOptionsCQL(index.getTableOptions(), index.getShardingStrategy().getShardPeriod()) : "");
 		return CQLStatement.make(query, makeTableName(def, index));
 	}
 
+	/**
+	 * @param def Definition whose table options changed
+	 * @return Statement applying the table options of the static table of the definition, resetting the options it
+	 * does not set to their defaults
+	 */
+	public CQLStatement makeCQLforStaticTableOptions(CDefinition def){
+		return CQLStatement.make(String.format(TEMPLATE_SET_TABLE_OPTIONS, keyspace, def.getName(), makeTableOptionsCQL(def.getTableOptions(), null, true)), def.getName());
+	}
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index whose table options changed
+	 * @return Statement applying the table options of the table of the index, resetting the options it does not set
+	 * to their defaults
+	 */
+	public CQLStatement makeCQLforWideTableOptions(CDefinition def, CIndex index){
+		String tableName = makeTableName(def, index);
+		return CQLStatement.make(String.format(TEMPLATE_SET_TABLE_OPTIONS, keyspace, tableName,
+				makeTableOptionsCQL(index.getTableOptions(), index.getShardingStrategy().getShardPeriod(), true)), tableName);
+	}
+
+	/**
+	 * @param options Table options, or null
+	 * @param shardPeriod Time covered by each shard of the table, or null if it is not sharded by time
+	 * @return WITH clause setting the options, or an empty string if there are none
+	 */
+	protected static String makeTableOptionsCQL(@Nullable CTableOptions options, @Nullable Period shardPeriod){
+		return makeTableOptionsCQL(options, shardPeriod, false);
+	}
+
+	/**
+	 * @param options Table options, or null
+	 * @param shardPeriod Time covered by each shard of the table, or null if it is not sharded by time
+	 * @param withDefaults true to set the options that are not given to the defaults of Cassandra, so that altering
+	 *                     a table undoes options that were removed from its definition
+	 * @return WITH clause setting the options, or an empty string if there are none
+	 */
+	protected static String makeTableOptionsCQL(@Nullable CTableOptions options, @Nullable Period shardPeriod, boolean withDefaults){
+		if(options == null){
+			if(!withDefaults){
+				return "";
+			}
+			options = new CTableOptions();
+		}
+		List<String> properties = Lists.newArrayList();
+		Map<String, Object> compaction = options.getAlignedCompaction(shardPeriod);
+		if(compaction == null && withDefaults){
+			compaction = Maps.newLinkedHashMap();
+			compaction.put("class", CTableOptions.DEFAULT_COMPACTION);
+		}
+		if(compaction != null){
+			properties.add("compaction = " + makeOptionsMap(compaction));
+		}
+		if(options.getCompressor() != null || options.getCompressionChunkLengthKb() != null || withDefaults){
+			Map<String, Object> compression = Maps.newLinkedHashMap();
+			compression.put("sstable_compression", (options.getCompressor() == null) ? CTableOptions.DEFAULT_COMPRESSOR : options.getCompressor());
+			if(options.getCompressionChunkLengthKb() != null){
+				compression.put("chunk_length_kb", options.getCompressionChunkLengthKb());
+			} else if(withDefaults){
+				compression.put("chunk_length_kb", CTableOptions.DEFAULT_COMPRESSION_CHUNK_LENGTH_KB);
+			}
+			properties.add("compression = " + makeOptionsMap(compression));
+		}
+		if(options.getBloomFilterFpChance() != null){
+			properties.add("bloom_filter_fp_chance = " + options.getBloomFilterFpChance());
+		} else if(withDefaults){
+			// Cassandra defaults to a higher false positive chance for leveled compaction
+			boolean leveled = compaction.get("class").toString().endsWith(CTableOptions.LEVELED_COMPACTION);
+			properties.add("bloom_filter_fp_chance = " + (leveled ? CTableOptions.DEFAULT_LEVELED_BLOOM_FILTER_FP_CHANCE : CTableOptions.DEFAULT_BLOOM_FILTER_FP_CHANCE));
+		}
+		if(options.getCaching() != null){
+			properties.add("caching = " + quoteOption(options.getCaching()));
+		} else if(withDefaults){
+			properties.add("caching = " + quoteOption(CTableOptions.DEFAULT_CACHING));
+		}
+		return properties.isEmpty() ? "" : " WITH " + Joiner.on(" AND ").join(properties);
+	}
+
+	private static String makeOptionsMap(Map<String, Object> options){
+		List<String> entries = Lists.newArrayList();
+		for(Map.Entry<String, Object> entry : options.entrySet()){
+			entries.add(quoteOption(entry.getKey()) + " : " + quoteOption(String.valueOf(entry.getValue())));
+		}
+		return "{ " + Joiner.on(", ").join(entries) + " }";
+	}
+
+	private static String quoteOption(String value){
+		return "'" + value.replace("'", "''") + "'";
+	}
+
 	public static String makeIndexValuesString(Collection values) throws CQLGenerationException{
 		//note, this escaping mechanism can in very rare situations cause index collisions, for example
 		//one:two as a value collides with another value one&#58;two
@@ -999,10 +1767,11 @@ public class CObjectCQLGenerator {
 	}
 
 	public static Map<String,ArrayList> makeFieldAndValueList(CDefinition def, Map<String,Object> data) throws CQLGenerationException{
-		ArrayList fieldList = Lists.newArrayList();
-		ArrayList valueList = Lists.newArrayList();
-		for(CField f : def.getFields().values()){
-			if( data.containsKey(f.getName()) && !f.getName().equals("id") ){
+		List<CField> fields = def.getCompiled().getNonIdFields();
+		ArrayList fieldList = new ArrayList(fields.size());
+		ArrayList valueList = new ArrayList(fields.size());
+		for(CField f : fields){
+			if( data.containsKey(f.getName()) ){
 				fieldList.add(f.getName());
 				valueList.add(data.get(f.getName()));
 			}
@@ -1013,12 +1782,33 @@ public class CObjectCQLGenerator {
 		return ret;
 	}
 
+	/**
+	 * @param compiledIndex Index to write to
+	 * @param fieldsAndValues Field and value lists as returned by makeFieldAndValueList
+	 * @return Field and value lists restricted to the fields stored in the index table
+	 */
+	protected static Map<String,ArrayList> makeStoredFieldAndValueList(CompiledDefinition.CompiledIndex compiledIndex, Map<String,ArrayList> fieldsAndValues){
+		List fields = fieldsAndValues.get("fields");
+		List values = fieldsAndValues.get("values");
+		ArrayList fieldList = new ArrayList(fields.size());
+		ArrayList valueList = new ArrayList(fields.size());
+		for(int j = 0; j < fields.size(); j++){
+			if(compiledIndex.isStoredField((String)fields.get(j))){
+				fieldList.add(fields.get(j));
+				valueList.add(values.get(j));
+			}
+		}
+		Map<String,ArrayList> ret = Maps.newHashMap();
+		ret.put("fields", fieldList);
+		ret.put("values", valueList);
+		return ret;
+	}
+
 	protected static boolean validateData(CDefinition def, Map<String,Object> data){
 		if(def.isAllowNullPrimaryKeyInserts()){
 			return true;
 		}
-		Collection<String> fields = def.getRequiredFields();
-		for( String f : fields){
+		for( String f : def.getCompiled().getRequiredFields()){
 			if(!data.containsKey(f)){
 				return false;
 			}
@@ -1073,17 +1863,20 @@ public class CObjectCQLGenerator {
 	}
 
 	public static String makeTableName(CDefinition def, @Nullable CIndex index){
-		String objName = def.getName();
 		if(index == null){
-			return objName;
-		}
-		else{
-			return makeIndexTableName(def,index);
+			return def.getName();
 		}
+		//index table names are precomputed when the definition is compiled
+		String ret = def.getCompiled().getTableName(index);
+		return (ret == null) ? makeIndexTableName(def,index) : ret;
 	}
 
 	protected static String makeIndexTableName(CDefinition def, CIndex index){
 		String indexName = Joiner.on('_').join(index.getCompositeKeyList());
+		if(index.getLayoutVersion() != 0){
+			//every layout of a resharded index gets its own table
+			indexName += "|" + index.getLayoutVersion();
+		}
 		String hash = DigestUtils.md5Hex(def.getName()+"|"+indexName);
 		//md5 hashes (in hex) give us 32 chars. We have 48 chars available so that gives us 16 chars remaining for a pretty
 		//display name for the object type.
@@ -1091,6 +1884,14 @@ public class CObjectCQLGenerator {
 		return objDisplayName+hash;
 	}
 
+	public ShardIndexKeyMode getShardIndexKeyMode() {
+		return shardIndexKeyMode;
+	}
+
+	public void setShardIndexKeyMode(ShardIndexKeyMode shardIndexKeyMode) {
+		this.shardIndexKeyMode = shardIndexKeyMode;
+	}
+
 	public void setShardList(CObjectShardList shardList) {
 		this.shardList = shardList;
 	}
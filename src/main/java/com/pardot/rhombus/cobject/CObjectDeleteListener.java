@@ -0,0 +1,17 @@
+package com.pardot.rhombus.cobject;
+
+/**
+ * Receives the progress of ObjectMapper.deleteWhere
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public interface CObjectDeleteListener {
+
+	/**
+	 * Called after each batch of deletes
+	 * @param objectsDeleted Number of objects deleted so far
+	 * @param partitionsDeleted Number of index partitions removed with a single partition delete so far
+	 */
+	public void onProgress(long objectsDeleted, long partitionsDeleted);
+}
@@ -0,0 +1,53 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.primitives.UnsignedLongs;
+
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Orders object ids the same way cassandra orders the id clustering column of an index table, so results
+ * read from several partitions can be merged without re-sorting them.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CObjectIdComparator implements Comparator<Object> {
+
+	private static final CObjectIdComparator ASCENDING = new CObjectIdComparator(false);
+	private static final CObjectIdComparator DESCENDING = new CObjectIdComparator(true);
+
+	private final boolean reversed;
+
+	private CObjectIdComparator(boolean reversed) {
+		this.reversed = reversed;
+	}
+
+	public static CObjectIdComparator forOrdering(CObjectOrdering ordering) {
+		return ordering == CObjectOrdering.ASCENDING ? ASCENDING : DESCENDING;
+	}
+
+	@Override
+	public int compare(Object a, Object b) {
+		int ret = compareAscending(a, b);
+		return reversed ? -ret : ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compareAscending(Object a, Object b) {
+		if(a instanceof UUID && b instanceof UUID) {
+			UUID ua = (UUID)a;
+			UUID ub = (UUID)b;
+			if(ua.version() == 1 && ub.version() == 1 && ua.timestamp() != ub.timestamp()) {
+				// timeuuids sort by their timestamp first
+				return ua.timestamp() < ub.timestamp() ? -1 : 1;
+			}
+			int ret = UnsignedLongs.compare(ua.getMostSignificantBits(), ub.getMostSignificantBits());
+			if(ret != 0) {
+				return ret;
+			}
+			return UnsignedLongs.compare(ua.getLeastSignificantBits(), ub.getLeastSignificantBits());
+		}
+		return ((Comparable<Object>)a).compareTo(b);
+	}
+}
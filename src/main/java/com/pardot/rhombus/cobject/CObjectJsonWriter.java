@@ -0,0 +1,221 @@
+package com.pardot.rhombus.cobject;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Writes the objects of one definition as JSON objects, either straight from the rows of its tables or from mapped
+ * results. Field names are encoded once, column positions are resolved once per result set and text, timestamp,
+ * uuid and blob values are written from the bytes of the row, so writing a row allocates next to nothing.
+ *
+ * Values are written as Jackson writes the mapped results: timestamps as milliseconds since the epoch, uuids as
+ * strings and blobs as base64. A writer keeps state between rows and must only be used by one thread.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CObjectJsonWriter {
+
+	private static final SerializedString ID = new SerializedString("id");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// Fields in ordinal order
+	private final CField[] fields;
+	private final SerializedString[] names;
+	private final boolean uuidId;
+	private final char[] uuidChars = new char[36];
+
+	// Column positions of the result set of the last row written
+	private ColumnDefinitions columns;
+	private int idColumn;
+	private final int[] fieldColumns;
+
+	public CObjectJsonWriter(CDefinition definition) {
+		CompiledDefinition compiled = definition.getCompiled();
+		this.fields = new CField[compiled.getFieldCount()];
+		this.names = new SerializedString[fields.length];
+		for(int ordinal = 0; ordinal < fields.length; ordinal++) {
+			fields[ordinal] = compiled.getField(ordinal);
+			names[ordinal] = new SerializedString(fields[ordinal].getName());
+		}
+		this.uuidId = (compiled.getIdField() == null);
+		this.fieldColumns = new int[fields.length];
+	}
+
+	/**
+	 * Write a row of the static table or of a wide table of the definition as a JSON object
+	 * @param generator Generator to write to
+	 * @param row Row to write
+	 */
+	public void writeRow(JsonGenerator generator, Row row) throws IOException {
+		if(row.getColumnDefinitions() != columns) {
+			resolveColumns(row.getColumnDefinitions());
+		}
+		generator.writeStartObject();
+		if(uuidId) {
+			generator.writeFieldName(ID);
+			writeColumn(generator, row, idColumn, CField.CDataType.TIMEUUID);
+		}
+		for(int ordinal = 0; ordinal < fields.length; ordinal++) {
+			generator.writeFieldName(names[ordinal]);
+			writeColumn(generator, row, fieldColumns[ordinal], fields[ordinal].getType());
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Write a mapped result of the definition as a JSON object
+	 * @param generator Generator to write to
+	 * @param object Values of the object, keyed by field name
+	 */
+	public void writeObject(JsonGenerator generator, Map<String, Object> object) throws IOException {
+		generator.writeStartObject();
+		if(uuidId) {
+			generator.writeFieldName(ID);
+			writeValue(generator, object.get("id"));
+		}
+		for(int ordinal = 0; ordinal < fields.length; ordinal++) {
+			generator.writeFieldName(names[ordinal]);
+			writeValue(generator, object.get(fields[ordinal].getName()));
+		}
+		generator.writeEndObject();
+	}
+
+	private void resolveColumns(ColumnDefinitions columns) {
+		this.columns = columns;
+		this.idColumn = columns.contains("id") ? columns.getIndexOf("id") : -1;
+		for(int ordinal = 0; ordinal < fields.length; ordinal++) {
+			String name = fields[ordinal].getName();
+			fieldColumns[ordinal] = columns.contains(name) ? columns.getIndexOf(name) : -1;
+		}
+	}
+
+	private void writeColumn(JsonGenerator generator, Row row, int column, CField.CDataType type) throws IOException {
+		if(column < 0 || row.isNull(column)) {
+			generator.writeNull();
+			return;
+		}
+		ByteBuffer bytes;
+		switch(type) {
+			case ASCII:
+			case VARCHAR:
+			case TEXT:
+				bytes = row.getBytesUnsafe(column);
+				if(bytes.hasArray() && generator instanceof UTF8JsonGenerator) {
+					generator.writeUTF8String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+				} else {
+					generator.writeString(row.getString(column));
+				}
+				break;
+			case BIGINT:
+			case COUNTER:
+				generator.writeNumber(row.getLong(column));
+				break;
+			case BLOB:
+				bytes = row.getBytesUnsafe(column);
+				if(bytes.hasArray()) {
+					generator.writeBinary(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+				} else {
+					writeValue(generator, bytes);
+				}
+				break;
+			case BOOLEAN:
+				generator.writeBoolean(row.getBool(column));
+				break;
+			case DECIMAL:
+				generator.writeNumber(row.getDecimal(column));
+				break;
+			case DOUBLE:
+				generator.writeNumber(row.getDouble(column));
+				break;
+			case FLOAT:
+				generator.writeNumber(row.getFloat(column));
+				break;
+			case INT:
+				generator.writeNumber(row.getInt(column));
+				break;
+			case TIMESTAMP:
+				bytes = row.getBytesUnsafe(column);
+				generator.writeNumber(bytes.getLong(bytes.position()));
+				break;
+			case UUID:
+			case TIMEUUID:
+				bytes = row.getBytesUnsafe(column);
+				writeUuid(generator, bytes.getLong(bytes.position()), bytes.getLong(bytes.position() + 8));
+				break;
+			case VARINT:
+				generator.writeNumber(row.getVarint(column));
+				break;
+			default:
+				generator.writeNull();
+		}
+	}
+
+	private void writeValue(JsonGenerator generator, Object value) throws IOException {
+		if(value == null) {
+			generator.writeNull();
+		} else if(value instanceof String) {
+			generator.writeString((String)value);
+		} else if(value instanceof Long) {
+			generator.writeNumber((Long)value);
+		} else if(value instanceof Integer) {
+			generator.writeNumber((Integer)value);
+		} else if(value instanceof Boolean) {
+			generator.writeBoolean((Boolean)value);
+		} else if(value instanceof UUID) {
+			UUID uuid = (UUID)value;
+			writeUuid(generator, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+		} else if(value instanceof Date) {
+			generator.writeNumber(((Date)value).getTime());
+		} else if(value instanceof Double) {
+			generator.writeNumber((Double)value);
+		} else if(value instanceof Float) {
+			generator.writeNumber((Float)value);
+		} else if(value instanceof BigDecimal) {
+			generator.writeNumber((BigDecimal)value);
+		} else if(value instanceof BigInteger) {
+			generator.writeNumber((BigInteger)value);
+		} else if(value instanceof ByteBuffer) {
+			ByteBuffer buffer = ((ByteBuffer)value).duplicate();
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			generator.writeBinary(bytes);
+		} else {
+			generator.writeString(value.toString());
+		}
+	}
+
+	private void writeUuid(JsonGenerator generator, long mostSignificantBits, long leastSignificantBits) throws IOException {
+		writeHex(mostSignificantBits >>> 32, 0, 8);
+		uuidChars[8] = '-';
+		writeHex(mostSignificantBits >>> 16, 9, 4);
+		uuidChars[13] = '-';
+		writeHex(mostSignificantBits, 14, 4);
+		uuidChars[18] = '-';
+		writeHex(leastSignificantBits >>> 48, 19, 4);
+		uuidChars[23] = '-';
+		writeHex(leastSignificantBits, 24, 12);
+		generator.writeString(uuidChars, 0, uuidChars.length);
+	}
+
+	/**
+	 * Write the low digits of a value as hexadecimal
+	 */
+	private void writeHex(long value, int offset, int digits) {
+		for(int i = offset + digits - 1; i >= offset; i--) {
+			uuidChars[i] = HEX[(int)(value & 0xF)];
+			value >>>= 4;
+		}
+	}
+}
@@ -13,6 +13,8 @@ import java.util.UUID;
 public interface CObjectShardList {
 
 	public static String SHARD_INDEX_TABLE_NAME = "__shardindex";
+	public static String HASHED_SHARD_INDEX_TABLE_NAME = "__shardindex_hashed";
+	public static String SHARD_LAYOUT_TABLE_NAME = "__shardlayout";
 
 	List<Long> getShardIdList(CDefinition def, SortedMap<String,Object> indexValues, CObjectOrdering ordering,@Nullable UUID start, @Nullable UUID end) throws CQLGenerationException;
 }
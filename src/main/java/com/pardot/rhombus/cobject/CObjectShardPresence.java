@@ -0,0 +1,27 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.collect.Range;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Narrows the shards of a bounded query down to the ones that have been written to
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public interface CObjectShardPresence {
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index being queried
+	 * @param indexValues Values of the index fields
+	 * @param shardIdRange Closed range of shard ids covered by the query
+	 * @param ordering Order of the returned shard ids
+	 * @return Shard ids in the range that may hold rows, or null if every shard in the range has to be queried
+	 */
+	@Nullable
+	List<Long> getPresentShardIds(CDefinition def, CIndex index, SortedMap<String,Object> indexValues, Range<Long> shardIdRange, CObjectOrdering ordering) throws CQLGenerationException;
+}
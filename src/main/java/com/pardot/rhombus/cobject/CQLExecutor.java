@@ -1,20 +1,36 @@
 package com.pardot.rhombus.cobject;
 
 import com.datastax.driver.core.*;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.pardot.rhombus.cobject.async.ConcurrencyLimiter;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
 import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import com.yammer.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.pardot.rhombus.util.StringUtil;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Pardot, An ExactTarget Company
@@ -29,6 +45,20 @@ public class CQLExecutor {
 	private boolean enableTrace = false;
 	private Session session;
 	private ConsistencyLevel consistencyLevel;
+	@Nullable
+	private ConcurrencyLimiter limiter = null;
+	private final ConcurrentMap<Host, ConcurrencyLimiter> hostLimiters = Maps.newConcurrentMap();
+	private int maxInFlightPerHost;
+	private int maxQueued;
+
+	private static final int MIN_LIMIT = 4;
+	// Reads of an object type timed before their 95th percentile is used as the hedge delay
+	private static final int MIN_HEDGE_SAMPLES = 100;
+	private static final double MAX_HEDGE_BURST = 10.0;
+	private static ScheduledExecutorService hedgeExecutorService = Executors.newSingleThreadScheduledExecutor();
+	private long minHedgeDelayMillis = 0L;
+	private double maxHedgePercent = 0.0;
+	private double hedgeBudget = 0.0;
 
 	public CQLExecutor(Session session, boolean logCql, ConsistencyLevel consistencyLevel){
 		this.preparedStatementCache = Maps.newConcurrentMap();
@@ -102,34 +132,453 @@ public class CQLExecutor {
 	}
 
 	public ResultSetFuture executeAsync(CQLStatement cql){
+		return executeAsync(cql, 0);
+	}
+
+	/**
+	 * @param cql Statement to execute
+	 * @param fetchSize Number of rows fetched at a time, or 0 for the default of the cluster
+	 */
+	public ResultSetFuture executeAsync(CQLStatement cql, int fetchSize){
 		if(logCql) {
 			logger.debug("Executing CQL: {}", cql.getQuery());
 			if(cql.getValues() != null) {
 				logger.debug("With values: {}", Arrays.asList(cql.getValues()));
 			}
 		}
+		Statement statement;
 		if(cql.isPreparable()){
-			BoundStatement bs = getBoundStatement(session, cql);
-			ResultSetFuture result = session.executeAsync(bs);
-			com.yammer.metrics.Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.executed", "executed", TimeUnit.SECONDS).mark();
-			return result;
+			statement = getBoundStatement(session, cql);
 		}
 		else{
 			//just run a normal execute without a prepared statement
-			com.yammer.metrics.Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.executed", "executed", TimeUnit.SECONDS).mark();
-			return session.executeAsync(cql.getQuery());
+			statement = new SimpleStatement(cql.getQuery());
+		}
+		statement.setFetchSize(fetchSize);
+		if(limiter == null) {
+			return send(statement);
+		}
+		LimitedResultSetFuture result = new LimitedResultSetFuture(statement, getHostLimiter(statement));
+		result.acquire();
+		return result;
+	}
+
+	private ResultSetFuture send(Statement statement) {
+		ResultSetFuture result = session.executeAsync(statement);
+		com.yammer.metrics.Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.executed", "executed", TimeUnit.SECONDS).mark();
+		return result;
+	}
+
+	/**
+	 * Cap the number of asynchronous statements in flight, globally and per replica the statement is routed to,
+	 * with limits that back off when the cluster slows down. Statements over the limits wait in a queue, statements
+	 * that do not fit in the queue fail with a RejectedExecutionException. The limits and queue depths are exposed
+	 * as the concurrency.limit and concurrency.queued gauges.
+	 * @param maxInFlight Highest number of statements in flight
+	 * @param maxInFlightPerHost Highest number of statements in flight to one replica
+	 * @param maxQueued Number of statements that can wait for each limit
+	 */
+	public void setConcurrencyLimits(int maxInFlight, int maxInFlightPerHost, int maxQueued) {
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		this.maxQueued = maxQueued;
+		this.hostLimiters.clear();
+		this.limiter = new ConcurrencyLimiter(MIN_LIMIT, maxInFlight, maxQueued);
+		registerGauges(limiter, "all");
+	}
+
+	@Nullable
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * @return Limiter of the first replica of the partition of a statement, or null if the replica is not known
+	 */
+	@Nullable
+	private ConcurrencyLimiter getHostLimiter(Statement statement) {
+		ByteBuffer routingKey = statement.getRoutingKey();
+		String keyspace = statement.getKeyspace();
+		if(routingKey == null || keyspace == null) {
+			return null;
+		}
+		Set<Host> replicas = session.getCluster().getMetadata().getReplicas(keyspace, routingKey);
+		if(replicas.isEmpty()) {
+			return null;
+		}
+		Host host = replicas.iterator().next();
+		ConcurrencyLimiter hostLimiter = hostLimiters.get(host);
+		if(hostLimiter == null) {
+			ConcurrencyLimiter created = new ConcurrencyLimiter(MIN_LIMIT, maxInFlightPerHost, maxQueued);
+			hostLimiter = hostLimiters.putIfAbsent(host, created);
+			if(hostLimiter == null) {
+				hostLimiter = created;
+				registerGauges(created, host.getAddress().getHostAddress());
+			}
+		}
+		return hostLimiter;
+	}
+
+	private static void registerGauges(final ConcurrencyLimiter limiter, String scope) {
+		MetricName limitName = new MetricName(CQLExecutor.class, "concurrency.limit", scope);
+		MetricName queuedName = new MetricName(CQLExecutor.class, "concurrency.queued", scope);
+		// Replace the gauges of a previous limiter
+		Metrics.defaultRegistry().removeMetric(limitName);
+		Metrics.defaultRegistry().removeMetric(queuedName);
+		Metrics.defaultRegistry().newGauge(limitName, new Gauge<Integer>() {
+			@Override
+			public Integer value() {
+				return limiter.getLimit();
+			}
+		});
+		Metrics.defaultRegistry().newGauge(queuedName, new Gauge<Integer>() {
+			@Override
+			public Integer value() {
+				return limiter.getQueued();
+			}
+		});
+	}
+
+	/**
+	 * @return True if a failure shows the cluster is overloaded
+	 */
+	private static boolean isOverload(Throwable t) {
+		return t instanceof QueryTimeoutException || t instanceof NoHostAvailableException;
+	}
+
+	/**
+	 * Execute an idempotent read, sending a second copy of it when the first has not completed after the hedge delay
+	 * and taking whichever copy completes first. The other copy is cancelled. Without hedged reads this is the same
+	 * as executeAsync.
+	 * @param cql Read to execute
+	 */
+	public ResultSetFuture executeHedgedAsync(CQLStatement cql) {
+		if(maxHedgePercent <= 0) {
+			return executeAsync(cql);
+		}
+		HedgedResultSetFuture result = new HedgedResultSetFuture(cql);
+		result.sendPrimary();
+		return result;
+	}
+
+	/**
+	 * Synchronous version of executeHedgedAsync
+	 */
+	public ResultSet executeHedgedSync(CQLStatement cql) {
+		if(maxHedgePercent <= 0) {
+			return executeSync(cql);
+		}
+		return executeHedgedAsync(cql).getUninterruptibly();
+	}
+
+	/**
+	 * Hedge reads executed with executeHedgedAsync. A second copy of a read is sent once it has taken longer than the
+	 * 95th percentile latency of reads of its object type, and never sooner than the minimum delay. Hedges are
+	 * capped at a percentage of the reads, allowing short bursts.
+	 * @param minDelayMillis Shortest time to wait for a read before hedging it
+	 * @param maxHedgePercent Number of hedges allowed per hundred reads, or 0 to disable hedged reads
+	 */
+	public void setHedgedReads(long minDelayMillis, double maxHedgePercent) {
+		this.minHedgeDelayMillis = minDelayMillis;
+		this.maxHedgePercent = maxHedgePercent;
+	}
+
+	public long getMinHedgeDelayMillis() {
+		return minHedgeDelayMillis;
+	}
+
+	public double getMaxHedgePercent() {
+		return maxHedgePercent;
+	}
+
+	/**
+	 * @return Milliseconds to wait for a read of the object type before hedging it
+	 */
+	protected long getHedgeDelayMillis(String objectName) {
+		Timer readTimer = getReadTimer(objectName);
+		if(readTimer.count() < MIN_HEDGE_SAMPLES) {
+			return minHedgeDelayMillis;
+		}
+		return Math.max(minHedgeDelayMillis, (long)readTimer.getSnapshot().get95thPercentile());
+	}
+
+	private static Timer getReadTimer(String objectName) {
+		return Metrics.defaultRegistry().newTimer(CQLExecutor.class, "hedgedRead", objectName);
+	}
+
+	/**
+	 * Add the hedge budget of a read, once per read sent
+	 */
+	private synchronized void creditHedge() {
+		hedgeBudget = Math.min(MAX_HEDGE_BURST, hedgeBudget + maxHedgePercent / 100.0);
+	}
+
+	/**
+	 * Take a hedge out of the budget if one is left, when a read is about to be hedged
+	 * @return True if the read may be hedged
+	 */
+	private synchronized boolean takeHedge() {
+		if(hedgeBudget < 1.0) {
+			return false;
+		}
+		hedgeBudget -= 1.0;
+		return true;
+	}
+
+	/**
+	 * Result of a read that is sent a second time when it is slow, completed by the first copy that succeeds
+	 */
+	private class HedgedResultSetFuture extends ExecutorResultSetFuture {
+
+		private final CQLStatement cql;
+		private final List<ResultSetFuture> sent = new CopyOnWriteArrayList<ResultSetFuture>();
+		// Copies sent that have not failed yet
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private HedgedResultSetFuture(CQLStatement cql) {
+			this.cql = cql;
+		}
+
+		private void sendPrimary() {
+			creditHedge();
+			send(false);
+			if(!isDone()) {
+				hedgeExecutorService.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if(!isDone() && takeHedge()) {
+							Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.hedged", "hedged", TimeUnit.SECONDS).mark();
+							send(true);
+						}
+					}
+				}, getHedgeDelayMillis(cql.getObjectName()), TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void send(final boolean hedge) {
+			final long startTime = System.nanoTime();
+			final ResultSetFuture future;
+			pending.incrementAndGet();
+			try {
+				future = executeAsync(cql);
+			} catch(RuntimeException e) {
+				failed(e);
+				return;
+			}
+			sent.add(future);
+			if(isDone()) {
+				future.cancel(true);
+			}
+			Futures.addCallback(future, new FutureCallback<ResultSet>() {
+				@Override
+				public void onSuccess(ResultSet result) {
+					getReadTimer(cql.getObjectName()).update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+					if(set(result)) {
+						if(hedge) {
+							Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.hedgeWon", "hedgeWon", TimeUnit.SECONDS).mark();
+						}
+						cancelOthers(future);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					failed(t);
+				}
+			});
+		}
+
+		/**
+		 * Fail the read once every copy sent has failed
+		 */
+		private void failed(Throwable t) {
+			if(pending.decrementAndGet() == 0) {
+				setException(t);
+			}
+		}
+
+		private void cancelOthers(@Nullable ResultSetFuture winner) {
+			for(ResultSetFuture future : sent) {
+				if(future != winner) {
+					future.cancel(true);
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(!super.cancel(mayInterruptIfRunning)) {
+				return false;
+			}
+			cancelOthers(null);
+			return true;
+		}
+	}
+
+	/**
+	 * Result set future completed by the executor rather than by the driver
+	 */
+	private static abstract class ExecutorResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+		@Override
+		public ResultSet getUninterruptibly() {
+			try {
+				return Uninterruptibles.getUninterruptibly(this);
+			} catch(ExecutionException e) {
+				throw propagateCause(e);
+			}
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+			try {
+				return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+			} catch(ExecutionException e) {
+				throw propagateCause(e);
+			}
+		}
+
+		private RuntimeException propagateCause(ExecutionException e) {
+			// Throw the driver exception with the stack trace of the caller as the driver does
+			if(e.getCause() instanceof DriverException) {
+				throw ((DriverException)e.getCause()).copy();
+			}
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Result of a statement that is sent once it is under the limit of its replica and the global limit
+	 */
+	private class LimitedResultSetFuture extends ExecutorResultSetFuture {
+
+		private final Statement statement;
+		@Nullable
+		private final ConcurrencyLimiter hostLimiter;
+		private volatile ResultSetFuture sent;
+
+		private LimitedResultSetFuture(Statement statement, @Nullable ConcurrencyLimiter hostLimiter) {
+			this.statement = statement;
+			this.hostLimiter = hostLimiter;
+		}
+
+		private void acquire() {
+			if(hostLimiter == null) {
+				acquireGlobal();
+			} else if(!hostLimiter.acquire(new Runnable() {
+				@Override
+				public void run() {
+					acquireGlobal();
+				}
+			})) {
+				shed();
+			}
+		}
+
+		private void acquireGlobal() {
+			if(!limiter.acquire(new Runnable() {
+				@Override
+				public void run() {
+					sendLimited();
+				}
+			})) {
+				if(hostLimiter != null) {
+					hostLimiter.release();
+				}
+				shed();
+			}
+		}
+
+		private void sendLimited() {
+			if(isCancelled()) {
+				releaseWithoutSample();
+				return;
+			}
+			final long startTime = System.nanoTime();
+			try {
+				sent = send(statement);
+			} catch(RuntimeException e) {
+				releaseWithoutSample();
+				setException(e);
+				return;
+			}
+			if(isCancelled()) {
+				sent.cancel(true);
+			}
+			Futures.addCallback(sent, new FutureCallback<ResultSet>() {
+				@Override
+				public void onSuccess(ResultSet result) {
+					release(startTime, false);
+					set(result);
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					if(t instanceof CancellationException) {
+						// A cancelled statement tells nothing about the latency of the cluster
+						releaseWithoutSample();
+					} else {
+						release(startTime, isOverload(t));
+					}
+					setException(t);
+				}
+			});
+		}
+
+		private void release(long startTime, boolean overloaded) {
+			limiter.release(startTime, overloaded);
+			if(hostLimiter != null) {
+				hostLimiter.release(startTime, overloaded);
+			}
+		}
+
+		private void releaseWithoutSample() {
+			limiter.release();
+			if(hostLimiter != null) {
+				hostLimiter.release();
+			}
+		}
+
+		private void shed() {
+			Metrics.defaultRegistry().newMeter(CQLExecutor.class, "statement.shed", "shed", TimeUnit.SECONDS).mark();
+			setException(new RejectedExecutionException("Too many statements waiting for the concurrency limit"));
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(!super.cancel(mayInterruptIfRunning)) {
+				return false;
+			}
+			ResultSetFuture sentFuture = sent;
+			if(sentFuture != null) {
+				sentFuture.cancel(mayInterruptIfRunning);
+			}
+			return true;
 		}
 	}
 
 	public void executeBatch(List<CQLStatementIterator> statementIterators) {
 		BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+		// Counter updates can not be mixed with other statements in a batch
+		BatchStatement counterBatchStatement = new BatchStatement(BatchStatement.Type.COUNTER);
 		for(CQLStatementIterator statementIterator : statementIterators) {
 			while(statementIterator.hasNext()) {
 				CQLStatement statement = statementIterator.next();
-				batchStatement.add(getBoundStatement(session, statement));
+				if(statement.isCounterUpdate()) {
+					counterBatchStatement.add(getBoundStatement(session, statement));
+				} else {
+					batchStatement.add(getBoundStatement(session, statement));
+				}
 			}
 		}
-		session.execute(batchStatement);
+		if(counterBatchStatement.getStatements().isEmpty()) {
+			session.execute(batchStatement);
+		} else if(batchStatement.getStatements().isEmpty()) {
+			session.execute(counterBatchStatement);
+		} else {
+			ResultSetFuture counterFuture = session.executeAsync(counterBatchStatement);
+			session.execute(batchStatement);
+			counterFuture.getUninterruptibly();
+		}
 	}
 
 	public void executeBatch(CQLStatementIterator statementIterator) {
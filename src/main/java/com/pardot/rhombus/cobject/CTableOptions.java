@@ -0,0 +1,153 @@
+package com.pardot.rhombus.cobject;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import org.joda.time.Period;
+
+import java.util.Map;
+
+/**
+ * Cassandra table options of the static table of a definition or of the table of an index. Unset options keep
+ * the defaults of the cluster when a table is created, and are reset to the defaults of Cassandra when a migration
+ * alters the options of an existing table.
+ *
+ * A compaction with the class TimeWindowCompactionStrategy or DateTieredCompactionStrategy and no window options
+ * of its own gets windows the size of the shards of the index, so each shard is compacted on its own once it closes.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CTableOptions {
+
+	public static final String TIME_WINDOW_COMPACTION = "TimeWindowCompactionStrategy";
+	public static final String DATE_TIERED_COMPACTION = "DateTieredCompactionStrategy";
+	public static final String DEFAULT_COMPRESSOR = "LZ4Compressor";
+	public static final String DEFAULT_COMPACTION = "SizeTieredCompactionStrategy";
+	public static final String LEVELED_COMPACTION = "LeveledCompactionStrategy";
+	public static final int DEFAULT_COMPRESSION_CHUNK_LENGTH_KB = 64;
+	public static final double DEFAULT_BLOOM_FILTER_FP_CHANCE = 0.01;
+	public static final double DEFAULT_LEVELED_BLOOM_FILTER_FP_CHANCE = 0.1;
+	public static final String DEFAULT_CACHING = "keys_only";
+
+	private Map<String, Object> compaction;
+	private String compressor;
+	private Integer compressionChunkLengthKb;
+	private Double bloomFilterFpChance;
+	private String caching;
+
+	public CTableOptions() {
+
+	}
+
+	/**
+	 * @return Compaction class and options, as in the compaction map of CQL
+	 */
+	public Map<String, Object> getCompaction() {
+		return compaction;
+	}
+
+	public void setCompaction(Map<String, Object> compaction) {
+		if(compaction != null && compaction.get("class") == null) {
+			throw new IllegalArgumentException("compaction requires a class");
+		}
+		this.compaction = compaction;
+	}
+
+	/**
+	 * @return Compressor class, defaulting to LZ4Compressor when a chunk length is set
+	 */
+	public String getCompressor() {
+		return compressor;
+	}
+
+	public void setCompressor(String compressor) {
+		this.compressor = compressor;
+	}
+
+	public Integer getCompressionChunkLengthKb() {
+		return compressionChunkLengthKb;
+	}
+
+	public void setCompressionChunkLengthKb(Integer compressionChunkLengthKb) {
+		this.compressionChunkLengthKb = compressionChunkLengthKb;
+	}
+
+	public Double getBloomFilterFpChance() {
+		return bloomFilterFpChance;
+	}
+
+	public void setBloomFilterFpChance(Double bloomFilterFpChance) {
+		if(bloomFilterFpChance != null && (bloomFilterFpChance <= 0 || bloomFilterFpChance > 1)) {
+			throw new IllegalArgumentException("bloomFilterFpChance must be greater than 0 and at most 1");
+		}
+		this.bloomFilterFpChance = bloomFilterFpChance;
+	}
+
+	/**
+	 * @return Caching mode of the table: all, keys_only, rows_only or none
+	 */
+	public String getCaching() {
+		return caching;
+	}
+
+	public void setCaching(String caching) {
+		this.caching = caching;
+	}
+
+	/**
+	 * @param shardPeriod Time covered by each shard of the table, or null if it is not sharded by time
+	 * @return Compaction options with the window options of time window and date tiered compaction filled in, or null
+	 */
+	@JsonIgnore
+	public Map<String, Object> getAlignedCompaction(Period shardPeriod) {
+		if(compaction == null || shardPeriod == null) {
+			return compaction;
+		}
+		Map<String, Object> ret = Maps.newLinkedHashMap(compaction);
+		String compactionClass = compaction.get("class").toString();
+		if(compactionClass.endsWith(TIME_WINDOW_COMPACTION) && !compaction.containsKey("compaction_window_unit") && !compaction.containsKey("compaction_window_size")) {
+			long hours = getApproximateHours(shardPeriod);
+			if(hours % 24 == 0) {
+				ret.put("compaction_window_unit", "DAYS");
+				ret.put("compaction_window_size", hours / 24);
+			} else {
+				ret.put("compaction_window_unit", "HOURS");
+				ret.put("compaction_window_size", hours);
+			}
+		} else if(compactionClass.endsWith(DATE_TIERED_COMPACTION) && !compaction.containsKey("base_time_seconds")) {
+			ret.put("base_time_seconds", getApproximateHours(shardPeriod) * 3600L);
+		}
+		return ret;
+	}
+
+	/**
+	 * Months count as 30 days, as compaction windows have a fixed size
+	 */
+	private static long getApproximateHours(Period period) {
+		return Math.max(1L, ((period.getYears() * 12L + period.getMonths()) * 30L + period.getWeeks() * 7L + period.getDays()) * 24L + period.getHours());
+	}
+
+	@Override
+	public boolean equals(Object otherObject) {
+		if(otherObject == null) {
+			return false;
+		}
+		if(this.getClass() != otherObject.getClass()) {
+			return false;
+		}
+		final CTableOptions other = (CTableOptions)otherObject;
+		return Objects.equal(this.getCompaction(), other.getCompaction())
+				&& Objects.equal(this.getCompressor(), other.getCompressor())
+				&& Objects.equal(this.getCompressionChunkLengthKb(), other.getCompressionChunkLengthKb())
+				&& Objects.equal(this.getBloomFilterFpChance(), other.getBloomFilterFpChance())
+				&& Objects.equal(this.getCaching(), other.getCaching());
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.getCompaction(), this.getCompressor(), this.getCompressionChunkLengthKb(), this.getBloomFilterFpChance(), this.getCaching());
+	}
+}
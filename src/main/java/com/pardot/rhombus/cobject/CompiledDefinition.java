@@ -0,0 +1,380 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyNone;
+import com.pardot.rhombus.cobject.shardingstrategy.TimebasedShardingStrategy;
+
+import java.util.*;
+
+/**
+ * Immutable runtime form of a CDefinition. Everything the generator and the object mapper need on
+ * every statement (table names, field ordinals, required fields, index lookups) is computed once
+ * here when the definition is loaded instead of on every call.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public final class CompiledDefinition {
+
+	private final String name;
+	private final String staticTableName;
+	private final boolean allowNullPrimaryKeyInserts;
+
+	// Fields sorted by name; a field's ordinal is its position in this array so it does not depend on map ordering
+	private final CField[] fields;
+	// Non id fields in definition iteration order
+	private final CField[] nonIdFields;
+	private final Map<String, Integer> ordinals;
+	private final CField idField;
+
+	// Ordinals of fields used in at least one index
+	private final BitSet requiredFieldBits;
+	private final List<String> requiredFields;
+	// Declared fields used in at least one index, sorted by name. Index value snapshots are keyed by position in this array.
+	private final CField[] indexFields;
+	private final Map<String, Integer> indexFieldOrdinals;
+	// Identifies the names and types of indexFields
+	private final int indexLayoutFingerprint;
+
+	// Every index layout that is written to, including the second layout of indexes being resharded
+	private final List<CIndex> indexes;
+	private final Map<String, CompiledIndex> indexesByLayoutKey;
+	private final IndexTrieNode indexTrie;
+
+	private CompiledDefinition(CDefinition def) {
+		this.name = def.getName();
+		this.staticTableName = def.getName() == null ? null : def.getName().intern();
+		this.allowNullPrimaryKeyInserts = def.isAllowNullPrimaryKeyInserts();
+
+		Map<String, CField> fieldMap = def.getFields() == null ? Collections.<String, CField>emptyMap() : def.getFields();
+		List<CField> nonId = Lists.newArrayList();
+		CField id = null;
+		for(CField field : fieldMap.values()) {
+			if(field.getName().equals("id")) {
+				id = field;
+			} else {
+				nonId.add(field);
+			}
+		}
+		this.nonIdFields = nonId.toArray(new CField[nonId.size()]);
+		this.idField = id;
+		this.fields = fieldMap.values().toArray(new CField[fieldMap.size()]);
+		Arrays.sort(fields, new Comparator<CField>() {
+			@Override
+			public int compare(CField a, CField b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		ImmutableMap.Builder<String, Integer> ordinalBuilder = ImmutableMap.builder();
+		for(int ordinal = 0; ordinal < fields.length; ordinal++) {
+			ordinalBuilder.put(fields[ordinal].getName(), ordinal);
+		}
+		this.ordinals = ordinalBuilder.build();
+
+		Map<String, CIndex> indexMap = def.getIndexes() == null ? Collections.<String, CIndex>emptyMap() : def.getIndexes();
+		List<CIndex> layouts = Lists.newArrayList(indexMap.values());
+		for(CIndex index : indexMap.values()) {
+			if(index.getReshard() != null) {
+				layouts.add(index.getReshard().makeLayoutIndex(index));
+			}
+		}
+		this.indexes = ImmutableList.copyOf(layouts);
+		this.requiredFieldBits = new BitSet(fields.length);
+		Set<String> required = new LinkedHashSet<String>();
+		Map<String, CompiledIndex> compiledIndexes = Maps.newHashMap();
+		this.indexTrie = new IndexTrieNode();
+		for(CIndex index : indexes) {
+			for(String key : index.getCompositeKeyList()) {
+				required.add(key);
+				Integer ordinal = ordinals.get(key);
+				if(ordinal != null) {
+					requiredFieldBits.set(ordinal);
+				}
+			}
+			CompiledIndex compiledIndex = new CompiledIndex(def, index, nonIdFields);
+			compiledIndexes.put(index.getLayoutKey(), compiledIndex);
+		}
+		for(CIndex index : indexMap.values()) {
+			// Only the layout an index is read from can be found by its keys
+			indexTrie.add(index.getCompositeKeyList(), index);
+		}
+		this.requiredFields = ImmutableList.copyOf(required);
+		this.indexFields = new CField[requiredFieldBits.cardinality()];
+		ImmutableMap.Builder<String, Integer> indexOrdinalBuilder = ImmutableMap.builder();
+		int fingerprint = 1;
+		int indexOrdinal = 0;
+		for(int ordinal = requiredFieldBits.nextSetBit(0); ordinal >= 0; ordinal = requiredFieldBits.nextSetBit(ordinal + 1)) {
+			CField field = fields[ordinal];
+			indexFields[indexOrdinal] = field;
+			indexOrdinalBuilder.put(field.getName(), indexOrdinal);
+			fingerprint = 31 * fingerprint + (field.getName() + ":" + field.getType().name()).hashCode();
+			indexOrdinal++;
+		}
+		this.indexFieldOrdinals = indexOrdinalBuilder.build();
+		this.indexLayoutFingerprint = fingerprint;
+		this.indexesByLayoutKey = ImmutableMap.copyOf(compiledIndexes);
+	}
+
+	public static CompiledDefinition compile(CDefinition def) {
+		return new CompiledDefinition(def);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getStaticTableName() {
+		return staticTableName;
+	}
+
+	public boolean isAllowNullPrimaryKeyInserts() {
+		return allowNullPrimaryKeyInserts;
+	}
+
+	/**
+	 * @return All fields of the definition sorted by name, indexed by ordinal
+	 */
+	public CField[] getFields() {
+		return fields.clone();
+	}
+
+	public int getFieldCount() {
+		return fields.length;
+	}
+
+	public CField getField(int ordinal) {
+		return fields[ordinal];
+	}
+
+	/**
+	 * @param fieldName Name of the field
+	 * @return Ordinal of the field or -1 if the definition does not contain it
+	 */
+	public int getOrdinal(String fieldName) {
+		Integer ordinal = ordinals.get(fieldName);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * @return Fields other than a custom id field, in ordinal order
+	 */
+	public List<CField> getNonIdFields() {
+		return Collections.unmodifiableList(Arrays.asList(nonIdFields));
+	}
+
+	public CField getIdField() {
+		return idField;
+	}
+
+	public List<String> getRequiredFields() {
+		return requiredFields;
+	}
+
+	public int getIndexFieldCount() {
+		return indexFields.length;
+	}
+
+	/**
+	 * @param indexOrdinal Position of the field among the declared fields used in an index, sorted by name
+	 * @return The field
+	 */
+	public CField getIndexField(int indexOrdinal) {
+		return indexFields[indexOrdinal];
+	}
+
+	/**
+	 * @param fieldName Name of the field
+	 * @return Position of the field among the declared fields used in an index, or -1 if it is not one of them
+	 */
+	public int getIndexFieldOrdinal(String fieldName) {
+		Integer indexOrdinal = indexFieldOrdinals.get(fieldName);
+		return indexOrdinal == null ? -1 : indexOrdinal;
+	}
+
+	/**
+	 * @return Fingerprint of the names and types of the declared fields used in an index. It only changes when
+	 * the indexed fields change, not when other fields are added or removed.
+	 */
+	public int getIndexLayoutFingerprint() {
+		return indexLayoutFingerprint;
+	}
+
+	public boolean isFieldUsedInAnyIndex(String fieldName) {
+		Integer ordinal = ordinals.get(fieldName);
+		if(ordinal != null) {
+			return requiredFieldBits.get(ordinal);
+		}
+		// Indexes may reference a field that is not declared on the definition
+		return requiredFields.contains(fieldName);
+	}
+
+	/**
+	 * @return Every index layout that writes go to. An index being resharded appears once for each of its layouts.
+	 */
+	public List<CIndex> getIndexes() {
+		return indexes;
+	}
+
+	public CompiledIndex getCompiledIndex(CIndex index) {
+		return index == null ? null : indexesByLayoutKey.get(index.getLayoutKey());
+	}
+
+	/**
+	 * @param index Index on this definition
+	 * @return true if writes to the index must be recorded in the shard index
+	 */
+	public boolean isSharded(CIndex index) {
+		CompiledIndex compiledIndex = getCompiledIndex(index);
+		if(compiledIndex == null) {
+			return !(index.getShardingStrategy() instanceof ShardingStrategyNone);
+		}
+		return compiledIndex.isSharded();
+	}
+
+	/**
+	 * @param index Index on this definition
+	 * @return Precomputed table name for the index, or the static table name if index is null
+	 */
+	public String getTableName(CIndex index) {
+		if(index == null) {
+			return staticTableName;
+		}
+		CompiledIndex compiledIndex = indexesByLayoutKey.get(index.getLayoutKey());
+		return compiledIndex == null ? null : compiledIndex.getTableName();
+	}
+
+	/**
+	 * @param sortedKeys Index keys in sorted order
+	 * @return The index whose composite key is exactly sortedKeys, or null
+	 */
+	public CIndex getExactIndex(Collection<String> sortedKeys) {
+		IndexTrieNode node = indexTrie;
+		for(String key : sortedKeys) {
+			node = node.children.get(key);
+			if(node == null) {
+				return null;
+			}
+		}
+		return node.index;
+	}
+
+	/**
+	 * Walk the index trie with the sorted keys that are used in an index and return the deepest index reached
+	 * @param sortedKeys Index keys in sorted order
+	 * @return The most selective index matching sortedKeys, or null
+	 */
+	public CIndex getMostSelectiveIndex(Collection<String> sortedKeys) {
+		IndexTrieNode node = indexTrie;
+		CIndex ret = null;
+		for(String key : sortedKeys) {
+			if(!isFieldUsedInAnyIndex(key)) {
+				continue;
+			}
+			node = node.children.get(key);
+			if(node == null) {
+				break;
+			}
+			if(node.index != null) {
+				ret = node.index;
+			}
+		}
+		return ret;
+	}
+
+	public static final class CompiledIndex {
+		private final CIndex index;
+		private final String tableName;
+		private final TimebasedShardingStrategy shardingStrategy;
+		private final boolean sharded;
+		private final boolean thin;
+		// Non id fields stored in the index table, in definition iteration order
+		private final List<CField> storedFields;
+		private final Set<String> storedFieldNames;
+
+		private CompiledIndex(CDefinition def, CIndex index, CField[] nonIdFields) {
+			this.index = index;
+			this.tableName = CObjectCQLGenerator.makeIndexTableName(def, index).intern();
+			this.shardingStrategy = index.getShardingStrategy();
+			this.sharded = !(shardingStrategy instanceof ShardingStrategyNone);
+			this.thin = index.isThin();
+			List<CField> stored = Lists.newArrayList();
+			for(CField field : nonIdFields) {
+				if(!thin || index.getCompositeKeyList().contains(field.getName()) || index.getCoveringFields().contains(field.getName())) {
+					stored.add(field);
+				}
+			}
+			this.storedFields = ImmutableList.copyOf(stored);
+			Set<String> names = new HashSet<String>();
+			for(CField field : stored) {
+				names.add(field.getName());
+			}
+			this.storedFieldNames = Collections.unmodifiableSet(names);
+		}
+
+		public CIndex getIndex() {
+			return index;
+		}
+
+		public String getTableName() {
+			return tableName;
+		}
+
+		public TimebasedShardingStrategy getShardingStrategy() {
+			return shardingStrategy;
+		}
+
+		/**
+		 * @return true if writes to this index must be recorded in the shard index
+		 */
+		public boolean isSharded() {
+			return sharded;
+		}
+
+		/**
+		 * @return true if the index table only stores the id, index columns and covering fields
+		 */
+		public boolean isThin() {
+			return thin;
+		}
+
+		/**
+		 * @return Non id fields stored in the index table
+		 */
+		public List<CField> getStoredFields() {
+			return storedFields;
+		}
+
+		public boolean isStoredField(String fieldName) {
+			return storedFieldNames.contains(fieldName);
+		}
+
+		/**
+		 * @param fieldNames Field names to check
+		 * @return true if every field can be read from an index row without fetching the object from the static table
+		 */
+		public boolean storesAllFields(Collection<String> fieldNames) {
+			return storedFieldNames.containsAll(fieldNames);
+		}
+	}
+
+	private static final class IndexTrieNode {
+		private final Map<String, IndexTrieNode> children = Maps.newHashMap();
+		private CIndex index;
+
+		private void add(List<String> sortedKeys, CIndex toAdd) {
+			IndexTrieNode node = this;
+			for(String key : sortedKeys) {
+				IndexTrieNode child = node.children.get(key);
+				if(child == null) {
+					child = new IndexTrieNode();
+					node.children.put(key, child);
+				}
+				node = child;
+			}
+			node.index = toAdd;
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.util.JsonUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of the index value snapshots stored in __index_updates.
+ *
+ * Layout: format version, fingerprint of the indexed field layout, number of entries, then for each entry the
+ * ordinal of the field among the definition's indexed fields with a null marker in its low bit, followed by the value
+ * encoded according to the field type. Integers are written as zigzag varints, variable length values are length
+ * prefixed. Adding or removing fields that are not indexed keeps the ordinals, and so existing snapshots, valid.
+ * Snapshots written before the indexed fields changed are rejected because their fingerprint no longer matches.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class IndexValuesCodec {
+
+	private static final byte FORMAT_VERSION = 2;
+
+	/**
+	 * @param def Compiled definition of the object
+	 * @param indexValues Index values to encode, keyed by field name. Keys that are not indexed fields of the definition are dropped.
+	 * @return Encoded snapshot
+	 * @throws IllegalArgumentException if a value cannot be converted to the type of its field
+	 */
+	public static ByteBuffer encode(CompiledDefinition def, Map<String, Object> indexValues) {
+		Output out = new Output(16 + indexValues.size() * 10);
+		out.write(FORMAT_VERSION);
+		out.writeInt(def.getIndexLayoutFingerprint());
+		int entries = 0;
+		for(String key : indexValues.keySet()) {
+			if(def.getIndexFieldOrdinal(key) >= 0) {
+				entries++;
+			}
+		}
+		out.writeVarInt(entries);
+		for(Map.Entry<String, Object> entry : indexValues.entrySet()) {
+			int indexOrdinal = def.getIndexFieldOrdinal(entry.getKey());
+			if(indexOrdinal < 0) {
+				continue;
+			}
+			CField field = def.getIndexField(indexOrdinal);
+			Object value = entry.getValue();
+			if(value != null && !valueClass(field).isInstance(value)) {
+				value = JsonUtil.typedObjectFromValueAndField(value, field);
+			}
+			if(value == null) {
+				out.writeVarInt(indexOrdinal << 1);
+			} else {
+				out.writeVarInt((indexOrdinal << 1) | 1);
+				writeValue(out, field, value);
+			}
+		}
+		return out.toByteBuffer();
+	}
+
+	/**
+	 * @param def Compiled definition of the object
+	 * @param encoded Snapshot produced by encode
+	 * @return Typed index values keyed by field name
+	 * @throws IOException if the snapshot is malformed, was written for different indexed fields or a value does
+	 * not match the type of its field
+	 */
+	public static SortedMap<String, Object> decode(CompiledDefinition def, ByteBuffer encoded) throws IOException {
+		ByteBuffer in = encoded.duplicate();
+		SortedMap<String, Object> ret = Maps.newTreeMap();
+		try {
+			byte version = in.get();
+			if(version != FORMAT_VERSION) {
+				throw new IOException("Unknown index values format version " + version);
+			}
+			if(in.getInt() != def.getIndexLayoutFingerprint()) {
+				throw new IOException("Index values were written for different indexed fields of definition " + def.getName());
+			}
+			int entries = readVarInt(in);
+			for(int i = 0; i < entries; i++) {
+				int key = readVarInt(in);
+				int indexOrdinal = key >>> 1;
+				if(indexOrdinal >= def.getIndexFieldCount()) {
+					throw new IOException("Invalid field ordinal " + indexOrdinal + " in index values");
+				}
+				CField field = def.getIndexField(indexOrdinal);
+				ret.put(field.getName(), (key & 1) == 0 ? null : readValue(in, field));
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Truncated index values for definition " + def.getName());
+		}
+		return ret;
+	}
+
+	private static Class<?> valueClass(CField field) {
+		switch(field.getType()) {
+			case BIGINT:
+			case COUNTER:
+				return Long.class;
+			case INT:
+				return Integer.class;
+			case BOOLEAN:
+				return Boolean.class;
+			case DECIMAL:
+				return BigDecimal.class;
+			case DOUBLE:
+				return Double.class;
+			case FLOAT:
+				return Float.class;
+			case TIMESTAMP:
+				return Date.class;
+			case UUID:
+			case TIMEUUID:
+				return UUID.class;
+			case VARINT:
+				return BigInteger.class;
+			case BLOB:
+				return ByteBuffer.class;
+			default:
+				return String.class;
+		}
+	}
+
+	private static void writeValue(Output out, CField field, Object value) {
+		switch(field.getType()) {
+			case ASCII:
+			case VARCHAR:
+			case TEXT:
+				out.writeBytes(((String)value).getBytes(Charsets.UTF_8));
+				break;
+			case BIGINT:
+			case COUNTER:
+				out.writeVarLong((Long)value);
+				break;
+			case INT:
+				out.writeVarLong((Integer)value);
+				break;
+			case BOOLEAN:
+				out.write((Boolean)value ? 1 : 0);
+				break;
+			case DECIMAL:
+				BigDecimal decimal = (BigDecimal)value;
+				out.writeVarInt(decimal.scale());
+				out.writeBytes(decimal.unscaledValue().toByteArray());
+				break;
+			case DOUBLE:
+				out.writeLong(Double.doubleToLongBits((Double)value));
+				break;
+			case FLOAT:
+				out.writeInt(Float.floatToIntBits((Float)value));
+				break;
+			case TIMESTAMP:
+				out.writeVarLong(((Date)value).getTime());
+				break;
+			case UUID:
+			case TIMEUUID:
+				UUID uuid = (UUID)value;
+				out.writeLong(uuid.getMostSignificantBits());
+				out.writeLong(uuid.getLeastSignificantBits());
+				break;
+			case VARINT:
+				out.writeBytes(((BigInteger)value).toByteArray());
+				break;
+			case BLOB:
+				ByteBuffer blob = ((ByteBuffer)value).duplicate();
+				byte[] bytes = new byte[blob.remaining()];
+				blob.get(bytes);
+				out.writeBytes(bytes);
+				break;
+			default:
+				throw new IllegalArgumentException("Field " + field.getName() + ": Unable to encode type " + field.getType());
+		}
+	}
+
+	private static Object readValue(ByteBuffer in, CField field) throws IOException {
+		switch(field.getType()) {
+			case ASCII:
+			case VARCHAR:
+			case TEXT:
+				return new String(readBytes(in), Charsets.UTF_8);
+			case BIGINT:
+			case COUNTER:
+				return readVarLong(in);
+			case INT:
+				return (int)readVarLong(in);
+			case BOOLEAN:
+				return in.get() != 0;
+			case DECIMAL:
+				int scale = readVarInt(in);
+				return new BigDecimal(new BigInteger(readBytes(in)), scale);
+			case DOUBLE:
+				return Double.longBitsToDouble(in.getLong());
+			case FLOAT:
+				return Float.intBitsToFloat(in.getInt());
+			case TIMESTAMP:
+				return new Date(readVarLong(in));
+			case UUID:
+			case TIMEUUID:
+				return new UUID(in.getLong(), in.getLong());
+			case VARINT:
+				return new BigInteger(readBytes(in));
+			case BLOB:
+				return ByteBuffer.wrap(readBytes(in));
+			default:
+				throw new IOException("Field " + field.getName() + ": Unable to decode type " + field.getType());
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer in) throws IOException {
+		int length = readVarInt(in);
+		if(length < 0 || length > in.remaining()) {
+			throw new IOException("Invalid value length " + length + " in index values");
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+
+	private static int readVarInt(ByteBuffer in) throws IOException {
+		long value = readUnsignedVarLong(in);
+		if(value > Integer.MAX_VALUE) {
+			throw new IOException("Invalid length " + value + " in index values");
+		}
+		return (int)value;
+	}
+
+	private static long readVarLong(ByteBuffer in) throws IOException {
+		long raw = readUnsignedVarLong(in);
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	private static long readUnsignedVarLong(ByteBuffer in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in index values");
+	}
+
+	private static class Output extends ByteArrayOutputStream {
+
+		private Output(int size) {
+			super(size);
+		}
+
+		private void writeUnsignedVarLong(long value) {
+			while((value & ~0x7FL) != 0) {
+				write((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int)value);
+		}
+
+		private void writeVarInt(int value) {
+			writeUnsignedVarLong(value);
+		}
+
+		private void writeVarLong(long value) {
+			writeUnsignedVarLong((value << 1) ^ (value >> 63));
+		}
+
+		private void writeInt(int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+
+		private void writeLong(long value) {
+			writeInt((int)(value >>> 32));
+			writeInt((int)value);
+		}
+
+		private void writeBytes(byte[] bytes) {
+			writeVarInt(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		private ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Key of a row in the hashed shard index. The index values are encoded as a sequence of length prefixed
+ * strings, which cannot collide the way the ':' joined legacy string can. The partition key is a fixed width
+ * hash of that encoding and the encoding itself is stored alongside it so hash collisions can be detected.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public final class ShardIndexKey {
+
+	private static final String LEGACY_SEPARATOR = ":";
+	private static final String LEGACY_ESCAPED_SEPARATOR = "&#58;";
+
+	private final byte[] encoded;
+	private final long hash;
+
+	private ShardIndexKey(byte[] encoded) {
+		this.encoded = encoded;
+		this.hash = Hashing.murmur3_128().hashBytes(encoded).asLong();
+	}
+
+	/**
+	 * @param values Index values in index key order
+	 * @return Key for the values
+	 * @throws CQLGenerationException if a value is of a type that cannot be indexed
+	 */
+	public static ShardIndexKey fromValues(Collection values) throws CQLGenerationException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(values.size() * 16);
+		for(Object value : values) {
+			if(value == null) {
+				writeLength(out, 0);
+			} else {
+				byte[] bytes = CObjectCQLGenerator.coerceValueToString(value).getBytes(Charsets.UTF_8);
+				writeLength(out, bytes.length + 1);
+				out.write(bytes, 0, bytes.length);
+			}
+		}
+		return new ShardIndexKey(out.toByteArray());
+	}
+
+	/**
+	 * Build the key for a row of the legacy shard index. Legacy values that themselves contained the escaped
+	 * separator were already ambiguous and are decoded as if they contained the separator.
+	 * @param legacyIndexValues Joined index values string from the legacy shard index
+	 * @return Key for the values
+	 */
+	public static ShardIndexKey fromLegacyString(String legacyIndexValues) throws CQLGenerationException {
+		return fromValues(decodeLegacyString(legacyIndexValues));
+	}
+
+	/**
+	 * @param legacyIndexValues Joined index values string from the legacy shard index
+	 * @return Index values as the strings they were joined from
+	 */
+	public static List<String> decodeLegacyString(String legacyIndexValues) {
+		List<String> values = Lists.newArrayList();
+		for(String value : Splitter.on(LEGACY_SEPARATOR).split(legacyIndexValues)) {
+			values.add(value.replace(LEGACY_ESCAPED_SEPARATOR, LEGACY_SEPARATOR));
+		}
+		return values;
+	}
+
+	/**
+	 * @param encodedKey Encoded key read from the hashed shard index
+	 * @return Index values as the strings they were encoded from, null for null values
+	 */
+	public static List<String> decode(ByteBuffer encodedKey) {
+		ByteBuffer in = encodedKey.duplicate();
+		List<String> values = Lists.newArrayList();
+		while(in.hasRemaining()) {
+			int length = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = in.get();
+				length |= (b & 0x7F) << shift;
+				shift += 7;
+			} while((b & 0x80) != 0);
+			if(length == 0) {
+				values.add(null);
+			} else {
+				byte[] bytes = new byte[length - 1];
+				in.get(bytes);
+				values.add(new String(bytes, Charsets.UTF_8));
+			}
+		}
+		return values;
+	}
+
+	private static void writeLength(ByteArrayOutputStream out, int length) {
+		while((length & ~0x7F) != 0) {
+			out.write((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		out.write(length);
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public ByteBuffer getEncoded() {
+		return ByteBuffer.wrap(encoded);
+	}
+
+	/**
+	 * @param encodedKey Encoded key read from the verification column
+	 * @return true if encodedKey is this key
+	 */
+	public boolean matches(ByteBuffer encodedKey) {
+		return encodedKey != null && ByteBuffer.wrap(encoded).equals(encodedKey);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof ShardIndexKey && Arrays.equals(encoded, ((ShardIndexKey)other).encoded);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)hash;
+	}
+}
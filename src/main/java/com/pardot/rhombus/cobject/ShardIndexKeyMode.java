@@ -0,0 +1,38 @@
+package com.pardot.rhombus.cobject;
+
+/**
+ * Controls which shard index layout is written and read.
+ *
+ * LEGACY uses the original __shardindex table keyed by the joined index values string.
+ * HASHED uses __shardindex_hashed keyed by a fixed width hash of the length prefixed index values.
+ * MIGRATE writes both layouts and reads the union of both, so existing shard index entries stay visible
+ * until they have been backfilled into the hashed layout.
+ * LEGACY is the default, since MIGRATE and HASHED write a second shard index row on every insert and have to be
+ * turned on explicitly.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public enum ShardIndexKeyMode {
+	LEGACY(true, false),
+	MIGRATE(true, true),
+	HASHED(false, true);
+
+	public static final ShardIndexKeyMode DEFAULT = LEGACY;
+
+	private final boolean legacy;
+	private final boolean hashed;
+
+	private ShardIndexKeyMode(boolean legacy, boolean hashed) {
+		this.legacy = legacy;
+		this.hashed = hashed;
+	}
+
+	public boolean usesLegacy() {
+		return legacy;
+	}
+
+	public boolean usesHashed() {
+		return hashed;
+	}
+}
@@ -0,0 +1,98 @@
+package com.pardot.rhombus.cobject;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shards of one index table and set of index values that have been written to, one bit per shard id
+ * counted from the smallest known shard. Shards at or after openShardId may still receive their first
+ * write from another process without this bitmap hearing about it, so they are always reported as present.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ShardPresenceBitmap {
+
+	private final long openShardId;
+	private long base;
+	private BitSet bits;
+
+	/**
+	 * @param shardIds Shard ids recorded in the shard index
+	 * @param openShardId First shard id that can not be trusted to be empty when its bit is not set
+	 */
+	public ShardPresenceBitmap(Collection<Long> shardIds, long openShardId) {
+		this.openShardId = openShardId;
+		this.base = shardIds.isEmpty() ? openShardId : Collections.min(shardIds);
+		this.bits = new BitSet();
+		for(Long shardId : shardIds) {
+			add(shardId);
+		}
+	}
+
+	/**
+	 * Record a write to a shard
+	 * @param shardId Shard id written to
+	 */
+	public synchronized void add(long shardId) {
+		if(shardId < base) {
+			// Shift every bit up so the new shard becomes the base
+			BitSet shifted = new BitSet();
+			int shift = toBitIndex(base - shardId);
+			for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+				shifted.set(i + shift);
+			}
+			bits = shifted;
+			base = shardId;
+		}
+		bits.set(toBitIndex(shardId - base));
+	}
+
+	/**
+	 * @param shardIdRange Closed range of shard ids to list
+	 * @param ordering Order of the returned shard ids
+	 * @return Shard ids in the range that may hold rows
+	 */
+	public synchronized List<Long> getShardIds(Range<Long> shardIdRange, CObjectOrdering ordering) {
+		List<Long> ret = Lists.newArrayList();
+		long start = shardIdRange.lowerEndpoint();
+		long end = shardIdRange.upperEndpoint();
+		long closedEnd = Math.min(end, openShardId - 1);
+		if(start <= closedEnd) {
+			int from = toBitIndex(Math.max(start, base) - base);
+			for(int i = bits.nextSetBit(from); i >= 0 && base + i <= closedEnd; i = bits.nextSetBit(i + 1)) {
+				ret.add(base + i);
+			}
+		}
+		for(long shardId = Math.max(start, openShardId); shardId <= end; shardId++) {
+			ret.add(shardId);
+		}
+		if(ordering == CObjectOrdering.DESCENDING) {
+			Collections.reverse(ret);
+		}
+		return ret;
+	}
+
+	public long getOpenShardId() {
+		return openShardId;
+	}
+
+	/**
+	 * @return Number of shards recorded in the bitmap
+	 */
+	public synchronized int size() {
+		return bits.cardinality();
+	}
+
+	private static int toBitIndex(long offset) {
+		if(offset > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Shard ids span too many shards for a presence bitmap");
+		}
+		return (int)offset;
+	}
+}
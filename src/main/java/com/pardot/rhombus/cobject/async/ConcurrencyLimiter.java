@@ -0,0 +1,132 @@
+package com.pardot.rhombus.cobject.async;
+
+import com.google.common.collect.Lists;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Caps the number of statements in flight with a limit that adapts to the latency the cluster answers with. The limit
+ * grows by one for every limit statements that complete in time while at least half of it is in use, and is cut by a
+ * tenth when a statement times out, is refused for overload or the recent average latency rises to more than twice
+ * the long term average. Comparing averages rather than single statements keeps a workload that mixes fast and slow
+ * statements from backing off on every slow one. Statements sent before the last cut do not cut it again, so one slow
+ * period backs off once per round trip instead of collapsing to the minimum.
+ *
+ * Statements over the limit wait in a bounded queue and are sent in order as others complete. Statements that do not
+ * fit in the queue are shed.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ConcurrencyLimiter {
+
+	private static final double BACKOFF_RATIO = 0.9;
+	private static final double LATENCY_TOLERANCE = 2.0;
+	// Weight of each sample in the recent average latency, which follows the last few dozen statements
+	private static final double RECENT_SMOOTHING = 0.05;
+	// Weight of each sample in the long term average latency, which follows the last few thousand statements so
+	// that it tracks a cluster that slows down for good
+	private static final double LONG_TERM_SMOOTHING = 0.001;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final int maxQueued;
+	private final Queue<Runnable> waiting = new LinkedList<Runnable>();
+	private double limit;
+	private int inFlight = 0;
+	private long lastBackoff;
+	private double recentLatency = -1;
+	private double longTermLatency = -1;
+
+	/**
+	 * @param minLimit Lowest the limit backs off to
+	 * @param maxLimit Highest the limit grows to, and the limit to start with
+	 * @param maxQueued Number of statements that can wait for the limit before statements are shed
+	 */
+	public ConcurrencyLimiter(int minLimit, int maxLimit, int maxQueued) {
+		this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.maxQueued = maxQueued;
+		this.limit = this.maxLimit;
+		this.lastBackoff = System.nanoTime();
+	}
+
+	/**
+	 * Run a statement once it is under the limit, right away if it is now
+	 * @param onPermit Sends the statement, must call one of the release methods once it completes
+	 * @return False if the statement was shed because the queue is full
+	 */
+	public boolean acquire(Runnable onPermit) {
+		synchronized(this) {
+			if(inFlight >= (int)limit) {
+				if(waiting.size() >= maxQueued) {
+					return false;
+				}
+				waiting.add(onPermit);
+				return true;
+			}
+			inFlight++;
+		}
+		onPermit.run();
+		return true;
+	}
+
+	/**
+	 * Release the permit of a statement that completed, adjusting the limit to its latency
+	 * @param startTime Value of System.nanoTime() when the statement was sent
+	 * @param overloaded True if the statement timed out or was refused for overload
+	 */
+	public void release(long startTime, boolean overloaded) {
+		long now = System.nanoTime();
+		synchronized(this) {
+			long latency = now - startTime;
+			if(longTermLatency < 0) {
+				recentLatency = latency;
+				longTermLatency = latency;
+			} else {
+				recentLatency += (latency - recentLatency) * RECENT_SMOOTHING;
+				longTermLatency += (latency - longTermLatency) * LONG_TERM_SMOOTHING;
+			}
+			if(overloaded || recentLatency > longTermLatency * LATENCY_TOLERANCE) {
+				if(startTime - lastBackoff >= 0) {
+					limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+					lastBackoff = now;
+				}
+			} else if(inFlight * 2 >= limit) {
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+			}
+		}
+		release();
+	}
+
+	/**
+	 * Release the permit of a statement without adjusting the limit, e.g. when it was cancelled before being sent
+	 */
+	public void release() {
+		List<Runnable> ready = Lists.newArrayList();
+		synchronized(this) {
+			inFlight--;
+			while(inFlight < (int)limit && !waiting.isEmpty()) {
+				inFlight++;
+				ready.add(waiting.poll());
+			}
+		}
+		for(Runnable onPermit : ready) {
+			onPermit.run();
+		}
+	}
+
+	public synchronized int getLimit() {
+		return (int)limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getQueued() {
+		return waiting.size();
+	}
+}
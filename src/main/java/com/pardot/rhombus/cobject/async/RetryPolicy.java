@@ -0,0 +1,84 @@
+package com.pardot.rhombus.cobject.async;
+
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides whether a failed asynchronous statement is sent again and how long to wait first. Only idempotent
+ * statements that failed because a node timed out, was unavailable or was not reached are retried. The wait before
+ * each retry is drawn at random up to an exponentially growing bound, so statements that failed together do not
+ * all come back at once.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class RetryPolicy {
+
+	/**
+	 * Never retry
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0L, 0L);
+
+	private static final Random random = new Random();
+
+	private final int maxAttempts;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * @param maxAttempts Number of times a statement is sent, including the first
+	 * @param baseDelayMillis Bound of the wait before the first retry, doubled for each further retry
+	 * @param maxDelayMillis Highest bound of the wait before a retry
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @param statement Statement that failed
+	 * @param t Cause of the failure
+	 * @param attempts Number of times the statement was sent
+	 * @return True if the statement should be sent again
+	 */
+	public boolean shouldRetry(CQLStatement statement, Throwable t, int attempts) {
+		return attempts < maxAttempts && statement.isIdempotent() && isTransient(t);
+	}
+
+	/**
+	 * @param attempts Number of times the statement was sent
+	 * @return Milliseconds to wait before sending the statement again
+	 */
+	public long getDelayMillis(int attempts) {
+		long bound = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempts - 1, 30));
+		if(bound <= 0) {
+			return 0L;
+		}
+		return (long)(random.nextDouble() * bound);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	private static boolean isTransient(Throwable t) {
+		return t instanceof QueryTimeoutException
+				|| t instanceof UnavailableException
+				|| t instanceof NoHostAvailableException
+				|| t instanceof RejectedExecutionException;
+	}
+}
@@ -0,0 +1,17 @@
+package com.pardot.rhombus.cobject.async;
+
+/**
+ * Receives the statements of ObjectMapper.executeStatements that still failed after being retried, e.g. to store
+ * them and replay them once the cluster recovers
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public interface StatementDeadLetterHandler {
+
+	/**
+	 * Called once for each statement that failed
+	 * @param failure Statement that failed and the cause of its last failure
+	 */
+	public void onDeadLetter(StatementFailure failure);
+}
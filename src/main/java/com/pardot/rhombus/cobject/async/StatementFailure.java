@@ -0,0 +1,42 @@
+package com.pardot.rhombus.cobject.async;
+
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+
+/**
+ * A statement that still failed after every attempt the retry policy allowed
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class StatementFailure {
+
+	private final CQLStatement statement;
+	private final Throwable cause;
+	private final int attempts;
+
+	public StatementFailure(CQLStatement statement, Throwable cause, int attempts) {
+		this.statement = statement;
+		this.cause = cause;
+		this.attempts = attempts;
+	}
+
+	public CQLStatement getStatement() {
+		return statement;
+	}
+
+	public Throwable getCause() {
+		return cause;
+	}
+
+	/**
+	 * @return Number of times the statement was sent
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	@Override
+	public String toString() {
+		return statement.getQuery() + " failed after " + attempts + " attempts: " + cause;
+	}
+}
@@ -27,57 +27,80 @@ public class StatementIteratorConsumer {
 
 	private static Logger logger = LoggerFactory.getLogger(StatementIteratorConsumer.class);
 	private static ExecutorService executorService = Executors.newFixedThreadPool(260);
+	private static ScheduledExecutorService retryExecutorService = Executors.newSingleThreadScheduledExecutor();
 
 	private final BoundedCQLStatementIterator statementIterator;
 	private CQLExecutor cqlExecutor;
 	private final CountDownLatch shutdownLatch;
 	private final long timeout;
+	private final RetryPolicy retryPolicy;
 	private final Set<Future> futures = Collections.synchronizedSet(new HashSet<Future>());
-	private List<Throwable> executionExceptions = new Vector<Throwable>();
+	private List<StatementFailure> failures = new Vector<StatementFailure>();
+	private volatile long deadline;
+	private volatile boolean cancelled = false;
 
 	public StatementIteratorConsumer(BoundedCQLStatementIterator statementIterator, CQLExecutor cqlExecutor, long timeout) {
+		this(statementIterator, cqlExecutor, timeout, RetryPolicy.NONE);
+	}
+
+	/**
+	 * @param timeout Milliseconds to wait for every statement, retries included
+	 * @param retryPolicy Policy retrying statements that failed
+	 */
+	public StatementIteratorConsumer(BoundedCQLStatementIterator statementIterator, CQLExecutor cqlExecutor, long timeout, RetryPolicy retryPolicy) {
 		this.statementIterator = statementIterator;
 		this.cqlExecutor = cqlExecutor;
 		this.timeout = timeout;
+		this.retryPolicy = retryPolicy;
 		this.shutdownLatch = new CountDownLatch((new Long(statementIterator.size())).intValue());
 		logger.trace("Created consumer with countdown {}", shutdownLatch.getCount());
 	}
 
 	public void start() {
+		deadline = System.currentTimeMillis() + timeout;
 		while(statementIterator.hasNext()) {
-			final CQLStatement next = statementIterator.next();
-			Runnable r = new Runnable() {
-				@Override
-				public void run() {
-					handle(next);
-				}
-			};
-			executorService.execute(r);
+			execute(statementIterator.next(), 1);
 		}
 	}
 
-	public void join() throws RhombusException {
+	private void execute(final CQLStatement statement, final int attempt) {
+		Runnable r = new Runnable() {
+			@Override
+			public void run() {
+				handle(statement, attempt);
+			}
+		};
+		executorService.execute(r);
+	}
+
+	/**
+	 * Wait for every statement to complete
+	 * @return Statements that still failed after being retried
+	 */
+	public List<StatementFailure> join() throws RhombusException {
 		logger.trace("Awaiting shutdownLatch with timeout {}ms", timeout);
 		try {
 			boolean complete = shutdownLatch.await(timeout, TimeUnit.MILLISECONDS);
 			if(!complete) {
 				Metrics.defaultRegistry().newMeter(StatementIteratorConsumer.class, "asyncTimeout", "asyncTimeout", TimeUnit.SECONDS).mark();
 				cancelFutures();
-				for(Throwable t : this.executionExceptions) {
-					logger.warn("Timeout executing statements. Found future failure: ", t);
+				for(StatementFailure failure : this.failures) {
+					logger.warn("Timeout executing statements. Found future failure: ", failure.getCause());
 				}
 				throw new RhombusException("Timout executing statements asynch");
 			}
-			for(Throwable t : this.executionExceptions) {
-				logger.warn("Completed executing statements, but found future failure: ", t);
+			for(StatementFailure failure : this.failures) {
+				logger.warn("Completed executing statements, but found future failure: ", failure.getCause());
 			}
 		} catch (InterruptedException e) {
 			logger.warn("Interrupted while executing statements asynch", e);
 			cancelFutures();
 		}
+		return new ArrayList<StatementFailure>(failures);
 	}
 
 	private void cancelFutures() {
+		cancelled = true;
 		for(Future future : futures) {
 			try {
 				future.cancel(true);
@@ -87,7 +110,7 @@ public class StatementIteratorConsumer {
 		}
 	}
 
-	protected void handle(CQLStatement statement) {
+	protected void handle(final CQLStatement statement, final int attempt) {
 		String methodName = "NULL";
 		String cql = statement.getQuery();
 		int firstSpace = cql.indexOf(" ");
@@ -103,7 +126,7 @@ public class StatementIteratorConsumer {
 			future = this.cqlExecutor.executeAsync(statement);
 		} catch (RuntimeException re) {
 			logger.error("RuntimeException while executing statement {}\n {}", statement.getQuery(), re);
-			shutdownLatch.countDown();
+			handleFailure(statement, attempt, re);
 			return;
 		}
 		futures.add(future);
@@ -121,11 +144,42 @@ public class StatementIteratorConsumer {
 			public void onFailure(final Throwable t) {
 				asyncExecTimerContext.stop();
 				logger.debug("Async failure time {}us", (System.nanoTime() - startTime) / 1000);
-				executionExceptions.add(t);
-				shutdownLatch.countDown();
+				handleFailure(statement, attempt, t);
 			}
 		}
 				, executorService
 		);
 	}
+
+	/**
+	 * Send a failed statement again after a backoff if the retry policy allows it and the backoff ends before the
+	 * timeout, otherwise record the failure
+	 */
+	private void handleFailure(final CQLStatement statement, final int attempt, Throwable t) {
+		if(!cancelled && retryPolicy.shouldRetry(statement, t, attempt)) {
+			long delay = retryPolicy.getDelayMillis(attempt);
+			if(System.currentTimeMillis() + delay < deadline) {
+				logger.debug("Retrying statement {} in {}ms after attempt {} failed: {}", statement.getQuery(), delay, attempt, t);
+				Metrics.defaultRegistry().newMeter(StatementIteratorConsumer.class, "asyncRetry", "asyncRetry", TimeUnit.SECONDS).mark();
+				try {
+					retryExecutorService.schedule(new Runnable() {
+						@Override
+						public void run() {
+							if(cancelled) {
+								shutdownLatch.countDown();
+							} else {
+								execute(statement, attempt + 1);
+							}
+						}
+					}, delay, TimeUnit.MILLISECONDS);
+					return;
+				} catch(RejectedExecutionException e) {
+					logger.warn("Unable to schedule retry of statement {}", statement.getQuery(), e);
+				}
+			}
+		}
+		Metrics.defaultRegistry().newMeter(StatementIteratorConsumer.class, "asyncFailure", "asyncFailure", TimeUnit.SECONDS).mark();
+		failures.add(new StatementFailure(statement, t, attempt));
+		shutdownLatch.countDown();
+	}
 }
@@ -19,6 +19,23 @@ public class CKeyspaceDefinitionMigrator {
 	public CKeyspaceDefinitionMigrator(CKeyspaceDefinition oldKeyspace, CKeyspaceDefinition newKeyspace){
 		this.OldKeyspace = oldKeyspace;
 		this.NewKeyspace = newKeyspace;
+		inheritIndexLayouts();
+	}
+
+	/**
+	 * Index layouts are managed by resharding rather than by the keyspace files, so carry them over from the
+	 * old definition to any index of the new one that does not specify its own
+	 */
+	protected void inheritIndexLayouts(){
+		if(OldKeyspace == null || OldKeyspace.getDefinitions() == null || NewKeyspace == null || NewKeyspace.getDefinitions() == null){
+			return;
+		}
+		for(CDefinition def : NewKeyspace.getDefinitions().values()){
+			CDefinition oldDef = OldKeyspace.getDefinitions().get(def.getName());
+			if(oldDef != null && CObjectMigrator.inheritIndexLayouts(oldDef, def)){
+				def.compile();
+			}
+		}
 	}
 
 	public boolean isMigratable(){
@@ -1,5 +1,6 @@
 package com.pardot.rhombus.cobject.migrations;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.pardot.rhombus.cobject.*;
 import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
@@ -44,12 +45,27 @@ public class CObjectMigrator {
 
 
 		//currently we allow new indexes and removing old ones
-		//we do not support changing the sharding strategy
+		//we do not support changing the sharding strategy, the sub shards or the storage of an index
 		for( CIndex i : OldDefinition.getIndexes().values() ){
 			if(NewDefinition.getIndexes().containsKey(i.getKey()) && !NewDefinition.getIndexes().get(i.getKey()).getShardingStrategy().getClass().equals(i.getShardingStrategy().getClass())){
 				//this index changed sharding strategy. We do not support that yet
 				return false;
 			}
+			if(NewDefinition.getIndexes().containsKey(i.getKey())){
+				CIndex newIndex = NewDefinition.getIndexes().get(i.getKey());
+				if(newIndex.getLayoutVersion() != i.getLayoutVersion() || !Objects.equal(newIndex.getReshard(), i.getReshard())){
+					//layouts only change through resharding
+					return false;
+				}
+				if(newIndex.getShardingStrategy().getSubShards() != i.getShardingStrategy().getSubShards()){
+					//this index changed the number of sub shards, existing rows would be in the wrong partitions
+					return false;
+				}
+				if(newIndex.getStorage() != i.getStorage() || !newIndex.getCoveringFields().equals(i.getCoveringFields())){
+					//this index changed which columns its table stores, existing rows would be missing them
+					return false;
+				}
+			}
 		}
 		// Looks like we are good to migrate this CDefinition
 		return true;
@@ -76,6 +92,20 @@ public class CObjectMigrator {
 		}
 		ret.add(new BoundedCQLStatementIterator(indexAdds));
 
+		//then apply changed table options to the tables that already exist, new tables are created with theirs.
+		//options that were removed are reset to their defaults
+		List<CQLStatement> optionChanges = Lists.newArrayList();
+		if(!Objects.equal(OldDefinition.getTableOptions(), NewDefinition.getTableOptions())){
+			optionChanges.add(cqlGenerator.makeCQLforStaticTableOptions(NewDefinition));
+		}
+		for(CIndex i : getIndexesToUpgrade()){
+			CIndex oldIndex = OldDefinition.getIndexes().get(i.getKey());
+			if(!Objects.equal(oldIndex.getTableOptions(), i.getTableOptions())){
+				optionChanges.add(cqlGenerator.makeCQLforWideTableOptions(NewDefinition, i));
+			}
+		}
+		ret.add(new BoundedCQLStatementIterator(optionChanges));
+
 		//note we do not need to do anything with removed indexes. As long as it's removed
 		//from the updated cDefinition no more writes will be processed to that table. It
 		// is the responsibility of the user to manually truncate and drop tables if desired.
@@ -90,9 +120,29 @@ public class CObjectMigrator {
 
 	}
 
+	/**
+	 * Copy the layout version and any running reshard of every index of oldDefinition to the matching index
+	 * of newDefinition that does not specify its own
+	 * @return true if newDefinition was changed
+	 */
+	public static boolean inheritIndexLayouts(CDefinition oldDefinition, CDefinition newDefinition){
+		boolean changed = false;
+		for( CIndex i : oldDefinition.getIndexes().values() ){
+			CIndex newIndex = newDefinition.getIndexes().get(i.getKey());
+			if(newIndex != null && newIndex.getLayoutVersion() == 0 && newIndex.getReshard() == null
+					&& (i.getLayoutVersion() != 0 || i.getReshard() != null)){
+				newIndex.setLayoutVersion(i.getLayoutVersion());
+				newIndex.setReshard(i.getReshard());
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
 	public List<CIndex> getIndexesToUpgrade(){
 		List<CIndex> ret = Lists.newArrayList();
-		for( CIndex i: NewDefinition.getIndexes().values() ){
+		//every layout of an index being resharded needs the new fields
+		for( CIndex i: NewDefinition.getIndexesAsList() ){
 			if( OldDefinition.getIndexes().containsKey(i.getKey()) ){
 				//this index existed before and will exist in the future, so add it to the upgrade list
 				ret.add(i);
@@ -0,0 +1,29 @@
+package com.pardot.rhombus.cobject.shardingstrategy;
+
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CIndex;
+
+import java.util.SortedMap;
+
+/**
+ * Decides and remembers which granularity a ShardingStrategyAdaptive index uses for one index value
+ * in one coarse time window. Once a layout is chosen for a window it should not change, so that rows
+ * of a window stay together. Reads list shards from the shard index and deletes go to both layouts, so
+ * rows written to the coarse shard before the layout was known stay reachable.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public interface ShardLayoutResolver {
+
+	/**
+	 * @param def Definition the index belongs to
+	 * @param index Index being written to
+	 * @param indexValues Values of the index fields
+	 * @param strategy Sharding strategy of the index
+	 * @param coarseKey Coarse shard key of the time window
+	 * @return true if the window is split into fine shards for these index values. Resolvers that have not decided
+	 * the layout of the window yet return false, and the row is written to the coarse shard.
+	 */
+	boolean useFineShards(CDefinition def, CIndex index, SortedMap<String,Object> indexValues, ShardingStrategyAdaptive strategy, long coarseKey);
+}
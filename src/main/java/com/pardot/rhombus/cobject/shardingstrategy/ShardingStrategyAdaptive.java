@@ -0,0 +1,242 @@
+package com.pardot.rhombus.cobject.shardingstrategy;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CIndex;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Picks a coarse or a fine granularity per index value and coarse time window. Index values that
+ * wrote fewer than targetShardSize rows in the previous coarse window keep a single coarse shard,
+ * busier ones have the window split into fine shards. Which layout a window uses is decided by the
+ * ShardLayoutResolver the first time the window is written to. Rows written before the decision is known
+ * go to the coarse shard, so a window may hold rows in both layouts. Every shard that is written is
+ * recorded in the shard index, so queries against this strategy always read their shard list from it
+ * and select all shards of a window together, merging their rows by id. Deletes are sent to both the
+ * coarse and the fine shard of the object.
+ *
+ * Shard keys hold the coarse key in the upper 32 bits and either 0 (coarse shard) or the fine key
+ * plus one (fine shard) in the lower 32 bits, so the shard index orders them by time.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ShardingStrategyAdaptive extends TimebasedShardingStrategy {
+
+	public static final long DEFAULT_TARGET_SHARD_SIZE = 1000000L;
+
+	private static final long FINE_KEY_MASK = 0xFFFFFFFFL;
+
+	private TimebasedShardingStrategy coarseStrategy = new ShardingStrategyMonthly();
+	private TimebasedShardingStrategy fineStrategy = new ShardingStrategyDaily();
+	private long targetShardSize = DEFAULT_TARGET_SHARD_SIZE;
+
+	@JsonIgnore
+	private volatile ShardLayoutResolver layoutResolver;
+
+	public ShardingStrategyAdaptive(){
+	}
+
+	public ShardingStrategyAdaptive(TimebasedShardingStrategy coarseStrategy, TimebasedShardingStrategy fineStrategy, long targetShardSize){
+		this.coarseStrategy = coarseStrategy;
+		this.fineStrategy = fineStrategy;
+		this.targetShardSize = targetShardSize;
+	}
+
+	/**
+	 * Shard key of the coarse shard holding timestamp. Without the index values the layout is unknown,
+	 * so this is also the lower bound of every shard in the window.
+	 */
+	public long getShardKey(long timestamp){
+		return getCoarseShardKey(getCoarseKey(timestamp));
+	}
+
+	@JsonIgnore
+	@Override
+	public long getShardKey(Object key, CDefinition def, CIndex index, Map<String,Object> values){
+		if(!(key instanceof UUID) && !(key instanceof Long)){
+			//keys without a time component all share one shard
+			return getShardKey(key);
+		}
+		long timestamp = (key instanceof UUID) ? UUIDs.unixTimestamp((UUID)key) : (Long)key;
+		long coarseKey = getCoarseKey(timestamp);
+		ShardLayoutResolver resolver = this.layoutResolver;
+		if(resolver != null && resolver.useFineShards(def, index, index.getIndexKeyAndValues(values), this, coarseKey)){
+			return getFineShardKey(coarseKey, fineStrategy.getShardKey(timestamp));
+		}
+		return getCoarseShardKey(coarseKey);
+	}
+
+	/**
+	 * Both layouts of the window, since the row may have been written before the layout of its window was known
+	 */
+	@JsonIgnore
+	@Override
+	public long[] getPossibleShardKeys(Object key, CDefinition def, CIndex index, Map<String,Object> values){
+		if(!(key instanceof UUID) && !(key instanceof Long)){
+			return new long[]{ getShardKey(key) };
+		}
+		long timestamp = (key instanceof UUID) ? UUIDs.unixTimestamp((UUID)key) : (Long)key;
+		long coarseKey = getCoarseKey(timestamp);
+		return new long[]{ getCoarseShardKey(coarseKey), getFineShardKey(coarseKey, fineStrategy.getShardKey(timestamp)) };
+	}
+
+	@JsonIgnore
+	@Override
+	public long getShardKeyUpperBound(long timestamp){
+		return getCoarseShardKeyUpperBound(getCoarseKey(timestamp));
+	}
+
+	@JsonIgnore
+	@Override
+	public boolean hasContiguousShardKeys(){
+		return false;
+	}
+
+	/**
+	 * Fine shards split a coarse window, so the coarse window is the time after which a shard is closed
+	 */
+	@JsonIgnore
+	@Override
+	public Period getShardPeriod(){
+		return coarseStrategy.getShardPeriod();
+	}
+
+	/**
+	 * Bounds of every shard key of the windows holding the time range. Only some of the keys in the range are
+	 * shards, so the shards themselves still have to be listed from the shard index.
+	 */
+	@JsonIgnore
+	@Override
+	public Range<Long> getShardKeyRange(Long timestampStart, Long timestampEnd) throws ShardStrategyException {
+		if(timestampStart == null && timestampEnd == null){
+			throw new ShardStrategyException("Time range must have either an upper or lower bound");
+		}
+		long start = (timestampStart == null) ? 1L : getShardKeyLowerBound(timestampStart);
+		long end = getShardKeyUpperBound((timestampEnd == null) ? DateTime.now().getMillis() : timestampEnd);
+		return Range.closed(start, end);
+	}
+
+	@JsonIgnore
+	public long getCoarseKey(long timestamp){
+		return this.offset + coarseStrategy.getShardKey(timestamp);
+	}
+
+	/**
+	 * @param coarseKey Coarse key of a window
+	 * @return Shard key of the single shard of a window that is not split
+	 */
+	@JsonIgnore
+	public long getCoarseShardKey(long coarseKey){
+		return coarseKey << 32;
+	}
+
+	/**
+	 * @param coarseKey Coarse key of a window
+	 * @return Largest shard key of the window
+	 */
+	@JsonIgnore
+	public long getCoarseShardKeyUpperBound(long coarseKey){
+		return (coarseKey << 32) | FINE_KEY_MASK;
+	}
+
+	@JsonIgnore
+	public long getFineShardKey(long coarseKey, long fineKey){
+		return (coarseKey << 32) | ((fineKey + 1) & FINE_KEY_MASK);
+	}
+
+	@JsonIgnore
+	public static boolean isFineShardKey(long shardKey){
+		return (shardKey & FINE_KEY_MASK) != 0;
+	}
+
+	@JsonIgnore
+	public static long getCoarseKeyOfShard(long shardKey){
+		return shardKey >>> 32;
+	}
+
+	/**
+	 * @param shardIds Shard ids in either ordering, as listed from the shard index
+	 * @return The shard ids grouped by coarse window, in the order of their windows
+	 */
+	public static List<long[]> groupShardIdsByWindow(List<Long> shardIds){
+		List<long[]> ret = Lists.newArrayList();
+		int start = 0;
+		for(int i = 1; i <= shardIds.size(); i++){
+			if(i == shardIds.size() || getCoarseKeyOfShard(shardIds.get(i)) != getCoarseKeyOfShard(shardIds.get(start))){
+				long[] group = new long[i - start];
+				for(int j = start; j < i; j++){
+					group[j - start] = shardIds.get(j);
+				}
+				ret.add(group);
+				start = i;
+			}
+		}
+		return ret;
+	}
+
+	public TimebasedShardingStrategy getCoarseStrategy() {
+		return coarseStrategy;
+	}
+
+	public void setCoarseStrategy(TimebasedShardingStrategy coarseStrategy) {
+		this.coarseStrategy = coarseStrategy;
+	}
+
+	public TimebasedShardingStrategy getFineStrategy() {
+		return fineStrategy;
+	}
+
+	public void setFineStrategy(TimebasedShardingStrategy fineStrategy) {
+		this.fineStrategy = fineStrategy;
+	}
+
+	/**
+	 * @return Number of rows an index value may write in one coarse window before the next window is split into fine shards
+	 */
+	public long getTargetShardSize() {
+		return targetShardSize;
+	}
+
+	public void setTargetShardSize(long targetShardSize) {
+		this.targetShardSize = targetShardSize;
+	}
+
+	@JsonIgnore
+	public ShardLayoutResolver getLayoutResolver() {
+		return layoutResolver;
+	}
+
+	/**
+	 * @param layoutResolver Resolver used to pick the layout of a window. Without one every window uses the coarse layout.
+	 */
+	@JsonIgnore
+	public void setLayoutResolver(ShardLayoutResolver layoutResolver) {
+		this.layoutResolver = layoutResolver;
+	}
+
+	@Override
+	public boolean equals(Object otherObject) {
+		if(!super.equals(otherObject)) {
+			return false;
+		}
+		final ShardingStrategyAdaptive other = (ShardingStrategyAdaptive)otherObject;
+		return Objects.equal(this.getCoarseStrategy(), other.getCoarseStrategy())
+				&& Objects.equal(this.getFineStrategy(), other.getFineStrategy())
+				&& this.getTargetShardSize() == other.getTargetShardSize();
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(super.hashCode(), this.getCoarseStrategy(), this.getFineStrategy(), this.getTargetShardSize());
+	}
+}
@@ -1,8 +1,10 @@
 package com.pardot.rhombus.cobject.shardingstrategy;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Days;
+import org.joda.time.Period;
 
 public class ShardingStrategyDaily extends TimebasedShardingStrategy {
 
@@ -15,4 +17,10 @@ public class ShardingStrategyDaily extends TimebasedShardingStrategy {
         int daysSinceEpoch = Days.daysBetween(start, d).getDays();
         return this.offset + daysSinceEpoch;
     }
+
+    @JsonIgnore
+    @Override
+    public Period getShardPeriod(){
+        return Period.days(1);
+    }
 }
@@ -1,8 +1,10 @@
 package com.pardot.rhombus.cobject.shardingstrategy;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Hours;
+import org.joda.time.Period;
 
 public class ShardingStrategyHourly extends TimebasedShardingStrategy {
 
@@ -15,4 +17,10 @@ public class ShardingStrategyHourly extends TimebasedShardingStrategy {
         int daysSinceEpoch = Hours.hoursBetween(start, d).getHours();
         return this.offset + daysSinceEpoch;
     }
+
+    @JsonIgnore
+    @Override
+    public Period getShardPeriod(){
+        return Period.hours(1);
+    }
 }
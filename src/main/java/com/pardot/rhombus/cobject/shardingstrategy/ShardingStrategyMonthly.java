@@ -1,8 +1,10 @@
 package com.pardot.rhombus.cobject.shardingstrategy;
 
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
 
 /**
  * Pardot, An ExactTarget Company
@@ -20,4 +22,10 @@ public class ShardingStrategyMonthly extends TimebasedShardingStrategy {
 		long month = (long)d.getMonthOfYear();
 		return this.offset + ((year - START_YEAR)*12)+month;
 	}
+
+	@JsonIgnore
+	@Override
+	public Period getShardPeriod(){
+		return Period.months(1);
+	}
 }
@@ -1,8 +1,10 @@
 package com.pardot.rhombus.cobject.shardingstrategy;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Days;
+import org.joda.time.Period;
 
 public class ShardingStrategyWeekly extends TimebasedShardingStrategy {
 
@@ -15,4 +17,10 @@ public class ShardingStrategyWeekly extends TimebasedShardingStrategy {
         int daysSinceEpoch = Days.daysBetween(start, d).getDays();
         return this.offset + (daysSinceEpoch / 7);
     }
+
+    @JsonIgnore
+    @Override
+    public Period getShardPeriod(){
+        return Period.weeks(1);
+    }
 }
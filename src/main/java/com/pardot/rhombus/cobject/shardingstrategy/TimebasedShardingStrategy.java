@@ -2,13 +2,21 @@ package com.pardot.rhombus.cobject.shardingstrategy;
 
 import com.datastax.driver.core.utils.UUIDs;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
 import com.google.common.collect.Range;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CIndex;
 import org.joda.time.DateTime;
+import org.joda.time.Period;
 
 import java.sql.Time;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -26,7 +34,8 @@ import java.util.UUID;
 		@JsonSubTypes.Type(value = ShardingStrategyDaily.class, name = "ShardingStrategyDaily"),
 		@JsonSubTypes.Type(value = ShardingStrategyWeekly.class, name = "ShardingStrategyWeekly"),
 		@JsonSubTypes.Type(value = ShardingStrategyMonthly.class, name = "ShardingStrategyMonthly"),
-		@JsonSubTypes.Type(value = ShardingStrategyNone.class, name = "ShardingStrategyNone")
+		@JsonSubTypes.Type(value = ShardingStrategyNone.class, name = "ShardingStrategyNone"),
+		@JsonSubTypes.Type(value = ShardingStrategyAdaptive.class, name = "ShardingStrategyAdaptive")
 })
 public abstract class TimebasedShardingStrategy {
 
@@ -36,6 +45,10 @@ public abstract class TimebasedShardingStrategy {
 	@JsonIgnore
 	protected long offset = 0;
 
+	// Number of hash buckets each time shard is split into. With more than one bucket the shardid stored in an
+	// index table is shardKey * subShards + bucket, while the shard index keeps recording the time shard key.
+	protected int subShards = 1;
+
 	public TimebasedShardingStrategy(){
 	}
 
@@ -59,6 +72,67 @@ public abstract class TimebasedShardingStrategy {
 	@JsonIgnore
 	public abstract long getShardKey(long timestamp);
 
+	/**
+	 * Shard key of an object being written to or deleted from an index. Strategies whose layout depends on
+	 * the index values override this, the others only look at the key.
+	 * @param key Id of the object
+	 * @param def Definition of the object
+	 * @param index Index being written to
+	 * @param values Values of the object, at least the index values
+	 * @return Shard key the object belongs to
+	 */
+	@JsonIgnore
+	public long getShardKey(Object key, CDefinition def, CIndex index, Map<String,Object> values){
+		return getShardKey(key);
+	}
+
+	/**
+	 * Shard keys of every partition an object may have been written to, so that deletes reach it wherever it is
+	 * @param key Id of the object
+	 * @param def Definition of the object
+	 * @param index Index the object is deleted from
+	 * @param values Values of the object, at least the index values
+	 * @return Candidate shard keys of the object
+	 */
+	@JsonIgnore
+	public long[] getPossibleShardKeys(Object key, CDefinition def, CIndex index, Map<String,Object> values){
+		return new long[]{ getShardKey(key, def, index, values) };
+	}
+
+	/**
+	 * @param timestamp Start of a time range
+	 * @return Smallest shard key that can hold objects at or after timestamp
+	 */
+	@JsonIgnore
+	public long getShardKeyLowerBound(long timestamp){
+		return getShardKey(timestamp);
+	}
+
+	/**
+	 * @param timestamp End of a time range
+	 * @return Largest shard key that can hold objects at or before timestamp
+	 */
+	@JsonIgnore
+	public long getShardKeyUpperBound(long timestamp){
+		return getShardKey(timestamp);
+	}
+
+	/**
+	 * @return true if every shard key in getShardKeyRange can be queried without consulting the shard index
+	 */
+	@JsonIgnore
+	public boolean hasContiguousShardKeys(){
+		return true;
+	}
+
+	/**
+	 * @return Time covered by each shard, or null if shards are not bounded in time
+	 */
+	@JsonIgnore
+	public Period getShardPeriod(){
+		return null;
+	}
+
 	public long getOffset() {
 		return offset;
 	}
@@ -67,6 +141,80 @@ public abstract class TimebasedShardingStrategy {
 		this.offset = offset;
 	}
 
+	@JsonProperty
+	public int getSubShards() {
+		return subShards;
+	}
+
+	@JsonProperty
+	public void setSubShards(int subShards) {
+		if(subShards < 1){
+			throw new IllegalArgumentException("subShards must be at least 1");
+		}
+		this.subShards = subShards;
+	}
+
+	@JsonIgnore
+	public boolean isSubSharded() {
+		return subShards > 1;
+	}
+
+	/**
+	 * @param key Id of the object
+	 * @return Shard id of the index table partition the object is written to
+	 */
+	@JsonIgnore
+	public long getSubShardKey(Object key){
+		return getSubShardKey(getShardKey(key), key);
+	}
+
+	/**
+	 * @param shardKey Time shard key of the object
+	 * @param key Id of the object
+	 * @return Shard id of the index table partition the object is written to
+	 */
+	@JsonIgnore
+	public long getSubShardKey(long shardKey, Object key){
+		if(subShards == 1){
+			return shardKey;
+		}
+		return shardKey * subShards + getBucket(key);
+	}
+
+	/**
+	 * @param shardKey Time shard key
+	 * @return Shard ids of every index table partition that makes up the time shard
+	 */
+	@JsonIgnore
+	public long[] getSubShardKeys(long shardKey){
+		long[] ret = new long[subShards];
+		if(subShards == 1){
+			ret[0] = shardKey;
+			return ret;
+		}
+		for(int bucket = 0; bucket < subShards; bucket++){
+			ret[bucket] = shardKey * subShards + bucket;
+		}
+		return ret;
+	}
+
+	/**
+	 * @param key Id of the object
+	 * @return Hash bucket of the key within its time shard
+	 */
+	@JsonIgnore
+	public int getBucket(Object key){
+		HashCode hash;
+		if(key instanceof UUID){
+			UUID uuid = (UUID)key;
+			hash = Hashing.murmur3_32().newHasher().putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).hash();
+		}
+		else{
+			hash = Hashing.murmur3_32().hashString(String.valueOf(key), Charsets.UTF_8);
+		}
+		return Hashing.consistentHash(hash, subShards);
+	}
+
 	@JsonIgnore
 	public Range<Long> getShardKeyRange(Long timestampStart, Long timestampEnd) throws ShardStrategyException {
 
@@ -108,6 +256,12 @@ public abstract class TimebasedShardingStrategy {
 			return false;
 		}
 		final TimebasedShardingStrategy other = (TimebasedShardingStrategy)otherObject;
-		return Objects.equal(this.getOffset(), other.getOffset());
+		return Objects.equal(this.getOffset(), other.getOffset())
+				&& Objects.equal(this.getSubShards(), other.getSubShards());
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.getClass(), this.getOffset(), this.getSubShards());
 	}
 }
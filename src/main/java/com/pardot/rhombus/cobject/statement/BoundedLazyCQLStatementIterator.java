@@ -1,5 +1,6 @@
 package com.pardot.rhombus.cobject.statement;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.pardot.rhombus.cobject.statement.CQLStatement;
 import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
@@ -18,18 +19,37 @@ public class BoundedLazyCQLStatementIterator extends BaseCQLStatementIterator {
 	private long numberRemaining = 0;
 	private long size = 0;
 	private CQLStatement CQLTemplate = null;
-	private Iterator<Long> shardIdIterator;
+	private Iterator<long[]> shardIdIterator;
 	private String objectName;
 
 	public BoundedLazyCQLStatementIterator(List<Long> shardIds, CQLStatement CQLTemplate, long limit, String objectName){
-		this.size = (long)shardIds.size();
+		this(toShardGroups(shardIds), CQLTemplate, limit, objectName);
+	}
+
+	private BoundedLazyCQLStatementIterator(Iterable<long[]> shardGroups, CQLStatement CQLTemplate, long limit, String objectName){
+		this.size = (long)Iterables.size(shardGroups);
 		this.limit = limit;
 		this.numberRemaining = this.limit;
 		this.CQLTemplate = CQLTemplate;
-		this.shardIdIterator = shardIds.iterator();
+		this.shardIdIterator = shardGroups.iterator();
 		this.setObjectName(objectName);
 	}
 
+	/**
+	 * @param shardGroups Groups of shard ids, each group is selected by one statement and its rows merged by id
+	 */
+	public static BoundedLazyCQLStatementIterator forShardGroups(List<long[]> shardGroups, CQLStatement CQLTemplate, long limit, String objectName){
+		return new BoundedLazyCQLStatementIterator(shardGroups, CQLTemplate, limit, objectName);
+	}
+
+	private static List<long[]> toShardGroups(List<Long> shardIds){
+		List<long[]> ret = Lists.newArrayListWithCapacity(shardIds.size());
+		for(Long shardId : shardIds){
+			ret.add(new long[]{ shardId });
+		}
+		return ret;
+	}
+
 	@Override
 	public boolean hasNext() {
 		return shardIdIterator.hasNext();
@@ -47,9 +67,13 @@ public class BoundedLazyCQLStatementIterator extends BaseCQLStatementIterator {
 	public CQLStatement next() {
 		CQLStatement ret = CQLStatement.make(String.format(CQLTemplate.getQuery(), numberRemaining), this.getObjectName());
 		List values = Lists.newArrayList(CQLTemplate.getValues());
+		long[] shardIds = this.shardIdIterator.next();
 		//shardid is the first value and limit should be the last value
-		values.add(0,this.shardIdIterator.next());
+		values.add(0,shardIds[0]);
 		ret.setValues(values.toArray());
+		if(shardIds.length > 1){
+			ret.setMergedShardIds(shardIds);
+		}
 		return ret;
 	}
 
@@ -8,6 +8,9 @@ public class CQLStatement implements Comparable<CQLStatement>{
 	private String query;
 	private String objectName;
 	private Object[] values;
+	private boolean idempotent = true;
+	private boolean counterUpdate = false;
+	private long[] mergedShardIds = null;
 
 	public static CQLStatement make(String query, String objectName){
 		return new CQLStatement(query, objectName);
@@ -53,6 +56,40 @@ public class CQLStatement implements Comparable<CQLStatement>{
 		return (values != null);
 	}
 
+	/**
+	 * @return True if executing the statement more than once has the same effect as executing it once
+	 */
+	public boolean isIdempotent() {
+		return idempotent;
+	}
+
+	public void setIdempotent(boolean idempotent) {
+		this.idempotent = idempotent;
+	}
+
+	/**
+	 * @return True if the statement updates a counter table, which Cassandra only accepts in counter batches
+	 */
+	public boolean isCounterUpdate() {
+		return counterUpdate;
+	}
+
+	public void setCounterUpdate(boolean counterUpdate) {
+		this.counterUpdate = counterUpdate;
+	}
+
+	/**
+	 * @return Shard ids a list statement selects together, replacing the shard id in its first value, or null if it
+	 * only selects that shard. The rows of the shards are merged by id.
+	 */
+	public long[] getMergedShardIds() {
+		return mergedShardIds;
+	}
+
+	public void setMergedShardIds(long[] mergedShardIds) {
+		this.mergedShardIds = mergedShardIds;
+	}
+
 	public int compareTo(CQLStatement o){
 		if(this.equals(o)){
 			return 0;
@@ -77,6 +114,7 @@ public class CQLStatement implements Comparable<CQLStatement>{
 		return (
 				Objects.equal(this.getQuery(), otherStatement.getQuery())
 				&& Arrays.equals(this.getValues(), otherStatement.getValues())
+				&& Arrays.equals(this.getMergedShardIds(), otherStatement.getMergedShardIds())
 				//&& Objects.equal(this.getObjectName(), otherStatement.getObjectName())
 				&& this.isPreparable() == otherStatement.isPreparable()
 				);
@@ -0,0 +1,79 @@
+package com.pardot.rhombus.entity;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Base of generated codecs. Resolves the position of the column of each field once per result set, so decoding a
+ * row reads every value by position.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public abstract class AbstractEntityCodec<T> implements EntityCodec<T> {
+
+	private final Class<T> entityClass;
+	private final String objectType;
+	private final String[] fieldNames;
+	private final Map<String, Class<?>> fieldTypes;
+	private volatile ResolvedColumns resolved;
+
+	/**
+	 * @param entityClass Class of the entities
+	 * @param objectType Name of the definition of the entities
+	 * @param fieldNames Definition field of each entity field, in the order decode reads them
+	 * @param fieldTypes Java type of each entity field, in the same order
+	 */
+	protected AbstractEntityCodec(Class<T> entityClass, String objectType, String[] fieldNames, Class<?>[] fieldTypes) {
+		this.entityClass = entityClass;
+		this.objectType = objectType;
+		this.fieldNames = fieldNames;
+		ImmutableMap.Builder<String, Class<?>> types = ImmutableMap.builder();
+		for(int i = 0; i < fieldNames.length; i++) {
+			types.put(fieldNames[i], fieldTypes[i]);
+		}
+		this.fieldTypes = types.build();
+	}
+
+	public Class<T> getEntityClass() {
+		return entityClass;
+	}
+
+	public String getObjectType() {
+		return objectType;
+	}
+
+	public Map<String, Class<?>> getFieldTypes() {
+		return fieldTypes;
+	}
+
+	/**
+	 * @param row Row being decoded
+	 * @return Position of the column of each field in the row, or -1 if the row does not have it
+	 */
+	protected int[] getColumns(Row row) {
+		ColumnDefinitions columns = row.getColumnDefinitions();
+		ResolvedColumns current = resolved;
+		if(current == null || current.columns != columns) {
+			current = new ResolvedColumns(columns, fieldNames);
+			resolved = current;
+		}
+		return current.positions;
+	}
+
+	private static class ResolvedColumns {
+		private final ColumnDefinitions columns;
+		private final int[] positions;
+
+		private ResolvedColumns(ColumnDefinitions columns, String[] fieldNames) {
+			this.columns = columns;
+			this.positions = new int[fieldNames.length];
+			for(int i = 0; i < fieldNames.length; i++) {
+				positions[i] = columns.contains(fieldNames[i]) ? columns.getIndexOf(fieldNames[i]) : -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.pardot.rhombus.entity;
+
+import com.datastax.driver.core.Row;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Converts the objects of a definition between their typed form and the rows and maps used by the object mapper.
+ * Implementations are generated by EntityProcessor and are safe to share between threads.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public interface EntityCodec<T> {
+
+	Class<T> getEntityClass();
+
+	/**
+	 * @return Name of the definition of the entities
+	 */
+	String getObjectType();
+
+	/**
+	 * @return Java type of each definition field of the entity, including id, keyed by field name
+	 */
+	Map<String, Class<?>> getFieldTypes();
+
+	/**
+	 * Read an entity from a row of the static table or of an index table, reading every value as a primitive
+	 * @param row Row to read
+	 * @return New entity
+	 */
+	T decode(Row row);
+
+	/**
+	 * @param values Values of an object, as returned by the map API
+	 * @return New entity
+	 */
+	T fromMap(Map<String, Object> values);
+
+	/**
+	 * @param entity Entity to write
+	 * @return Non null values of the entity keyed by field name, without its id
+	 */
+	SortedMap<String, Object> encode(T entity);
+
+	/**
+	 * @return Id of the entity, or null if it has none
+	 */
+	Object getId(T entity);
+
+	/**
+	 * Set the id of an entity, such as the id generated when it was inserted. Entities without an id field ignore it.
+	 */
+	void setId(T entity, Object id);
+}
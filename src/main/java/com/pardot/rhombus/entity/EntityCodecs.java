@@ -0,0 +1,131 @@
+package com.pardot.rhombus.entity;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CField;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the codecs generated for entity classes and checks them against the definitions they map to
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class EntityCodecs {
+
+	/**
+	 * Suffix of the name of the codec generated for an entity class
+	 */
+	public static final String CODEC_SUFFIX = "RhombusCodec";
+
+	private static final ConcurrentMap<Class<?>, EntityCodec<?>> codecs = Maps.newConcurrentMap();
+
+	// Data types each Java type can hold
+	private static final Map<Class<?>, Set<CField.CDataType>> compatibleTypes = ImmutableMap.<Class<?>, Set<CField.CDataType>>builder()
+			.put(String.class, ImmutableSet.of(CField.CDataType.ASCII, CField.CDataType.VARCHAR, CField.CDataType.TEXT))
+			.put(long.class, ImmutableSet.of(CField.CDataType.BIGINT, CField.CDataType.COUNTER))
+			.put(Long.class, ImmutableSet.of(CField.CDataType.BIGINT, CField.CDataType.COUNTER))
+			.put(int.class, ImmutableSet.of(CField.CDataType.INT))
+			.put(Integer.class, ImmutableSet.of(CField.CDataType.INT))
+			.put(boolean.class, ImmutableSet.of(CField.CDataType.BOOLEAN))
+			.put(Boolean.class, ImmutableSet.of(CField.CDataType.BOOLEAN))
+			.put(double.class, ImmutableSet.of(CField.CDataType.DOUBLE))
+			.put(Double.class, ImmutableSet.of(CField.CDataType.DOUBLE))
+			.put(float.class, ImmutableSet.of(CField.CDataType.FLOAT))
+			.put(Float.class, ImmutableSet.of(CField.CDataType.FLOAT))
+			.put(BigDecimal.class, ImmutableSet.of(CField.CDataType.DECIMAL))
+			.put(BigInteger.class, ImmutableSet.of(CField.CDataType.VARINT))
+			.put(Date.class, ImmutableSet.of(CField.CDataType.TIMESTAMP))
+			.put(UUID.class, ImmutableSet.of(CField.CDataType.UUID, CField.CDataType.TIMEUUID))
+			.put(ByteBuffer.class, ImmutableSet.of(CField.CDataType.BLOB))
+			.build();
+
+	private EntityCodecs() {
+	}
+
+	/**
+	 * @param entityClass Class annotated with RhombusEntity
+	 * @return Codec generated for the class
+	 * @throws IllegalArgumentException If no codec was generated for the class
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> EntityCodec<T> get(Class<T> entityClass) {
+		EntityCodec<?> codec = codecs.get(entityClass);
+		if(codec == null) {
+			codec = load(entityClass);
+			EntityCodec<?> existing = codecs.putIfAbsent(entityClass, codec);
+			if(existing != null) {
+				codec = existing;
+			}
+		}
+		return (EntityCodec<T>)codec;
+	}
+
+	/**
+	 * @param entityClass Class annotated with RhombusEntity
+	 * @return Name of the codec generated for the class
+	 */
+	public static String getCodecClassName(Class<?> entityClass) {
+		String packageName = (entityClass.getPackage() == null) ? "" : entityClass.getPackage().getName();
+		String simpleName = entityClass.getName().substring(packageName.isEmpty() ? 0 : packageName.length() + 1);
+		return (packageName.isEmpty() ? "" : packageName + ".") + simpleName.replace('$', '_') + CODEC_SUFFIX;
+	}
+
+	/**
+	 * Check that every field of a codec is a field of a definition with a compatible type
+	 * @param codec Codec to check
+	 * @param def Definition the codec maps to
+	 * @throws IllegalArgumentException If the codec does not match the definition
+	 */
+	public static void validate(EntityCodec<?> codec, CDefinition def) {
+		List<String> errors = new ArrayList<String>();
+		for(Map.Entry<String, Class<?>> field : codec.getFieldTypes().entrySet()) {
+			String name = field.getKey();
+			CField defField = def.getField(name);
+			if(defField == null) {
+				if(name.equals("id")) {
+					// The key of definitions without an id field is a timeuuid
+					if(field.getValue() != UUID.class) {
+						errors.add("id must be a " + UUID.class.getName() + " but is a " + field.getValue().getName());
+					}
+				} else {
+					errors.add(name + " is not a field of " + def.getName());
+				}
+				continue;
+			}
+			Set<CField.CDataType> types = compatibleTypes.get(field.getValue());
+			if(types == null || !types.contains(defField.getType())) {
+				errors.add(name + " is a " + field.getValue().getName() + " but its type in " + def.getName() + " is " + defField.getType());
+			}
+		}
+		if(!errors.isEmpty()) {
+			throw new IllegalArgumentException("Entity " + codec.getEntityClass().getName() + " does not match the definition of " +
+					def.getName() + ": " + errors);
+		}
+	}
+
+	private static EntityCodec<?> load(Class<?> entityClass) {
+		if(entityClass.getAnnotation(RhombusEntity.class) == null) {
+			throw new IllegalArgumentException(entityClass.getName() + " is not annotated with " + RhombusEntity.class.getName());
+		}
+		String codecClassName = getCodecClassName(entityClass);
+		try {
+			Class<?> codecClass = Class.forName(codecClassName, true, entityClass.getClassLoader());
+			return (EntityCodec<?>)codecClass.newInstance();
+		} catch(ClassNotFoundException e) {
+			throw new IllegalArgumentException("No codec was generated for " + entityClass.getName() + ", expected " + codecClassName +
+					". Make sure EntityProcessor runs when the class is compiled.", e);
+		} catch(InstantiationException e) {
+			throw new IllegalArgumentException("Unable to create the codec of " + entityClass.getName(), e);
+		} catch(IllegalAccessException e) {
+			throw new IllegalArgumentException("Unable to create the codec of " + entityClass.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package com.pardot.rhombus.entity;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a codec for each class annotated with RhombusEntity. The codec of a class reads and writes its fields
+ * directly, and reads the values of rows with the typed getters of the driver, so mapping an entity does not go
+ * through reflection or a map of boxed values.
+ *
+ * Fields must be accessible from the package of the class: private fields need a getter and a setter that are not
+ * private. The class needs a constructor without arguments.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+@SupportedAnnotationTypes("com.pardot.rhombus.entity.RhombusEntity")
+public class EntityProcessor extends AbstractProcessor {
+
+	private static final String ROW = "com.datastax.driver.core.Row";
+
+	// Row getter of each supported type
+	private static final Map<String, String> rowGetters = ImmutableMap.<String, String>builder()
+			.put("java.lang.String", "getString")
+			.put("long", "getLong")
+			.put("java.lang.Long", "getLong")
+			.put("int", "getInt")
+			.put("java.lang.Integer", "getInt")
+			.put("boolean", "getBool")
+			.put("java.lang.Boolean", "getBool")
+			.put("double", "getDouble")
+			.put("java.lang.Double", "getDouble")
+			.put("float", "getFloat")
+			.put("java.lang.Float", "getFloat")
+			.put("java.math.BigDecimal", "getDecimal")
+			.put("java.math.BigInteger", "getVarint")
+			.put("java.util.Date", "getDate")
+			.put("java.util.UUID", "getUUID")
+			.put("java.nio.ByteBuffer", "getBytes")
+			.build();
+
+	private static final Map<String, String> boxedTypes = ImmutableMap.<String, String>builder()
+			.put("long", "java.lang.Long")
+			.put("int", "java.lang.Integer")
+			.put("boolean", "java.lang.Boolean")
+			.put("double", "java.lang.Double")
+			.put("float", "java.lang.Float")
+			.build();
+
+	private static class EntityField {
+		private String column;
+		private String type;
+		private boolean primitive;
+		// Expression reading the field from "entity", and statement prefix and suffix writing it
+		private String read;
+		private String writePrefix;
+		private String writeSuffix;
+
+		private String write(String value) {
+			return writePrefix + value + writeSuffix;
+		}
+
+		private String getBoxedType() {
+			return primitive ? boxedTypes.get(type) : type;
+		}
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(Element element : roundEnv.getElementsAnnotatedWith(RhombusEntity.class)) {
+			if(element.getKind() != ElementKind.CLASS) {
+				error(element, RhombusEntity.class.getSimpleName() + " can only be used on classes");
+				continue;
+			}
+			TypeElement entity = (TypeElement)element;
+			List<EntityField> fields = getFields(entity);
+			if(fields == null) {
+				continue;
+			}
+			try {
+				writeCodec(entity, fields);
+			} catch(IOException e) {
+				error(entity, "Unable to write the codec of " + entity.getQualifiedName() + ": " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Fields of the entity, or null if the entity can not be mapped
+	 */
+	private List<EntityField> getFields(TypeElement entity) {
+		boolean valid = true;
+		if(!entity.getTypeParameters().isEmpty()) {
+			error(entity, "Entities can not have type parameters");
+			valid = false;
+		}
+		if(entity.getModifiers().contains(Modifier.PRIVATE) || entity.getModifiers().contains(Modifier.ABSTRACT)) {
+			error(entity, "Entities can not be private or abstract");
+			valid = false;
+		}
+		if(entity.getNestingKind() == NestingKind.MEMBER && !entity.getModifiers().contains(Modifier.STATIC)) {
+			error(entity, "Nested entities must be static");
+			valid = false;
+		}
+		boolean hasConstructor = false;
+		for(ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+			if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				hasConstructor = true;
+			}
+		}
+		if(!hasConstructor) {
+			error(entity, "Entities need a constructor without arguments that is not private");
+			valid = false;
+		}
+
+		List<EntityField> fields = new ArrayList<EntityField>();
+		for(VariableElement variable : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+			Set<Modifier> modifiers = variable.getModifiers();
+			if(modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+				continue;
+			}
+			EntityField field = new EntityField();
+			RhombusField annotation = variable.getAnnotation(RhombusField.class);
+			field.column = (annotation == null) ? variable.getSimpleName().toString() : annotation.value();
+			TypeMirror type = variable.asType();
+			field.primitive = type.getKind().isPrimitive();
+			field.type = (type.getKind() == TypeKind.DECLARED) ? ((TypeElement)processingEnv.getTypeUtils().asElement(type)).getQualifiedName().toString() : type.toString();
+			if(!rowGetters.containsKey(field.type)) {
+				error(variable, "Fields of type " + type + " are not supported");
+				valid = false;
+				continue;
+			}
+			if(modifiers.contains(Modifier.FINAL)) {
+				error(variable, "Entity fields can not be final");
+				valid = false;
+				continue;
+			}
+			String name = variable.getSimpleName().toString();
+			if(!modifiers.contains(Modifier.PRIVATE)) {
+				field.read = "entity." + name;
+				field.writePrefix = "entity." + name + " = ";
+				field.writeSuffix = ";";
+			} else {
+				String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+				ExecutableElement getter = findMethod(entity, "get" + suffix, 0);
+				if(getter == null && type.getKind() == TypeKind.BOOLEAN) {
+					getter = findMethod(entity, "is" + suffix, 0);
+				}
+				ExecutableElement setter = findMethod(entity, "set" + suffix, 1);
+				if(getter == null || setter == null) {
+					error(variable, "Private entity fields need a getter and a setter that are not private");
+					valid = false;
+					continue;
+				}
+				field.read = "entity." + getter.getSimpleName() + "()";
+				field.writePrefix = "entity." + setter.getSimpleName() + "(";
+				field.writeSuffix = ");";
+			}
+			fields.add(field);
+		}
+		return valid ? fields : null;
+	}
+
+	private ExecutableElement findMethod(TypeElement entity, String name, int parameterCount) {
+		for(ExecutableElement method : ElementFilter.methodsIn(entity.getEnclosedElements())) {
+			if(method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameterCount &&
+					!method.getModifiers().contains(Modifier.PRIVATE) && !method.getModifiers().contains(Modifier.STATIC)) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+	private void writeCodec(TypeElement entity, List<EntityField> fields) throws IOException {
+		String packageName = processingEnv.getElementUtils().getPackageOf(entity).getQualifiedName().toString();
+		String entityName = entity.getQualifiedName().toString();
+		String codecName = (packageName.isEmpty() ? entityName : entityName.substring(packageName.length() + 1)).replace('.', '_') + EntityCodecs.CODEC_SUFFIX;
+		String objectType = entity.getAnnotation(RhombusEntity.class).value();
+		EntityField id = null;
+		for(EntityField field : fields) {
+			if(field.column.equals("id")) {
+				id = field;
+			}
+		}
+
+		StringBuilder out = new StringBuilder();
+		if(!packageName.isEmpty()) {
+			out.append("package ").append(packageName).append(";\n\n");
+		}
+		out.append("/**\n * Generated by ").append(EntityProcessor.class.getName()).append(" for ").append(entityName).append("\n */\n");
+		out.append("public final class ").append(codecName).append(" extends ").append(AbstractEntityCodec.class.getName())
+				.append("<").append(entityName).append("> {\n\n");
+
+		out.append("\tpublic ").append(codecName).append("() {\n");
+		out.append("\t\tsuper(").append(entityName).append(".class, ").append(quote(objectType)).append(", new String[] {");
+		for(int i = 0; i < fields.size(); i++) {
+			out.append(i > 0 ? ", " : "").append(quote(fields.get(i).column));
+		}
+		out.append("}, new Class<?>[] {");
+		for(int i = 0; i < fields.size(); i++) {
+			out.append(i > 0 ? ", " : "").append(fields.get(i).type).append(".class");
+		}
+		out.append("});\n\t}\n\n");
+
+		out.append("\tpublic ").append(entityName).append(" decode(").append(ROW).append(" row) {\n");
+		out.append("\t\tint[] c = getColumns(row);\n");
+		out.append("\t\t").append(entityName).append(" entity = new ").append(entityName).append("();\n");
+		for(int i = 0; i < fields.size(); i++) {
+			EntityField field = fields.get(i);
+			String value = "row." + rowGetters.get(field.type) + "(c[" + i + "])";
+			if(field.primitive) {
+				out.append("\t\tif(c[").append(i).append("] >= 0 && !row.isNull(c[").append(i).append("])) {\n");
+				out.append("\t\t\t").append(field.write(value)).append("\n\t\t}\n");
+			} else {
+				out.append("\t\t").append(field.write("(c[" + i + "] >= 0 && !row.isNull(c[" + i + "])) ? " + value + " : null")).append("\n");
+			}
+		}
+		out.append("\t\treturn entity;\n\t}\n\n");
+
+		out.append("\tpublic ").append(entityName).append(" fromMap(java.util.Map<String, Object> values) {\n");
+		out.append("\t\t").append(entityName).append(" entity = new ").append(entityName).append("();\n");
+		out.append("\t\tObject value;\n");
+		for(EntityField field : fields) {
+			out.append("\t\tvalue = values.get(").append(quote(field.column)).append(");\n");
+			if(field.primitive) {
+				out.append("\t\tif(value != null) {\n");
+				out.append("\t\t\t").append(field.write("(" + field.getBoxedType() + ")value")).append("\n\t\t}\n");
+			} else {
+				out.append("\t\t").append(field.write("(" + field.type + ")value")).append("\n");
+			}
+		}
+		out.append("\t\treturn entity;\n\t}\n\n");
+
+		out.append("\tpublic java.util.SortedMap<String, Object> encode(").append(entityName).append(" entity) {\n");
+		out.append("\t\tjava.util.SortedMap<String, Object> values = new java.util.TreeMap<String, Object>();\n");
+		for(EntityField field : fields) {
+			if(field == id) {
+				continue;
+			}
+			if(field.primitive) {
+				out.append("\t\tvalues.put(").append(quote(field.column)).append(", ").append(field.read).append(");\n");
+			} else {
+				out.append("\t\tif(").append(field.read).append(" != null) {\n");
+				out.append("\t\t\tvalues.put(").append(quote(field.column)).append(", ").append(field.read).append(");\n\t\t}\n");
+			}
+		}
+		out.append("\t\treturn values;\n\t}\n\n");
+
+		out.append("\tpublic Object getId(").append(entityName).append(" entity) {\n");
+		out.append("\t\treturn ").append(id == null ? "null" : id.read).append(";\n\t}\n\n");
+
+		out.append("\tpublic void setId(").append(entityName).append(" entity, Object id) {\n");
+		if(id != null) {
+			if(id.primitive) {
+				out.append("\t\tif(id != null) {\n\t\t\t").append(id.write("(" + id.getBoxedType() + ")id")).append("\n\t\t}\n");
+			} else {
+				out.append("\t\t").append(id.write("(" + id.type + ")id")).append("\n");
+			}
+		}
+		out.append("\t}\n}\n");
+
+		String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+		Writer writer = processingEnv.getFiler().createSourceFile(qualifiedCodecName, entity).openWriter();
+		try {
+			writer.write(out.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
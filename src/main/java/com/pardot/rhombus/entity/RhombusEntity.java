@@ -0,0 +1,24 @@
+package com.pardot.rhombus.entity;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as the typed form of the objects of a definition. Every non static, non transient field of the class
+ * is a field of the definition, and a field named id holds the key. EntityProcessor generates a codec for each marked
+ * class at build time.
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RhombusEntity {
+
+	/**
+	 * @return Name of the definition of the objects
+	 */
+	String value();
+}
@@ -0,0 +1,22 @@
+package com.pardot.rhombus.entity;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a field of an entity to a definition field with another name
+ *
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface RhombusField {
+
+	/**
+	 * @return Name of the definition field
+	 */
+	String value();
+}
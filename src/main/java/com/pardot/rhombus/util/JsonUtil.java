@@ -1,5 +1,8 @@
 package com.pardot.rhombus.util;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.*;
@@ -20,6 +23,9 @@ import java.util.*;
  */
 public class JsonUtil {
 
+	private static final ObjectMapper jsonMapper = new ObjectMapper();
+	private static final JsonFactory jsonFactory = jsonMapper.getFactory();
+
 	public static <T> T objectFromJsonResource(Class<T> objectClass, ClassLoader resourceClassLoader, String resourceLocation) throws IOException {
 		ObjectMapper om = new ObjectMapper();
 		InputStream inputStream = resourceClassLoader.getResourceAsStream(resourceLocation);
@@ -57,6 +63,169 @@ public class JsonUtil {
 		return rhombusMap;
 	}
 
+	public static SortedMap<String, Object> rhombusMapFromJsonString(String json, CDefinition definition) throws IOException {
+		JsonParser parser = jsonFactory.createParser(json);
+		try {
+			SortedMap<String, Object> ret = rhombusMapFromJsonParser(parser, definition);
+			if(ret == null) {
+				throw new IllegalArgumentException("Expected a JSON object but found no content");
+			}
+			if(parser.nextToken() != null) {
+				throw new IllegalArgumentException("Unexpected content after the JSON object");
+			}
+			return ret;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Read a JSON object from a parser straight into typed values, without building the map of its JSON values.
+	 * Values are coerced exactly as rhombusMapFromJsonMap coerces the map Jackson reads from the same JSON.
+	 * @param parser Parser positioned before the object, left positioned on its end so that further objects can be read
+	 * @param definition Definition the fields of the object are looked up in
+	 * @return Typed values of the fields of the definition found in the object, or null if the parser has no content
+	 */
+	public static SortedMap<String, Object> rhombusMapFromJsonParser(JsonParser parser, CDefinition definition) throws IOException {
+		JsonToken token = parser.nextToken();
+		if(token == null) {
+			return null;
+		}
+		if(token != JsonToken.START_OBJECT) {
+			throw new IllegalArgumentException("Expected a JSON object but found " + token);
+		}
+		Map<String, CField> fields = definition.getFields();
+		SortedMap<String, Object> rhombusMap = Maps.newTreeMap();
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			CField field = fields.get(name);
+			if(field != null) {
+				rhombusMap.put(name, typedObjectFromParserAndField(parser, field));
+			} else if(name.equals("id") && parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+				//we have a user supplied ID but not a custom key type
+				rhombusMap.put("id", UUID.fromString(String.valueOf(jsonValueFromParser(parser))));
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return rhombusMap;
+	}
+
+	/**
+	 * Coerce the value at the current token of a parser, with the same results as typedObjectFromValueAndField on the
+	 * value Jackson would have read, but reading numbers as primitives and without checking the class of the value
+	 * @param parser Parser positioned on the value
+	 * @param field Field of the value
+	 * @return Typed value
+	 */
+	public static Object typedObjectFromParserAndField(JsonParser parser, CField field) throws IOException, IllegalArgumentException {
+		JsonToken token = parser.getCurrentToken();
+		switch(token) {
+			case VALUE_NULL:
+				return null;
+			case VALUE_STRING:
+				return typedObjectFromValueAndField(parser.getText(), field);
+			case VALUE_NUMBER_INT:
+				JsonParser.NumberType numberType = parser.getNumberType();
+				if(numberType == JsonParser.NumberType.BIG_INTEGER) {
+					break;
+				}
+				long longValue = parser.getLongValue();
+				switch(field.getType()) {
+					case ASCII:
+					case VARCHAR:
+					case TEXT:
+						return Long.toString(longValue);
+					case BIGINT:
+					case COUNTER:
+						return longValue;
+					case BOOLEAN:
+						if(numberType == JsonParser.NumberType.INT) {
+							return longValue > 0;
+						}
+						break;
+					case DECIMAL:
+						return BigDecimal.valueOf(longValue);
+					case DOUBLE:
+						return (double)longValue;
+					case FLOAT:
+						return (float)longValue;
+					case INT:
+						return (int)longValue;
+					case TIMESTAMP:
+						return new Date(longValue);
+					case VARINT:
+						return BigInteger.valueOf(longValue);
+				}
+				break;
+			case VALUE_NUMBER_FLOAT:
+				double doubleValue = parser.getDoubleValue();
+				switch(field.getType()) {
+					case ASCII:
+					case VARCHAR:
+					case TEXT:
+						return Double.toString(doubleValue);
+					case BIGINT:
+					case COUNTER:
+						return (long)doubleValue;
+					case DECIMAL:
+						return BigDecimal.valueOf(doubleValue);
+					case DOUBLE:
+						return doubleValue;
+					case FLOAT:
+						return (float)doubleValue;
+					case INT:
+						return (int)doubleValue;
+					case VARINT:
+						return BigInteger.valueOf((long)doubleValue);
+				}
+				break;
+			case VALUE_TRUE:
+			case VALUE_FALSE:
+				boolean booleanValue = (token == JsonToken.VALUE_TRUE);
+				switch(field.getType()) {
+					case ASCII:
+					case VARCHAR:
+					case TEXT:
+						return Boolean.toString(booleanValue);
+					case BIGINT:
+					case COUNTER:
+						return booleanValue ? 1L : 0L;
+					case BOOLEAN:
+						return booleanValue;
+					case INT:
+						return booleanValue ? 1 : 0;
+					case VARINT:
+						return booleanValue ? BigInteger.ONE : BigInteger.ZERO;
+				}
+				break;
+		}
+		// Everything else, including every value that can not be converted, goes through the generic conversion
+		return typedObjectFromValueAndField(jsonValueFromParser(parser), field);
+	}
+
+	/**
+	 * @return Value at the current token of a parser, as Jackson reads it into a map
+	 */
+	private static Object jsonValueFromParser(JsonParser parser) throws IOException {
+		switch(parser.getCurrentToken()) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return parser.getNumberValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return null;
+			default:
+				return jsonMapper.readValue(parser, Object.class);
+		}
+	}
+
 	public static Object typedObjectFromValueAndField(Object jsonValue, CField field) throws IllegalArgumentException {
 		if(jsonValue == null) {
 			return null;
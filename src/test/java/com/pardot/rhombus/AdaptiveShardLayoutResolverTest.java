@@ -0,0 +1,59 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyAdaptive;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyDaily;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyMonthly;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import junit.framework.TestCase;
+
+import java.util.SortedMap;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class AdaptiveShardLayoutResolverTest extends TestCase {
+
+	public void testLayoutIsResolvedInBackground() throws Exception {
+		CKeyspaceDefinition keyspaceDefinition = new CKeyspaceDefinition();
+		keyspaceDefinition.setName("testspace");
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		indexValues.put("foreignid", 777L);
+
+		// The layout of the window was recorded as fine by another writer
+		Row row = mock(Row.class);
+		when(row.getBytes("indexkey")).thenReturn(ShardIndexKey.fromValues(indexValues.values()).getEncoded());
+		when(row.getBool("fine")).thenReturn(true);
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.iterator()).thenReturn(Lists.newArrayList(row).iterator());
+		CQLExecutor cqlExecutor = mock(CQLExecutor.class);
+		when(cqlExecutor.executeSync(any(CQLStatement.class))).thenReturn(resultSet);
+		ObjectMapper objectMapper = mock(ObjectMapper.class);
+		when(objectMapper.getKeyspaceDefinition()).thenReturn(keyspaceDefinition);
+		when(objectMapper.getCqlExecutor()).thenReturn(cqlExecutor);
+
+		AdaptiveShardLayoutResolver resolver = new AdaptiveShardLayoutResolver(objectMapper);
+		ShardingStrategyAdaptive strategy = new ShardingStrategyAdaptive(new ShardingStrategyMonthly(), new ShardingStrategyDaily(), 10);
+		CDefinition def = new CDefinition();
+		def.setName("testtype");
+		CIndex index = new CIndex("foreignid", strategy);
+
+		// Writes do not wait for the lookup and go to the coarse shard in the meantime
+		assertFalse(resolver.useFineShards(def, index, indexValues, strategy, 158L));
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!resolver.useFineShards(def, index, indexValues, strategy, 158L)) {
+			assertTrue("Layout was not resolved", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+		// The layout is cached once resolved
+		verify(cqlExecutor, times(1)).executeSync(any(CQLStatement.class));
+	}
+}
@@ -0,0 +1,105 @@
+package com.pardot.rhombus;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class BulkImporterTest extends TestCase {
+
+	private static class CollectingImporter extends BulkImporter {
+		private final List<Map<String, Object>> written = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+
+		private CollectingImporter() {
+			super(null);
+		}
+
+		@Override
+		protected void writeBatch(CDefinition def, List<Map<String, Object>> batch) {
+			written.addAll(batch);
+		}
+	}
+
+	private CDefinition makeDefinition() throws IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		return CDefinition.fromJsonString(json);
+	}
+
+	private static File writeLines(String... lines) throws IOException {
+		File file = File.createTempFile("import-", ".json");
+		file.deleteOnExit();
+		StringBuilder builder = new StringBuilder();
+		for(String line : lines) {
+			builder.append(line).append('\n');
+		}
+		Files.write(builder.toString(), file, Charsets.UTF_8);
+		return file;
+	}
+
+	public void testImportInBatches() throws Exception {
+		CDefinition def = makeDefinition();
+		List<String> lines = Lists.newArrayList();
+		for(int i = 0; i < 25; i++) {
+			lines.add("{\"foreignid\": " + i + ", \"type\": 1, \"instance\": 2, \"data1\": \"" + Strings.repeat("x", i) + "\"}");
+		}
+		lines.add("");
+		File file = writeLines(lines.toArray(new String[lines.size()]));
+		CollectingImporter importer = new CollectingImporter();
+		importer.setBatchSize(4);
+		importer.setConcurrency(3);
+		// Smaller than the longest line so the buffer has to grow
+		importer.setReadBufferSize(16);
+		assertEquals(file.length(), importer.importFile(def, file, 0L));
+		assertEquals(25, importer.getRowsImported());
+		assertEquals(file.length(), importer.getResumeOffset());
+		Set<Long> ids = new HashSet<Long>();
+		for(Map<String, Object> object : importer.written) {
+			ids.add((Long)object.get("foreignid"));
+		}
+		assertEquals(25, ids.size());
+	}
+
+	public void testResumeFromOffset() throws Exception {
+		CDefinition def = makeDefinition();
+		String first = "{\"foreignid\": 1}";
+		File file = writeLines(first, "{\"foreignid\": 2}", "{\"foreignid\": 3}");
+
+		CollectingImporter importer = new CollectingImporter();
+		importer.setOutput(BulkImporter.Output.SSTABLE);
+		importer.importFile(def, file, first.length() + 1);
+		assertEquals(2, importer.written.size());
+		assertEquals(2L, importer.written.get(0).get("foreignid"));
+
+		// An offset inside a line resumes from the next one
+		importer = new CollectingImporter();
+		importer.setOutput(BulkImporter.Output.SSTABLE);
+		importer.importFile(def, file, 3);
+		assertEquals(2, importer.written.size());
+		assertEquals(2L, importer.written.get(0).get("foreignid"));
+	}
+
+	public void testInvalidLineReportsOffset() throws Exception {
+		CDefinition def = makeDefinition();
+		String first = "{\"foreignid\": 1}";
+		File file = writeLines(first, "{\"foreignid\": \"one\"}");
+		CollectingImporter importer = new CollectingImporter();
+		importer.setOutput(BulkImporter.Output.SSTABLE);
+		try {
+			importer.importFile(def, file, 0L);
+			fail("Expected the invalid line to be rejected");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("offset " + (first.length() + 1)));
+		}
+	}
+}
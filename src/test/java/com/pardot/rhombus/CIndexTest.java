@@ -2,6 +2,7 @@ package com.pardot.rhombus;
 
 import com.pardot.rhombus.cobject.CField;
 import com.pardot.rhombus.cobject.CIndex;
+import com.pardot.rhombus.cobject.CIndexStorage;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyDaily;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyMonthly;
 import junit.framework.TestCase;
@@ -30,5 +31,11 @@ public class CIndexTest extends TestCase{
 		CIndex index2 = new CIndex("field1:field2:field3", new ShardingStrategyMonthly());
 		assertFalse(index1.equals(index2));
 	}
-}
 
+	public void testNotEqualsStorage() {
+		CIndex index1 = new CIndex("field1:field2:field3", new ShardingStrategyDaily());
+		CIndex index2 = new CIndex("field1:field2:field3", new ShardingStrategyDaily());
+		index2.setStorage(CIndexStorage.THIN);
+		assertFalse(index1.equals(index2));
+	}
+}
@@ -1,6 +1,7 @@
 package com.pardot.rhombus;
 
 import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.pardot.rhombus.cobject.*;
@@ -87,11 +88,11 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			CDefinition def = CDefinition.fromJsonString(json);
 			Map<String, Object> data = TestHelpers.getTestObject(0);
 			UUID uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
-			CQLStatementIterator result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null);
+			CQLStatementIterator result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null, ShardIndexKeyMode.MIGRATE);
 			List<CQLStatement> actual = toList(result);
 
 			CQLStatement expected;
-			assertEquals("Should generate CQL statements for the static table plus all indexes including the filtered index", 6, actual.size());
+			assertEquals("Should generate CQL statements for the static table plus all indexes including the filtered index", 8, actual.size());
 			//static table
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"testtype\" (id, filtered, data1, data2, data3, instance, type, foreignid) VALUES (?, ?, ?, ?, ?, ?, ?, ?);",
@@ -113,6 +114,12 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 					Arrays.asList("testtype6671808f3f51bcc53ddc76d2419c9060","222222:5",Long.valueOf(160),"160:222222:5").toArray()
 			);
 			assertEquals(expected, actual.get(2));
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList("testtype6671808f3f51bcc53ddc76d2419c9060",ShardIndexKey.fromValues(Arrays.asList(222222, 5)).getHash(),Long.valueOf(160),ShardIndexKey.fromValues(Arrays.asList(222222, 5)).getEncoded()).toArray()
+			);
+			assertEquals(expected, actual.get(3));
 
 
 			expected = CQLStatement.make(
@@ -120,7 +127,7 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 					TABLE_NAME,
 					expectedValues
 			);
-			assertEquals(expected,actual.get(3));
+			assertEquals(expected,actual.get(4));
 
 
 			expected = CQLStatement.make(
@@ -128,7 +135,13 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 					TABLE_NAME,
 					Arrays.asList("testtypef9bf3332bb4ec879849ec43c67776131","777:222222:5",Long.valueOf(160),"160:777:222222:5").toArray()
 			);
-			assertEquals(expected, actual.get(4));
+			assertEquals(expected, actual.get(5));
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList("testtypef9bf3332bb4ec879849ec43c67776131",ShardIndexKey.fromValues(Arrays.asList(777, 222222, 5)).getHash(),Long.valueOf(160),ShardIndexKey.fromValues(Arrays.asList(777, 222222, 5)).getEncoded()).toArray()
+			);
+			assertEquals(expected, actual.get(6));
 
 			expectedValues = Arrays.asList(uuid, Long.valueOf(1),1, "This is data one", "This is data two", "This is data three", 222222, 5, 777).toArray();
 			expected = CQLStatement.make(
@@ -136,11 +149,11 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 					TABLE_NAME,
 					expectedValues
 			);
-			assertEquals(expected,actual.get(5));
+			assertEquals(expected,actual.get(7));
 			//foreign has shard strategy None so we dont expect an insert into the shard index table
 
 			//test with ttl
-			result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),Integer.valueOf(20));
+			result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),Integer.valueOf(20), ShardIndexKeyMode.LEGACY);
 			actual = toList(result);
 			expectedValues = Arrays.asList(uuid, 1, "This is data one", "This is data two", "This is data three", 222222, 5, 777).toArray();
 			expected = CQLStatement.make(
@@ -153,10 +166,10 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			//test with inserting less than all of the fields
 			data = TestHelpers.getTestObject(3);
 			uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
-			result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null);
+			result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null, ShardIndexKeyMode.MIGRATE);
 			actual = toList(result);
 
-			assertEquals("Should generate CQL statements for the static table plus all indexes including the filtered index", 6, actual.size());
+			assertEquals("Should generate CQL statements for the static table plus all indexes including the filtered index", 8, actual.size());
 			//static table
 			expectedValues = Arrays.asList(uuid, 1, "This is data one", 222222, 5, 777).toArray();
 			expected = CQLStatement.make(
@@ -180,20 +193,32 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 					Arrays.asList("testtype6671808f3f51bcc53ddc76d2419c9060","222222:5",Long.valueOf(160),"160:222222:5").toArray()
 			);
 			assertEquals(expected, actual.get(2));
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList("testtype6671808f3f51bcc53ddc76d2419c9060",ShardIndexKey.fromValues(Arrays.asList(222222, 5)).getHash(),Long.valueOf(160),ShardIndexKey.fromValues(Arrays.asList(222222, 5)).getEncoded()).toArray()
+			);
+			assertEquals(expected, actual.get(3));
 
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" (id, shardid, filtered, data1, instance, type, foreignid) VALUES (?, ?, ?, ?, ?, ?, ?);",
 					TABLE_NAME,
 					expectedValues
 			);
-			assertEquals(expected,actual.get(3));
+			assertEquals(expected,actual.get(4));
 
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"__shardindex\" (tablename, indexvalues, shardid, targetrowkey) VALUES (?, ?, ?, ?);",
 					TABLE_NAME,
 					Arrays.asList("testtypef9bf3332bb4ec879849ec43c67776131","777:222222:5",Long.valueOf(160),"160:777:222222:5").toArray()
 			);
-			assertEquals(expected, actual.get(4));
+			assertEquals(expected, actual.get(5));
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList("testtypef9bf3332bb4ec879849ec43c67776131",ShardIndexKey.fromValues(Arrays.asList(777, 222222, 5)).getHash(),Long.valueOf(160),ShardIndexKey.fromValues(Arrays.asList(777, 222222, 5)).getEncoded()).toArray()
+			);
+			assertEquals(expected, actual.get(6));
 
 			expectedValues = Arrays.asList(uuid, Long.valueOf(1), 1, "This is data one", 222222, 5, 777).toArray();
 			expected = CQLStatement.make(
@@ -201,7 +226,7 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 					TABLE_NAME,
 					expectedValues
 			);
-			assertEquals(expected,actual.get(5));
+			assertEquals(expected,actual.get(7));
 			//foreign has shard strategy None so we dont expect an insert into the shard index table
 
 
@@ -211,7 +236,7 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			data.put("data1","this is a test");
 			uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
 			try{
-				Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null);
+				Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null, ShardIndexKeyMode.LEGACY);
 				assertTrue("Should never get here", false);
 			}
 			catch (CQLGenerationException e){
@@ -224,7 +249,7 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			data.put("data1","this is a test");
 			data.put("foreignid", "777");
 			uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
-			result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null);
+			result = Subject.makeCQLforInsert(KEYSPACE_NAME, def,data,uuid,Long.valueOf(1),null, ShardIndexKeyMode.LEGACY);
 			actual = toList(result);
 			assertEquals("Number of CQL statements should be correct",2,actual.size());
 			//static table
@@ -432,6 +457,71 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			assertTrue(48 > makeIndexTableName(def,index).length());
 		}
 
+		public void testMakeCQLforInsertLegacyShardIndex() throws CObjectParseException, CQLGenerationException, IOException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			Map<String, Object> data = TestHelpers.getTestObject(0);
+			UUID uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
+			List<CQLStatement> actual = toList(Subject.makeCQLforInsert(KEYSPACE_NAME, def, data, uuid, Long.valueOf(1), null, ShardIndexKeyMode.LEGACY));
+
+			//the default mode only writes the escaped string key of the legacy shard index
+			assertEquals(6, actual.size());
+			int legacyShardIndexInserts = 0;
+			for(CQLStatement statement : actual){
+				assertFalse(statement.getQuery().contains(CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME));
+				if(statement.getQuery().contains("\"" + CObjectShardList.SHARD_INDEX_TABLE_NAME + "\"")){
+					legacyShardIndexInserts++;
+				}
+			}
+			assertEquals(2, legacyShardIndexInserts);
+		}
+
+		public void testMakeSubShardStatements() throws CObjectParseException, CQLGenerationException, IOException {
+			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+			CDefinition def = CDefinition.fromJsonString(json);
+			CIndex index = def.getIndexes().get("instance:type");
+			index.getShardingStrategy().setSubShards(3);
+
+			//index rows are written to the sub shard of the id
+			UUID uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
+			Map<String, Object> data = Maps.newHashMap();
+			data.put("foreignid", Long.valueOf(777));
+			data.put("type", Integer.valueOf(5));
+			data.put("instance", Long.valueOf(222222));
+			long subShardKey = index.getShardingStrategy().getSubShardKey(uuid);
+			String indexTableName = CObjectCQLGenerator.makeTableName(def, index);
+			CQLStatementIterator inserts = Subject.makeCQLforInsert(KEYSPACE_NAME, def, data, uuid, Long.valueOf(1), null, ShardIndexKeyMode.MIGRATE);
+			boolean foundIndexInsert = false;
+			while(inserts.hasNext()){
+				CQLStatement insert = inserts.next();
+				if(insert.getQuery().contains(indexTableName)){
+					foundIndexInsert = true;
+					assertEquals(Long.valueOf(subShardKey), insert.getValues()[1]);
+				}
+				if(insert.getQuery().contains(CObjectShardList.HASHED_SHARD_INDEX_TABLE_NAME)){
+					//the shard index still records the time shard
+					assertEquals(Long.valueOf(index.getShardingStrategy().getShardKey(uuid)), insert.getValues()[2]);
+				}
+			}
+			assertTrue(foundIndexInsert);
+
+			//list statements select a time shard and fan out to every sub shard of it
+			CObjectShardList shardIdLists = new ShardListMock(Arrays.asList(7L));
+			TreeMap<String,Object> indexkeys = Maps.newTreeMap();
+			indexkeys.put("type", Integer.valueOf(5));
+			indexkeys.put("instance", Long.valueOf(222222));
+			CQLStatementIterator list = Subject.makeCQLforList(KEYSPACE_NAME, shardIdLists, def, indexkeys, CObjectOrdering.DESCENDING, null, uuid, 10l, false, false, false);
+			CQLStatement timeShardStatement = list.next();
+			List<CQLStatement> subShardStatements = CObjectCQLGenerator.makeSubShardStatements(timeShardStatement, index.getShardingStrategy());
+			assertEquals(3, subShardStatements.size());
+			for(int bucket = 0; bucket < 3; bucket++){
+				CQLStatement subShardStatement = subShardStatements.get(bucket);
+				assertEquals(timeShardStatement.getQuery(), subShardStatement.getQuery());
+				assertEquals(Long.valueOf(7L * 3 + bucket), subShardStatement.getValues()[0]);
+				assertEquals(timeShardStatement.getValues()[1], subShardStatement.getValues()[1]);
+			}
+		}
+
 		public void testMakeCQLforUpdate() throws CObjectParseException,CObjectParseException, CQLGenerationException, IOException{
 			String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
 			CDefinition def = CDefinition.fromJsonString(json);
@@ -439,7 +529,7 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			UUID uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
 			Map<String,Object> newdata = Maps.newHashMap();
 			newdata.put("type", Integer.valueOf(9));
-			CQLStatementIterator result = Subject.makeCQLforUpdate(KEYSPACE_NAME, def,uuid,data,newdata);
+			CQLStatementIterator result = Subject.makeCQLforUpdate(KEYSPACE_NAME, def,uuid,data,newdata, ShardIndexKeyMode.MIGRATE);
 			CQLStatement expected = CQLStatement.make(
 					"DELETE FROM \"testspace\".\"testtype6671808f3f51bcc53ddc76d2419c9060\" WHERE id = ? AND shardid = ? AND instance = ? AND type = ?;",
 					TABLE_NAME,
@@ -477,6 +567,16 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 						"160:222222:9").toArray()
 			);
 			assertEquals(expected, result.next());
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList(
+						"testtype6671808f3f51bcc53ddc76d2419c9060",
+						ShardIndexKey.fromValues(Arrays.asList(222222, 9)).getHash(),
+						Long.valueOf(160),
+						ShardIndexKey.fromValues(Arrays.asList(222222, 9)).getEncoded()).toArray()
+			);
+			assertEquals(expected, result.next());
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" (id, shardid, filtered, data1, data2, data3, instance, type, foreignid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);",
 					TABLE_NAME,
@@ -502,6 +602,16 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 						"160:777:222222:9").toArray()
 			);
 			assertEquals(expected, result.next());
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList(
+						"testtypef9bf3332bb4ec879849ec43c67776131",
+						ShardIndexKey.fromValues(Arrays.asList(777, 222222, 9)).getHash(),
+						Long.valueOf(160),
+						ShardIndexKey.fromValues(Arrays.asList(777, 222222, 9)).getEncoded()).toArray()
+			);
+			assertEquals(expected, result.next());
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"testtype7f9bb4e56d3cae5b11c553547cfe5897\" (id, shardid, instance, type, foreignid) VALUES (?, ?, ?, ?, ?);",
 					TABLE_NAME,
@@ -525,13 +635,13 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			assertEquals(expected, result.next());
 			CQLStatement next = result.next();
 			expected = CQLStatement.make(
-					"INSERT INTO \"testspace\".\"__index_updates\" (id, statictablename, instanceid, indexvalues) values (?, ?, ?, ?);",
+					"INSERT INTO \"testspace\".\"__index_updates\" (id, statictablename, instanceid, indexvaluesblob) values (?, ?, ?, ?);",
 					TABLE_NAME,
 					Arrays.asList(
 							(UUID)next.getValues()[0],
 							"testtype",
 							UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43"),
-							"{\"foreignid\":777,\"instance\":222222,\"type\":9}").toArray()
+							IndexValuesCodec.encode(def.getCompiled(), ImmutableMap.<String, Object>of("foreignid", 777, "instance", 222222, "type", 9))).toArray()
 			);
 			assertEquals(expected, next);
 			//should be no results left
@@ -543,7 +653,8 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			//Now try the same update, but this time we dont change anything and send the same values. In this case
 			//It should not generate any deletes
 			newdata.put("type", Integer.valueOf(5));
-			 result = Subject.makeCQLforUpdate(KEYSPACE_NAME, def,uuid,data,newdata);
+			//This time also write the json snapshot for mappers that cannot read the blob
+			 result = Subject.makeCQLforUpdate(KEYSPACE_NAME, def,uuid,data,newdata, ShardIndexKeyMode.MIGRATE, true);
 			//no deletes
 			//Go right to the inserts
 			expected = CQLStatement.make(
@@ -571,6 +682,16 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 							"160:222222:5").toArray()
 			);
 			assertEquals(expected, result.next());
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList(
+						"testtype6671808f3f51bcc53ddc76d2419c9060",
+						ShardIndexKey.fromValues(Arrays.asList(222222, 5)).getHash(),
+						Long.valueOf(160),
+						ShardIndexKey.fromValues(Arrays.asList(222222, 5)).getEncoded()).toArray()
+			);
+			assertEquals(expected, result.next());
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"testtypef9bf3332bb4ec879849ec43c67776131\" (id, shardid, filtered, data1, data2, data3, instance, type, foreignid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);",
 					TABLE_NAME,
@@ -596,6 +717,16 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 							"160:777:222222:5").toArray()
 			);
 			assertEquals(expected, result.next());
+			expected = CQLStatement.make(
+					"INSERT INTO \"testspace\".\"__shardindex_hashed\" (tablename, indexhash, shardid, indexkey) VALUES (?, ?, ?, ?);",
+					TABLE_NAME,
+					Arrays.asList(
+						"testtypef9bf3332bb4ec879849ec43c67776131",
+						ShardIndexKey.fromValues(Arrays.asList(777, 222222, 5)).getHash(),
+						Long.valueOf(160),
+						ShardIndexKey.fromValues(Arrays.asList(777, 222222, 5)).getEncoded()).toArray()
+			);
+			assertEquals(expected, result.next());
 			expected = CQLStatement.make(
 					"INSERT INTO \"testspace\".\"testtype7f9bb4e56d3cae5b11c553547cfe5897\" (id, shardid, instance, type, foreignid) VALUES (?, ?, ?, ?, ?);",
 					TABLE_NAME,
@@ -619,13 +750,14 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 			assertEquals(expected, result.next());
 			next = result.next();
 			expected = CQLStatement.make(
-					"INSERT INTO \"testspace\".\"__index_updates\" (id, statictablename, instanceid, indexvalues) values (?, ?, ?, ?);",
+					"INSERT INTO \"testspace\".\"__index_updates\" (id, statictablename, instanceid, indexvalues, indexvaluesblob) values (?, ?, ?, ?, ?);",
 					TABLE_NAME,
 					Arrays.asList(
 							(UUID)next.getValues()[0],
 							"testtype",
 							UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43"),
-							"{\"foreignid\":777,\"instance\":222222,\"type\":5}").toArray()
+							"{\"foreignid\":777,\"instance\":222222,\"type\":5}",
+							IndexValuesCodec.encode(def.getCompiled(), ImmutableMap.<String, Object>of("foreignid", 777, "instance", 222222, "type", 5))).toArray()
 			);
 			assertEquals(expected, next);
 			//should be no results left
@@ -703,6 +835,16 @@ public class CObjectCQLGeneratorTest  extends TestCase {
 		s.testMakeCQLforUpdate();
 	}
 
+	public void testMakeCQLforInsertLegacyShardIndex() throws CQLGenerationException, CObjectParseException, IOException {
+		Subject s = new Subject(0);
+		s.testMakeCQLforInsertLegacyShardIndex();
+	}
+
+	public void testMakeSubShardStatements() throws CQLGenerationException, CObjectParseException, IOException {
+		Subject s = new Subject(0);
+		s.testMakeSubShardStatements();
+	}
+
 	private Object[] arrayFromValues(Object... args) {
 		Object[] ret = new Object[args.length];
 		int index = 0;
@@ -0,0 +1,77 @@
+package com.pardot.rhombus;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CObjectJsonWriter;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CObjectJsonWriterTest extends TestCase {
+
+	private static final com.fasterxml.jackson.databind.ObjectMapper jsonMapper = new com.fasterxml.jackson.databind.ObjectMapper();
+
+	private static CDefinition makeDefinition() throws IOException {
+		return CDefinition.fromJsonString("{\"name\": \"typed\", \"fields\": [" +
+				"{\"name\": \"name\", \"type\": \"varchar\"}, {\"name\": \"count\", \"type\": \"bigint\"}, {\"name\": \"type\", \"type\": \"int\"}, " +
+				"{\"name\": \"active\", \"type\": \"boolean\"}, {\"name\": \"created\", \"type\": \"timestamp\"}, {\"name\": \"ref\", \"type\": \"uuid\"}, " +
+				"{\"name\": \"score\", \"type\": \"double\"}, {\"name\": \"price\", \"type\": \"decimal\"}, {\"name\": \"big\", \"type\": \"varint\"}, " +
+				"{\"name\": \"missing\", \"type\": \"varchar\"}], \"indexes\": []}");
+	}
+
+	private static String writeObjects(CDefinition def, List<Map<String, Object>> objects) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonGenerator generator = new JsonFactory().createGenerator(out, JsonEncoding.UTF8);
+		CObjectJsonWriter writer = new CObjectJsonWriter(def);
+		generator.writeStartArray();
+		for(Map<String, Object> object : objects) {
+			writer.writeObject(generator, object);
+		}
+		generator.writeEndArray();
+		generator.close();
+		return out.toString("UTF-8");
+	}
+
+	public void testWriteObjectMatchesJackson() throws IOException {
+		Map<String, Object> object = Maps.newHashMap();
+		object.put("id", UUID.fromString("0f1e2d3c-4b5a-1968-8796-a5b4c3d2e1f0"));
+		object.put("name", "quote \" and é");
+		object.put("count", 12345678901L);
+		object.put("type", 7);
+		object.put("active", true);
+		object.put("created", new Date(1376079900000L));
+		object.put("ref", UUID.randomUUID());
+		object.put("score", 1.5);
+		object.put("price", new BigDecimal("1234567890.12345678"));
+		object.put("big", new BigInteger("1234567890123456789012345"));
+		object.put("missing", null);
+
+		String json = writeObjects(makeDefinition(), Collections.singletonList(object));
+		List<Map<String, Object>> written = jsonMapper.readValue(json, List.class);
+		List<Map<String, Object>> expected = jsonMapper.readValue(jsonMapper.writeValueAsString(Collections.singletonList(object)), List.class);
+		assertEquals(expected, written);
+		assertEquals("0f1e2d3c-4b5a-1968-8796-a5b4c3d2e1f0", written.get(0).get("id"));
+		assertTrue(written.get(0).containsKey("missing"));
+	}
+
+	public void testWriteObjectWithoutValues() throws IOException {
+		Map<String, Object> object = Maps.newHashMap();
+		object.put("id", UUID.fromString("00000000-0000-1000-8000-000000000000"));
+		String json = writeObjects(makeDefinition(), Arrays.asList(object, object));
+		List<Map<String, Object>> written = jsonMapper.readValue(json, List.class);
+		assertEquals(2, written.size());
+		assertEquals("00000000-0000-1000-8000-000000000000", written.get(1).get("id"));
+		assertNull(written.get(1).get("name"));
+	}
+}
@@ -3,6 +3,7 @@ package com.pardot.rhombus;
 import com.pardot.rhombus.cobject.*;
 import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
 import com.pardot.rhombus.cobject.migrations.CObjectMigrator;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyDaily;
 import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyNone;
 import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
 import com.pardot.rhombus.util.JsonUtil;
@@ -46,6 +47,35 @@ public class CObjectMigratorTest {
 
 	}
 
+	@Test
+	public void testIsMigratableStorageChange() throws IOException {
+		CDefinition OldDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
+		CDefinition NewDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
+		CObjectMigrator subject = new CObjectMigrator(OldDefinition,NewDefinition);
+		assertTrue(subject.isMigratable());
+
+		//existing index rows would be missing columns, so changing the storage of an index is not migratable
+		NewDefinition.getIndexes().get("index_1").setStorage(CIndexStorage.THIN);
+		assertFalse(subject.isMigratable());
+	}
+
+	@Test
+	public void testIsMigratableReshard() throws IOException {
+		CDefinition OldDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
+		CDefinition NewDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
+		OldDefinition.getIndexes().get("index_1").setReshard(new CIndexReshard(new ShardingStrategyDaily(), 1, CIndexReshardPhase.BACKFILL));
+		CObjectMigrator subject = new CObjectMigrator(OldDefinition,NewDefinition);
+
+		//dropping the second layout of an index being resharded would stop writes to it
+		assertFalse(subject.isMigratable());
+
+		//a definition that does not mention layouts keeps the running reshard
+		assertTrue(CObjectMigrator.inheritIndexLayouts(OldDefinition, NewDefinition));
+		assertEquals(OldDefinition.getIndexes().get("index_1").getReshard(), NewDefinition.getIndexes().get("index_1").getReshard());
+		assertTrue(subject.isMigratable());
+		assertFalse(CObjectMigrator.inheritIndexLayouts(OldDefinition, NewDefinition));
+	}
+
 	@Test
 	public void testGetNewIndexes() throws IOException {
 		CDefinition OldDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
@@ -103,4 +133,36 @@ public class CObjectMigratorTest {
 		assertEquals("CREATE TABLE \"simple\".\"simple02a6bb2fc3293d91f31c3f6ce892fedc\" (id timeuuid, shardid bigint, newfield varchar,value varchar,index_1 varchar,index_2 varchar, PRIMARY KEY ((shardid, index_1, index_2),id) );", result.next().getQuery());
 		assertEquals(false, result.hasNext());
 	}
+
+	@Test
+	public void testGetMigrationCQLTableOptions() throws IOException, CObjectMigrationException {
+		CDefinition OldDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
+		CDefinition NewDefinition = JsonUtil.objectFromJsonResource(CDefinition.class, this.getClass().getClassLoader(), "MigrationTestCDefinition.js");
+		CTableOptions options = new CTableOptions();
+		options.setBloomFilterFpChance(0.1);
+		NewDefinition.setTableOptions(options);
+		NewDefinition.getIndexes().get("index_1:value").setTableOptions(options);
+		CObjectMigrator subject = new CObjectMigrator(OldDefinition,NewDefinition);
+		assertTrue(subject.isMigratable());
+
+		//changed options are applied to the existing tables
+		CObjectCQLGenerator cqlGenerator = new CObjectCQLGenerator(OldDefinition.getName(), 1000);
+		CQLStatementIterator result = subject.getMigrationCQL(cqlGenerator);
+		String withOptions = " WITH compaction = { 'class' : 'SizeTieredCompactionStrategy' } " +
+				"AND compression = { 'sstable_compression' : 'LZ4Compressor', 'chunk_length_kb' : '64' } " +
+				"AND bloom_filter_fp_chance = 0.1 AND caching = 'keys_only';";
+		assertEquals("ALTER TABLE \"simple\".\"simple\"" + withOptions, result.next().getQuery());
+		assertEquals("ALTER TABLE \"simple\".\"" + CObjectCQLGenerator.makeTableName(NewDefinition, NewDefinition.getIndexes().get("index_1:value")) + "\"" + withOptions, result.next().getQuery());
+		assertEquals(false, result.hasNext());
+
+		//removed options are reset to the defaults
+		subject = new CObjectMigrator(NewDefinition,OldDefinition);
+		result = subject.getMigrationCQL(cqlGenerator);
+		String withDefaults = " WITH compaction = { 'class' : 'SizeTieredCompactionStrategy' } " +
+				"AND compression = { 'sstable_compression' : 'LZ4Compressor', 'chunk_length_kb' : '64' } " +
+				"AND bloom_filter_fp_chance = 0.01 AND caching = 'keys_only';";
+		assertEquals("ALTER TABLE \"simple\".\"simple\"" + withDefaults, result.next().getQuery());
+		assertEquals("ALTER TABLE \"simple\".\"" + CObjectCQLGenerator.makeTableName(OldDefinition, OldDefinition.getIndexes().get("index_1:value")) + "\"" + withDefaults, result.next().getQuery());
+		assertEquals(false, result.hasNext());
+	}
 }
@@ -0,0 +1,174 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.*;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import junit.framework.TestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CQLExecutorTest extends TestCase {
+
+	private static class DriverFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+		@Override
+		public ResultSet getUninterruptibly() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void complete() {
+			set(mock(ResultSet.class));
+		}
+
+		public void fail(Throwable t) {
+			setException(t);
+		}
+	}
+
+	private final List<DriverFuture> sent = new CopyOnWriteArrayList<DriverFuture>();
+
+	private CQLExecutor makeExecutor() {
+		Session session = mock(Session.class);
+		when(session.executeAsync(any(Statement.class))).thenAnswer(new Answer<ResultSetFuture>() {
+			@Override
+			public ResultSetFuture answer(InvocationOnMock invocation) {
+				DriverFuture future = new DriverFuture();
+				sent.add(future);
+				return future;
+			}
+		});
+		return new CQLExecutor(session, false, ConsistencyLevel.ONE);
+	}
+
+	public void testQueuesStatementsOverLimit() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setConcurrencyLimits(1, 1, 1);
+		ResultSetFuture first = executor.executeAsync(CQLStatement.make("SELECT 1", "test"));
+		ResultSetFuture second = executor.executeAsync(CQLStatement.make("SELECT 2", "test"));
+		assertEquals(1, sent.size());
+		assertEquals(1, executor.getConcurrencyLimiter().getQueued());
+
+		sent.get(0).complete();
+		assertTrue(first.isDone());
+		assertEquals(2, sent.size());
+		sent.get(1).complete();
+		assertNotNull(second.getUninterruptibly());
+		assertEquals(0, executor.getConcurrencyLimiter().getInFlight());
+	}
+
+	public void testShedsWhenQueueIsFull() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setConcurrencyLimits(1, 1, 0);
+		executor.executeAsync(CQLStatement.make("SELECT 1", "test"));
+		ResultSetFuture shed = executor.executeAsync(CQLStatement.make("SELECT 2", "test"));
+		assertEquals(1, sent.size());
+		try {
+			shed.getUninterruptibly();
+			fail("Expected the statement to be shed");
+		} catch(RejectedExecutionException e) {
+			// Expected
+		}
+	}
+
+	public void testTimeoutReleasesPermit() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setConcurrencyLimits(8, 8, 0);
+		ResultSetFuture future = executor.executeAsync(CQLStatement.make("SELECT 1", "test"));
+		sent.get(0).fail(new ReadTimeoutException(ConsistencyLevel.ONE, 0, 1, false));
+		try {
+			future.getUninterruptibly();
+			fail("Expected the timeout to be thrown");
+		} catch(ReadTimeoutException e) {
+			// Expected
+		}
+		assertEquals(0, executor.getConcurrencyLimiter().getInFlight());
+	}
+
+	public void testHedgesSlowRead() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setHedgedReads(10L, 100.0);
+		ResultSetFuture future = executor.executeHedgedAsync(CQLStatement.make("SELECT 1", "hedged"));
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(sent.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5L);
+		}
+		assertEquals(2, sent.size());
+		sent.get(1).complete();
+		assertNotNull(future.getUninterruptibly());
+		// The slower copy is cancelled
+		assertTrue(sent.get(0).isCancelled());
+	}
+
+	public void testDoesNotHedgeFastReadOrOverBudget() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setHedgedReads(50L, 100.0);
+		ResultSetFuture future = executor.executeHedgedAsync(CQLStatement.make("SELECT 1", "hedged"));
+		sent.get(0).complete();
+		assertNotNull(future.getUninterruptibly());
+		Thread.sleep(100L);
+		assertEquals(1, sent.size());
+
+		sent.clear();
+		executor.setHedgedReads(10L, 0.0);
+		executor.executeHedgedAsync(CQLStatement.make("SELECT 1", "hedged"));
+		Thread.sleep(50L);
+		assertEquals(1, sent.size());
+	}
+
+	public void testFastReadsDoNotSpendHedgeBudget() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setHedgedReads(10L, 50.0);
+		// Two fast reads earn a hedge without spending it
+		for(int i = 0; i < 2; i++) {
+			ResultSetFuture future = executor.executeHedgedAsync(CQLStatement.make("SELECT 1", "hedged"));
+			sent.get(sent.size() - 1).complete();
+			assertNotNull(future.getUninterruptibly());
+		}
+		Thread.sleep(50L);
+		assertEquals(2, sent.size());
+
+		executor.executeHedgedAsync(CQLStatement.make("SELECT 1", "hedged"));
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(sent.size() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5L);
+		}
+		assertEquals(4, sent.size());
+	}
+
+	public void testFailsOnceEveryCopyFailed() throws Exception {
+		CQLExecutor executor = makeExecutor();
+		executor.setHedgedReads(0L, 100.0);
+		ResultSetFuture future = executor.executeHedgedAsync(CQLStatement.make("SELECT 1", "hedged"));
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(sent.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5L);
+		}
+		sent.get(0).fail(new ReadTimeoutException(ConsistencyLevel.ONE, 0, 1, false));
+		assertFalse(future.isDone());
+		sent.get(1).fail(new ReadTimeoutException(ConsistencyLevel.ONE, 0, 1, false));
+		try {
+			future.getUninterruptibly();
+			fail("Expected the timeout to be thrown");
+		} catch(ReadTimeoutException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+import org.joda.time.Period;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CTableOptionsTest extends TestCase {
+
+	private CDefinition makeDefinition() throws IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		return CDefinition.fromJsonString(json);
+	}
+
+	private static Map<String, Object> makeCompaction(String compactionClass) {
+		Map<String, Object> compaction = Maps.newLinkedHashMap();
+		compaction.put("class", compactionClass);
+		return compaction;
+	}
+
+	public void testTableOptionsFromJson() throws IOException {
+		CIndex index = new com.fasterxml.jackson.databind.ObjectMapper().readValue(
+				"{\"key\": \"instance:type\", \"shardingStrategy\": {\"type\": \"ShardingStrategyMonthly\"}, \"tableOptions\": " +
+						"{\"compaction\": {\"class\": \"TimeWindowCompactionStrategy\"}, \"compressionChunkLengthKb\": 16, \"bloomFilterFpChance\": 0.05, \"caching\": \"keys_only\"}}", CIndex.class);
+		CTableOptions options = index.getTableOptions();
+		assertEquals("TimeWindowCompactionStrategy", options.getCompaction().get("class"));
+		assertEquals(Integer.valueOf(16), options.getCompressionChunkLengthKb());
+		assertEquals(0.05, options.getBloomFilterFpChance());
+		assertEquals("keys_only", options.getCaching());
+
+		try {
+			new com.fasterxml.jackson.databind.ObjectMapper().readValue("{\"compaction\": {\"min_threshold\": 4}}", CTableOptions.class);
+			fail("Expected a compaction without a class to be rejected");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	public void testWideTableCreateWithOptions() throws IOException {
+		CDefinition def = makeDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		CTableOptions options = new CTableOptions();
+		options.setCompaction(makeCompaction("TimeWindowCompactionStrategy"));
+		options.setCompressionChunkLengthKb(16);
+		options.setBloomFilterFpChance(0.05);
+		options.setCaching("keys_only");
+		index.setTableOptions(options);
+		CObjectCQLGenerator generator = new CObjectCQLGenerator("testspace", 1000);
+
+		String query = generator.makeWideTableCreate(def, index).getQuery();
+		assertTrue(query, query.endsWith(" PRIMARY KEY ((shardid, instance, type),id) ) WITH " +
+				"compaction = { 'class' : 'TimeWindowCompactionStrategy', 'compaction_window_unit' : 'DAYS', 'compaction_window_size' : '30' } " +
+				"AND compression = { 'sstable_compression' : 'LZ4Compressor', 'chunk_length_kb' : '16' } " +
+				"AND bloom_filter_fp_chance = 0.05 AND caching = 'keys_only';"));
+		// SSTable writers get the table without its options
+		assertTrue(generator.makeWideTableCreate(def, index, false).getQuery().endsWith(",id) );"));
+		// Tables without options keep the defaults of the cluster
+		assertTrue(generator.makeStaticTableCreate(def).getQuery().endsWith(");"));
+		// Altering a table without options resets them to the defaults
+		assertEquals("ALTER TABLE \"testspace\".\"" + def.getName() + "\" WITH compaction = { 'class' : 'SizeTieredCompactionStrategy' } " +
+				"AND compression = { 'sstable_compression' : 'LZ4Compressor', 'chunk_length_kb' : '64' } " +
+				"AND bloom_filter_fp_chance = 0.01 AND caching = 'keys_only';", generator.makeCQLforStaticTableOptions(def).getQuery());
+	}
+
+	public void testEqualOptionsHaveEqualHashCodes() {
+		CTableOptions options = new CTableOptions();
+		options.setCompaction(makeCompaction("LeveledCompactionStrategy"));
+		options.setCaching("all");
+		CTableOptions same = new CTableOptions();
+		same.setCompaction(makeCompaction("LeveledCompactionStrategy"));
+		same.setCaching("all");
+		assertEquals(options, same);
+		assertEquals(options.hashCode(), same.hashCode());
+	}
+
+	public void testCompactionAlignedWithShards() {
+		CTableOptions options = new CTableOptions();
+		options.setCompaction(makeCompaction("TimeWindowCompactionStrategy"));
+		Map<String, Object> hourly = options.getAlignedCompaction(Period.hours(1));
+		assertEquals("HOURS", hourly.get("compaction_window_unit"));
+		assertEquals(1L, hourly.get("compaction_window_size"));
+		Map<String, Object> weekly = options.getAlignedCompaction(Period.weeks(1));
+		assertEquals("DAYS", weekly.get("compaction_window_unit"));
+		assertEquals(7L, weekly.get("compaction_window_size"));
+		// Unsharded tables keep the options as they are
+		assertEquals(options.getCompaction(), options.getAlignedCompaction(null));
+
+		// Explicit windows are kept
+		Map<String, Object> explicit = makeCompaction("TimeWindowCompactionStrategy");
+		explicit.put("compaction_window_unit", "HOURS");
+		explicit.put("compaction_window_size", 6);
+		options.setCompaction(explicit);
+		assertEquals(explicit, options.getAlignedCompaction(Period.days(1)));
+
+		options.setCompaction(makeCompaction("DateTieredCompactionStrategy"));
+		assertEquals(86400L, options.getAlignedCompaction(Period.days(1)).get("base_time_seconds"));
+
+		options.setCompaction(makeCompaction("LeveledCompactionStrategy"));
+		assertEquals(options.getCompaction(), options.getAlignedCompaction(Period.days(1)));
+	}
+}
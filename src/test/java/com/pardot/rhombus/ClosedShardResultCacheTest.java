@@ -0,0 +1,82 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ClosedShardResultCacheTest extends TestCase {
+
+	private static final String QUERY = "SELECT * FROM \"testspace\".\"testtype123\" WHERE shardid = ? AND instance = ? LIMIT 10;";
+
+	private static List<Map<String, Object>> makeRows(int size) {
+		List<Map<String, Object>> rows = Lists.newArrayList();
+		for(int i = 0; i < size; i++) {
+			Map<String, Object> row = Maps.newHashMap();
+			row.put("id", "row" + i);
+			row.put("value", i);
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	public void testGetReturnsCopy() {
+		ClosedShardResultCache cache = new ClosedShardResultCache();
+		List<Object> key = ClosedShardResultCache.makeKey("rows:10", QUERY, new Object[]{160L, 222222L}, null);
+		assertNull(cache.getRows(key));
+
+		cache.putRows("testtype123", 160L, key, makeRows(2), cache.getInvalidationCount());
+		List<Map<String, Object>> cached = cache.getRows(key);
+		assertEquals(makeRows(2), cached);
+		cached.get(0).put("value", 99);
+		cached.remove(1);
+		assertEquals(makeRows(2), cache.getRows(key));
+
+		// Different bound values are different statements
+		assertNull(cache.getRows(ClosedShardResultCache.makeKey("rows:10", QUERY, new Object[]{161L, 222222L}, null)));
+	}
+
+	public void testInvalidateShard() {
+		ClosedShardResultCache cache = new ClosedShardResultCache();
+		List<Object> rowsKey = ClosedShardResultCache.makeKey("rows:10", QUERY, new Object[]{160L, 222222L}, null);
+		List<Object> countKey = ClosedShardResultCache.makeKey("count", QUERY, new Object[]{160L, 222222L}, null);
+		List<Object> otherKey = ClosedShardResultCache.makeKey("rows:10", QUERY, new Object[]{161L, 222222L}, null);
+		cache.putRows("testtype123", 160L, rowsKey, makeRows(1), cache.getInvalidationCount());
+		cache.putCount("testtype123", 160L, countKey, 5L, true, cache.getInvalidationCount());
+		cache.putRows("testtype123", 161L, otherKey, makeRows(1), cache.getInvalidationCount());
+		assertTrue(Arrays.equals(new long[]{5L, 1L}, cache.getCount(countKey)));
+
+		cache.invalidateShard("testtype123", 160L);
+		assertNull(cache.getRows(rowsKey));
+		assertNull(cache.getCount(countKey));
+		assertEquals(makeRows(1), cache.getRows(otherKey));
+	}
+
+	public void testResultReadBeforeInvalidationIsNotCached() {
+		ClosedShardResultCache cache = new ClosedShardResultCache();
+		List<Object> key = ClosedShardResultCache.makeKey("rows:10", QUERY, new Object[]{160L, 222222L}, null);
+		long invalidationCount = cache.getInvalidationCount();
+		// A write lands while the statement is executing
+		cache.invalidateShard("testtype123", 160L);
+		cache.putRows("testtype123", 160L, key, makeRows(1), invalidationCount);
+		assertNull(cache.getRows(key));
+	}
+
+	public void testBoundedByEstimatedBytes() {
+		List<Map<String, Object>> rows = makeRows(10);
+		long bytes = ClosedShardResultCache.estimateBytes(rows);
+		ClosedShardResultCache cache = new ClosedShardResultCache(bytes * 40, ClosedShardResultCache.DEFAULT_EXPIRE_AFTER_WRITE_SECONDS);
+		for(long shardId = 0; shardId < 100; shardId++) {
+			List<Object> key = ClosedShardResultCache.makeKey("rows:10", QUERY, new Object[]{shardId, 222222L}, null);
+			cache.putRows("testtype123", shardId, key, rows, cache.getInvalidationCount());
+		}
+		assertTrue(cache.getStats().evictionCount() >= 60);
+	}
+}
@@ -0,0 +1,181 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyDaily;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import com.pardot.rhombus.helpers.TestHelpers;
+import com.datastax.driver.core.utils.UUIDs;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class CompiledDefinitionTest extends TestCase {
+
+	private CDefinition getDefinition() throws IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		return CDefinition.fromJsonString(json);
+	}
+
+	public void testOrdinals() throws IOException {
+		CompiledDefinition compiled = getDefinition().getCompiled();
+		assertEquals(7, compiled.getFieldCount());
+		for(int ordinal = 0; ordinal < compiled.getFieldCount(); ordinal++) {
+			assertEquals(ordinal, compiled.getOrdinal(compiled.getField(ordinal).getName()));
+		}
+		assertEquals(-1, compiled.getOrdinal("notafield"));
+		assertNull(compiled.getIdField());
+	}
+
+	public void testRequiredFields() throws IOException {
+		CompiledDefinition compiled = getDefinition().getCompiled();
+		assertEquals(Sets.newHashSet("foreignid", "type", "instance"), Sets.newHashSet(compiled.getRequiredFields()));
+		assertTrue(compiled.isFieldUsedInAnyIndex("instance"));
+		assertFalse(compiled.isFieldUsedInAnyIndex("data1"));
+	}
+
+	public void testIndexLookup() throws IOException {
+		CDefinition def = getDefinition();
+		CompiledDefinition compiled = def.getCompiled();
+		assertEquals("instance:type", compiled.getExactIndex(Lists.newArrayList("instance", "type")).getKey());
+		assertNull(compiled.getExactIndex(Lists.newArrayList("instance")));
+		CIndex index = compiled.getMostSelectiveIndex(Lists.newArrayList("data1", "foreignid", "instance", "type"));
+		assertEquals("foreignid:instance:type", index.getKey());
+	}
+
+	public void testTableNames() throws IOException {
+		CDefinition def = getDefinition();
+		CompiledDefinition compiled = def.getCompiled();
+		assertEquals("testtype", compiled.getTableName(null));
+		for(CIndex index : compiled.getIndexes()) {
+			assertEquals(CObjectCQLGenerator.makeTableName(def, index), compiled.getTableName(index));
+		}
+		assertFalse(compiled.isSharded(def.getIndexes().get("foreignid")));
+		assertTrue(compiled.isSharded(def.getIndexes().get("instance:type")));
+	}
+
+	public void testRecompiledOnChange() throws IOException {
+		CDefinition def = getDefinition();
+		CompiledDefinition compiled = def.getCompiled();
+		assertSame(compiled, def.getCompiled());
+		def.setName("othertype");
+		assertNotSame(compiled, def.getCompiled());
+		assertEquals("othertype", def.getCompiled().getStaticTableName());
+	}
+
+	public void testRecompiledOnIndexChange() throws IOException {
+		CDefinition def = getDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		CompiledDefinition compiled = def.getCompiled();
+		assertFalse(compiled.getCompiledIndex(index).isThin());
+		index.setStorage(CIndexStorage.THIN);
+		assertNotSame(compiled, def.getCompiled());
+		assertTrue(def.getCompiled().getCompiledIndex(index).isThin());
+
+		//changes to the reshard layout of an index are picked up too
+		CIndexReshard reshard = new CIndexReshard(new ShardingStrategyDaily(), 1, CIndexReshardPhase.BACKFILL);
+		index.setReshard(reshard);
+		assertEquals(4, def.getCompiled().getIndexes().size());
+		compiled = def.getCompiled();
+		assertSame(compiled, def.getCompiled());
+		reshard.setLayoutVersion(2);
+		assertEquals(2, def.getCompiled().getIndexes().get(3).getLayoutVersion());
+	}
+
+	public void testThinIndex() throws IOException, CQLGenerationException {
+		CDefinition def = getDefinition();
+		CIndex thin = def.getIndexes().get("instance:type");
+		thin.setStorage(CIndexStorage.THIN);
+		thin.setCoveringFields(Lists.newArrayList("data1"));
+		def.compile();
+		CompiledDefinition.CompiledIndex compiledIndex = def.getCompiled().getCompiledIndex(thin);
+		assertTrue(compiledIndex.isThin());
+		assertEquals(3, compiledIndex.getStoredFields().size());
+		assertTrue(compiledIndex.storesAllFields(Lists.newArrayList("instance", "type", "data1")));
+		assertFalse(compiledIndex.isStoredField("data2"));
+		assertFalse(def.getCompiled().getCompiledIndex(def.getIndexes().get("foreignid")).isThin());
+
+		Map<String, CDefinition> definitions = Maps.newHashMap();
+		definitions.put(def.getName(), def);
+		CObjectCQLGenerator generator = new CObjectCQLGenerator("testspace", definitions, null, 1000);
+		String create = generator.makeWideTableCreate(def, thin).getQuery();
+		assertTrue(create.contains("data1 varchar"));
+		assertTrue(create.contains("instance bigint"));
+		assertFalse(create.contains("data2"));
+		assertFalse(create.contains("foreignid"));
+
+		Map<String, Object> data = Maps.newHashMap();
+		data.put("foreignid", 777L);
+		data.put("type", 1);
+		data.put("instance", 333L);
+		data.put("data1", "data1");
+		data.put("data2", "data2");
+		CQLStatementIterator statements = generator.makeCQLforInsert(def.getName(), data, UUIDs.timeBased(), 0L);
+		String thinTableName = CObjectCQLGenerator.makeTableName(def, thin);
+		boolean foundThinInsert = false;
+		while(statements.hasNext()) {
+			CQLStatement statement = statements.next();
+			if(statement.getQuery().startsWith("INSERT INTO \"testspace\".\"" + thinTableName + "\"")) {
+				foundThinInsert = true;
+				assertFalse(statement.getQuery().contains("data2"));
+				// id, shardid, instance, type and data1
+				assertEquals(5, statement.getValues().length);
+			}
+		}
+		assertTrue(foundThinInsert);
+
+		CQLStatementIterator addField = generator.makeCQLforAddFieldToObject(def, "data2", Lists.newArrayList(def.getIndexes().values()));
+		int alters = 0;
+		while(addField.hasNext()) {
+			assertFalse(addField.next().getQuery().contains(thinTableName));
+			alters++;
+		}
+		assertEquals(3, alters);
+	}
+
+	public void testReshardLayout() throws IOException, CQLGenerationException {
+		CDefinition def = getDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		index.setReshard(new CIndexReshard(new ShardingStrategyDaily(), 1, CIndexReshardPhase.BACKFILL));
+		def.compile();
+		CompiledDefinition compiled = def.getCompiled();
+
+		//writes go to both layouts, reads only find the index's own layout
+		assertEquals(4, compiled.getIndexes().size());
+		CIndex layout = compiled.getIndexes().get(3);
+		assertEquals("instance:type", layout.getKey());
+		assertEquals(1, layout.getLayoutVersion());
+		assertSame(index, compiled.getExactIndex(Lists.newArrayList("instance", "type")));
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		String layoutTableName = CObjectCQLGenerator.makeTableName(def, layout);
+		assertFalse(tableName.equals(layoutTableName));
+		assertEquals(layoutTableName, compiled.getTableName(layout));
+		assertTrue(compiled.getCompiledIndex(layout).getShardingStrategy() instanceof ShardingStrategyDaily);
+
+		Map<String, CDefinition> definitions = Maps.newHashMap();
+		definitions.put(def.getName(), def);
+		CObjectCQLGenerator generator = new CObjectCQLGenerator("testspace", definitions, null, 1000);
+		Map<String, Object> data = Maps.newHashMap();
+		data.put("foreignid", 777L);
+		data.put("type", 1);
+		data.put("instance", 333L);
+		CQLStatementIterator statements = generator.makeCQLforInsert(def.getName(), data, UUIDs.timeBased(), 0L);
+		boolean foundInsert = false;
+		boolean foundLayoutInsert = false;
+		while(statements.hasNext()) {
+			String query = statements.next().getQuery();
+			foundInsert |= query.startsWith("INSERT INTO \"testspace\".\"" + tableName + "\"");
+			foundLayoutInsert |= query.startsWith("INSERT INTO \"testspace\".\"" + layoutTableName + "\"");
+		}
+		assertTrue(foundInsert);
+		assertTrue(foundLayoutInsert);
+	}
+}
@@ -0,0 +1,109 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Lists;
+import com.pardot.rhombus.cobject.async.ConcurrencyLimiter;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ConcurrencyLimiterTest extends TestCase {
+
+	private static class Statement implements Runnable {
+		private boolean sent = false;
+
+		@Override
+		public void run() {
+			sent = true;
+		}
+	}
+
+	public void testQueuesAndShedsOverLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, 1);
+		List<Statement> statements = Lists.newArrayList();
+		for(int i = 0; i < 3; i++) {
+			Statement statement = new Statement();
+			assertTrue(limiter.acquire(statement));
+			statements.add(statement);
+		}
+		assertTrue(statements.get(0).sent);
+		assertTrue(statements.get(1).sent);
+		assertFalse(statements.get(2).sent);
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(1, limiter.getQueued());
+
+		// The queue is full
+		assertFalse(limiter.acquire(new Statement()));
+
+		limiter.release();
+		assertTrue(statements.get(2).sent);
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+	}
+
+	public void testBacksOffOncePerRoundTrip() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 100, 0);
+		long startTime = System.nanoTime();
+		for(int i = 0; i < 10; i++) {
+			limiter.acquire(new Statement());
+		}
+		// Every statement in flight when the cluster overloaded backs the limit off once
+		for(int i = 0; i < 10; i++) {
+			limiter.release(startTime, true);
+		}
+		assertEquals(90, limiter.getLimit());
+
+		limiter.acquire(new Statement());
+		limiter.release(System.nanoTime(), true);
+		assertEquals(81, limiter.getLimit());
+	}
+
+	public void testGrowsWhileInUse() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, 0);
+		limiter.acquire(new Statement());
+		limiter.release(System.nanoTime(), true);
+		assertEquals(9, limiter.getLimit());
+
+		// Completing a limit of statements in time while it is in use grows it by one
+		for(int i = 0; i < 10; i++) {
+			limiter.acquire(new Statement());
+		}
+		for(int i = 0; i < 10; i++) {
+			limiter.acquire(new Statement());
+			limiter.release(System.nanoTime(), false);
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	public void testMixedLatenciesDoNotBackOff() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 200, 0);
+		// Statements sent before the limiter was made never back it off
+		Thread.sleep(10);
+		// Statements alternately take one and three milliseconds, which is the normal latency of this workload
+		for(int i = 0; i < 2000; i++) {
+			limiter.acquire(new Statement());
+			limiter.release(System.nanoTime() - ((i % 2 == 0) ? 1000000L : 3000000L), false);
+		}
+		assertEquals(200, limiter.getLimit());
+	}
+
+	public void testBacksOffWhenLatencyRises() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 200, 0);
+		Thread.sleep(20);
+		for(int i = 0; i < 1000; i++) {
+			limiter.acquire(new Statement());
+			limiter.release(System.nanoTime() - 1000000L, false);
+		}
+		assertEquals(200, limiter.getLimit());
+
+		// The cluster slows down to ten milliseconds a statement
+		for(int i = 0; i < 50; i++) {
+			limiter.acquire(new Statement());
+			limiter.release(System.nanoTime() - 10000000L, false);
+		}
+		assertTrue(limiter.getLimit() < 200);
+	}
+}
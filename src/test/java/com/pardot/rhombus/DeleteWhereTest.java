@@ -0,0 +1,100 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class DeleteWhereTest extends TestCase {
+
+	private CDefinition makeDefinition() throws CObjectParseException, IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		return CDefinition.fromJsonString(json);
+	}
+
+	private SortedMap<String, Object> makeIndexValues() {
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		indexValues.put("type", 5);
+		indexValues.put("instance", 222222L);
+		return indexValues;
+	}
+
+	public void testMakeCQLforShardPage() throws Exception {
+		CDefinition def = makeDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+
+		CQLStatement first = CObjectCQLGenerator.makeCQLforShardPage("testspace", def, index, makeIndexValues(), 160L, null, 100);
+		assertEquals("SELECT * FROM \"testspace\".\"" + tableName + "\" WHERE shardid = ? AND instance = ? AND type = ? ORDER BY id DESC LIMIT 100;", first.getQuery());
+		assertEquals(Arrays.<Object>asList(160L, 222222L, 5), Arrays.asList(first.getValues()));
+
+		UUID before = UUID.fromString("a4c2bd20-4fa6-11e3-8f96-0800200c9a66");
+		CQLStatement next = CObjectCQLGenerator.makeCQLforShardPage("testspace", def, index, makeIndexValues(), 160L, before, 100);
+		assertEquals("SELECT * FROM \"testspace\".\"" + tableName + "\" WHERE shardid = ? AND instance = ? AND type = ? AND id < ? ORDER BY id DESC LIMIT 100;", next.getQuery());
+		assertEquals(Arrays.<Object>asList(160L, 222222L, 5, before), Arrays.asList(next.getValues()));
+	}
+
+	public void testMakeCQLforDeleteShard() throws Exception {
+		CDefinition def = makeDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		CQLStatement delete = CObjectCQLGenerator.makeCQLforDeleteShard("testspace", def, index, makeIndexValues(), 160L);
+		assertEquals("DELETE FROM \"testspace\".\"" + tableName + "\" WHERE shardid = ? AND instance = ? AND type = ?;", delete.getQuery());
+		assertEquals(Arrays.<Object>asList(160L, 222222L, 5), Arrays.asList(delete.getValues()));
+	}
+
+	public void testMakeCQLforDeleteShardIndexEntry() throws Exception {
+		CDefinition def = makeDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+
+		List<CQLStatement> legacy = CObjectCQLGenerator.makeCQLforDeleteShardIndexEntry("testspace", ShardIndexKeyMode.LEGACY, def, index, makeIndexValues(), 160L);
+		assertEquals(1, legacy.size());
+		assertEquals("DELETE FROM \"testspace\".\"__shardindex\" WHERE tablename = ? AND indexvalues = ? AND shardid = ?;", legacy.get(0).getQuery());
+		assertEquals(Arrays.<Object>asList(tableName, "222222:5", 160L), Arrays.asList(legacy.get(0).getValues()));
+
+		List<CQLStatement> migrate = CObjectCQLGenerator.makeCQLforDeleteShardIndexEntry("testspace", ShardIndexKeyMode.MIGRATE, def, index, makeIndexValues(), 160L);
+		assertEquals(2, migrate.size());
+		ShardIndexKey key = ShardIndexKey.fromValues(makeIndexValues().values());
+		assertEquals(Arrays.<Object>asList(tableName, key.getHash(), 160L, key.getEncoded()), Arrays.asList(migrate.get(1).getValues()));
+	}
+
+	public void testMakeCQLforDeleteSkipsIndex() throws Exception {
+		CDefinition def = makeDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		Map<String, Object> data = Maps.newHashMap();
+		data.put("foreignid", 777L);
+		data.put("type", 5);
+		data.put("instance", 222222L);
+		UUID key = UUID.fromString("a4c2bd20-4fa6-11e3-8f96-0800200c9a66");
+
+		CQLStatementIterator all = CObjectCQLGenerator.makeCQLforDelete("testspace", def, key, data, null, null);
+		CQLStatementIterator skipped = CObjectCQLGenerator.makeCQLforDelete("testspace", def, key, data, null, Collections.singleton(index));
+		int allCount = 0;
+		while(all.hasNext()) {
+			all.next();
+			allCount++;
+		}
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+		int skippedCount = 0;
+		while(skipped.hasNext()) {
+			assertFalse(skipped.next().getQuery().contains("\"" + tableName + "\""));
+			skippedCount++;
+		}
+		assertEquals(allCount - 1, skippedCount);
+	}
+}
@@ -0,0 +1,128 @@
+package com.pardot.rhombus;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.entity.EntityCodec;
+import com.pardot.rhombus.entity.EntityCodecs;
+import com.pardot.rhombus.entity.EntityProcessor;
+import junit.framework.TestCase;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class EntityProcessorTest extends TestCase {
+
+	private static final String SAMPLE = "package sample;\n" +
+			"import com.pardot.rhombus.entity.*;\n" +
+			"@RhombusEntity(\"typed\")\n" +
+			"public class Sample {\n" +
+			"	public java.util.UUID id;\n" +
+			"	public String name;\n" +
+			"	long count;\n" +
+			"	private Integer type;\n" +
+			"	@RhombusField(\"active\") boolean enabled;\n" +
+			"	transient String ignored;\n" +
+			"	static int instances;\n" +
+			"	public Integer getType() { return type; }\n" +
+			"	public void setType(Integer type) { this.type = type; }\n" +
+			"}\n";
+
+	private static CDefinition makeDefinition(String countType) throws IOException {
+		return CDefinition.fromJsonString("{\"name\": \"typed\", \"fields\": [" +
+				"{\"name\": \"name\", \"type\": \"varchar\"}, {\"name\": \"count\", \"type\": \"" + countType + "\"}, " +
+				"{\"name\": \"type\", \"type\": \"int\"}, {\"name\": \"active\", \"type\": \"boolean\"}], \"indexes\": []}");
+	}
+
+	/**
+	 * Compile a source file with the entity processor
+	 * @return Class loader of the compiled classes, or null if compilation failed
+	 */
+	private static ClassLoader compile(String className, String source, DiagnosticCollector<JavaFileObject> diagnostics) throws IOException {
+		File dir = Files.createTempDir();
+		File sourceFile = new File(dir, className.replace('.', '/') + ".java");
+		Files.createParentDirs(sourceFile);
+		Files.write(source, sourceFile, Charsets.UTF_8);
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, Charsets.UTF_8);
+		try {
+			List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", dir.getPath(), "-s", dir.getPath());
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+					fileManager.getJavaFileObjects(sourceFile));
+			task.setProcessors(Collections.singletonList(new EntityProcessor()));
+			if(!task.call()) {
+				return null;
+			}
+		} finally {
+			fileManager.close();
+		}
+		return new URLClassLoader(new URL[] {dir.toURI().toURL()}, EntityProcessorTest.class.getClassLoader());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static EntityCodec<Object> compileSample() throws Exception {
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		ClassLoader loader = compile("sample.Sample", SAMPLE, diagnostics);
+		assertNotNull(diagnostics.getDiagnostics().toString(), loader);
+		return EntityCodecs.get((Class<Object>)loader.loadClass("sample.Sample"));
+	}
+
+	public void testGeneratedCodecRoundTrip() throws Exception {
+		EntityCodec<Object> codec = compileSample();
+		assertEquals("typed", codec.getObjectType());
+		assertEquals(new HashSet<String>(Arrays.asList("id", "name", "count", "type", "active")), codec.getFieldTypes().keySet());
+		assertEquals(long.class, codec.getFieldTypes().get("count"));
+
+		UUID id = UUID.randomUUID();
+		Map<String, Object> values = Maps.newHashMap();
+		values.put("id", id);
+		values.put("name", "sample");
+		values.put("count", 12L);
+		values.put("type", 3);
+		values.put("active", true);
+		Object entity = codec.fromMap(values);
+		assertEquals(id, codec.getId(entity));
+		values.remove("id");
+		assertEquals(values, codec.encode(entity));
+
+		// Null objects are left out, primitives keep their default
+		Object empty = codec.fromMap(Collections.<String, Object>emptyMap());
+		assertNull(codec.getId(empty));
+		SortedMap<String, Object> encoded = codec.encode(empty);
+		assertEquals(Arrays.asList("active", "count"), new ArrayList<String>(encoded.keySet()));
+		assertEquals(0L, encoded.get("count"));
+		codec.setId(empty, id);
+		assertEquals(id, codec.getId(empty));
+	}
+
+	public void testValidateAgainstDefinition() throws Exception {
+		EntityCodec<Object> codec = compileSample();
+		EntityCodecs.validate(codec, makeDefinition("bigint"));
+		try {
+			EntityCodecs.validate(codec, makeDefinition("varchar"));
+			fail("Expected the type of count to be rejected");
+		} catch(IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("count"));
+		}
+	}
+
+	public void testInaccessibleFieldIsReported() throws Exception {
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		String source = "package sample;\n" +
+				"@com.pardot.rhombus.entity.RhombusEntity(\"typed\")\n" +
+				"public class Hidden {\n" +
+				"	private String name;\n" +
+				"}\n";
+		assertNull(compile("sample.Hidden", source, diagnostics));
+		assertTrue(diagnostics.getDiagnostics().toString().contains("getter and a setter"));
+	}
+}
@@ -0,0 +1,126 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.DataType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.pardot.rhombus.cobject.CField;
+import junit.framework.TestCase;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ExternalRowSorterTest extends TestCase {
+
+	private static LinkedHashMap<String, DataType> makeColumns() {
+		LinkedHashMap<String, DataType> columns = Maps.newLinkedHashMap();
+		columns.put("shardid", DataType.bigint());
+		columns.put("instance", DataType.bigint());
+		columns.put("seq", DataType.cint());
+		columns.put("name", DataType.varchar());
+		return columns;
+	}
+
+	private static Map<String, Object> makeRow(long instance, int seq, String name) {
+		Map<String, Object> row = Maps.newHashMap();
+		row.put("shardid", 1L);
+		row.put("instance", instance);
+		row.put("seq", seq);
+		row.put("name", name);
+		return row;
+	}
+
+	private static long getToken(long instance) {
+		ByteBuffer key = ByteBuffer.allocate(2 * (2 + 8 + 1));
+		for(long value : new long[] {1L, instance}) {
+			key.putShort((short)8).putLong(value).put((byte)0);
+		}
+		key.flip();
+		return new Murmur3Partitioner().getToken(key).token;
+	}
+
+	private List<Map<String, Object>> sort(List<Map<String, Object>> rows, long bufferBytes, File directory, boolean spilled) throws IOException {
+		ExternalRowSorter sorter = new ExternalRowSorter("test", makeColumns(), Arrays.asList("shardid", "instance"), bufferBytes, directory);
+		try {
+			for(Map<String, Object> row : rows) {
+				sorter.add(row);
+			}
+			assertEquals(rows.size(), sorter.getRowsAdded());
+			assertEquals(spilled, sorter.getRunCount() > 1);
+			return Lists.newArrayList(sorter.sortedRows());
+		} finally {
+			sorter.close();
+		}
+	}
+
+	private void assertSorted(List<Map<String, Object>> rows, List<Map<String, Object>> sorted) {
+		assertEquals(rows.size(), sorted.size());
+		Map<Long, Integer> lastSeq = Maps.newHashMap();
+		long lastToken = Long.MIN_VALUE;
+		for(Map<String, Object> row : sorted) {
+			long instance = (Long)row.get("instance");
+			long token = getToken(instance);
+			assertTrue(token >= lastToken);
+			lastToken = token;
+			// Rows of a partition keep the order they were added in
+			Integer seq = (Integer)row.get("seq");
+			if(lastSeq.containsKey(instance)) {
+				assertTrue(seq > lastSeq.get(instance));
+			}
+			lastSeq.put(instance, seq);
+		}
+	}
+
+	public void testSortInMemory() throws IOException {
+		File directory = Files.createTempDir();
+		List<Map<String, Object>> rows = Lists.newArrayList();
+		for(int i = 0; i < 50; i++) {
+			rows.add(makeRow(i % 10, i, "name" + i));
+		}
+		List<Map<String, Object>> sorted = sort(rows, ExternalRowSorter.DEFAULT_BUFFER_BYTES, directory, false);
+		assertSorted(rows, sorted);
+		assertEquals(0, directory.list().length);
+		assertTrue(directory.delete());
+	}
+
+	public void testSortSpilledRuns() throws IOException {
+		File directory = Files.createTempDir();
+		List<Map<String, Object>> rows = Lists.newArrayList();
+		Random random = new Random(42);
+		for(int i = 0; i < 1000; i++) {
+			rows.add(makeRow(random.nextInt(100), i, (i % 3 == 0) ? null : "name" + i));
+		}
+		// Every run holds fewer than ten rows
+		List<Map<String, Object>> sorted = sort(rows, 1000, directory, true);
+		assertSorted(rows, sorted);
+		Set<Integer> seqs = new HashSet<Integer>();
+		for(Map<String, Object> row : sorted) {
+			seqs.add((Integer)row.get("seq"));
+			assertEquals(((Integer)row.get("seq") % 3 == 0) ? null : "name" + row.get("seq"), row.get("name"));
+		}
+		assertEquals(1000, seqs.size());
+		// Run files are removed once the rows are written
+		assertEquals(0, directory.list().length);
+		assertTrue(directory.delete());
+	}
+
+	public void testMissingPartitionKeyRejected() throws IOException {
+		ExternalRowSorter sorter = new ExternalRowSorter("test", makeColumns(), Arrays.asList("shardid", "instance"), 1000, Files.createTempDir());
+		Map<String, Object> row = makeRow(1L, 1, "name");
+		row.remove("instance");
+		try {
+			sorter.add(row);
+			fail("Expected a row without its partition key to be rejected");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(DataType.timeuuid(), ExternalRowSorter.getDataType(CField.CDataType.TIMEUUID));
+	}
+}
@@ -0,0 +1,65 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.helpers.TestHelpers;
+import com.pardot.rhombus.util.JsonUtil;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.UUID;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class IndexCountsTest extends TestCase {
+
+	public void testCountedIndexFromJson() throws IOException {
+		CKeyspaceDefinition keyspaceDefinition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "CKeyspaceTestData.js");
+		CIndex index = keyspaceDefinition.getDefinitions().get("testtype").getIndexes().get("instance:type");
+		assertFalse(index.isCounted());
+
+		CIndex counted = new com.fasterxml.jackson.databind.ObjectMapper().readValue(
+				"{\"key\": \"instance:type\", \"shardingStrategy\": {\"type\": \"ShardingStrategyMonthly\"}, \"counted\": true}", CIndex.class);
+		assertTrue(counted.isCounted());
+		assertFalse(counted.equals(index));
+	}
+
+	public void testMakeCQLforGetIndexCounts() throws CQLGenerationException {
+		ShardIndexKey key = ShardIndexKey.fromValues(Arrays.asList(5, 222222L));
+		CQLStatement unbounded = CObjectCQLGenerator.makeCQLforGetIndexCounts("testspace", "testtype123", key, null, null);
+		assertEquals("SELECT shardid, rowcount FROM \"testspace\".\"__index_counts\" WHERE tablename = ? AND indexkey = ?;", unbounded.getQuery());
+		assertEquals(Arrays.<Object>asList("testtype123", key.getEncoded()), Arrays.asList(unbounded.getValues()));
+
+		CQLStatement bounded = CObjectCQLGenerator.makeCQLforGetIndexCounts("testspace", "testtype123", key, 10L, 20L);
+		assertEquals("SELECT shardid, rowcount FROM \"testspace\".\"__index_counts\" WHERE tablename = ? AND indexkey = ? AND shardid > ? AND shardid < ?;", bounded.getQuery());
+		assertEquals(Arrays.<Object>asList("testtype123", key.getEncoded(), 10L, 20L), Arrays.asList(bounded.getValues()));
+	}
+
+	public void testMakeCQLforIncrementIndexCount() throws CQLGenerationException {
+		ShardIndexKey key = ShardIndexKey.fromValues(Arrays.asList(5, 222222L));
+		CQLStatement increment = CObjectCQLGenerator.makeCQLforIncrementIndexCount("testspace", "testtype123", key.getEncoded(), 160L, -1L);
+		assertEquals("UPDATE \"testspace\".\"__index_counts\" SET rowcount = rowcount + ? WHERE tablename = ? AND indexkey = ? AND shardid = ?;", increment.getQuery());
+		assertEquals(Arrays.<Object>asList(-1L, "testtype123", key.getEncoded(), 160L), Arrays.asList(increment.getValues()));
+	}
+
+	public void testMakeCQLforShardRowCountInRange() throws CObjectParseException, IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		CDefinition def = CDefinition.fromJsonString(json);
+		CIndex index = def.getIndexes().get("instance:type");
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		indexValues.put("type", 5);
+		indexValues.put("instance", 222222L);
+		UUID start = UUIDs.startOf(1000L);
+		String tableName = CObjectCQLGenerator.makeTableName(def, index);
+
+		CQLStatement count = CObjectCQLGenerator.makeCQLforShardRowCountInRange("testspace", def, index, indexValues, 7L, start, null, true, 500L);
+		assertEquals("SELECT count(*) FROM \"testspace\".\"" + tableName + "\" WHERE shardid = ? AND instance = ? AND type = ? AND id >= ? LIMIT 500;", count.getQuery());
+		assertEquals(Arrays.<Object>asList(7L, 222222L, 5, start), Arrays.asList(count.getValues()));
+	}
+}
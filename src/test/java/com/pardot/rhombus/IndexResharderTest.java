@@ -0,0 +1,110 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.migrations.CObjectMigrationException;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyDaily;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyHourly;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyMonthly;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.util.JsonUtil;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class IndexResharderTest extends TestCase {
+
+	private CKeyspaceDefinition getKeyspaceDefinition() throws IOException {
+		return JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "CKeyspaceTestData.js");
+	}
+
+	public void testSplitTokenRing() {
+		long[] boundaries = IndexResharder.splitTokenRing(4);
+		assertEquals(5, boundaries.length);
+		assertEquals(Long.MIN_VALUE, boundaries[0]);
+		assertEquals(Long.MIN_VALUE / 2, boundaries[1]);
+		assertEquals(0L, boundaries[2]);
+		assertEquals(Long.MAX_VALUE / 2 + 1, boundaries[3]);
+		assertEquals(Long.MAX_VALUE, boundaries[4]);
+	}
+
+	public void testBackfillWritesAtObjectWriteTime() throws IOException, CQLGenerationException {
+		CDefinition def = getKeyspaceDefinition().getDefinitions().get("testtype");
+		CIndex index = def.getIndexes().get("instance:type");
+		Map<String, Object> object = Maps.newHashMap();
+		UUID id = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
+		object.put("id", id);
+		object.put("foreignid", 777L);
+		object.put("type", 5);
+		object.put("instance", 222222L);
+		object.put("filtered", 1);
+		object.put("data1", "data1");
+		object.put("data2", "data2");
+		object.put("data3", "data3");
+
+		// The index row is written with the write time of the object, the shard index entry is not
+		List<CQLStatement> statements = CObjectCQLGenerator.makeCQLforIndexBackfill("testspace", def, index, object, id, 1381161600000123L, ShardIndexKeyMode.DEFAULT);
+		CQLStatement insert = statements.get(0);
+		assertTrue(insert.getQuery().endsWith(" USING TIMESTAMP ?;"));
+		assertEquals(1381161600000123L, insert.getValues()[insert.getValues().length - 1]);
+		for(CQLStatement statement : statements.subList(1, statements.size())) {
+			assertFalse(statement.getQuery().contains("USING TIMESTAMP"));
+		}
+
+		// The scan reads the write time of every column after the columns themselves
+		CQLStatement scan = CObjectCQLGenerator.makeCQLforTableScanWithWriteTimesInTokenRange("testspace", def, 0L, 10L);
+		List<CField> fields = def.getCompiled().getNonIdFields();
+		assertTrue(scan.getQuery().startsWith("SELECT id, " + fields.get(0).getName() + ", "));
+		assertTrue(scan.getQuery().contains(", writetime(" + fields.get(fields.size() - 1).getName() + ") FROM"));
+	}
+
+	public void testReshardSteps() throws IOException, CObjectMigrationException {
+		CKeyspaceDefinition stored = getKeyspaceDefinition();
+		CKeyspaceDefinition requested = getKeyspaceDefinition();
+		CIndex requestedIndex = requested.getDefinitions().get("testtype").getIndexes().get("instance:type");
+		requestedIndex.setShardingStrategy(new ShardingStrategyHourly());
+		CField newField = new CField("newfield", CField.CDataType.VARCHAR);
+		requested.getDefinitions().get("testtype").getFields().put(newField.getName(), newField);
+
+		//the regular migration adds the field but keeps the stored layout
+		CKeyspaceDefinition target = IndexResharder.makeMigrationTarget(stored, requested);
+		CDefinition targetDef = target.getDefinitions().get("testtype");
+		assertNotNull(targetDef.getField("newfield"));
+		CIndex index = targetDef.getIndexes().get("instance:type");
+		assertEquals(stored.getDefinitions().get("testtype").getIndexes().get("instance:type").getShardingStrategy(), index.getShardingStrategy());
+
+		IndexResharder.addReshardLayout(index, requestedIndex);
+		assertEquals(1, index.getReshard().getLayoutVersion());
+		assertEquals(CIndexReshardPhase.BACKFILL, index.getReshard().getPhase());
+
+		//requesting a different strategy while the backfill runs is refused
+		CKeyspaceDefinition other = getKeyspaceDefinition();
+		other.getDefinitions().get("testtype").getIndexes().get("instance:type").setShardingStrategy(new ShardingStrategyDaily());
+		try {
+			IndexResharder.makeMigrationTarget(target, other);
+			fail("Changing the target of a running reshard should not be allowed");
+		} catch(CObjectMigrationException e) {
+			//expected
+		}
+
+		IndexResharder.swapLayouts(index);
+		assertTrue(index.getShardingStrategy() instanceof ShardingStrategyHourly);
+		assertEquals(1, index.getLayoutVersion());
+		assertEquals(0, index.getReshard().getLayoutVersion());
+		assertEquals(CIndexReshardPhase.RETIRE, index.getReshard().getPhase());
+
+		//the flipped layout survives a round trip through the stored json
+		String json = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(target);
+		CKeyspaceDefinition read = CKeyspaceDefinition.fromJsonString(json);
+		assertEquals(target, read);
+		//indexes that are not being resharded do not store an empty reshard
+		assertFalse(json.contains("\"reshard\":null"));
+	}
+}
@@ -0,0 +1,146 @@
+package com.pardot.rhombus;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CField;
+import com.pardot.rhombus.cobject.CIndex;
+import com.pardot.rhombus.cobject.IndexValuesCodec;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyNone;
+import com.pardot.rhombus.helpers.TestHelpers;
+import com.pardot.rhombus.util.JsonUtil;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class IndexValuesCodecTest extends TestCase {
+
+	private CDefinition getDefinition() throws IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		return CDefinition.fromJsonString(json);
+	}
+
+	public void testRoundTrip() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777L);
+		values.put("instance", -222222L);
+		values.put("type", null);
+		ByteBuffer encoded = IndexValuesCodec.encode(def.getCompiled(), values);
+		assertEquals(values, IndexValuesCodec.decode(def.getCompiled(), encoded));
+	}
+
+	public void testFieldsNotInAnIndexAreDropped() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777L);
+		values.put("data1", "not indexed");
+		Map<String, Object> expected = Maps.newTreeMap();
+		expected.put("foreignid", 777L);
+		assertEquals(expected, IndexValuesCodec.decode(def.getCompiled(), IndexValuesCodec.encode(def.getCompiled(), values)));
+	}
+
+	public void testMatchesJsonCoercion() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777);
+		values.put("instance", "222222");
+		values.put("type", 9L);
+		values.put("notafield", "dropped");
+		SortedMap<String, Object> decoded = IndexValuesCodec.decode(def.getCompiled(), IndexValuesCodec.encode(def.getCompiled(), values));
+		assertEquals(JsonUtil.rhombusMapFromJsonMap(values, def), decoded);
+	}
+
+	public void testAllTypes() throws IOException {
+		CDefinition def = new CDefinition();
+		def.setName("alltypes");
+		List<CField> fields = Lists.newArrayList();
+		Map<String, Object> values = Maps.newTreeMap();
+		addField(fields, values, CField.CDataType.BOOLEAN, true);
+		addField(fields, values, CField.CDataType.DECIMAL, new BigDecimal("-12345.6789"));
+		addField(fields, values, CField.CDataType.DOUBLE, 1.5d);
+		addField(fields, values, CField.CDataType.FLOAT, 2.5f);
+		addField(fields, values, CField.CDataType.TIMESTAMP, new Date(1381161600000L));
+		addField(fields, values, CField.CDataType.TIMEUUID, UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43"));
+		addField(fields, values, CField.CDataType.VARINT, new BigInteger("-98765432109876543210"));
+		addField(fields, values, CField.CDataType.BIGINT, Long.MIN_VALUE);
+		addField(fields, values, CField.CDataType.INT, Integer.MAX_VALUE);
+		addField(fields, values, CField.CDataType.VARCHAR, "some é data");
+		def.setFields(fields);
+		def.setIndexes(Lists.newArrayList(new CIndex(Joiner.on(":").join(values.keySet()), new ShardingStrategyNone())));
+		assertEquals(values, IndexValuesCodec.decode(def.getCompiled(), IndexValuesCodec.encode(def.getCompiled(), values)));
+	}
+
+	public void testAppendedFieldIsCompatible() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777L);
+		ByteBuffer encoded = IndexValuesCodec.encode(def.getCompiled(), values);
+
+		List<CField> fields = Lists.newArrayList(def.getFields().values());
+		fields.add(new CField("zzz", CField.CDataType.VARCHAR));
+		def.setFields(fields);
+		assertEquals(values, IndexValuesCodec.decode(def.getCompiled(), encoded));
+	}
+
+	public void testFieldSortingFirstIsCompatible() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777L);
+		values.put("type", 9);
+		ByteBuffer encoded = IndexValuesCodec.encode(def.getCompiled(), values);
+
+		List<CField> fields = Lists.newArrayList(def.getFields().values());
+		fields.add(new CField("aaa", CField.CDataType.VARCHAR));
+		def.setFields(fields);
+		assertEquals(values, IndexValuesCodec.decode(def.getCompiled(), encoded));
+	}
+
+	public void testRemovedFieldIsCompatible() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777L);
+		ByteBuffer encoded = IndexValuesCodec.encode(def.getCompiled(), values);
+
+		List<CField> fields = Lists.newArrayList();
+		for(CField field : def.getFields().values()) {
+			if(!field.getName().equals("data1")) {
+				fields.add(field);
+			}
+		}
+		def.setFields(fields);
+		assertEquals(values, IndexValuesCodec.decode(def.getCompiled(), encoded));
+	}
+
+	public void testIndexedFieldChangeIsRejected() throws IOException {
+		CDefinition def = getDefinition();
+		Map<String, Object> values = Maps.newTreeMap();
+		values.put("foreignid", 777L);
+		ByteBuffer encoded = IndexValuesCodec.encode(def.getCompiled(), values);
+
+		List<CIndex> indexes = Lists.newArrayList(def.getIndexes().values());
+		indexes.add(new CIndex("data1", new ShardingStrategyNone()));
+		def.setIndexes(indexes);
+		try {
+			IndexValuesCodec.decode(def.getCompiled(), encoded);
+			fail("Snapshot written for other indexed fields was decoded");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	private void addField(List<CField> fields, Map<String, Object> values, CField.CDataType type, Object value) {
+		String name = "field" + fields.size();
+		fields.add(new CField(name, type));
+		values.put(name, value);
+	}
+}
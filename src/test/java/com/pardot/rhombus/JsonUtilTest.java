@@ -1,11 +1,16 @@
 package com.pardot.rhombus;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.pardot.rhombus.cobject.CDefinition;
 import com.pardot.rhombus.cobject.CField;
 import com.pardot.rhombus.cobject.CObjectParseException;
+import com.pardot.rhombus.helpers.TestHelpers;
 import com.pardot.rhombus.util.JsonUtil;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.*;
@@ -472,5 +477,67 @@ public class JsonUtilTest extends JsonUtil{
 
         JsonUtil.typedObjectFromValueAndField(jsonValue, field);
     }
-    
+
+    @Test
+    public void typedObjectFromParserMatchesJsonValue() throws IOException {
+        String[] literals = {"\"123456789\"", "\"1234567890.12345678\"", "\"I like ponies\"", "\"true\"", "\"1\"", "\"0\"", "\"\"",
+                "\"" + UUID.randomUUID() + "\"", "\"1234567890123456789012345\"", "0", "-0", "1234", "-1234567890", "123456789012345",
+                "1234567890123456789012345", "1234.56", "-0.5", "1.5e300", "true", "false", "null", "[1, 2]", "{\"a\": 1}"};
+        com.fasterxml.jackson.databind.ObjectMapper om = new com.fasterxml.jackson.databind.ObjectMapper();
+        JsonFactory factory = new JsonFactory();
+        for(CField.CDataType type : CField.CDataType.values()) {
+            CField field = new CField("test", type);
+            for(String literal : literals) {
+                Object expected;
+                try {
+                    expected = JsonUtil.typedObjectFromValueAndField(om.readValue(literal, Object.class), field);
+                } catch(IllegalArgumentException e) {
+                    expected = e.getMessage();
+                }
+                JsonParser parser = factory.createParser(literal);
+                parser.nextToken();
+                Object result;
+                try {
+                    result = JsonUtil.typedObjectFromParserAndField(parser, field);
+                } catch(IllegalArgumentException e) {
+                    result = e.getMessage();
+                }
+                assertEquals(type + " from " + literal, expected, result);
+                if(expected != null) {
+                    assertEquals(type + " from " + literal, expected.getClass(), result.getClass());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rhombusMapFromJsonStringMatchesJsonMap() throws IOException {
+        CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+        String json = "{\"foreignid\": 12345678901, \"type\": \"5\", \"instance\": 333, \"data1\": \"one\", \"data2\": 2, " +
+                "\"extra\": {\"nested\": [1, 2]}, \"id\": \"00000000-0000-1000-8000-000000000000\"}";
+        SortedMap<String, Object> streamed = JsonUtil.rhombusMapFromJsonString(json, def);
+        Map<String, Object> map = new com.fasterxml.jackson.databind.ObjectMapper().readValue(json, Map.class);
+        assertEquals(JsonUtil.rhombusMapFromJsonMap(map, def), streamed);
+        assertEquals(12345678901L, streamed.get("foreignid"));
+        assertEquals(5, streamed.get("type"));
+        assertEquals("2", streamed.get("data2"));
+        assertEquals(UUID.fromString("00000000-0000-1000-8000-000000000000"), streamed.get("id"));
+        assertNull(JsonUtil.rhombusMapFromJsonParser(new JsonFactory().createParser("  "), def));
+    }
+
+    @Test
+    public void rhombusMapFromJsonParserReadsConsecutiveObjects() throws IOException {
+        CDefinition def = CDefinition.fromJsonString(TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js"));
+        JsonParser parser = new JsonFactory().createParser("{\"type\":1}\n{\"type\":2}");
+        assertEquals(1, JsonUtil.rhombusMapFromJsonParser(parser, def).get("type"));
+        assertEquals(2, JsonUtil.rhombusMapFromJsonParser(parser, def).get("type"));
+        assertNull(JsonUtil.rhombusMapFromJsonParser(parser, def));
+
+        try {
+            JsonUtil.rhombusMapFromJsonString("{\"type\":1}\n{\"type\":2}", def);
+            fail("Expected trailing content to be rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
 }
@@ -0,0 +1,210 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.Row;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CObjectOrdering;
+import com.pardot.rhombus.cobject.CompiledDefinition;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ListPublisherTest {
+
+	private static class CollectingSubscriber implements Subscriber<Map<String, Object>> {
+		private Subscription subscription;
+		private final List<Map<String, Object>> objects = Lists.newArrayList();
+		private Throwable error;
+		private boolean complete = false;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(Map<String, Object> object) {
+			objects.add(object);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			error = t;
+		}
+
+		@Override
+		public void onComplete() {
+			complete = true;
+		}
+	}
+
+	/**
+	 * Make an object mapper whose statements each return rowsPerStatement rows, mapped to objects numbered in order
+	 */
+	@SuppressWarnings("unchecked")
+	private ObjectMapper makeObjectMapper(int statements, final int rowsPerStatement) throws Exception {
+		ObjectMapper objectMapper = mock(ObjectMapper.class);
+		when(objectMapper.getMappingExecutor()).thenReturn(MoreExecutors.sameThreadExecutor());
+
+		CQLStatementIterator statementIterator = mock(CQLStatementIterator.class);
+		Boolean[] hasNext = new Boolean[statements];
+		for(int i = 0; i < statements; i++) {
+			hasNext[i] = (i < statements - 1);
+		}
+		when(statementIterator.hasNext(anyLong())).thenReturn(statements > 0, hasNext);
+		when(statementIterator.next()).thenReturn(CQLStatement.make("SELECT", "test"));
+		when(objectMapper.makeCQLforListAsync(any(CDefinition.class), any(Criteria.class), eq(false))).thenReturn(Futures.immediateFuture(statementIterator));
+
+		when(objectMapper.executeListStatementAsync(any(CQLStatement.class), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), any(CObjectOrdering.class), anyInt()))
+				.thenAnswer(new Answer<Object>() {
+					@Override
+					public Object answer(InvocationOnMock invocation) {
+						List<Row> rows = Lists.newArrayList();
+						for(int i = 0; i < rowsPerStatement; i++) {
+							rows.add(mock(Row.class));
+						}
+						return Futures.immediateFuture(rows);
+					}
+				});
+		when(objectMapper.mapRowsAsync(anyList(), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), anyMap()))
+				.thenAnswer(new Answer<Object>() {
+					private int count = 0;
+
+					@Override
+					public Object answer(InvocationOnMock invocation) {
+						List<Map<String, Object>> objects = Lists.newArrayList();
+						for(Object row : (List<Object>)invocation.getArguments()[0]) {
+							Map<String, Object> object = Maps.newHashMap();
+							object.put("number", count++);
+							objects.add(object);
+						}
+						return Futures.immediateFuture(objects);
+					}
+				});
+		return objectMapper;
+	}
+
+	@Test
+	public void testDeliversOnlyRequestedObjects() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(3, 5);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		new ListPublisher(objectMapper, mock(CDefinition.class), new Criteria(), null, 2).subscribe(subscriber);
+
+		// Nothing is read before objects are requested
+		verify(objectMapper, never()).makeCQLforListAsync(any(CDefinition.class), any(Criteria.class), anyBoolean());
+
+		subscriber.subscription.request(3);
+		assertEquals(3, subscriber.objects.size());
+		// Two pages of the first statement are read
+		verify(objectMapper, times(1)).executeListStatementAsync(any(CQLStatement.class), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), any(CObjectOrdering.class), eq(2));
+		verify(objectMapper, times(2)).mapRowsAsync(anyList(), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), anyMap());
+		assertFalse(subscriber.complete);
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals(15, subscriber.objects.size());
+		for(int i = 0; i < 15; i++) {
+			assertEquals(i, subscriber.objects.get(i).get("number"));
+		}
+		assertTrue(subscriber.complete);
+		assertNull(subscriber.error);
+		verify(objectMapper, times(3)).executeListStatementAsync(any(CQLStatement.class), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), any(CObjectOrdering.class), eq(2));
+	}
+
+	@Test
+	public void testStopsAtLimit() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(3, 5);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		Criteria criteria = new Criteria();
+		criteria.setLimit(7L);
+		new ListPublisher(objectMapper, mock(CDefinition.class), criteria, null, 10).subscribe(subscriber);
+
+		subscriber.subscription.request(100);
+		assertEquals(7, subscriber.objects.size());
+		assertTrue(subscriber.complete);
+		verify(objectMapper, times(2)).executeListStatementAsync(any(CQLStatement.class), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), any(CObjectOrdering.class), anyInt());
+	}
+
+	@Test
+	public void testDoesNotMapPastLimit() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(1, 10);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		Criteria criteria = new Criteria();
+		criteria.setLimit(5L);
+		new ListPublisher(objectMapper, mock(CDefinition.class), criteria, null, 5).subscribe(subscriber);
+
+		subscriber.subscription.request(100);
+		assertEquals(5, subscriber.objects.size());
+		assertTrue(subscriber.complete);
+		// The second page of the statement is never mapped once the limit is reached
+		verify(objectMapper, times(1)).mapRowsAsync(anyList(), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), anyMap());
+	}
+
+	@Test
+	public void testCompletesWhenExactlyLimitIsRequested() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(3, 5);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		Criteria criteria = new Criteria();
+		criteria.setLimit(7L);
+		new ListPublisher(objectMapper, mock(CDefinition.class), criteria, null, 10).subscribe(subscriber);
+
+		subscriber.subscription.request(7);
+		assertEquals(7, subscriber.objects.size());
+		assertTrue(subscriber.complete);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void testCancelStopsReads() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(3, 5);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		new ListPublisher(objectMapper, mock(CDefinition.class), new Criteria(), null, 5).subscribe(subscriber);
+
+		subscriber.subscription.request(1);
+		subscriber.subscription.cancel();
+		subscriber.subscription.request(100);
+		assertEquals(1, subscriber.objects.size());
+		assertFalse(subscriber.complete);
+		verify(objectMapper, times(1)).executeListStatementAsync(any(CQLStatement.class), any(CDefinition.class), any(CompiledDefinition.CompiledIndex.class), any(CObjectOrdering.class), anyInt());
+	}
+
+	@Test
+	public void testEmptyList() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(0, 0);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		new ListPublisher(objectMapper, mock(CDefinition.class), new Criteria(), null, 5).subscribe(subscriber);
+
+		subscriber.subscription.request(1);
+		assertTrue(subscriber.objects.isEmpty());
+		assertTrue(subscriber.complete);
+	}
+
+	@Test
+	public void testNonPositiveRequestSignalsError() throws Exception {
+		ObjectMapper objectMapper = makeObjectMapper(1, 5);
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		new ListPublisher(objectMapper, mock(CDefinition.class), new Criteria(), null, 5).subscribe(subscriber);
+
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertTrue(subscriber.objects.isEmpty());
+		assertFalse(subscriber.complete);
+	}
+}
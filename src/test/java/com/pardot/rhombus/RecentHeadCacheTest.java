@@ -0,0 +1,134 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class RecentHeadCacheTest extends TestCase {
+
+	private CDefinition makeDefinition(int recentHeadSize) throws CObjectParseException, IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		CDefinition def = CDefinition.fromJsonString(json);
+		def.getIndexes().get("instance:type").setRecentHeadSize(recentHeadSize);
+		return def;
+	}
+
+	private SortedMap<String, Object> makeIndexValues(long instance) {
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		indexValues.put("type", 5);
+		indexValues.put("instance", instance);
+		return indexValues;
+	}
+
+	private Map<String, Object> makeObject(UUID id, long instance) {
+		Map<String, Object> object = Maps.newHashMap();
+		object.put("id", id);
+		object.put("type", 5);
+		object.put("instance", instance);
+		object.put("foreignid", 777L);
+		return object;
+	}
+
+	private List<Object> ids(List<Map<String, Object>> objects) {
+		List<Object> ret = Lists.newArrayList();
+		for(Map<String, Object> object : objects) {
+			ret.add(object.get("id"));
+		}
+		return ret;
+	}
+
+	public void testRecentHeadSizeFromJson() throws IOException {
+		CIndex index = new com.fasterxml.jackson.databind.ObjectMapper().readValue(
+				"{\"key\": \"instance:type\", \"shardingStrategy\": {\"type\": \"ShardingStrategyMonthly\"}, \"recentHeadSize\": 50}", CIndex.class);
+		assertEquals(50, index.getRecentHeadSize());
+	}
+
+	public void testListFromLoadedHead() throws Exception {
+		CDefinition def = makeDefinition(3);
+		CIndex index = def.getIndexes().get("instance:type");
+		RecentHeadCache cache = new RecentHeadCache(60000L);
+		UUID newest = UUIDs.startOf(3000L);
+		UUID middle = UUIDs.startOf(2000L);
+		UUID oldest = UUIDs.startOf(1000L);
+		assertNull(cache.list(def, index, makeIndexValues(1L), 2L));
+
+		Object loading = cache.beginLoad(def, index, makeIndexValues(1L));
+		assertNotNull(loading);
+		assertNull(cache.beginLoad(def, index, makeIndexValues(1L)));
+		assertNull(cache.list(def, index, makeIndexValues(1L), 2L));
+		cache.completeLoad(loading, Arrays.asList(makeObject(newest, 1L), makeObject(middle, 1L), makeObject(oldest, 1L)));
+
+		assertEquals(Arrays.<Object>asList(newest, middle), ids(cache.list(def, index, makeIndexValues(1L), 2L)));
+		assertEquals(Arrays.<Object>asList(newest, middle, oldest), ids(cache.list(def, index, makeIndexValues(1L), 3L)));
+		// A full head may have older objects behind it
+		assertNull(cache.list(def, index, makeIndexValues(1L), 4L));
+	}
+
+	public void testWritesKeepTheNewestObjects() throws Exception {
+		CDefinition def = makeDefinition(3);
+		CIndex index = def.getIndexes().get("instance:type");
+		RecentHeadCache cache = new RecentHeadCache(60000L);
+		UUID first = UUIDs.startOf(1000L);
+		UUID second = UUIDs.startOf(2000L);
+		UUID third = UUIDs.startOf(3000L);
+		cache.completeLoad(cache.beginLoad(def, index, makeIndexValues(1L)), Arrays.asList(makeObject(third, 1L), makeObject(second, 1L), makeObject(first, 1L)));
+
+		UUID fourth = UUIDs.startOf(4000L);
+		cache.recordWrite(def, null, makeObject(fourth, 1L), fourth);
+		assertEquals(Arrays.<Object>asList(fourth, third, second), ids(cache.list(def, index, makeIndexValues(1L), 3L)));
+
+		// Older than everything held, there may be missing objects in between
+		UUID old = UUIDs.startOf(500L);
+		cache.recordWrite(def, null, makeObject(old, 1L), old);
+		assertEquals(Arrays.<Object>asList(fourth, third, second), ids(cache.list(def, index, makeIndexValues(1L), 3L)));
+
+		cache.recordWrite(def, makeObject(third, 1L), null, third);
+		assertEquals(Arrays.<Object>asList(fourth, second), ids(cache.list(def, index, makeIndexValues(1L), 2L)));
+		assertNull(cache.list(def, index, makeIndexValues(1L), 3L));
+	}
+
+	public void testUpdateMovesObjectBetweenHeads() throws Exception {
+		CDefinition def = makeDefinition(3);
+		CIndex index = def.getIndexes().get("instance:type");
+		RecentHeadCache cache = new RecentHeadCache(60000L);
+		UUID id = UUIDs.startOf(1000L);
+		cache.completeLoad(cache.beginLoad(def, index, makeIndexValues(1L)), Arrays.asList(makeObject(id, 1L)));
+		cache.completeLoad(cache.beginLoad(def, index, makeIndexValues(2L)), Lists.<Map<String, Object>>newArrayList());
+		assertEquals(Lists.newArrayList(), cache.list(def, index, makeIndexValues(2L), 3L));
+
+		Map<String, Object> updated = makeObject(id, 2L);
+		updated.put("foreignid", 888);
+		cache.recordWrite(def, makeObject(id, 1L), updated, id);
+		assertEquals(Lists.newArrayList(), cache.list(def, index, makeIndexValues(1L), 3L));
+		List<Map<String, Object>> moved = cache.list(def, index, makeIndexValues(2L), 3L);
+		assertEquals(1, moved.size());
+		// Written values are coerced to the types of their fields
+		assertEquals(888L, moved.get(0).get("foreignid"));
+	}
+
+	public void testWriteDuringLoadDiscardsLoad() throws Exception {
+		CDefinition def = makeDefinition(3);
+		CIndex index = def.getIndexes().get("instance:type");
+		RecentHeadCache cache = new RecentHeadCache(60000L);
+		UUID id = UUIDs.startOf(1000L);
+		Object loading = cache.beginLoad(def, index, makeIndexValues(1L));
+		cache.recordWrite(def, null, makeObject(id, 1L), id);
+		cache.completeLoad(loading, Lists.<Map<String, Object>>newArrayList());
+		assertNull(cache.list(def, index, makeIndexValues(1L), 1L));
+		assertEquals(0, cache.size());
+	}
+}
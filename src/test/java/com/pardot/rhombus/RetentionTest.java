@@ -0,0 +1,76 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Lists;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+import org.joda.time.Period;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class RetentionTest extends TestCase {
+
+	private CDefinition makeDefinition() throws IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		return CDefinition.fromJsonString(json);
+	}
+
+	public void testRetentionFromJson() throws IOException {
+		CDefinition def = CDefinition.fromJsonString("{\"name\": \"expiring\", \"retention\": \"P13M\", " +
+				"\"fields\": [{\"name\": \"instance\", \"type\": \"bigint\"}], " +
+				"\"indexes\": [{\"key\": \"instance\", \"shardingStrategy\": {\"type\": \"ShardingStrategyMonthly\"}, \"retention\": \"P30D\"}]}");
+		assertEquals("P13M", def.getRetention());
+		assertEquals(Period.months(13), def.getRetentionPeriod());
+		assertEquals(Period.days(30), def.getIndexes().get("instance").getRetentionPeriod());
+
+		CDefinition keep = makeDefinition();
+		assertNull(keep.getRetentionPeriod());
+		assertNull(keep.getIndexes().get("instance:type").getRetentionPeriod());
+	}
+
+	public void testInvalidRetentionRejected() {
+		try {
+			CDefinition.fromJsonString("{\"name\": \"expiring\", \"retention\": \"13 months\", \"fields\": [], \"indexes\": []}");
+			fail("Expected an invalid retention to be rejected");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	public void testDecodeShardIndexValues() throws CQLGenerationException {
+		List<Object> values = Arrays.<Object>asList(222222L, null, "with:separator", "");
+		assertEquals(Arrays.asList("222222", null, "with:separator", ""), ShardIndexKey.decode(ShardIndexKey.fromValues(values).getEncoded()));
+		assertEquals(Arrays.asList("222222", "with:separator"), ShardIndexKey.decodeLegacyString("222222:with&#58;separator"));
+	}
+
+	public void testParseIndexValues() throws IOException {
+		CDefinition def = makeDefinition();
+		CIndex index = def.getIndexes().get("instance:type");
+		SortedMap<String, Object> values = RetentionJob.parseIndexValues(def, index, Lists.newArrayList("222222", "5"));
+		assertEquals(222222L, values.get("instance"));
+		assertEquals(5, values.get("type"));
+		// Keys written by another definition version can not be read back
+		assertNull(RetentionJob.parseIndexValues(def, index, Lists.newArrayList("222222")));
+		assertNull(RetentionJob.parseIndexValues(def, index, Lists.newArrayList("222222", "five")));
+		assertNull(RetentionJob.parseIndexValues(def, index, Arrays.asList("222222", (String)null)));
+	}
+
+	public void testMakeCQLforIndexCountReset() throws CQLGenerationException {
+		ShardIndexKey key = ShardIndexKey.fromValues(Arrays.asList(222222L, 5));
+		// The counter of a single shard is read, then decremented by its value
+		CQLStatement read = CObjectCQLGenerator.makeCQLforGetIndexCounts("testspace", "testtype123", key, 159L, 161L);
+		assertEquals("SELECT shardid, rowcount FROM \"testspace\".\"__index_counts\" WHERE tablename = ? AND indexkey = ? AND shardid > ? AND shardid < ?;", read.getQuery());
+		CQLStatement reset = CObjectCQLGenerator.makeCQLforIncrementIndexCount("testspace", "testtype123", key.getEncoded(), 160L, -42L);
+		assertEquals("UPDATE \"testspace\".\"__index_counts\" SET rowcount = rowcount + ? WHERE tablename = ? AND indexkey = ? AND shardid = ?;", reset.getQuery());
+		assertEquals(-42L, reset.getValues()[0]);
+		assertEquals(160L, reset.getValues()[3]);
+	}
+}
@@ -0,0 +1,50 @@
+package com.pardot.rhombus;
+
+import com.pardot.rhombus.cobject.CObjectCQLGenerator;
+import com.pardot.rhombus.cobject.CQLGenerationException;
+import com.pardot.rhombus.cobject.ShardIndexKey;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ShardIndexKeyTest extends TestCase {
+
+	public void testEscapedSeparatorDoesNotCollide() throws CQLGenerationException {
+		assertEquals(
+				CObjectCQLGenerator.makeIndexValuesString(Arrays.asList("one:two")),
+				CObjectCQLGenerator.makeIndexValuesString(Arrays.asList("one&#58;two")));
+		ShardIndexKey a = ShardIndexKey.fromValues(Arrays.asList("one:two"));
+		ShardIndexKey b = ShardIndexKey.fromValues(Arrays.asList("one&#58;two"));
+		assertFalse(a.equals(b));
+		assertFalse(a.matches(b.getEncoded()));
+	}
+
+	public void testValueBoundariesDoNotCollide() throws CQLGenerationException {
+		ShardIndexKey a = ShardIndexKey.fromValues(Arrays.asList("ab", "c"));
+		ShardIndexKey b = ShardIndexKey.fromValues(Arrays.asList("a", "bc"));
+		ShardIndexKey c = ShardIndexKey.fromValues(Arrays.asList("", "abc"));
+		assertFalse(a.equals(b));
+		assertFalse(a.equals(c));
+		assertFalse(ShardIndexKey.fromValues(Arrays.asList((Object)null)).equals(ShardIndexKey.fromValues(Arrays.asList(""))));
+	}
+
+	public void testKeyIsStable() throws CQLGenerationException {
+		UUID uuid = UUID.fromString("ada375b0-a2d9-11e2-99a3-3f36d3955e43");
+		ShardIndexKey a = ShardIndexKey.fromValues(Arrays.asList(777L, 5, uuid));
+		ShardIndexKey b = ShardIndexKey.fromValues(Arrays.asList(777, 5L, uuid.toString()));
+		assertEquals(a, b);
+		assertEquals(a.getHash(), b.getHash());
+		assertTrue(a.matches(b.getEncoded()));
+	}
+
+	public void testFromLegacyString() throws CQLGenerationException {
+		ShardIndexKey expected = ShardIndexKey.fromValues(Arrays.asList(777, "one:two", 5));
+		String legacy = CObjectCQLGenerator.makeIndexValuesString(Arrays.asList(777, "one:two", 5));
+		assertEquals(expected, ShardIndexKey.fromLegacyString(legacy));
+	}
+}
@@ -0,0 +1,126 @@
+package com.pardot.rhombus;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.pardot.rhombus.cobject.*;
+import com.pardot.rhombus.cobject.statement.CQLStatementIterator;
+import com.pardot.rhombus.helpers.TestHelpers;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class ShardPresenceTest extends TestCase {
+
+	public class ShardPresenceMock implements CObjectShardList, CObjectShardPresence {
+		ShardPresenceBitmap bitmap;
+		public ShardPresenceMock(ShardPresenceBitmap bitmap){
+			this.bitmap = bitmap;
+		}
+
+		@Override
+		public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+			throw new AssertionError("Bounded queries should not list shards from the shard index");
+		}
+
+		@Override
+		public List<Long> getPresentShardIds(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, Range<Long> shardIdRange, CObjectOrdering ordering) {
+			return bitmap.getShardIds(shardIdRange, ordering);
+		}
+	}
+
+	public void testBitmapSkipsEmptyShards() {
+		ShardPresenceBitmap bitmap = new ShardPresenceBitmap(Arrays.asList(105L, 110L, 103L), 120L);
+		assertEquals(3, bitmap.size());
+		assertEquals(Arrays.asList(103L, 105L, 110L), bitmap.getShardIds(Range.closed(100L, 115L), CObjectOrdering.ASCENDING));
+		assertEquals(Arrays.asList(110L, 105L), bitmap.getShardIds(Range.closed(104L, 110L), CObjectOrdering.DESCENDING));
+		assertEquals(Lists.<Long>newArrayList(), bitmap.getShardIds(Range.closed(111L, 119L), CObjectOrdering.ASCENDING));
+	}
+
+	public void testBitmapAlwaysReturnsOpenShards() {
+		ShardPresenceBitmap bitmap = new ShardPresenceBitmap(Arrays.asList(105L), 120L);
+		assertEquals(Arrays.asList(105L, 120L, 121L, 122L), bitmap.getShardIds(Range.closed(100L, 122L), CObjectOrdering.ASCENDING));
+
+		ShardPresenceBitmap empty = new ShardPresenceBitmap(Lists.<Long>newArrayList(), 120L);
+		assertEquals(Arrays.asList(121L, 120L), empty.getShardIds(Range.closed(1L, 121L), CObjectOrdering.DESCENDING));
+	}
+
+	public void testBitmapAdd() {
+		ShardPresenceBitmap bitmap = new ShardPresenceBitmap(Arrays.asList(105L), 120L);
+		bitmap.add(110L);
+		// Shards before the smallest known shard move the base of the bitmap
+		bitmap.add(90L);
+		bitmap.add(105L);
+		assertEquals(3, bitmap.size());
+		assertEquals(Arrays.asList(90L, 105L, 110L), bitmap.getShardIds(Range.closed(1L, 119L), CObjectOrdering.ASCENDING));
+	}
+
+	public void testBoundedListUsesPresentShards() throws CQLGenerationException, CObjectParseException, IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		CDefinition def = CDefinition.fromJsonString(json);
+		Map<String, CDefinition> definitions = Maps.newHashMap();
+		definitions.put(def.getName(), def);
+
+		CIndex index = def.getIndexes().get("instance:type");
+		long now = DateTime.now().getMillis();
+		long startTime = new DateTime(now).minusYears(1).getMillis();
+		long openShardId = index.getShardingStrategy().getShardKey(now);
+		long writtenShardId = index.getShardingStrategy().getShardKey(new DateTime(now).minusMonths(6).getMillis());
+		ShardPresenceBitmap bitmap = new ShardPresenceBitmap(Arrays.asList(writtenShardId), openShardId);
+		CObjectCQLGenerator generator = new CObjectCQLGenerator("testspace", definitions, new ShardPresenceMock(bitmap), 1000);
+
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("type", 5);
+		indexKeys.put("instance", 222222L);
+		criteria.setIndexKeys(indexKeys);
+		criteria.setStartTimestamp(startTime);
+		criteria.setEndTimestamp(now);
+		criteria.setOrdering(CObjectOrdering.DESCENDING);
+		criteria.setLimit(10L);
+		CQLStatementIterator iterator = generator.makeCQLforList(def.getName(), criteria, false);
+
+		List<Long> queriedShards = Lists.newArrayList();
+		while(iterator.hasNext()) {
+			queriedShards.add((Long)iterator.next().getValues()[0]);
+		}
+		assertEquals(Arrays.asList(openShardId, writtenShardId), queriedShards);
+	}
+
+	public void testUnboundedListUsesGivenShardList() throws CQLGenerationException, CObjectParseException, IOException {
+		String json = TestHelpers.readFileToString(this.getClass(), "CObjectCQLGeneratorTestData.js");
+		CDefinition def = CDefinition.fromJsonString(json);
+		Map<String, CDefinition> definitions = Maps.newHashMap();
+		definitions.put(def.getName(), def);
+		CObjectCQLGenerator generator = new CObjectCQLGenerator("testspace", definitions, new ShardPresenceMock(null), 1000);
+
+		Criteria criteria = new Criteria();
+		SortedMap<String, Object> indexKeys = Maps.newTreeMap();
+		indexKeys.put("type", 5);
+		indexKeys.put("instance", 222222L);
+		criteria.setIndexKeys(indexKeys);
+		criteria.setOrdering(CObjectOrdering.DESCENDING);
+		criteria.setLimit(10L);
+		// Shard ids read ahead of time, as the asynchronous reads do
+		final List<Long> shardIds = Arrays.asList(160L, 150L);
+		CQLStatementIterator iterator = generator.makeCQLforList(def.getName(), criteria, false, new CObjectShardList() {
+			@Override
+			public List<Long> getShardIdList(CDefinition def, SortedMap<String, Object> indexValues, CObjectOrdering ordering, @Nullable UUID start, @Nullable UUID end) {
+				return shardIds;
+			}
+		});
+
+		List<Long> queriedShards = Lists.newArrayList();
+		while(iterator.hasNext()) {
+			queriedShards.add((Long)iterator.next().getValues()[0]);
+		}
+		assertEquals(shardIds, queriedShards);
+	}
+}
@@ -1,6 +1,12 @@
 package com.pardot.rhombus;
 
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CIndex;
 import com.pardot.rhombus.cobject.shardingstrategy.*;
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -8,6 +14,13 @@ import junit.framework.TestSuite;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+
 /**
  * Pardot, An ExactTarget Company
  * User: robrighter
@@ -206,4 +219,117 @@ public class ShardStrategyTest extends TestCase {
 		assertTrue("Range should be just 1",range.upperEndpoint().longValue() == 1L);
 		assertTrue("Range should be just 1",range.lowerEndpoint().longValue() == range.upperEndpoint().longValue());
 	}
+
+	public void testSubShards() throws ShardStrategyException {
+		ShardingStrategyMonthly subject = new ShardingStrategyMonthly();
+		subject.setSubShards(4);
+		assertTrue(subject.isSubSharded());
+		DateTime d = new DateTime(2013,2,22,1,0,0, DateTimeZone.UTC);
+		UUID id = UUIDs.startOf(d.getMillis());
+		long shardKey = subject.getShardKey(id);
+		assertEquals("Time shard should not change with sub shards", 158L, shardKey);
+
+		long subShardKey = subject.getSubShardKey(id);
+		assertEquals("Sub shard key should be stable", subShardKey, subject.getSubShardKey(shardKey, id));
+		long[] subShardKeys = subject.getSubShardKeys(shardKey);
+		assertEquals(4, subShardKeys.length);
+		assertEquals(158L * 4, subShardKeys[0]);
+		assertEquals(158L * 4 + 3, subShardKeys[3]);
+		assertEquals(subShardKeys[subject.getBucket(id)], subShardKey);
+
+		//every bucket should get some of the ids in a time shard
+		Set<Integer> buckets = Sets.newHashSet();
+		for(int i = 0; i < 200; i++){
+			buckets.add(subject.getBucket(UUIDs.startOf(d.getMillis() + i)));
+		}
+		assertEquals(4, buckets.size());
+
+		//the range is still expressed in time shards
+		Range<Long> range = subject.getShardKeyRange(d.getMillis(), d.getMillis());
+		assertEquals(158L, range.lowerEndpoint().longValue());
+
+		//without sub shards the sub shard key is the time shard key
+		ShardingStrategyMonthly plain = new ShardingStrategyMonthly();
+		assertEquals(shardKey, plain.getSubShardKey(id));
+		assertFalse(plain.equals(subject));
+	}
+
+	public void testSubShardsJsonRoundTrip() throws Exception {
+		com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
+		TimebasedShardingStrategy read = mapper.readValue("{\"type\": \"ShardingStrategyDaily\", \"subShards\": 8}", TimebasedShardingStrategy.class);
+		assertEquals(8, read.getSubShards());
+
+		ShardingStrategyMonthly subject = new ShardingStrategyMonthly();
+		subject.setSubShards(4);
+		String json = mapper.writeValueAsString(subject);
+		assertTrue(json, json.contains("\"subShards\":4"));
+		assertEquals(subject, mapper.readValue(json, TimebasedShardingStrategy.class));
+
+		//definitions keep the sub shards of their indexes
+		CIndex index = new CIndex("foreignid", subject);
+		CIndex readIndex = mapper.readValue(mapper.writeValueAsString(index), CIndex.class);
+		assertEquals(4, readIndex.getShardingStrategy().getSubShards());
+	}
+
+	public void testShardingStrategyAdaptive() throws Exception {
+		ShardingStrategyAdaptive subject = new ShardingStrategyAdaptive(new ShardingStrategyMonthly(), new ShardingStrategyDaily(), 10);
+		assertFalse(subject.hasContiguousShardKeys());
+		DateTime d = new DateTime(2013,2,22,1,0,0, DateTimeZone.UTC);
+		UUID id = UUIDs.startOf(d.getMillis());
+		long coarseKey = subject.getCoarseKey(d.getMillis());
+		assertEquals(158L, coarseKey);
+
+		//without a resolver every window uses its coarse shard
+		CIndex index = new CIndex("foreignid", subject);
+		Map<String,Object> values = Maps.newHashMap();
+		values.put("foreignid", 777L);
+		long coarseShardKey = subject.getShardKey(id, new CDefinition(), index, values);
+		assertEquals(158L << 32, coarseShardKey);
+		assertEquals(coarseShardKey, subject.getShardKey(id));
+		assertFalse(ShardingStrategyAdaptive.isFineShardKey(coarseShardKey));
+
+		//a resolver choosing fine shards splits the window by day
+		subject.setLayoutResolver(new ShardLayoutResolver() {
+			@Override
+			public boolean useFineShards(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, ShardingStrategyAdaptive strategy, long coarseKey) {
+				assertEquals(777L, indexValues.get("foreignid"));
+				return true;
+			}
+		});
+		long fineShardKey = subject.getShardKey(id, new CDefinition(), index, values);
+		assertTrue(ShardingStrategyAdaptive.isFineShardKey(fineShardKey));
+		assertEquals(coarseKey, ShardingStrategyAdaptive.getCoarseKeyOfShard(fineShardKey));
+		assertEquals(subject.getFineShardKey(coarseKey, new ShardingStrategyDaily().getShardKey(d.getMillis())), fineShardKey);
+
+		//every shard of the window sorts between its bounds and before the next window
+		assertTrue(subject.getShardKeyLowerBound(d.getMillis()) <= coarseShardKey);
+		assertTrue(subject.getShardKeyUpperBound(d.getMillis()) >= fineShardKey);
+		assertTrue(subject.getShardKeyUpperBound(d.getMillis()) < subject.getShardKey(d.plusMonths(1).getMillis()));
+
+		//ranges bound every shard of the windows, which are listed from the shard index
+		Range<Long> range = subject.getShardKeyRange(d.getMillis(), d.getMillis());
+		assertTrue(range.contains(coarseShardKey));
+		assertTrue(range.contains(fineShardKey));
+		assertFalse(range.contains(subject.getShardKey(d.plusMonths(1).getMillis())));
+		assertEquals(Long.valueOf(1L), subject.getShardKeyRange(null, d.getMillis()).lowerEndpoint());
+
+		//deletes go to both layouts of the window
+		long[] possible = subject.getPossibleShardKeys(id, new CDefinition(), index, values);
+		assertEquals(2, possible.length);
+		assertEquals(coarseShardKey, possible[0]);
+		assertEquals(fineShardKey, possible[1]);
+
+		//lists select every shard of a window together
+		long nextWindowShardKey = subject.getShardKey(d.plusMonths(1).getMillis());
+		List<long[]> groups = ShardingStrategyAdaptive.groupShardIdsByWindow(Lists.newArrayList(nextWindowShardKey, fineShardKey, coarseShardKey));
+		assertEquals(2, groups.size());
+		assertTrue(Arrays.equals(new long[]{ nextWindowShardKey }, groups.get(0)));
+		assertTrue(Arrays.equals(new long[]{ fineShardKey, coarseShardKey }, groups.get(1)));
+
+		com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
+		TimebasedShardingStrategy read = mapper.readValue(mapper.writeValueAsString(subject), TimebasedShardingStrategy.class);
+		assertEquals(subject, read);
+		assertEquals(subject.hashCode(), read.hashCode());
+		assertFalse(read.equals(new ShardingStrategyAdaptive()));
+	}
 }
@@ -0,0 +1,113 @@
+package com.pardot.rhombus;
+
+import com.datastax.driver.core.*;
+import com.datastax.driver.core.exceptions.SyntaxError;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.pardot.rhombus.cobject.CQLExecutor;
+import com.pardot.rhombus.cobject.async.RetryPolicy;
+import com.pardot.rhombus.cobject.async.StatementFailure;
+import com.pardot.rhombus.cobject.async.StatementIteratorConsumer;
+import com.pardot.rhombus.cobject.statement.BoundedCQLStatementIterator;
+import com.pardot.rhombus.cobject.statement.CQLStatement;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Pardot, an ExactTarget company
+ * Date: 10/19/26
+ */
+public class StatementIteratorConsumerTest extends TestCase {
+
+	private static class CompletedFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+		private CompletedFuture(ResultSet result) {
+			set(result);
+		}
+
+		private CompletedFuture(Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		public ResultSet getUninterruptibly() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static ResultSet makeResultSet() {
+		// Host can not be stubbed, its equals is final
+		Host host = mock(Host.class);
+		ExecutionInfo executionInfo = mock(ExecutionInfo.class);
+		when(executionInfo.getQueriedHost()).thenReturn(host);
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.getExecutionInfo()).thenReturn(executionInfo);
+		return resultSet;
+	}
+
+	private static WriteTimeoutException makeTimeout() {
+		return new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1);
+	}
+
+	private static List<StatementFailure> execute(CQLExecutor executor, CQLStatement statement, RetryPolicy retryPolicy) throws RhombusException {
+		BoundedCQLStatementIterator statements = new BoundedCQLStatementIterator(Collections.singletonList(statement));
+		StatementIteratorConsumer consumer = new StatementIteratorConsumer(statements, executor, 5000L, retryPolicy);
+		consumer.start();
+		return consumer.join();
+	}
+
+	public void testRetriesTransientFailure() throws Exception {
+		ResultSetFuture success = new CompletedFuture(makeResultSet());
+		CQLExecutor executor = mock(CQLExecutor.class);
+		when(executor.executeAsync(any(CQLStatement.class))).thenReturn(new CompletedFuture(makeTimeout()), success);
+		List<StatementFailure> failures = execute(executor, CQLStatement.make("INSERT", "test", new Object[]{1}), new RetryPolicy(3, 1L, 10L));
+		assertTrue(failures.isEmpty());
+		verify(executor, times(2)).executeAsync(any(CQLStatement.class));
+	}
+
+	public void testReportsFailureAfterLastAttempt() throws Exception {
+		CQLExecutor executor = mock(CQLExecutor.class);
+		when(executor.executeAsync(any(CQLStatement.class))).thenReturn(new CompletedFuture(makeTimeout()));
+		CQLStatement statement = CQLStatement.make("INSERT", "test", new Object[]{1});
+		List<StatementFailure> failures = execute(executor, statement, new RetryPolicy(3, 1L, 10L));
+		assertEquals(1, failures.size());
+		assertEquals(statement, failures.get(0).getStatement());
+		assertEquals(3, failures.get(0).getAttempts());
+		assertTrue(failures.get(0).getCause() instanceof WriteTimeoutException);
+	}
+
+	public void testDoesNotRetryNonIdempotentOrPermanentFailures() throws Exception {
+		CQLExecutor executor = mock(CQLExecutor.class);
+		when(executor.executeAsync(any(CQLStatement.class))).thenReturn(new CompletedFuture(makeTimeout()));
+		CQLStatement counterUpdate = CQLStatement.make("UPDATE", "test", new Object[]{1});
+		counterUpdate.setIdempotent(false);
+		List<StatementFailure> failures = execute(executor, counterUpdate, new RetryPolicy(3, 1L, 10L));
+		assertEquals(1, failures.get(0).getAttempts());
+
+		executor = mock(CQLExecutor.class);
+		when(executor.executeAsync(any(CQLStatement.class))).thenReturn(new CompletedFuture(new SyntaxError("Bad query")));
+		failures = execute(executor, CQLStatement.make("INSERT", "test", new Object[]{1}), new RetryPolicy(3, 1L, 10L));
+		assertEquals(1, failures.get(0).getAttempts());
+		verify(executor, times(1)).executeAsync(any(CQLStatement.class));
+	}
+
+	public void testBackoffIsBounded() {
+		RetryPolicy retryPolicy = new RetryPolicy(10, 100L, 1000L);
+		for(int i = 0; i < 100; i++) {
+			assertTrue(retryPolicy.getDelayMillis(1) < 100L);
+			assertTrue(retryPolicy.getDelayMillis(3) < 400L);
+			assertTrue(retryPolicy.getDelayMillis(9) < 1000L);
+		}
+		assertEquals(0L, RetryPolicy.NONE.getDelayMillis(1));
+	}
+}
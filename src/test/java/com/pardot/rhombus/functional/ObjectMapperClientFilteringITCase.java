@@ -12,7 +12,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -90,6 +93,27 @@ public class ObjectMapperClientFilteringITCase extends RhombusFunctionalTest {
 		assertEquals(1, dbObjects.size());
 		assertEquals(filteredKey, dbObjects.get(0).get("id"));
 
+		// Streaming the results as JSON applies the same filters
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1L, om.listToJson("testtype", foreignIdAndFilteredCriteria, out));
+		List<Map<String, Object>> jsonObjects = new com.fasterxml.jackson.databind.ObjectMapper().readValue(out.toByteArray(), List.class);
+		assertEquals(1, jsonObjects.size());
+		assertEquals(filteredKey.toString(), jsonObjects.get(0).get("id"));
+		assertEquals("filtered", jsonObjects.get(0).get("data1"));
+		assertEquals(123, jsonObjects.get(0).get("foreignid"));
+
+		// The asynchronous reads return what the blocking ones return
+		ExecutorService mappingExecutor = Executors.newFixedThreadPool(2);
+		om.setMappingExecutor(mappingExecutor);
+		dbObjects = om.listAsync("testtype", foreignIdAndFilteredCriteria).get();
+		assertEquals(1, dbObjects.size());
+		assertEquals(filteredKey, dbObjects.get(0).get("id"));
+		assertEquals(2, om.listAsync("testtype", foreignIdCriteria).get().size());
+		assertEquals(om.count("testtype", foreignIdAndNotFilteredCriteria), om.countAsync("testtype", foreignIdAndNotFilteredCriteria).get().longValue());
+		assertEquals(om.getByKey("testtype", notFilteredKey), om.getByKeyAsync("testtype", notFilteredKey).get());
+		assertNull(om.getByKeyAsync("testtype", UUID.randomUUID()).get());
+		mappingExecutor.shutdown();
+
 		//Teardown connections
 		cm.teardown();
 	}
@@ -228,6 +228,52 @@ public class ObjectMapperITCase extends RhombusFunctionalTest {
 	}
 
 	//This does not test blob or counter types
+	@Test
+	public void testDeleteWhere() throws Exception {
+		ConnectionManager cm = getConnectionManager();
+		CKeyspaceDefinition definition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "CKeyspaceTestData.js");
+		cm.buildKeyspace(definition, true);
+		cm.setDefaultKeyspace(definition);
+		ObjectMapper om = cm.getObjectMapper(definition.getName());
+
+		//Spread objects over the last six months so most of them are in closed shards
+		long now = System.currentTimeMillis();
+		List<UUID> keys = Lists.newArrayList();
+		for(int i = 0; i < 30; i++) {
+			Map<String, Object> testObject = JsonUtil.rhombusMapFromJsonMap(TestHelpers.getTestObject(0), definition.getDefinitions().get("testtype"));
+			keys.add((UUID)om.insert("testtype", testObject, now - (i * 6L * 24L * 60L * 60L * 1000L)));
+		}
+		Map<String, Object> other = JsonUtil.rhombusMapFromJsonMap(TestHelpers.getTestObject(1), definition.getDefinitions().get("testtype"));
+		UUID otherKey = (UUID)om.insert("testtype", other);
+
+		Map<String, Object> typed = JsonUtil.rhombusMapFromJsonMap(TestHelpers.getTestObject(0), definition.getDefinitions().get("testtype"));
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		indexValues.put("type", typed.get("type"));
+		indexValues.put("instance", typed.get("instance"));
+		Criteria criteria = new Criteria();
+		criteria.setIndexKeys(indexValues);
+
+		final long[] progress = new long[2];
+		long deleted = om.deleteWhere("testtype", criteria, new CObjectDeleteListener() {
+			@Override
+			public void onProgress(long objectsDeleted, long partitionsDeleted) {
+				progress[0] = objectsDeleted;
+				progress[1] = partitionsDeleted;
+			}
+		});
+		assertEquals(30L, deleted);
+		assertEquals(30L, progress[0]);
+		assertTrue(progress[1] > 0);
+		assertEquals(0, om.list("testtype", criteria).size());
+		for(UUID key : keys) {
+			assertNull(om.getByKey("testtype", key));
+		}
+		//Objects with other index values are untouched
+		assertNotNull(om.getByKey("testtype", otherKey));
+
+		cm.teardown();
+	}
+
 	@Test
 	public void testObjectTypes() throws Exception {
 		logger.debug("Starting testObjectTypes");
@@ -7,9 +7,13 @@ import com.google.common.collect.Maps;
 import com.pardot.rhombus.ConnectionManager;
 import com.pardot.rhombus.Criteria;
 import com.pardot.rhombus.ObjectMapper;
+import com.pardot.rhombus.cobject.CDefinition;
+import com.pardot.rhombus.cobject.CIndex;
 import com.pardot.rhombus.cobject.CKeyspaceDefinition;
 import com.pardot.rhombus.cobject.CObjectVisitor;
 import com.pardot.rhombus.cobject.IndexUpdateRow;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardLayoutResolver;
+import com.pardot.rhombus.cobject.shardingstrategy.ShardingStrategyAdaptive;
 import com.pardot.rhombus.helpers.TestHelpers;
 import com.pardot.rhombus.util.JsonUtil;
 import org.joda.time.DateTime;
@@ -19,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -106,4 +111,55 @@ public class ObjectMapperShardingITCase extends RhombusFunctionalTest {
 		assertEquals(1, results.size());
 	}
 
+	@Test
+	public void testAdaptiveListMergesMixedWindow() throws Exception {
+		logger.debug("Starting testAdaptiveListMergesMixedWindow");
+
+		// Get an object mapper for the keyspace and truncate the data
+		ConnectionManager cm = getConnectionManager();
+		ObjectMapper om = cm.getObjectMapper(keyspaceDefinition);
+		om.truncateTables();
+		om.setLogCql(true);
+
+		// Alternate the layout so that the window of last month holds interleaved rows in its coarse and fine shards
+		CIndex index = om.getKeyspaceDefinition_ONLY_FOR_TESTING().getDefinitions().get("object2").getIndexes().get("account_id");
+		ShardingStrategyAdaptive strategy = (ShardingStrategyAdaptive)index.getShardingStrategy();
+		ShardLayoutResolver resolver = strategy.getLayoutResolver();
+		final AtomicBoolean fine = new AtomicBoolean();
+		strategy.setLayoutResolver(new ShardLayoutResolver() {
+			@Override
+			public boolean useFineShards(CDefinition def, CIndex index, SortedMap<String, Object> indexValues, ShardingStrategyAdaptive strategy, long coarseKey) {
+				return fine.get();
+			}
+		});
+		UUID accountId = UUID.fromString("00000003-0000-0030-0040-000000030000");
+		DateTime monthStart = DateTime.now().minusMonths(1).withDayOfMonth(1).withTimeAtStartOfDay();
+		List<UUID> ids = Lists.newArrayList();
+		try {
+			for(int day = 0; day < 6; day++) {
+				fine.set(day % 2 == 0);
+				UUID id = UUIDs.startOf(monthStart.plusDays(day).plusHours(1).getMillis());
+				Map<String, Object> record = Maps.newHashMap();
+				record.put("id", id);
+				record.put("account_id", accountId);
+				record.put("field1", "day " + day);
+				om.insert("object2", record);
+				ids.add(id);
+			}
+		} finally {
+			strategy.setLayoutResolver(resolver);
+		}
+
+		// The newest rows come back in order although they are spread over both layouts
+		SortedMap<String, Object> indexValues = Maps.newTreeMap();
+		indexValues.put("account_id", accountId);
+		Criteria criteria = new Criteria();
+		criteria.setIndexKeys(indexValues);
+		criteria.setLimit(3L);
+		List<Map<String, Object>> results = om.list("object2", criteria);
+		assertEquals(3, results.size());
+		assertEquals(ids.get(5), results.get(0).get("id"));
+		assertEquals(ids.get(4), results.get(1).get("id"));
+		assertEquals(ids.get(3), results.get(2).get("id"));
+	}
 }
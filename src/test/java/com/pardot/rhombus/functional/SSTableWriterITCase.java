@@ -520,4 +520,162 @@ public class SSTableWriterITCase extends RhombusFunctionalTest {
         // Clean up the SSTable directories after ourselves
         FileUtils.deleteRecursive(new File(keyspaceName));
     }
+
+    @Test
+    public void testConcurrentProducers_simple() throws Exception {
+        System.setProperty("cassandra.config", "cassandra-config/cassandra.yaml");
+        String defaultTableName = "simple";
+        final String testUniqueTableName = "simpleD";
+
+        ConnectionManager cm = getConnectionManager();
+        CKeyspaceDefinition keyspaceDefinition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "TableWriterSimpleKeyspace.js");
+        assertNotNull(keyspaceDefinition);
+        String keyspaceName = keyspaceDefinition.getName();
+        Map<String, CDefinition> tableDefs = keyspaceDefinition.getDefinitions();
+        CDefinition def = tableDefs.get(defaultTableName);
+        def.setName(testUniqueTableName);
+        tableDefs.remove(defaultTableName);
+        tableDefs.put(testUniqueTableName, def);
+
+        File keyspaceDir = new File(keyspaceName);
+        if (keyspaceDir.exists()) {
+            FileUtils.deleteRecursive(new File(keyspaceName));
+        }
+        assertTrue(new File(keyspaceName).mkdir());
+
+        cm.buildKeyspace(keyspaceDefinition, true);
+        cm.setDefaultKeyspace(keyspaceDefinition);
+        final ObjectMapper om = cm.getObjectMapper();
+        om.truncateTables();
+
+        // Several producers write copies of the test data with distinct ids through small queues
+        List<Map<String, Object>> template = JsonUtil.rhombusMapFromResource(this.getClass().getClassLoader(), "SSTableWriterSimpleTestData.js");
+        final List<List<Map<String, Object>>> batches = Lists.newArrayList();
+        List<Map<String, Object>> expected = Lists.newArrayList();
+        for (int producer = 0; producer < 4; producer++) {
+            List<Map<String, Object>> batch = Lists.newArrayList();
+            for (Map<String, Object> map : template) {
+                Map<String, Object> copy = Maps.newHashMap(map);
+                copy.put("id", UUIDs.startOf(Long.parseLong(map.get("created_at").toString(), 10) + producer));
+                batch.add(copy);
+                if ("index1".equals(copy.get("index_1"))) {
+                    expected.add(copy);
+                }
+            }
+            batches.add(batch);
+        }
+        om.setSSTableWriterBufferSize(2);
+        om.initializeSSTableWriters(false);
+        final Exception[] failure = new Exception[1];
+        List<Thread> producers = Lists.newArrayList();
+        for (final List<Map<String, Object>> batch : batches) {
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Map<String, List<Map<String, Object>>> insert = Maps.newHashMap();
+                        insert.put(testUniqueTableName, batch);
+                        om.insertIntoSSTable(insert);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(failure[0]);
+        om.completeSSTableWrites();
+
+        File[] tableDirs = keyspaceDir.listFiles();
+        assertNotNull(tableDirs);
+        for (File file : tableDirs) {
+            ProcessBuilder builder = new ProcessBuilder("sstableloader", "-d", "localhost", keyspaceName + "/" + file.getName());
+            builder.redirectErrorStream(true);
+            Process p = builder.start();
+            BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            long startTime = System.currentTimeMillis();
+            while (!r.readLine().contains("100%") && ((System.currentTimeMillis() - startTime) < 10000)) {
+                Thread.sleep(100);
+            }
+        }
+
+        SortedMap<String, Object> indexValues = Maps.newTreeMap();
+        indexValues.put("index_1", "index1");
+        Criteria criteria = new Criteria();
+        criteria.setIndexKeys(indexValues);
+        criteria.setLimit(500L);
+        assertEquals(expected.size(), om.list(testUniqueTableName, criteria).size());
+
+        FileUtils.deleteRecursive(new File(keyspaceName));
+    }
+
+    @Test
+    public void testSortedRows_simple() throws Exception {
+        System.setProperty("cassandra.config", "cassandra-config/cassandra.yaml");
+        String defaultTableName = "simple";
+        String testUniqueTableName = "simpleE";
+
+        ConnectionManager cm = getConnectionManager();
+        CKeyspaceDefinition keyspaceDefinition = JsonUtil.objectFromJsonResource(CKeyspaceDefinition.class, this.getClass().getClassLoader(), "TableWriterSimpleKeyspace.js");
+        assertNotNull(keyspaceDefinition);
+        String keyspaceName = keyspaceDefinition.getName();
+        Map<String, CDefinition> tableDefs = keyspaceDefinition.getDefinitions();
+        CDefinition def = tableDefs.get(defaultTableName);
+        def.setName(testUniqueTableName);
+        tableDefs.remove(defaultTableName);
+        tableDefs.put(testUniqueTableName, def);
+
+        File keyspaceDir = new File(keyspaceName);
+        if (keyspaceDir.exists()) {
+            FileUtils.deleteRecursive(new File(keyspaceName));
+        }
+        assertTrue(new File(keyspaceName).mkdir());
+
+        cm.buildKeyspace(keyspaceDefinition, true);
+        cm.setDefaultKeyspace(keyspaceDefinition);
+        ObjectMapper om = cm.getObjectMapper();
+        om.truncateTables();
+
+        // Rows arrive in no particular order, and the sort buffer is small enough that every table spills several runs
+        List<Map<String, Object>> values = JsonUtil.rhombusMapFromResource(this.getClass().getClassLoader(), "SSTableWriterSimpleTestData.js");
+        List<Map<String, Object>> expected = Lists.newArrayList();
+        for (Map<String, Object> map : values) {
+            map.put("id", UUIDs.startOf(Long.parseLong(map.get("created_at").toString(), 10)));
+            if ("index1".equals(map.get("index_1"))) {
+                expected.add(map);
+            }
+        }
+        Collections.reverse(values);
+        om.setSSTableSortBufferBytes(256);
+        om.initializeSSTableWriters(true, true);
+        Map<String, List<Map<String, Object>>> insert = Maps.newHashMap();
+        insert.put(testUniqueTableName, values);
+        om.insertIntoSSTable(insert);
+        om.completeSSTableWrites();
+
+        File[] tableDirs = keyspaceDir.listFiles();
+        assertNotNull(tableDirs);
+        for (File file : tableDirs) {
+            ProcessBuilder builder = new ProcessBuilder("sstableloader", "-d", "localhost", keyspaceName + "/" + file.getName());
+            builder.redirectErrorStream(true);
+            Process p = builder.start();
+            BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            long startTime = System.currentTimeMillis();
+            while (!r.readLine().contains("100%") && ((System.currentTimeMillis() - startTime) < 10000)) {
+                Thread.sleep(100);
+            }
+        }
+
+        SortedMap<String, Object> indexValues = Maps.newTreeMap();
+        indexValues.put("index_1", "index1");
+        Criteria criteria = new Criteria();
+        criteria.setIndexKeys(indexValues);
+        criteria.setLimit(50L);
+        assertEquals(expected.size(), om.list(testUniqueTableName, criteria).size());
+
+        FileUtils.deleteRecursive(new File(keyspaceName));
+    }
 }
@@ -76,7 +76,7 @@ public class UpdateProcessorITCase extends RhombusFunctionalTest {
 					testObject,
 					i,
 					key,
-					om.getCqlGenerator_ONLY_FOR_TESTING().makeFieldAndValueList(def1, testObject), null, null);
+					om.getCqlGenerator_ONLY_FOR_TESTING().makeFieldAndValueList(def1, testObject), null, null, om.getShardIndexKeyMode());
 		}
 		for(CQLStatement s: insertStatements){
 			om.getCqlExecutor().executeSync(s);
@@ -19,6 +19,19 @@
                     "shardingStrategy": {"type": "ShardingStrategyMonthly"}
                 }
             ]
+        },
+        {
+            "name": "object2",
+            "fields": [
+                {"name": "account_id", "type": "uuid"},
+                {"name": "field1", "type": "varchar"}
+            ],
+            "indexes" : [
+                {
+                    "key": "account_id",
+                    "shardingStrategy": {"type": "ShardingStrategyAdaptive", "targetShardSize": 10}
+                }
+            ]
         }
     ]
 }